@@ -36,15 +36,22 @@ public class ConfigurationClientImpl implements ClientConfiguration {
     protected Map<Class, ConfigHandler> handlersCache = new ConcurrentHashMap<>();
     protected ConfigStorageService configStorageCache = new ConfigStorageCache();
 
+    // proxies are stateless, so one instance per interface is enough
+    protected Map<Class, Config> proxiesCache = new ConcurrentHashMap<>();
+
     @Override
     public <T extends Config> T getConfig(Class<T> configInterface) {
-        ConfigHandler handler = handlersCache.get(configInterface);
-        if (handler == null) {
-            handler = new ConfigHandler(createConfigPersister(false), configInterface);
-            handlersCache.put(configInterface, handler);
+        Config proxy = proxiesCache.get(configInterface);
+        if (proxy == null) {
+            ConfigHandler handler = handlersCache.get(configInterface);
+            if (handler == null) {
+                handler = new ConfigHandler(createConfigPersister(false), configInterface);
+                handlersCache.put(configInterface, handler);
+            }
+            ClassLoader classLoader = configInterface.getClassLoader();
+            proxy = (Config) Proxy.newProxyInstance(classLoader, new Class[]{configInterface}, handler);
+            proxiesCache.put(configInterface, proxy);
         }
-        ClassLoader classLoader = configInterface.getClassLoader();
-        Object proxy = Proxy.newProxyInstance(classLoader, new Class[]{configInterface}, handler);
         return configInterface.cast(proxy);
     }
 
@@ -24,6 +24,7 @@ import com.haulmont.cuba.core.global.*;
 import com.haulmont.cuba.core.sys.AppContext;
 import com.haulmont.cuba.core.sys.remoting.LocalFileExchangeService;
 import com.haulmont.cuba.core.sys.remoting.discovery.ServerSelector;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
@@ -34,6 +35,7 @@ import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -44,6 +46,7 @@ import javax.inject.Inject;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.function.Supplier;
 
 import static com.haulmont.bali.util.Preconditions.checkNotNullArgument;
@@ -154,6 +157,7 @@ public class FileLoaderClientImpl implements FileLoader {
 
                     int statusCode = response.getStatusLine().getStatusCode();
                     if (statusCode == HttpStatus.SC_OK) {
+                        readChecksum(fd, response);
                         break;
                     } else {
                         log.debug("Unable to upload file to {}\n{}", url, response.getStatusLine());
@@ -180,6 +184,26 @@ public class FileLoaderClientImpl implements FileLoader {
         }
     }
 
+    /**
+     * Sets the checksum computed by the middleware to the file descriptor, so it is stored when the descriptor
+     * is committed.
+     */
+    protected void readChecksum(FileDescriptor fd, HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        try {
+            String checksum = StringUtils.trimToNull(EntityUtils.toString(entity, StandardCharsets.UTF_8));
+            if (checksum != null) {
+                fd.setChecksum(checksum);
+            }
+        } catch (IOException e) {
+            // the file is saved anyway
+            log.warn("Unable to read checksum of uploaded file {}: {}", fd, e.toString());
+        }
+    }
+
     protected void saveStreamLocally(FileDescriptor fd, Supplier<InputStream> inputStream) throws FileStorageException {
         // cannot be injected since there is no implementation for Desktop
         LocalFileExchangeService localFileExchangeService = AppBeans.get(LocalFileExchangeService.NAME);
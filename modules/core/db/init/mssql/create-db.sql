@@ -47,6 +47,7 @@ create table SYS_FILE (
     EXT varchar(20),
     FILE_SIZE bigint,
     CREATE_DATE datetime,
+    CHECKSUM varchar(64),
     --
     primary key nonclustered (ID)
 )^
@@ -46,6 +46,7 @@ create table SYS_FILE (
     EXT varchar(20),
     FILE_SIZE bigint,
     CREATE_DATE datetime(3),
+    CHECKSUM varchar(64),
     --
     primary key (ID)
 )^
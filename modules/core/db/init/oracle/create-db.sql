@@ -167,6 +167,7 @@ create table SYS_FILE (
     EXT varchar2(20),
     FILE_SIZE number(19),
     CREATE_DATE timestamp,
+    CHECKSUM varchar2(64),
     primary key(ID)
 )^
 
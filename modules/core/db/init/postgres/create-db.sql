@@ -48,6 +48,7 @@ create table SYS_FILE (
     EXT varchar(20),
     FILE_SIZE bigint,
     CREATE_DATE timestamp,
+    CHECKSUM varchar(64),
     --
     primary key (ID)
 )^
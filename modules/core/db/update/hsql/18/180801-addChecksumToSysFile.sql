@@ -0,0 +1,3 @@
+-- Description: Add CHECKSUM column to SYS_FILE table
+
+alter table SYS_FILE add CHECKSUM varchar(64)^
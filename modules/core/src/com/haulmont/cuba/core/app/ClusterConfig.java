@@ -66,4 +66,33 @@ public interface ClusterConfig extends Config {
     @Property("cuba.cluster.messageSendingQueueCapacity")
     @DefaultInt(Integer.MAX_VALUE)
     int getClusterMessageSendingQueueCapacity();
+
+    /**
+     * @return whether to send messages using {@link com.haulmont.cuba.core.sys.serialization.CompactSerialization}
+     * when all cluster members have the same schema version
+     */
+    @Property("cuba.cluster.compactSerialization")
+    @DefaultBoolean(false)
+    boolean getCompactSerialization();
+
+    /**
+     * @return whether asynchronous messages are collected into batches before sending to the cluster members
+     */
+    @Property("cuba.cluster.messageBatchingEnabled")
+    @DefaultBoolean(false)
+    boolean getMessageBatchingEnabled();
+
+    /**
+     * @return time window in milliseconds during which asynchronous messages are collected into one batch
+     */
+    @Property("cuba.cluster.messageBatchWindow")
+    @DefaultInt(20)
+    int getMessageBatchWindow();
+
+    /**
+     * @return maximum number of messages in one batch
+     */
+    @Property("cuba.cluster.messageBatchMaxSize")
+    @DefaultInt(500)
+    int getMessageBatchMaxSize();
 }
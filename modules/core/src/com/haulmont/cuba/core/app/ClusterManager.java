@@ -25,6 +25,7 @@ import com.haulmont.cuba.core.global.Resources;
 import com.haulmont.cuba.core.sys.AppContext;
 import com.haulmont.cuba.core.sys.events.AppContextInitializedEvent;
 import com.haulmont.cuba.core.sys.events.AppContextStoppedEvent;
+import com.haulmont.cuba.core.sys.serialization.CompactSerialization;
 import com.haulmont.cuba.core.sys.serialization.SerializationSupport;
 import org.apache.commons.io.IOUtils;
 import org.jgroups.*;
@@ -38,14 +39,13 @@ import org.springframework.context.event.EventListener;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.management.MBeanServer;
 import java.io.*;
 import java.lang.management.ManagementFactory;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.LongAdder;
 
@@ -65,6 +65,14 @@ public class ClusterManager implements ClusterManagerAPI {
 
     protected ThreadPoolExecutor executor;
 
+    protected BlockingQueue<Serializable> batchQueue;
+
+    protected Thread batchSender;
+
+    protected int batchWindow;
+
+    protected int batchMaxSize;
+
     @Inject
     protected Resources resources;
 
@@ -78,8 +86,16 @@ public class ClusterManager implements ClusterManagerAPI {
 
     protected Map<String, MessageStat> messagesStat = new ConcurrentHashMap<>();
 
+    protected Map<Address, Integer> memberSchemaVersions = new ConcurrentHashMap<>();
+
     protected static final String STATE_MAGIC = "CUBA_STATE";
 
+    protected static final Serializable BATCH_SENDER_STOP = new Serializable() {
+        private static final long serialVersionUID = -2305093547281306532L;
+    };
+
+    protected static final int STOP_TIMEOUT_SEC = 10;
+
     public JChannel getChannel() {
         return channel;
     }
@@ -94,9 +110,35 @@ public class ClusterManager implements ClusterManagerAPI {
                     @Override
                     public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
                         SendMessageRunnable sendMessageRunnable = (SendMessageRunnable) r;
-                        log.info("Queue capacity is exceeded. Message: {}: {}", sendMessageRunnable.message.getClass(), sendMessageRunnable.message);
+                        if (executor.isShutdown()) {
+                            log.info("Executor is shut down. Message: {}: {}", sendMessageRunnable.message.getClass(), sendMessageRunnable.message);
+                            return;
+                        }
+                        log.debug("Queue capacity is exceeded, waiting for the queue. Message: {}: {}",
+                                sendMessageRunnable.message.getClass(), sendMessageRunnable.message);
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            log.info("Interrupted while waiting for the queue. Message: {}: {}",
+                                    sendMessageRunnable.message.getClass(), sendMessageRunnable.message);
+                        }
                     }
                 });
+
+        messagesStat.put(ClusterMessageBatch.class.getName(), new MessageStat());
+
+        if (clusterConfig.getMessageBatchingEnabled()) {
+            batchWindow = clusterConfig.getMessageBatchWindow();
+            batchMaxSize = clusterConfig.getMessageBatchMaxSize();
+            batchQueue = new LinkedBlockingQueue<>(clusterConfig.getClusterMessageSendingQueueCapacity());
+            batchSender = new ThreadFactoryBuilder()
+                    .setNameFormat("ClusterManagerBatchSender-%d")
+                    .setDaemon(true)
+                    .build()
+                    .newThread(this::processBatches);
+            batchSender.start();
+        }
     }
 
     @EventListener(AppContextInitializedEvent.class)
@@ -110,9 +152,38 @@ public class ClusterManager implements ClusterManagerAPI {
     @EventListener(AppContextStoppedEvent.class)
     protected void applicationStopped() {
         executor.shutdown();
+        stopBatchSender();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                log.warn("Cluster messages are still being sent after {} sec", STOP_TIMEOUT_SEC);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         stop();
     }
 
+    /**
+     * Lets the batch sender send the queued messages and waits for it to finish, so that the channel
+     * is not closed while a batch is being sent.
+     */
+    protected void stopBatchSender() {
+        if (batchSender == null)
+            return;
+
+        try {
+            if (batchQueue.offer(BATCH_SENDER_STOP, STOP_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                batchSender.join(TimeUnit.SECONDS.toMillis(STOP_TIMEOUT_SEC));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (batchSender.isAlive()) {
+            log.warn("Batch sender has not stopped in {} sec", STOP_TIMEOUT_SEC);
+            batchSender.interrupt();
+        }
+    }
+
     @Override
     public void send(final Serializable message) {
         if (channel == null)
@@ -121,6 +192,9 @@ public class ClusterManager implements ClusterManagerAPI {
         Boolean sync = forceSyncSending.get();
         if (sync != null && sync) {
             internalSend(message, true);
+        } else if (batchQueue != null) {
+            log.trace("Queueing message: {}: {} to send in batch", message.getClass(), message);
+            queueForBatch(message);
         } else {
             log.trace("Submitting message: {}: {} to send asynchronously", message.getClass(), message);
             executor.execute(new SendMessageRunnable(message));
@@ -135,19 +209,53 @@ public class ClusterManager implements ClusterManagerAPI {
         internalSend(message, true);
     }
 
+    /**
+     * Waits while the batch queue is full instead of sending the message in the caller thread,
+     * as the latter would send it ahead of the queued ones.
+     */
+    protected void queueForBatch(Serializable message) {
+        try {
+            while (!batchQueue.offer(message, 1, TimeUnit.SECONDS)) {
+                if (!batchSender.isAlive()) {
+                    log.info("Batch sender is stopped. Message: {}: {}", message.getClass(), message);
+                    return;
+                }
+                log.debug("Batch queue capacity is exceeded, waiting for the queue. Message: {}: {}",
+                        message.getClass(), message);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Interrupted while waiting for the batch queue. Message: {}: {}", message.getClass(), message);
+        }
+    }
+
     protected void internalSend(Serializable message, boolean sync) {
         StopWatch sw = new Slf4JStopWatch(String.format("sendClusterMessage(%s)", message.getClass().getSimpleName()));
         try {
-            byte[] bytes = SerializationSupport.serialize(message);
+            byte[] bytes = serializeMessage(message);
             log.debug("Sending message: {}: {} ({} bytes)", message.getClass(), message, bytes.length);
             MessageStat stat = messagesStat.get(message.getClass().getName());
             if (stat != null) {
                 stat.updateSent(bytes.length);
             }
+            if (message instanceof ClusterMessageBatch) {
+                List<Serializable> messages = ((ClusterMessageBatch) message).getMessages();
+                for (Serializable batchedMessage : messages) {
+                    MessageStat batchedStat = messagesStat.get(batchedMessage.getClass().getName());
+                    if (batchedStat != null) {
+                        batchedStat.updateSentInBatch(bytes.length / messages.size());
+                    }
+                }
+            }
             Message msg = new Message(null, null, bytes);
             if (sync) {
                 msg.setFlag(Message.Flag.RSVP);
             }
+            JChannel channel = this.channel;
+            if (channel == null) {
+                log.debug("Cluster is stopped, message is not sent: {}: {}", message.getClass(), message);
+                return;
+            }
             try {
                 channel.send(msg);
             } catch (Exception e) {
@@ -158,6 +266,111 @@ public class ClusterManager implements ClusterManagerAPI {
         }
     }
 
+    protected byte[] serializeMessage(Serializable message) {
+        if (!(message instanceof SchemaVersionMsg) && isCompactSerializationAllowed()) {
+            return SerializationSupport.getCompactSerialization().serialize(message);
+        }
+        return SerializationSupport.serialize(message);
+    }
+
+    /**
+     * Compact serialization is used only if it is enabled and all other members of the current view
+     * have announced the same schema version.
+     */
+    protected boolean isCompactSerializationAllowed() {
+        View view = currentView;
+        JChannel channel = this.channel;
+        if (!clusterConfig.getCompactSerialization() || view == null || channel == null)
+            return false;
+
+        int schemaVersion = SerializationSupport.getCompactSerialization().getSchemaVersion();
+        for (Address member : view.getMembers()) {
+            if (!member.equals(channel.getAddress())
+                    && !Objects.equals(memberSchemaVersions.get(member), schemaVersion)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected void announceSchemaVersion() {
+        int schemaVersion = SerializationSupport.getCompactSerialization().getSchemaVersion();
+        executor.execute(new SendMessageRunnable(new SchemaVersionMsg(schemaVersion)));
+    }
+
+    protected void processBatches() {
+        List<Serializable> messages = new ArrayList<>();
+        boolean stopped = false;
+        try {
+            while (!stopped) {
+                Serializable first = batchQueue.take();
+                if (first == BATCH_SENDER_STOP)
+                    break;
+                messages.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindow);
+                while (messages.size() < batchMaxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        break;
+                    Serializable message = batchQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (message == null)
+                        break;
+                    if (message == BATCH_SENDER_STOP) {
+                        stopped = true;
+                        break;
+                    }
+                    messages.add(message);
+                }
+                sendBatch(messages);
+                messages.clear();
+            }
+            log.debug("Batch sender is stopped");
+        } catch (InterruptedException e) {
+            log.warn("Batch sender is interrupted, {} messages are not sent", messages.size() + batchQueue.size());
+        }
+    }
+
+    protected void sendBatch(List<Serializable> messages) {
+        try {
+            List<Serializable> merged = mergeMessages(messages);
+            if (merged.size() == 1) {
+                internalSend(merged.get(0), false);
+            } else {
+                internalSend(new ClusterMessageBatch(merged), false);
+            }
+        } catch (Exception e) {
+            log.error("Error sending batch of {} messages", messages.size(), e);
+        }
+    }
+
+    /**
+     * Merges messages implementing {@link MergeableClusterMessage} that have equal merge keys.
+     * A merged message takes the place of the newest one.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<Serializable> mergeMessages(List<Serializable> messages) {
+        Map<Object, Serializable> result = new LinkedHashMap<>();
+        for (Serializable message : messages) {
+            Object mergeKey = message instanceof MergeableClusterMessage
+                    ? ((MergeableClusterMessage) message).getMergeKey() : null;
+            if (mergeKey == null) {
+                result.put(new Object(), message);
+                continue;
+            }
+            List<Object> key = Arrays.asList(message.getClass(), mergeKey);
+            Serializable previous = result.remove(key);
+            if (previous != null) {
+                message = ((MergeableClusterMessage) previous).merge((MergeableClusterMessage) message);
+                MessageStat stat = messagesStat.get(message.getClass().getName());
+                if (stat != null) {
+                    stat.updateMerged();
+                }
+            }
+            result.put(key, message);
+        }
+        return new ArrayList<>(result.values());
+    }
+
     @Override
     public boolean getSyncSendingForCurrentThread() {
         return forceSyncSending.get() == null ? false : forceSyncSending.get();
@@ -269,7 +482,7 @@ public class ClusterManager implements ClusterManagerAPI {
 
     @Override
     public int getMessagesCount() {
-        return executor.getQueue().size();
+        return executor.getQueue().size() + (batchQueue != null ? batchQueue.size() : 0);
     }
 
     @Override
@@ -277,6 +490,8 @@ public class ClusterManager implements ClusterManagerAPI {
         if (channel == null)
             return;
 
+        memberSchemaVersions.clear();
+
         log.info("Stopping cluster");
         unregisterJmxBeans();
         try {
@@ -311,6 +526,27 @@ public class ClusterManager implements ClusterManagerAPI {
         return currentView == null ? "" : currentView.toString();
     }
 
+    @Override
+    public List<String> getMemberNames() {
+        View view = currentView;
+        if (view == null || channel == null)
+            return Collections.emptyList();
+
+        List<String> names = new ArrayList<>(view.getMembers().size());
+        for (Address member : view.getMembers()) {
+            names.add(member.toString());
+        }
+        return names;
+    }
+
+    @Nullable
+    @Override
+    public String getCurrentMemberName() {
+        JChannel channel = this.channel;
+        Address address = channel == null ? null : channel.getAddress();
+        return address == null ? null : address.toString();
+    }
+
     @Override
     public String printSharedStateStat() {
         StringBuilder clusterStateStat = new StringBuilder();
@@ -336,9 +572,11 @@ public class ClusterManager implements ClusterManagerAPI {
             MessageStat stat = entry.getValue();
             if (stat != null) {
                 messagesStats
-                        .append(String.format("Class: %s; received: %s, %s bytes; sent: %s, %s bytes\n",
+                        .append(String.format("Class: %s; received: %s, %s bytes; sent: %s, %s bytes; " +
+                                        "sent in batches: %s, merged: %s\n",
                                 entry.getKey(), stat.getReceivedMessages(), stat.getReceivedBytes(),
-                                stat.getSentMessages(), stat.getSentBytes()));
+                                stat.getSentMessages(), stat.getSentBytes(),
+                                stat.getBatchedMessages(), stat.getMergedMessages()));
             }
         }
         return messagesStats.toString();
@@ -396,27 +634,51 @@ public class ClusterManager implements ClusterManagerAPI {
             StopWatch sw = new Slf4JStopWatch();
             String simpleClassName = null;
             try {
-                Serializable data = (Serializable) SerializationSupport.deserialize(bytes);
-                String className = data.getClass().getName();
+                Serializable data = (Serializable) (CompactSerialization.isCompact(bytes)
+                        ? SerializationSupport.getCompactSerialization().deserialize(bytes)
+                        : SerializationSupport.deserialize(bytes));
                 simpleClassName = data.getClass().getSimpleName();
                 log.debug("Received message: {}: {} ({} bytes)", data.getClass(), data, bytes.length);
-                MessageStat stat = messagesStat.get(className);
-                if (stat != null) {
-                    stat.updateReceived(bytes.length);
-                }
-                ClusterListener listener = listeners.get(className);
-                if (listener != null) {
-                    listener.receive(data);
+                if (data instanceof SchemaVersionMsg) {
+                    memberSchemaVersions.put(msg.getSrc(), ((SchemaVersionMsg) data).schemaVersion);
+                } else if (data instanceof ClusterMessageBatch) {
+                    updateReceivedStat(data, bytes.length);
+                    List<Serializable> messages = ((ClusterMessageBatch) data).getMessages();
+                    for (Serializable message : messages) {
+                        dispatch(message, bytes.length / messages.size());
+                    }
+                } else {
+                    dispatch(data, bytes.length);
                 }
             } finally {
                 sw.stop(String.format("receiveClusterMessage(%s)", simpleClassName));
             }
         }
 
+        @SuppressWarnings("unchecked")
+        protected void dispatch(Serializable data, int bytes) {
+            updateReceivedStat(data, bytes);
+            ClusterListener listener = listeners.get(data.getClass().getName());
+            if (listener != null) {
+                listener.receive(data);
+            }
+        }
+
+        protected void updateReceivedStat(Serializable data, int bytes) {
+            MessageStat stat = messagesStat.get(data.getClass().getName());
+            if (stat != null) {
+                stat.updateReceived(bytes);
+            }
+        }
+
         @Override
         public void viewAccepted(View new_view) {
             log.info("New cluster view: {}", new_view);
             currentView = new_view;
+            memberSchemaVersions.keySet().retainAll(new_view.getMembers());
+            if (clusterConfig.getCompactSerialization()) {
+                announceSchemaVersion();
+            }
         }
 
         @Override
@@ -506,6 +768,25 @@ public class ClusterManager implements ClusterManagerAPI {
         }
     }
 
+    /**
+     * Announces the schema version of {@link CompactSerialization} to other members.
+     * Always sent using the standard serialization.
+     */
+    protected static class SchemaVersionMsg implements Serializable {
+        private static final long serialVersionUID = 3385013637214567094L;
+
+        protected final int schemaVersion;
+
+        public SchemaVersionMsg(int schemaVersion) {
+            this.schemaVersion = schemaVersion;
+        }
+
+        @Override
+        public String toString() {
+            return "SchemaVersionMsg{schemaVersion=" + schemaVersion + "}";
+        }
+    }
+
     protected class SendMessageRunnable implements Runnable {
         protected Serializable message;
 
@@ -524,6 +805,8 @@ public class ClusterManager implements ClusterManagerAPI {
         protected LongAdder receivedBytes = new LongAdder();
         protected LongAdder receivedMessages = new LongAdder();
         protected LongAdder sentMessages = new LongAdder();
+        protected LongAdder batchedMessages = new LongAdder();
+        protected LongAdder mergedMessages = new LongAdder();
 
         public void updateReceived(int bytes) {
             receivedMessages.increment();
@@ -535,6 +818,23 @@ public class ClusterManager implements ClusterManagerAPI {
             sentBytes.add(bytes);
         }
 
+        public void updateSentInBatch(int bytes) {
+            updateSent(bytes);
+            batchedMessages.increment();
+        }
+
+        public void updateMerged() {
+            mergedMessages.increment();
+        }
+
+        public long getBatchedMessages() {
+            return batchedMessages.longValue();
+        }
+
+        public long getMergedMessages() {
+            return mergedMessages.longValue();
+        }
+
         public long getSentBytes() {
             return sentBytes.longValue();
         }
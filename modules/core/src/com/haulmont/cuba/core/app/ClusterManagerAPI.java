@@ -16,7 +16,9 @@
  */
 package com.haulmont.cuba.core.app;
 
+import javax.annotation.Nullable;
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * Interface defining methods for communication in a middleware cluster.
@@ -85,6 +87,20 @@ public interface ClusterManagerAPI {
      */
     String getCurrentView();
 
+    /**
+     * Return names of active nodes in the cluster. All nodes get the same list while the set of active nodes
+     * does not change.
+     *
+     * @return names of active nodes or empty list if the cluster is not started
+     */
+    List<String> getMemberNames();
+
+    /**
+     * @return name of the current node as returned by {@link #getMemberNames()} or null if the cluster is not started
+     */
+    @Nullable
+    String getCurrentMemberName();
+
     /**
      * Join a cluster.
      */
@@ -17,7 +17,6 @@
 package com.haulmont.cuba.core.app;
 
 import com.haulmont.bali.db.QueryRunner;
-import com.haulmont.bali.db.ResultSetHandler;
 import com.haulmont.bali.util.Preconditions;
 import com.haulmont.cuba.core.*;
 import com.haulmont.cuba.core.entity.Config;
@@ -25,43 +24,119 @@ import com.haulmont.cuba.core.global.AppBeans;
 import com.haulmont.cuba.core.global.Metadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.persistence.LockModeType;
 import java.io.Serializable;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Supports configuration parameters framework functionality.
- *
+ * <p>
+ * DB-stored properties are kept in an immutable snapshot which is replaced on changes, so readers never block.
+ * Each change increments the version stored in the {@link #VERSION_PROPERTY} row in the same transaction, and the
+ * changed values are sent to other cluster members together with the version. A member applies changes in the order
+ * of versions; if it misses a change, the periodic {@link #checkVersion()} notices that the stored version is ahead
+ * and reloads all properties. Changes made on the member itself are visible to it immediately, even if it waits for
+ * changes of other members.
  */
 @Component(ConfigStorageAPI.NAME)
 public class ConfigStorage implements ConfigStorageAPI {
 
+    /**
+     * Name of the SYS_CONFIG row containing the version of DB-stored properties. Not visible to clients.
+     */
+    public static final String VERSION_PROPERTY = "cuba.configStorage.version";
+
     @Inject
     protected Persistence persistence;
 
     protected ClusterManagerAPI clusterManager;
 
-    protected Map<String, String> cache;
+    protected final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+    protected final Object loadLock = new Object();
 
-    protected ReadWriteLock lock = new ReentrantReadWriteLock();
-    protected Lock readLock = lock.readLock();
-    protected Lock writeLock = lock.writeLock();
+    // version of the snapshot at the previous check, to give in-flight messages a chance to arrive
+    protected volatile long lastCheckedVersion = -1;
 
     private static final Logger log = LoggerFactory.getLogger(ConfigStorage.class);
 
+    /**
+     * Immutable state of DB-stored properties.
+     */
+    protected static class Snapshot {
+        protected final Map<String, String> properties;
+        protected final long version;
+        // changes received ahead of the missing ones, by version
+        protected final SortedMap<Long, Map<String, String>> pendingChanges;
+
+        protected Snapshot(Map<String, String> properties, long version, SortedMap<Long, Map<String, String>> pendingChanges) {
+            this.properties = Collections.unmodifiableMap(properties);
+            this.version = version;
+            this.pendingChanges = Collections.unmodifiableSortedMap(pendingChanges);
+        }
+
+        protected Snapshot apply(long changeVersion, Map<String, String> changes) {
+            return apply(changeVersion, changes, false);
+        }
+
+        /**
+         * @param immediately whether to make the changes visible even if changes of previous versions are missing.
+         *                    The changes are still kept as pending, so they are applied again after the missing ones.
+         */
+        protected Snapshot apply(long changeVersion, Map<String, String> changes, boolean immediately) {
+            if (changeVersion <= version || pendingChanges.containsKey(changeVersion)) {
+                return this;
+            }
+            SortedMap<Long, Map<String, String>> pending = new TreeMap<>(pendingChanges);
+            pending.put(changeVersion, changes);
+
+            Map<String, String> newProperties = new HashMap<>(properties);
+            long newVersion = version;
+            while (!pending.isEmpty() && pending.firstKey() == newVersion + 1) {
+                newVersion = pending.firstKey();
+                putValues(newProperties, pending.remove(newVersion));
+            }
+            if (immediately && pending.containsKey(changeVersion)) {
+                putValues(newProperties, changes);
+            }
+            return new Snapshot(newProperties, newVersion, pending);
+        }
+
+        protected static void putValues(Map<String, String> properties, Map<String, String> changes) {
+            for (Map.Entry<String, String> entry : changes.entrySet()) {
+                if (entry.getValue() != null) {
+                    properties.put(entry.getKey(), entry.getValue());
+                } else {
+                    properties.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
     private static class InvalidateCacheMsg implements Serializable {
         private static final long serialVersionUID = -3116358584797500962L;
     }
-    
+
+    private static class PropertiesChangedMsg implements Serializable {
+        private static final long serialVersionUID = 4263720573426894632L;
+
+        private final long version;
+        private final HashMap<String, String> changes;
+
+        private PropertiesChangedMsg(long version, HashMap<String, String> changes) {
+            this.version = version;
+            this.changes = changes;
+        }
+    }
+
     @Inject
     public void setClusterManager(ClusterManagerAPI clusterManager) {
         this.clusterManager = clusterManager;
@@ -71,8 +146,14 @@ public class ConfigStorage implements ConfigStorageAPI {
                 internalClearCache();
             }
         });
+        clusterManager.addListener(PropertiesChangedMsg.class, new ClusterListenerAdapter<PropertiesChangedMsg>() {
+            @Override
+            public void receive(PropertiesChangedMsg message) {
+                applyChanges(message.version, message.changes, false);
+            }
+        });
     }
-    
+
     @Override
     public void clearCache() {
         internalClearCache();
@@ -80,75 +161,132 @@ public class ConfigStorage implements ConfigStorageAPI {
     }
 
     private void internalClearCache() {
-        writeLock.lock();
-        try {
-            cache = null;
-        } finally {
-            writeLock.unlock();
-        }
+        snapshot.set(null);
     }
 
     @Override
     public Map<String, String> getDbProperties() {
-        readLock.lock();
-        try {
-            loadCache();
-            return new HashMap<>(cache);
-        } finally {
-            readLock.unlock();
-        }
+        return new HashMap<>(getSnapshot().properties);
     }
 
     @Override
     public String getDbProperty(String name) {
-        readLock.lock();
-        try {
-            loadCache();
-            return cache.get(name);
-        } finally {
-            readLock.unlock();
+        return getSnapshot().properties.get(name);
+    }
+
+    /**
+     * @return version of DB-stored properties known to this server, or -1 if they are not loaded yet
+     */
+    public long getVersion() {
+        Snapshot current = snapshot.get();
+        return current != null ? current.version : -1;
+    }
+
+    protected Snapshot getSnapshot() {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            synchronized (loadLock) {
+                current = snapshot.get();
+                if (current == null) {
+                    current = loadSnapshot();
+                    snapshot.set(current);
+                }
+            }
         }
+        return current;
     }
 
-    protected void loadCache() {
-        if (cache == null) {
-            lock.readLock().unlock();
-            lock.writeLock().lock();
-            try {
-                if (cache == null) {
-                    log.info("Loading DB-stored app properties cache");
-                    // Don't use transactions here because of loop possibility from EntityLog
-                    QueryRunner queryRunner = new QueryRunner(persistence.getDataSource());
-                    try {
-                        cache = queryRunner.query("select NAME, VALUE_ from SYS_CONFIG",
-                                new ResultSetHandler<Map<String, String>>() {
-                                    @Override
-                                    public Map<String, String> handle(ResultSet rs) throws SQLException {
-                                        HashMap<String, String> map = new HashMap<>();
-                                        while (rs.next()) {
-                                            map.put(rs.getString(1), rs.getString(2));
-                                        }
-                                        return map;
-                                    }
-                                });
-                    } catch (SQLException e) {
-                        throw new RuntimeException("Error loading DB-stored app properties cache", e);
+    protected Snapshot loadSnapshot() {
+        log.info("Loading DB-stored app properties cache");
+        // Don't use transactions here because of loop possibility from EntityLog
+        QueryRunner queryRunner = new QueryRunner(persistence.getDataSource());
+        try {
+            return queryRunner.query("select NAME, VALUE_ from SYS_CONFIG", rs -> {
+                Map<String, String> map = new HashMap<>();
+                long version = 0;
+                while (rs.next()) {
+                    if (VERSION_PROPERTY.equals(rs.getString(1))) {
+                        version = parseVersion(rs.getString(2));
+                    } else {
+                        map.put(rs.getString(1), rs.getString(2));
                     }
                 }
-            } finally {
-                lock.readLock().lock();
-                lock.writeLock().unlock();
+                return new Snapshot(map, version, new TreeMap<>());
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Error loading DB-stored app properties cache", e);
+        }
+    }
+
+    protected long parseVersion(@Nullable String value) {
+        try {
+            return value == null ? 0 : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value of {}: {}", VERSION_PROPERTY, value);
+            return 0;
+        }
+    }
+
+    /**
+     * @param local whether the changes are made by this server, such changes are visible immediately
+     */
+    protected void applyChanges(long version, Map<String, String> changes, boolean local) {
+        while (true) {
+            Snapshot current = snapshot.get();
+            if (current == null) {
+                // will be loaded on the next access
+                return;
+            }
+            Snapshot updated = current.apply(version, changes, local);
+            if (updated == current || snapshot.compareAndSet(current, updated)) {
+                if (!updated.pendingChanges.isEmpty()) {
+                    log.debug("DB-stored properties version {} received, waiting for {}", version, updated.version + 1);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compares the version of loaded properties with the version stored in the database and reloads the properties
+     * if some changes have not arrived from other cluster members. Invoked by the scheduler.
+     */
+    @Override
+    public void checkVersion() {
+        Snapshot current = snapshot.get();
+        if (current == null || !clusterManager.isStarted()) {
+            return;
+        }
+        try {
+            QueryRunner queryRunner = new QueryRunner(persistence.getDataSource());
+            long dbVersion = queryRunner.query("select VALUE_ from SYS_CONFIG where NAME = ?", VERSION_PROPERTY,
+                    rs -> rs.next() ? parseVersion(rs.getString(1)) : 0);
+            if (dbVersion > current.version && lastCheckedVersion == current.version) {
+                log.info("DB-stored properties version {} is behind the database version {}, reloading",
+                        current.version, dbVersion);
+                Snapshot loaded = loadSnapshot();
+                // keep the current snapshot if it has been updated or cleared meanwhile
+                snapshot.compareAndSet(current, loaded);
+                current = loaded;
             }
+            lastCheckedVersion = current.version;
+        } catch (Exception e) {
+            log.warn("Unable to check version of DB-stored properties: {}", e.toString());
         }
     }
 
     @Override
     public void setDbProperty(String name, String value) {
         Preconditions.checkNotNullArgument(name, "name is null");
+        if (VERSION_PROPERTY.equals(name))
+            throw new IllegalArgumentException(VERSION_PROPERTY + " cannot be changed");
+        HashMap<String, String> changes = new HashMap<>();
+        long version;
         Transaction tx = persistence.getTransaction();
         try {
             EntityManager em = persistence.getEntityManager();
-            Config instance = getConfigInstance(name);
+            version = incrementVersion();
+            Config instance = getConfigInstance(name, LockModeType.NONE);
             if (value != null) {
                 if (instance == null) {
                     Metadata metadata = AppBeans.get(Metadata.NAME);
@@ -160,22 +298,79 @@ public class ConfigStorage implements ConfigStorageAPI {
                 } else {
                     instance.setValue(value);
                 }
+                changes.put(instance.getName(), instance.getValue());
             } else {
-                if (instance != null)
+                if (instance != null) {
                     em.remove(instance);
+                    changes.put(instance.getName(), null);
+                }
+            }
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                // the transaction can be an outer one, so publish changes when it is actually committed
+                long changeVersion = version;
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        publishChanges(changeVersion, changes);
+                    }
+                });
+                tx.commit();
+                return;
             }
             tx.commit();
         } finally {
             tx.end();
         }
-        clearCache();
+        publishChanges(version, changes);
+    }
+
+    /**
+     * Increments the version of DB-stored properties in the current transaction. The version row stays locked until
+     * the transaction ends, so concurrent changes get consecutive versions in the order of commits.
+     */
+    protected long incrementVersion() {
+        Config versionInstance = getConfigInstance(VERSION_PROPERTY, LockModeType.PESSIMISTIC_WRITE);
+        if (versionInstance == null) {
+            createVersionInstance();
+            versionInstance = getConfigInstance(VERSION_PROPERTY, LockModeType.PESSIMISTIC_WRITE);
+            if (versionInstance == null)
+                throw new IllegalStateException("Unable to create " + VERSION_PROPERTY + " row");
+        }
+        long version = parseVersion(versionInstance.getValue()) + 1;
+        versionInstance.setValue(String.valueOf(version));
+        return version;
+    }
+
+    /**
+     * Inserts the {@link #VERSION_PROPERTY} row in a separate transaction. If another cluster member inserts it
+     * concurrently, the unique name constraint fails this insert, and the row of the other member is used.
+     */
+    protected void createVersionInstance() {
+        try (Transaction tx = persistence.createTransaction()) {
+            Metadata metadata = AppBeans.get(Metadata.NAME);
+
+            Config versionInstance = metadata.create(Config.class);
+            versionInstance.setName(VERSION_PROPERTY);
+            versionInstance.setValue(String.valueOf(Math.max(getVersion(), 0)));
+            persistence.getEntityManager().persist(versionInstance);
+            tx.commit();
+        } catch (RuntimeException e) {
+            log.debug("{} row has not been inserted, probably it has been inserted concurrently: {}",
+                    VERSION_PROPERTY, e.toString());
+        }
+    }
+
+    protected void publishChanges(long version, HashMap<String, String> changes) {
+        applyChanges(version, changes, true);
+        clusterManager.send(new PropertiesChangedMsg(version, changes));
     }
 
-    private Config getConfigInstance(String name) {
+    private Config getConfigInstance(String name, LockModeType lockMode) {
         EntityManager em = persistence.getEntityManager();
         TypedQuery<Config> query = em.createQuery("select c from sys$Config c where c.name = ?1", Config.class);
         query.setParameter(1, name);
         query.setView(null);
+        query.setLockMode(lockMode);
         List<Config> list = query.getResultList();
         if (list.isEmpty())
             return null;
@@ -59,4 +59,11 @@ public interface ConfigStorageAPI {
      * Clear properties cache. Invoke this method if you changed the properties directly in the database.
      */
     void clearCache();
+
+    /**
+     * INTERNAL.
+     *
+     * Reload properties if changes made on other cluster members have not been received.
+     */
+    void checkVersion();
 }
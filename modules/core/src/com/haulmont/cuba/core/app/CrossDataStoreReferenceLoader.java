@@ -16,6 +16,7 @@
 
 package com.haulmont.cuba.core.app;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.haulmont.bali.util.Preconditions;
 import com.haulmont.chile.core.model.MetaClass;
@@ -23,13 +24,18 @@ import com.haulmont.chile.core.model.MetaProperty;
 import com.haulmont.cuba.core.entity.Entity;
 import com.haulmont.cuba.core.entity.IdProxy;
 import com.haulmont.cuba.core.global.*;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.SecurityContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -56,11 +62,16 @@ public class CrossDataStoreReferenceLoader {
     @Inject
     private ServerConfig serverConfig;
 
+    // set in the threads of the executor, nested loads in these threads are not parallel to avoid waiting for themselves
+    private static final ThreadLocal<Boolean> inExecutorThread = new ThreadLocal<>();
+
     private MetaClass metaClass;
 
     private View view;
     private boolean joinTransaction;
 
+    private ExecutorService executor;
+
     public CrossDataStoreReferenceLoader(MetaClass metaClass, View view, boolean joinTransaction) {
         Preconditions.checkNotNullArgument(metaClass, "metaClass is null");
         Preconditions.checkNotNullArgument(view, "view is null");
@@ -69,6 +80,14 @@ public class CrossDataStoreReferenceLoader {
         this.joinTransaction = joinTransaction;
     }
 
+    /**
+     * Sets the executor used to load references of different data stores in parallel,
+     * see {@code cuba.crossDataStoreReferenceParallelLoading}. If not set, the references are loaded sequentially.
+     */
+    public void setExecutor(@Nullable ExecutorService executor) {
+        this.executor = executor;
+    }
+
     public Map<Class<? extends Entity>, List<CrossDataStoreProperty>> getCrossPropertiesMap() {
         Map<Class<? extends Entity>, List<CrossDataStoreProperty>> crossPropertiesMap = new HashMap<>();
         traverseView(view, crossPropertiesMap, Sets.newIdentityHashSet());
@@ -108,48 +127,59 @@ public class CrossDataStoreReferenceLoader {
         }
     }
 
+    /**
+     * Loads references to entities of other data stores for the whole object graph of the given entities.
+     * <p>
+     * Identifiers of referenced entities are collected from all cross data store properties on all levels of the
+     * view. Then each referenced entity is requested only once: references to the same entity class loaded with
+     * the same view are combined into one query, which is split into batches of
+     * {@code cuba.crossDataStoreReferenceLoadingBatchSize} identifiers. All references to an entity get the same
+     * loaded instance.
+     */
     public void processEntities(Collection<? extends Entity> entities) {
         Map<Class<? extends Entity>, List<CrossDataStoreProperty>> crossPropertiesMap = getCrossPropertiesMap();
         if (crossPropertiesMap.isEmpty())
             return;
 
-        Set<Entity> affectedEntities = getAffectedEntities(entities, crossPropertiesMap);
+        Map<CrossDataStoreProperty, Set<Entity>> affectedEntities = getAffectedEntities(entities, crossPropertiesMap);
         if (affectedEntities.isEmpty())
             return;
 
-        List<EntityCrossDataStoreProperty> entityCrossDataStorePropertyList = new ArrayList<>();
-        for (Entity affectedEntity : affectedEntities) {
-            for (CrossDataStoreProperty crossDataStoreProperty : crossPropertiesMap.get(affectedEntity.getClass())) {
-                entityCrossDataStorePropertyList.add(new EntityCrossDataStoreProperty(affectedEntity, crossDataStoreProperty));
-            }
-        }
-        if (entityCrossDataStorePropertyList.size() == 1) {
-            loadOne(entityCrossDataStorePropertyList.get(0));
-        } else {
-            entityCrossDataStorePropertyList.stream()
-                    .collect(Collectors.groupingBy(EntityCrossDataStoreProperty::getCrossProp))
-                    .forEach((ap, eapList) ->
-                            loadMany(ap, eapList.stream().map(eap -> eap.entity).collect(Collectors.toList()))
-                    );
+        Map<LoadKey, List<CrossDataStoreProperty>> loadKeys = new LinkedHashMap<>();
+        for (CrossDataStoreProperty crossProperty : affectedEntities.keySet()) {
+            loadKeys.computeIfAbsent(new LoadKey(crossProperty), k -> new ArrayList<>()).add(crossProperty);
         }
+
+        Map<LoadKey, Map<Object, Entity>> identityMap = loadReferencedEntities(loadKeys, affectedEntities);
+
+        loadKeys.forEach((loadKey, crossProperties) -> {
+            Map<Object, Entity> loaded = identityMap.get(loadKey);
+            for (CrossDataStoreProperty crossProperty : crossProperties) {
+                for (Entity entity : affectedEntities.get(crossProperty)) {
+                    // the reference is cleared if the related entity is not found
+                    Entity relatedEntity = loaded.get(entity.getValue(crossProperty.relatedPropertyName));
+                    entity.setValue(crossProperty.property.getName(), relatedEntity);
+                }
+            }
+        });
     }
 
-    private Set<Entity> getAffectedEntities(Collection<? extends Entity> entities,
+    private Map<CrossDataStoreProperty, Set<Entity>> getAffectedEntities(Collection<? extends Entity> entities,
                                             Map<Class<? extends Entity>, List<CrossDataStoreProperty>> crossPropertiesMap) {
-        Set<Entity> resultSet = new HashSet<>();
+        Map<CrossDataStoreProperty, Set<Entity>> result = new LinkedHashMap<>();
         for (Entity entity : entities) {
             metadataTools.traverseAttributesByView(view, entity, new EntityAttributeVisitor() {
                 @Override
                 public void visit(Entity entity, MetaProperty property) {
                     List<CrossDataStoreProperty> crossProperties = crossPropertiesMap.get(entity.getClass());
                     if (crossProperties != null) {
-                        crossProperties.stream()
-                                .filter(ap -> ap.property == property)
-                                .forEach(ap -> {
-                                    if (entity.getValue(ap.relatedPropertyName) != null) {
-                                        resultSet.add(entity);
-                                    }
-                                });
+                        for (CrossDataStoreProperty crossProperty : crossProperties) {
+                            if (crossProperty.property == property
+                                    && entity.getValue(crossProperty.relatedPropertyName) != null) {
+                                // different instances of the same entity must all be populated
+                                result.computeIfAbsent(crossProperty, k -> Sets.newIdentityHashSet()).add(entity);
+                            }
+                        }
                     }
                 }
 
@@ -159,63 +189,107 @@ public class CrossDataStoreReferenceLoader {
                 }
             });
         }
-        return resultSet;
+        return result;
     }
 
-    private void loadOne(EntityCrossDataStoreProperty entityCrossDataStoreProperty) {
-        Entity entity = entityCrossDataStoreProperty.entity;
-        CrossDataStoreProperty aProp = entityCrossDataStoreProperty.crossProp;
-        Object id = entity.getValue(aProp.relatedPropertyName);
-
-        LoadContext<Entity> loadContext = new LoadContext<>(aProp.property.getRange().asClass());
-        loadContext.setId(id);
-        if (aProp.viewProperty.getView() != null)
-            loadContext.setView(aProp.viewProperty.getView());
-        loadContext.setJoinTransaction(joinTransaction);
-        Entity relatedEntity = dataManager.load(loadContext);
-        entity.setValue(aProp.property.getName(), relatedEntity);
-    }
+    private Map<LoadKey, Map<Object, Entity>> loadReferencedEntities(Map<LoadKey, List<CrossDataStoreProperty>> loadKeys,
+                                                                     Map<CrossDataStoreProperty, Set<Entity>> affectedEntities) {
+        Map<String, List<LoadKey>> keysByStore = loadKeys.keySet().stream()
+                .collect(Collectors.groupingBy(k -> k.storeName, LinkedHashMap::new, Collectors.toList()));
+
+        Map<LoadKey, Map<Object, Entity>> identityMap = new ConcurrentHashMap<>();
+        Consumer<List<LoadKey>> storeLoader = keys -> {
+            for (LoadKey loadKey : keys) {
+                Set<Object> ids = new LinkedHashSet<>();
+                for (CrossDataStoreProperty crossProperty : loadKeys.get(loadKey)) {
+                    for (Entity entity : affectedEntities.get(crossProperty)) {
+                        ids.add(entity.getValue(crossProperty.relatedPropertyName));
+                    }
+                }
+                identityMap.put(loadKey, load(loadKey, new ArrayList<>(ids)));
+            }
+        };
 
-    private void loadMany(CrossDataStoreProperty crossDataStoreProperty, List<Entity> entities) {
-        int offset = 0, limit = serverConfig.getCrossDataStoreReferenceLoadingBatchSize();
-        while (true) {
-            int end = offset + limit;
-            List<Entity> batch = entities.subList(offset, Math.min(end, entities.size()));
-            loadBatch(crossDataStoreProperty, batch);
-            if (end >= entities.size())
-                break;
-            else
-                offset += limit;
+        // a joined transaction can not be used from other threads
+        if (keysByStore.size() < 2 || joinTransaction || executor == null || inExecutorThread.get() != null
+                || !serverConfig.getCrossDataStoreReferenceParallelLoading()) {
+            keysByStore.values().forEach(storeLoader);
+        } else {
+            SecurityContext securityContext = AppContext.getSecurityContext();
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (List<LoadKey> keys : keysByStore.values()) {
+                tasks.add(() -> {
+                    SecurityContext previousContext = AppContext.getSecurityContext();
+                    AppContext.setSecurityContext(securityContext);
+                    inExecutorThread.set(Boolean.TRUE);
+                    try {
+                        storeLoader.accept(keys);
+                        return null;
+                    } finally {
+                        inExecutorThread.remove();
+                        AppContext.setSecurityContext(previousContext);
+                    }
+                });
+            }
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while loading cross data store references", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new RuntimeException("Error loading cross data store references", e.getCause());
+            }
         }
+        return identityMap;
     }
 
-    private void loadBatch(CrossDataStoreProperty crossDataStoreProperty, List<Entity> entities) {
-        List<Object> idList = entities.stream()
-                .map(e -> e.getValue(crossDataStoreProperty.relatedPropertyName))
-                .filter(Objects::nonNull)
-                .distinct()
-                .collect(Collectors.toList());
+    private Map<Object, Entity> load(LoadKey loadKey, List<Object> ids) {
+        Map<Object, Entity> result = new HashMap<>();
+        if (ids.size() == 1 && !loadKey.compositeKey) {
+            LoadContext<Entity> loadContext = new LoadContext<>(loadKey.metaClass);
+            loadContext.setId(ids.get(0));
+            if (loadKey.view != null)
+                loadContext.setView(loadKey.view);
+            loadContext.setJoinTransaction(joinTransaction);
+            Entity relatedEntity = dataManager.load(loadContext);
+            if (relatedEntity != null)
+                result.put(ids.get(0), relatedEntity);
+            return result;
+        }
 
-        if (idList.isEmpty())
-            return;
+        int batchSize = Math.max(serverConfig.getCrossDataStoreReferenceLoadingBatchSize(), 1);
+        for (List<Object> batch : Lists.partition(ids, batchSize)) {
+            for (Entity entity : loadBatch(loadKey, batch)) {
+                Object id = entity.getId() instanceof IdProxy ? ((IdProxy) entity.getId()).getNN() : entity.getId();
+                result.put(id, entity);
+            }
+        }
+        log.debug("Loaded {} instances of {} for {} identifiers", result.size(), loadKey.metaClass, ids.size());
+        return result;
+    }
 
-        MetaClass cdsrMetaClass = crossDataStoreProperty.property.getRange().asClass();
+    private List<Entity> loadBatch(LoadKey loadKey, List<Object> idList) {
+        MetaClass cdsrMetaClass = loadKey.metaClass;
         LoadContext<Entity> loadContext = new LoadContext<>(cdsrMetaClass);
 
-        MetaProperty primaryKeyProperty = metadataTools.getPrimaryKeyProperty(cdsrMetaClass);
-        if (primaryKeyProperty == null || !primaryKeyProperty.getRange().isClass()) {
+        if (!loadKey.compositeKey) {
             String queryString = String.format(
-                    "select e from %s e where e.%s in :idList", cdsrMetaClass, crossDataStoreProperty.primaryKeyName);
+                    "select e from %s e where e.%s in :idList", cdsrMetaClass, loadKey.primaryKeyName);
             loadContext.setQuery(LoadContext.createQuery(queryString).setParameter("idList", idList));
         } else {
             // composite key entity
+            MetaProperty primaryKeyProperty = metadataTools.getPrimaryKeyProperty(cdsrMetaClass);
             StringBuilder sb = new StringBuilder("select e from ");
             sb.append(cdsrMetaClass).append(" e where ");
 
             MetaClass idMetaClass = primaryKeyProperty.getRange().asClass();
             for (Iterator<MetaProperty> it = idMetaClass.getProperties().iterator(); it.hasNext(); ) {
                 MetaProperty property = it.next();
-                sb.append("e.").append(crossDataStoreProperty.primaryKeyName).append(".").append(property.getName());
+                sb.append("e.").append(loadKey.primaryKeyName).append(".").append(property.getName());
                 sb.append(" in :list_").append(property.getName());
                 if (it.hasNext())
                     sb.append(" and ");
@@ -230,42 +304,50 @@ public class CrossDataStoreReferenceLoader {
             loadContext.setQuery(query);
         }
 
-        loadContext.setView(crossDataStoreProperty.viewProperty.getView());
+        if (loadKey.view != null)
+            loadContext.setView(loadKey.view);
         loadContext.setJoinTransaction(joinTransaction);
 
-        List<Entity> loadedEntities = dataManager.loadList(loadContext);
-
-        for (Entity entity : entities) {
-            Object relatedPropertyValue = entity.getValue(crossDataStoreProperty.relatedPropertyName);
-            loadedEntities.stream()
-                    .filter(e -> {
-                        Object id = e.getId() instanceof IdProxy ? ((IdProxy) e.getId()).getNN() : e.getId();
-                        return id.equals(relatedPropertyValue);
-                    })
-                    .findAny()
-                    .ifPresent(e ->
-                            entity.setValue(crossDataStoreProperty.property.getName(), e)
-                    );
-        }
+        return dataManager.loadList(loadContext);
     }
 
-    private static class EntityCrossDataStoreProperty {
-
-        private final Entity entity;
-        public final CrossDataStoreProperty crossProp;
+    /**
+     * References that can be loaded by one query: the same entity class and the same view.
+     */
+    private class LoadKey {
+
+        private final MetaClass metaClass;
+        private final View view;
+        private final String storeName;
+        private final String primaryKeyName;
+        private final boolean compositeKey;
+
+        private LoadKey(CrossDataStoreProperty crossProperty) {
+            this.metaClass = crossProperty.property.getRange().asClass();
+            this.view = crossProperty.viewProperty.getView();
+            this.storeName = metadataTools.getStoreName(metaClass);
+            this.primaryKeyName = crossProperty.primaryKeyName;
+            MetaProperty primaryKeyProperty = metadataTools.getPrimaryKeyProperty(metaClass);
+            this.compositeKey = primaryKeyProperty != null && primaryKeyProperty.getRange().isClass();
+        }
 
-        public EntityCrossDataStoreProperty(Entity entity, CrossDataStoreProperty crossDataStoreProperty) {
-            this.entity = entity;
-            this.crossProp = crossDataStoreProperty;
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LoadKey that = (LoadKey) o;
+            // views with the same name can have different properties, so compare them by identity
+            return metaClass.equals(that.metaClass) && view == that.view;
         }
 
-        public CrossDataStoreProperty getCrossProp() {
-            return crossProp;
+        @Override
+        public int hashCode() {
+            return 31 * metaClass.hashCode() + System.identityHashCode(view);
         }
 
         @Override
         public String toString() {
-            return entity + " -> " + crossProp;
+            return metaClass + "/" + view;
         }
     }
 
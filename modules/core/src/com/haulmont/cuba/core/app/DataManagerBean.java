@@ -17,6 +17,8 @@
 
 package com.haulmont.cuba.core.app;
 
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.haulmont.chile.core.model.MetaClass;
 import com.haulmont.chile.core.model.MetaProperty;
 import com.haulmont.cuba.core.entity.*;
@@ -29,8 +31,13 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Component(DataManager.NAME)
 public class DataManagerBean implements DataManager {
@@ -52,6 +59,15 @@ public class DataManagerBean implements DataManager {
     @Inject
     protected EntityLogAPI entityLog;
 
+    protected volatile ExecutorService crossDataStoreReferenceExecutor;
+
+    @PreDestroy
+    protected void shutdown() {
+        if (crossDataStoreReferenceExecutor != null) {
+            crossDataStoreReferenceExecutor.shutdownNow();
+        }
+    }
+
     @Nullable
     @Override
     public <E extends Entity> E load(LoadContext<E> context) {
@@ -83,6 +99,27 @@ public class DataManagerBean implements DataManager {
         return entities;
     }
 
+    @Override
+    public <E extends Entity> Stream<E> stream(LoadContext<E> context) {
+        MetaClass metaClass = metadata.getClassNN(context.getMetaClass());
+        String storeName = metadataTools.getStoreName(metaClass);
+        if (storeName == null) {
+            log.debug("Data store for {} is not defined, returning empty stream", metaClass);
+            return Stream.empty();
+        }
+        DataStore storage = storeFactory.get(storeName);
+        Stream<E> stream = storage.stream(context);
+        if (Stores.getAdditional().isEmpty() || context.getView() == null) {
+            return stream;
+        }
+        // read cross data store references by chunks instead of one by one
+        Iterator<List<E>> chunks = Iterators.partition(stream.iterator(), serverConfig.getDataManagerStreamFetchSize());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED), false)
+                .peek(chunk -> readCrossDataStoreReferences(chunk, context.getView(), metaClass, context.isJoinTransaction()))
+                .flatMap(List::stream)
+                .onClose(stream::close);
+    }
+
     @Override
     public long getCount(LoadContext<? extends Entity> context) {
         MetaClass metaClass = metadata.getClassNN(context.getMetaClass());
@@ -349,9 +386,27 @@ public class DataManagerBean implements DataManager {
 
         CrossDataStoreReferenceLoader crossDataStoreReferenceLoader = AppBeans.getPrototype(
                 CrossDataStoreReferenceLoader.NAME, metaClass, view, joinTransaction);
+        crossDataStoreReferenceLoader.setExecutor(getCrossDataStoreReferenceExecutor());
         crossDataStoreReferenceLoader.processEntities(entities);
     }
 
+    protected ExecutorService getCrossDataStoreReferenceExecutor() {
+        if (crossDataStoreReferenceExecutor == null) {
+            synchronized (this) {
+                if (crossDataStoreReferenceExecutor == null) {
+                    // threads are started on first use only, i.e. if the parallel loading is enabled
+                    crossDataStoreReferenceExecutor = Executors.newFixedThreadPool(
+                            Runtime.getRuntime().availableProcessors(),
+                            new ThreadFactoryBuilder()
+                                    .setNameFormat("CrossDataStoreReferenceLoader-%d")
+                                    .setDaemon(true)
+                                    .build());
+                }
+            }
+        }
+        return crossDataStoreReferenceExecutor;
+    }
+
     private static class Secure extends DataManagerBean {
 
         private DataManager dataManager;
@@ -375,6 +430,12 @@ public class DataManagerBean implements DataManager {
             return dataManager.loadList(context);
         }
 
+        @Override
+        public <E extends Entity> Stream<E> stream(LoadContext<E> context) {
+            context.setAuthorizationRequired(true);
+            return dataManager.stream(context);
+        }
+
         @Override
         public List<KeyValueEntity> loadValues(ValueLoadContext context) {
             context.setAuthorizationRequired(true);
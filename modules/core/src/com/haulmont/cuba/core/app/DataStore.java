@@ -25,6 +25,7 @@ import com.haulmont.cuba.core.global.ValueLoadContext;
 import javax.annotation.Nullable;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Interface defining methods for storing and loading entities in a persistent storage.
@@ -47,6 +48,18 @@ public interface DataStore {
      */
     <E extends Entity> List<E> loadList(LoadContext<E> context);
 
+    /**
+     * Loads collection of entity instances lazily. The returned stream holds resources of the storage
+     * and must be closed by the caller.
+     * <p>
+     * The default implementation loads the whole list by {@link #loadList(LoadContext)}, implementations should
+     * override this method to keep the memory consumption independent of the result size.
+     * @return a stream of instances
+     */
+    default <E extends Entity> Stream<E> stream(LoadContext<E> context) {
+        return loadList(context).stream();
+    }
+
     /**
      * Returns the number of entity instances for the given query passed in the {@link LoadContext}.
      * @return number of instances in the storage
@@ -18,8 +18,11 @@ package com.haulmont.cuba.core.app;
 
 import com.haulmont.cuba.core.entity.FileDescriptor;
 import com.haulmont.cuba.core.global.FileStorageException;
+import org.apache.commons.io.IOUtils;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Interface to store and load files defined by {@link FileDescriptor}s.
@@ -63,6 +66,22 @@ public interface FileStorageAPI {
      */
     InputStream openStream(FileDescriptor fileDescr) throws FileStorageException;
 
+    /**
+     * Write a file contents to the output stream.
+     * @param fileDescr             file descriptor
+     * @param outputStream          output stream, must be closed in the calling code
+     * @return                      number of bytes written
+     * @throws IllegalArgumentException if arguments are incorrect
+     * @throws FileStorageException     if something goes wrong
+     */
+    default long writeTo(FileDescriptor fileDescr, OutputStream outputStream) throws FileStorageException {
+        try (InputStream inputStream = openStream(fileDescr)) {
+            return IOUtils.copyLarge(inputStream, outputStream);
+        } catch (IOException e) {
+            throw new FileStorageException(FileStorageException.Type.IO_EXCEPTION, fileDescr.getId().toString(), e);
+        }
+    }
+
     /**
      * Load a file contents into byte array.
      * @param fileDescr             file descriptor
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.haulmont.cuba.core.app;
+
+import java.io.Serializable;
+
+/**
+ * Interface to be implemented by cluster messages that can be merged with newer messages of the same type
+ * when they are sent to the cluster in one batch.
+ *
+ * <p>Messages are merged only if they have equal {@link #getMergeKey()} results. The merged message takes the place
+ * of the newest one in the batch, so the merge operation must not depend on the order of other messages.</p>
+ *
+ * @param <T> type of message
+ */
+public interface MergeableClusterMessage<T extends MergeableClusterMessage<T>> extends Serializable {
+
+    /**
+     * @return key identifying messages that can be merged with this one, or null if the message can't be merged
+     */
+    Object getMergeKey();
+
+    /**
+     * Merges this message with a newer message that has the same merge key.
+     *
+     * @param newer message sent after this one
+     * @return message replacing both messages
+     */
+    T merge(T newer);
+}
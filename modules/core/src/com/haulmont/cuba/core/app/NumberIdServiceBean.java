@@ -31,4 +31,9 @@ public class NumberIdServiceBean implements NumberIdService {
     public Long createLongId(String entityName) {
         return worker.createLongId(entityName);
     }
+
+    @Override
+    public long[] createLongIds(String entityName, int count) {
+        return worker.createLongIds(entityName, count);
+    }
 }
\ No newline at end of file
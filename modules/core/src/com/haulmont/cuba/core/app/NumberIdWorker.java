@@ -39,10 +39,10 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Generates ids for entities with long/integer PK using database sequences.
@@ -67,12 +67,22 @@ public class NumberIdWorker implements NumberIdSequence {
     @Inject
     protected ServerConfig serverConfig;
 
-    protected Set<String> existingSequences = Collections.synchronizedSet(new HashSet<String>());
+    protected Set<String> existingSequences = ConcurrentHashMap.newKeySet();
+
+    protected ConcurrentMap<String, Object> sequenceLocks = new ConcurrentHashMap<>();
 
     @Override
     public Long createLongId(String entityName) {
+        return createLongIds(entityName, 1)[0];
+    }
+
+    /**
+     * Obtains several values of the entity sequence in one transaction.
+     */
+    @Override
+    public long[] createLongIds(String entityName, int count) {
         String sqlScript = getSequenceSupport(entityName).getNextValueSql(getSequenceName(entityName));
-        return getResult(entityName, sqlScript, 0, globalConfig.getNumberIdCacheSize());
+        return getResults(entityName, sqlScript, 0, globalConfig.getNumberIdCacheSize(), count);
     }
 
     /**
@@ -101,34 +111,44 @@ public class NumberIdWorker implements NumberIdSequence {
         return "seq_id_" + entityName.replace("$", "_");
     }
 
-    protected long getResult(String entityName, String sqlScript, long startValue, long increment) {
+    protected long[] getResults(String entityName, String sqlScript, long startValue, long increment, int count) {
         Transaction tx = persistence.getTransaction(getDataStore(entityName));
         try {
             checkSequenceExists(entityName, startValue, increment);
 
-            Object value = executeScript(entityName, sqlScript);
+            long[] results = new long[count];
+            for (int i = 0; i < count; i++) {
+                results[i] = toLong(executeScript(entityName, sqlScript));
+            }
             tx.commit();
-            if (value instanceof Long)
-                return (Long) value;
-            else if (value instanceof BigDecimal)
-                return ((BigDecimal) value).longValue();
-            else if (value instanceof String)
-                return Long.parseLong((String) value);
-            else if (value == null)
-                throw new IllegalStateException("No value returned");
-            else
-                throw new IllegalStateException("Unsupported value type: " + value.getClass());
+            return results;
         } finally {
             tx.end();
         }
     }
 
+    protected long toLong(Object value) {
+        if (value instanceof Long)
+            return (Long) value;
+        else if (value instanceof BigDecimal)
+            return ((BigDecimal) value).longValue();
+        else if (value instanceof String)
+            return Long.parseLong((String) value);
+        else if (value == null)
+            throw new IllegalStateException("No value returned");
+        else
+            throw new IllegalStateException("Unsupported value type: " + value.getClass());
+    }
+
     protected void checkSequenceExists(String entityName, long startValue, long increment) {
         String seqName = getSequenceName(entityName);
         if (existingSequences.contains(seqName))
             return;
 
-        synchronized (this) {
+        synchronized (sequenceLocks.computeIfAbsent(seqName, name -> new Object())) {
+            if (existingSequences.contains(seqName))
+                return;
+
             // Create sequence in separate transaction because it's name is cached and we want to be sure it is created
             // regardless of possible errors in the invoking code
             Transaction tx = persistence.createTransaction(getDataStore(entityName));
@@ -25,6 +25,7 @@ import com.haulmont.cuba.core.EntityManager;
 import com.haulmont.cuba.core.PersistenceSecurity;
 import com.haulmont.cuba.core.Query;
 import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.entity.IdProxy;
 import com.haulmont.cuba.core.global.*;
 import com.haulmont.cuba.core.global.queryconditions.Condition;
 import com.haulmont.cuba.core.global.queryconditions.ConditionJpqlGenerator;
@@ -52,11 +53,17 @@ public class RdbmsQueryBuilder {
 
     private static final Logger log = LoggerFactory.getLogger(RdbmsQueryBuilder.class);
 
+    protected static final Object NOT_LOADED = new Object();
+
     protected String queryString;
     protected Map<String, Object> queryParams;
     protected String[] noConversionParams;
     protected String entityName;
     protected boolean singleResult;
+    protected List<String> sortProperties = Collections.emptyList();
+    protected boolean sortDesc;
+    // the order by of the sort properties is added to the query string when it is requested
+    protected boolean orderByPending;
 
     @Inject
     protected Metadata metadata;
@@ -67,6 +74,12 @@ public class RdbmsQueryBuilder {
     @Inject
     private ConditionJpqlGenerator conditionJpqlGenerator;
 
+    @Inject
+    protected QueryTransformerFactory queryTransformerFactory;
+
+    @Inject
+    protected EntityStates entityStates;
+
     public void init(@Nullable String queryString, Condition condition, Sort sort,
                      Map<String, Object> queryParams, String[] noConversionParams,
                      @Nullable Object id, String entityName)
@@ -96,7 +109,7 @@ public class RdbmsQueryBuilder {
             qs = conditionJpqlGenerator.processQuery(qs, actualized);
         }
         if (sort != null) {
-            qs = processSort(qs, sort);
+            processSort(sort);
         }
         this.queryString = qs;
     }
@@ -134,11 +147,242 @@ public class RdbmsQueryBuilder {
         this.queryParams.put("_qr_sessionId", sessionId);
     }
 
+    /**
+     * Applies keyset pagination to the query: appends the primary key to the sort order defined in {@link #init}
+     * as a tie-breaker and, if {@code afterId} is specified, restricts the query to the rows following the given one.
+     * Since JPQL has no row value comparison, the predicate is expanded to {@code (a > :a) or (a = :a and b > :b) or ...},
+     * where the values of the last row are bound as parameters. Null values are compared according to the default
+     * null order of the database. The predicate refers to the attributes of references through the same left joins
+     * as the order by.
+     * <p>The values are taken from {@code afterEntity} if it is passed and has them loaded, otherwise they are selected
+     * by the primary key regardless of constraints and soft deletion.
+     * <p>If no sort is defined in {@link #init} and the query has its own order by, the first page keeps that order,
+     * and the next pages cannot be loaded by keyset.
+     *
+     * @param afterId     primary key of the last row of the previous page, or null for the first page
+     * @param afterEntity last row of the previous page, if available
+     * @param em          entity manager to select the values of the last row
+     * @throws IllegalStateException if {@code afterId} is specified for a query ordered by itself, or the values
+     * of the last row are not available
+     */
+    public void restrictByKeyset(@Nullable Object afterId, @Nullable Entity afterEntity, EntityManager em) {
+        MetaClass metaClass = metadata.getClassNN(entityName);
+        String pkName = metadata.getTools().getPrimaryKeyName(metaClass);
+        if (pkName == null)
+            throw new IllegalStateException(String.format("Entity %s has no primary key", entityName));
+
+        if (sortProperties.isEmpty() && QueryParserRegex.ORDER_BY_PATTERN.matcher(queryString).find()) {
+            if (afterId != null)
+                throw new IllegalStateException("Keyset pagination of a query with its own order by requires a sort to be set");
+            return;
+        }
+        orderByPending = false;
+
+        List<String> orderProperties = new ArrayList<>(sortProperties);
+        orderProperties.add(pkName);
+
+        QueryTransformer transformer = QueryTransformerFactory.createTransformer(queryString);
+        // adds left joins for the paths through references
+        transformer.replaceOrderBy(sortDesc, orderProperties.toArray(new String[0]));
+
+        if (afterId != null) {
+            Object id = afterId instanceof IdProxy ? ((IdProxy) afterId).getNN() : afterId;
+            List<Object> values = getKeysetValues(id, afterEntity, em);
+            values.add(id);
+
+            String storeName = metadata.getTools().getStoreName(metaClass);
+            boolean nullsLast = storeName != null && DbmsSpecificFactory.getDbmsFeatures(storeName).isNullsLastSorting();
+            // the default position of nulls is reversed for the descending order
+            boolean nullsAfter = sortDesc != nullsLast;
+
+            String alias = QueryTransformerFactory.createParser(queryString).getEntityAlias();
+            String operator = sortDesc ? " < " : " > ";
+            List<String> paths = new ArrayList<>(orderProperties.size());
+            for (String property : orderProperties) {
+                paths.add(getKeysetPath(alias, property, null));
+            }
+
+            queryParams = new HashMap<>(queryParams);
+            StringBuilder where = new StringBuilder();
+            for (int i = 0; i < orderProperties.size(); i++) {
+                String param = "_ks_" + i;
+                Object value = values.get(i);
+                if (value != null) {
+                    queryParams.put(param, value);
+                }
+
+                String after;
+                if (value == null) {
+                    after = nullsAfter ? null : paths.get(i) + " is not null";
+                } else {
+                    after = paths.get(i) + operator + ":" + param;
+                    if (nullsAfter) {
+                        after = "(" + after + " or " + paths.get(i) + " is null)";
+                    }
+                }
+                if (after != null) {
+                    if (where.length() > 0) {
+                        where.append(" or ");
+                    }
+                    where.append("(");
+                    for (int j = 0; j < i; j++) {
+                        where.append(values.get(j) == null
+                                ? paths.get(j) + " is null"
+                                : paths.get(j) + " = :_ks_" + j);
+                        where.append(" and ");
+                    }
+                    where.append(after).append(")");
+                }
+            }
+            // lets the database seek by the first sort attribute
+            if (orderProperties.size() > 1 && values.get(0) != null && !nullsAfter) {
+                transformer.addWhere(paths.get(0) + (sortDesc ? " <= " : " >= ") + ":_ks_0");
+            }
+            transformer.addWhere("(" + where + ")");
+        }
+
+        queryString = transformer.getResult();
+    }
+
+    /**
+     * Returns the expression of a sort property as it is written to the order by by
+     * {@link QueryTransformer#replaceOrderBy(boolean, String...)}: each reference on the path, except the first
+     * attribute, is replaced with the variable of its left join.
+     *
+     * @param joins if not null, receives the left join clauses of the path
+     */
+    protected String getOrderByPath(String alias, String property, @Nullable List<String> joins) {
+        String[] names = property.split("\\.");
+        if (names.length == 1) {
+            return alias + "." + property;
+        }
+        MetaClass metaClass = metadata.getClassNN(entityName);
+        String path = alias;
+        for (String name : names) {
+            MetaProperty metaProperty = metaClass.getPropertyNN(name);
+            path = path + "." + name;
+            if (metaProperty.getRange().isClass()) {
+                if (!metadata.getTools().isEmbedded(metaProperty)) {
+                    String joinVariable = path.replace('.', '_');
+                    if (joins != null) {
+                        joins.add("left join " + path + " " + joinVariable);
+                    }
+                    path = joinVariable;
+                }
+                metaClass = metaProperty.getRange().asClass();
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Returns the expression of a sort property to compare with a parameter. A reference is ordered by its foreign
+     * key, so it is compared by the primary key of the referenced entity.
+     */
+    protected String getKeysetPath(String alias, String property, @Nullable List<String> joins) {
+        String path = getOrderByPath(alias, property, joins);
+        MetaPropertyPath propertyPath = metadata.getClassNN(entityName).getPropertyPath(property);
+        if (propertyPath != null && propertyPath.getRange().isClass()) {
+            String pkName = metadata.getTools().getPrimaryKeyName(propertyPath.getRange().asClass());
+            path = path + "." + pkName;
+        }
+        return path;
+    }
+
+    /**
+     * Returns the values of the sort properties of the last row, from the entity if all of them are loaded in it,
+     * otherwise selected by the primary key.
+     */
+    protected List<Object> getKeysetValues(Object id, @Nullable Entity afterEntity, EntityManager em) {
+        List<Object> values = new ArrayList<>(sortProperties.size() + 1);
+        if (afterEntity != null) {
+            for (String property : sortProperties) {
+                Object value = getLoadedValue(afterEntity, property);
+                if (value == NOT_LOADED) {
+                    values = null;
+                    break;
+                }
+                if (value instanceof Entity) {
+                    value = ((Entity) value).getId();
+                }
+                values.add(value instanceof IdProxy ? ((IdProxy) value).getNN() : value);
+            }
+            if (values != null) {
+                return values;
+            }
+            values = new ArrayList<>(sortProperties.size() + 1);
+        }
+        if (sortProperties.isEmpty()) {
+            return values;
+        }
+
+        List<String> joins = new ArrayList<>();
+        List<String> paths = new ArrayList<>(sortProperties.size());
+        for (String property : sortProperties) {
+            paths.add(getKeysetPath("_ks", property, joins));
+        }
+        String pkName = metadata.getTools().getPrimaryKeyName(metadata.getClassNN(entityName));
+        String queryString = String.format("select %s from %s _ks%s where _ks.%s = :id",
+                String.join(", ", paths), entityName,
+                joins.isEmpty() ? "" : " " + String.join(" ", joins), pkName);
+
+        boolean softDeletion = em.isSoftDeletion();
+        em.setSoftDeletion(false);
+        List<?> rows;
+        try {
+            rows = em.createQuery(queryString).setParameter("id", id).getResultList();
+        } finally {
+            em.setSoftDeletion(softDeletion);
+        }
+        if (rows.isEmpty()) {
+            throw new IllegalStateException(String.format(
+                    "Cannot load the page after %s-%s: the row is not found", entityName, id));
+        }
+        Object row = rows.get(0);
+        if (paths.size() == 1) {
+            values.add(row);
+        } else {
+            values.addAll(Arrays.asList((Object[]) row));
+        }
+        return values;
+    }
+
+    protected Object getLoadedValue(Entity entity, String property) {
+        Object value = entity;
+        for (String name : property.split("\\.")) {
+            if (value == null) {
+                return null;
+            }
+            if (!(value instanceof Entity) || !entityStates.isLoaded(value, name)) {
+                return NOT_LOADED;
+            }
+            value = ((Entity) value).getValue(name);
+        }
+        return value;
+    }
+
+    protected void applyOrderBy() {
+        if (!orderByPending) {
+            return;
+        }
+        orderByPending = false;
+        boolean asc = !sortDesc;
+        List<String> orderProperties = sortProperties;
+        queryString = queryTransformerFactory.transformCached(queryString, Arrays.asList("orderBy", asc, orderProperties),
+                qs -> {
+                    QueryTransformer transformer = QueryTransformerFactory.createTransformer(qs);
+                    transformer.replaceOrderBy(!asc, orderProperties.toArray(new String[0]));
+                    return transformer.getResult();
+                });
+    }
+
     public String getQueryString() {
+        applyOrderBy();
         return queryString;
     }
 
     public Query getQuery(EntityManager em) {
+        applyOrderBy();
         Query query = em.createQuery(queryString);
 
         //we have to replace parameter names in macros because for {@link com.haulmont.cuba.core.sys.querymacro.TimeBetweenQueryMacroHandler}
@@ -147,8 +391,8 @@ public class RdbmsQueryBuilder {
 
         applyConstraints(query);
 
-        QueryParser parser = QueryTransformerFactory.createParser(queryString);
-        Set<String> paramNames = parser.getParamNames();
+        Set<String> paramNames = queryTransformerFactory.transformCached(queryString, "paramNames",
+                qs -> Collections.unmodifiableSet(QueryTransformerFactory.createParser(qs).getParamNames()));
 
         for (Map.Entry<String, Object> entry : queryParams.entrySet()) {
             String name = entry.getKey();
@@ -195,9 +439,13 @@ public class RdbmsQueryBuilder {
         return query;
     }
 
-    protected String processSort(String queryString, Sort sort) {
+    /**
+     * Resolves the sort properties. The order by is added to the query string later, so that the keyset pagination
+     * can replace it with the order including the primary key.
+     */
+    protected void processSort(Sort sort) {
         if (sort.getOrders().isEmpty()) {
-            return queryString;
+            return;
         }
         Map<Sort.Direction, List<Sort.Order>> directions = sort.getOrders().stream()
                 .collect(Collectors.groupingBy(Sort.Order::getDirection));
@@ -236,13 +484,9 @@ public class RdbmsQueryBuilder {
             }
         }
 
-        if (!allSortProperties.isEmpty()) {
-            QueryTransformer transformer = QueryTransformerFactory.createTransformer(queryString);
-            transformer.replaceOrderBy(!asc, allSortProperties.toArray(new String[0]));
-            return transformer.getResult();
-        } else {
-            return queryString;
-        }
+        sortProperties = allSortProperties;
+        sortDesc = !asc;
+        orderByPending = !allSortProperties.isEmpty();
     }
 
     protected List<String> getSortPropertiesForPersistentAttribute(MetaPropertyPath propertyPath) {
@@ -29,12 +29,14 @@ import com.haulmont.cuba.core.app.queryresults.QueryResultsManagerAPI;
 import com.haulmont.cuba.core.entity.*;
 import com.haulmont.cuba.core.global.*;
 import com.haulmont.cuba.core.sys.EntityFetcher;
+import com.haulmont.cuba.core.sys.QueryImpl;
 import com.haulmont.cuba.core.sys.persistence.EntityChangedEventManager;
 import com.haulmont.cuba.security.entity.ConstraintOperationType;
 import com.haulmont.cuba.security.entity.EntityAttrAccess;
 import com.haulmont.cuba.security.entity.EntityOp;
 import com.haulmont.cuba.security.entity.PermissionType;
 import org.apache.commons.lang3.StringUtils;
+import org.eclipse.persistence.queries.Cursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Scope;
@@ -46,6 +48,8 @@ import javax.persistence.NoResultException;
 import java.util.*;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * INTERNAL.
@@ -257,6 +261,60 @@ public class RdbmsStore implements DataStore {
         return resultList;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E extends Entity> Stream<E> stream(LoadContext<E> context) {
+        if (log.isDebugEnabled())
+            log.debug("stream: metaClass=" + context.getMetaClass() + ", view=" + context.getView()
+                    + ", query=" + (context.getQuery() == null ? null : RdbmsQueryBuilder.printQuery(context.getQuery().getQueryString())));
+
+        MetaClass metaClass = metadata.getClassNN(context.getMetaClass());
+
+        if (isAuthorizationRequired(context) && !isEntityOpPermitted(metaClass, EntityOp.READ)) {
+            log.debug("reading of {} not permitted, returning empty stream", metaClass);
+            return Stream.empty();
+        }
+
+        queryResultsManager.savePreviousQueryResults(context);
+
+        // the transaction is bound to the current thread and stays open until the stream is closed
+        Transaction tx = getLoadTransaction(context.isJoinTransaction());
+        try {
+            EntityManager em = persistence.getEntityManager(storeName);
+            em.setSoftDeletion(context.isSoftDeletion());
+            persistence.getEntityManagerContext(storeName).setDbHints(context.getDbHints());
+
+            if (context.isJoinTransaction()) {
+                // make pending changes of the joined transaction visible to the query, as loadList() does
+                em.flush();
+            }
+
+            View view = createRestrictedView(context);
+            Query query = createQuery(em, context, false);
+            query.setView(view);
+
+            int fetchSize = serverConfig.getDataManagerStreamFetchSize();
+            Iterator<?> rows;
+            Cursor cursor;
+            if (context.getQuery() != null && context.getQuery().isCacheable()) {
+                // the result can be taken from the query cache, where it is kept in memory anyway
+                rows = query.getResultList().iterator();
+                cursor = null;
+            } else {
+                cursor = ((QueryImpl) query).getResultCursor(fetchSize);
+                rows = cursor;
+            }
+
+            StreamIterator<E> iterator = new StreamIterator<>(context, em, view, rows, fetchSize);
+            return StreamSupport.stream(
+                    Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .onClose(() -> closeStream(cursor, tx));
+        } catch (RuntimeException e) {
+            tx.close();
+            throw e;
+        }
+    }
+
     @Override
     public long getCount(LoadContext<? extends Entity> context) {
         if (log.isDebugEnabled())
@@ -280,6 +338,8 @@ public class RdbmsStore implements DataStore {
         if (StringUtils.isBlank(context.getQuery().getQueryString())) {
             context.getQuery().setQueryString("select e from " + metaClass.getName() + " e");
         }
+        // keyset pagination restricts only the loaded page, not the total count
+        context.getQuery().setKeysetPagination(false).setAfterId(null);
 
         if (security.hasInMemoryConstraints(metaClass, ConstraintOperationType.READ, ConstraintOperationType.ALL)) {
             List resultList;
@@ -631,6 +691,9 @@ public class RdbmsStore implements DataStore {
             log.debug("Restrict query by previous results");
             queryBuilder.restrictByPreviousResults(userSessionSource.getUserSession().getId(), context.getQueryKey());
         }
+        if (contextQuery != null && contextQuery.isKeysetPagination() && !singleResult) {
+            queryBuilder.restrictByKeyset(contextQuery.getAfterId(), contextQuery.getAfterEntity(), em);
+        }
         Query query = queryBuilder.getQuery(em);
 
         if (contextQuery != null) {
@@ -1004,6 +1067,55 @@ public class RdbmsStore implements DataStore {
         return classes;
     }
 
+    @SuppressWarnings("unchecked")
+    protected <E extends Entity> void processStreamChunk(LoadContext<E> context, EntityManager em, View view, List<E> chunk) {
+        for (E entity : chunk) {
+            entityFetcher.fetch(entity, view);
+        }
+
+        if (needToFilterByInMemoryReadConstraints(context)) {
+            security.filterByConstraints((Collection<Entity>) chunk);
+        }
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        if (chunk.get(0) instanceof BaseGenericIdEntity && context.isLoadDynamicAttributes()) {
+            dynamicAttributesManagerAPI.fetchDynamicAttributes((List<BaseGenericIdEntity>) chunk,
+                    collectEntityClassesWithDynamicAttributes(context.getView()));
+        }
+
+        boolean needToApplyInMemoryReadConstraints = needToApplyInMemoryReadConstraints(context);
+        if (needToApplyInMemoryReadConstraints) {
+            security.calculateFilteredData((Collection<Entity>) chunk);
+        }
+
+        attributeSecurity.onLoad(chunk, view);
+
+        for (E entity : chunk) {
+            detachEntity(em, entity, view);
+        }
+
+        if (needToApplyInMemoryReadConstraints) {
+            security.applyConstraints((Collection<Entity>) chunk);
+        }
+
+        if (context.isAuthorizationRequired()) {
+            attributeSecurity.afterLoad(chunk);
+        }
+    }
+
+    protected void closeStream(@Nullable Cursor cursor, Transaction tx) {
+        try {
+            if (cursor != null) {
+                cursor.close();
+            }
+            tx.commit();
+        } finally {
+            tx.close();
+        }
+    }
+
     protected Transaction getLoadTransaction(boolean useCurrentTransaction) {
         TransactionParams txParams = new TransactionParams();
         if (serverConfig.getUseReadOnlyTransactionForLoad()) {
@@ -1039,4 +1151,60 @@ public class RdbmsStore implements DataStore {
             }
         });
     }
+
+    /**
+     * Reads a database cursor by chunks of the fetch size, processing each chunk as {@link #loadList(LoadContext)}
+     * processes the whole result and releasing the read rows from the cursor.
+     */
+    protected class StreamIterator<E extends Entity> implements Iterator<E> {
+
+        protected final LoadContext<E> context;
+        protected final EntityManager em;
+        protected final View view;
+        protected final Iterator<?> rows;
+        protected final int fetchSize;
+
+        protected Iterator<E> chunk = Collections.emptyIterator();
+
+        public StreamIterator(LoadContext<E> context, EntityManager em, View view, Iterator<?> rows, int fetchSize) {
+            this.context = context;
+            this.em = em;
+            this.view = view;
+            this.rows = rows;
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!chunk.hasNext()) {
+                if ((rows instanceof Cursor && ((Cursor) rows).isClosed()) || !rows.hasNext()) {
+                    return false;
+                }
+                chunk = readChunk().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return chunk.next();
+        }
+
+        @SuppressWarnings("unchecked")
+        protected List<E> readChunk() {
+            List<E> list = new ArrayList<>(fetchSize);
+            while (list.size() < fetchSize && rows.hasNext()) {
+                list.add((E) rows.next());
+            }
+            if (rows instanceof Cursor) {
+                // release rows already read, so the memory consumption does not grow with the result size
+                ((Cursor) rows).clear();
+            }
+            processStreamChunk(context, em, view, list);
+            return list;
+        }
+    }
 }
@@ -157,6 +157,15 @@ public interface ServerConfig extends Config {
     int getSchedulingThreadPoolSize();
     void setSchedulingThreadPoolSize(int value);
 
+    /**
+     * @return whether to write the execution history of tasks that are neither singleton nor fixed-delay in batches
+     * on each processing of scheduled tasks instead of writing each start and finish in a separate transaction.
+     * Executions not written yet are lost if the server is terminated abnormally.
+     */
+    @Property("cuba.schedulingBatchExecutionHistory")
+    @DefaultBoolean(true)
+    boolean getSchedulingBatchExecutionHistory();
+
     /**
      * @return Tells DataService to ensure distinct results by processing them in memory, instead of issue
      * 'select distinct' to the database.
@@ -270,6 +279,45 @@ public interface ServerConfig extends Config {
     @DefaultInt(50)
     int getCrossDataStoreReferenceLoadingBatchSize();
 
+    /**
+     * @return whether to load references to entities of different data stores in parallel threads,
+     * one thread per data store. Not used if the loading joins the current transaction.
+     */
+    @Property("cuba.crossDataStoreReferenceParallelLoading")
+    @DefaultBoolean(false)
+    boolean getCrossDataStoreReferenceParallelLoading();
+
+    /**
+     * @return number of rows fetched from the database cursor at once and processed as one chunk
+     * by {@code DataManager.stream()}
+     */
+    @Property("cuba.dataManagerStreamFetchSize")
+    @Source(type = SourceType.DATABASE)
+    @DefaultInt(500)
+    int getDataManagerStreamFetchSize();
+
+    /**
+     * @return whether to save results of the previous query for "search in results" by a single
+     * INSERT ... SELECT statement on the database side instead of loading identifiers to the middleware
+     */
+    @Property("cuba.queryResultsInsertSelect")
+    @DefaultBoolean(true)
+    boolean getQueryResultsInsertSelect();
+
+    /**
+     * @return whether to insert identifiers passed from the client to SYS_QUERY_RESULT by COPY on PostgreSQL
+     */
+    @Property("cuba.queryResultsCopy")
+    @DefaultBoolean(true)
+    boolean getQueryResultsCopy();
+
+    /**
+     * @return whether to delete query results of a user session asynchronously when the user logs out
+     */
+    @Property("cuba.queryResultsAsyncCleanup")
+    @DefaultBoolean(true)
+    boolean getQueryResultsAsyncCleanup();
+
     /**
      * @return use read-only transactions in {@code DataManager} load operations and do not commit them
      */
@@ -301,4 +349,20 @@ public interface ServerConfig extends Config {
     @Property("cuba.enableDeleteStatementInSoftDeleteMode")
     @DefaultBoolean(false)
     boolean getEnableDeleteStatementInSoftDeleteMode();
-}
\ No newline at end of file
+
+    /**
+     * @return maximum number of fetch plans calculated from views and kept in memory by {@code FetchGroupManager}.
+     * 0 disables the cache.
+     */
+    @Property("cuba.fetchPlanCacheSize")
+    @DefaultInt(1000)
+    int getFetchPlanCacheSize();
+
+    /**
+     * @return number of entities imported and committed in one transaction when entities are imported from a stream
+     * by {@code EntityImportExportAPI}
+     */
+    @Property("cuba.entityImportChunkSize")
+    @DefaultInt(500)
+    int getEntityImportChunkSize();
+}
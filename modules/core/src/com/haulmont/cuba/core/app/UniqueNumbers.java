@@ -22,6 +22,8 @@ import com.haulmont.cuba.core.Persistence;
 import com.haulmont.cuba.core.Query;
 import com.haulmont.cuba.core.Transaction;
 import com.haulmont.cuba.core.global.Stores;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.NumberBlockGenerator;
 import com.haulmont.cuba.core.sys.persistence.DbmsSpecificFactory;
 import com.haulmont.cuba.core.sys.persistence.SequenceSupport;
 import org.apache.commons.lang3.StringUtils;
@@ -40,12 +42,17 @@ import java.sql.SQLException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
 /**
  * Provides unique numbers based on database sequences.
+ * <p>
+ * Numbers of a domain can be handed out from blocks cached in memory if the domain allows gaps in numbering, see
+ * {@link #getBlockSize(String)}.
  */
 @Component(UniqueNumbersAPI.NAME)
 public class UniqueNumbers implements UniqueNumbersAPI {
@@ -58,10 +65,22 @@ public class UniqueNumbers implements UniqueNumbersAPI {
     @GuardedBy("lock")
     protected Set<String> existingSequences = new HashSet<>();
 
+    protected ConcurrentMap<String, NumberBlockGenerator> blockGenerators = new ConcurrentHashMap<>();
+
     public static final Pattern SEQ_PATTERN = Pattern.compile("[a-zA-Z0-9_]+");
 
     @Override
     public long getNextNumber(String domain) {
+        int blockSize = getBlockSize(domain);
+        if (blockSize > 1) {
+            NumberBlockGenerator generator = blockGenerators.computeIfAbsent(domain,
+                    d -> new NumberBlockGenerator(count -> new long[]{getNextNumberFromDb(d)}, blockSize, 1, null));
+            return generator.getNext();
+        }
+        return getNextNumberFromDb(domain);
+    }
+
+    protected long getNextNumberFromDb(String domain) {
         String sqlScript = getSequenceSupport(domain).getNextValueSql(getSequenceName(domain));
         try {
             lock.readLock().lock();
@@ -73,6 +92,13 @@ public class UniqueNumbers implements UniqueNumbersAPI {
 
     @Override
     public long getCurrentNumber(String domain) {
+        NumberBlockGenerator generator = blockGenerators.get(domain);
+        if (generator != null) {
+            Long last = generator.getLast();
+            if (last != null)
+                return last;
+        }
+
         String sqlScript = getSequenceSupport(domain).getCurrentValueSql(getSequenceName(domain));
         try {
             lock.readLock().lock();
@@ -92,6 +118,7 @@ public class UniqueNumbers implements UniqueNumbersAPI {
             checkSequenceExists(domain);
             executeScript(domain, sqlScript);
             tx.commit();
+            blockGenerators.remove(domain);
         } finally {
             lock.readLock().unlock();
             tx.end();
@@ -119,6 +146,7 @@ public class UniqueNumbers implements UniqueNumbersAPI {
             executeScript(domain, sqlScript);
             tx.commit();
             existingSequences.remove(seqName);
+            blockGenerators.remove(domain);
         } finally {
             lock.writeLock().unlock();
             tx.end();
@@ -135,6 +163,22 @@ public class UniqueNumbers implements UniqueNumbersAPI {
         return Stores.MAIN;
     }
 
+    /**
+     * Override this method or set the {@code cuba.uniqueNumbersBlockSize.<domain>} application property to hand out
+     * numbers of a domain from blocks cached in memory. Numbers not used before the application is stopped are lost,
+     * so the domain must allow gaps in numbering.
+     * <p>
+     * Such a domain uses a separate sequence incremented by the block size. When it is created, it continues numbering
+     * of the existing domain sequence. The block size must not be changed after that.
+     *
+     * @param domain    sequence identifier passed to the interface methods
+     * @return          number of values obtained from the database at once (by default, 1 - no caching)
+     */
+    protected int getBlockSize(String domain) {
+        String value = AppContext.getProperty("cuba.uniqueNumbersBlockSize." + domain);
+        return StringUtils.isNotBlank(value) ? Integer.parseInt(value.trim()) : 1;
+    }
+
     protected SequenceSupport getSequenceSupport(String domain) {
         return DbmsSpecificFactory.getSequenceSupport(getDataStore(domain));
     }
@@ -146,23 +190,27 @@ public class UniqueNumbers implements UniqueNumbersAPI {
 
             Object value = executeScript(domain, sqlScript);
             tx.commit();
-            if (value instanceof Long)
-                return (Long) value;
-            else if (value instanceof BigDecimal)
-                return ((BigDecimal) value).longValue();
-            else if (value instanceof BigInteger)
-                return ((BigInteger) value).longValue();
-            else if (value instanceof String)
-                return Long.parseLong((String) value);
-            else if (value == null)
-                throw new IllegalStateException("No value returned");
-            else
-                throw new IllegalStateException("Unsupported value type: " + value.getClass());
+            return toLong(value);
         } finally {
             tx.end();
         }
     }
 
+    protected long toLong(Object value) {
+        if (value instanceof Long)
+            return (Long) value;
+        else if (value instanceof BigDecimal)
+            return ((BigDecimal) value).longValue();
+        else if (value instanceof BigInteger)
+            return ((BigInteger) value).longValue();
+        else if (value instanceof String)
+            return Long.parseLong((String) value);
+        else if (value == null)
+            throw new IllegalStateException("No value returned");
+        else
+            throw new IllegalStateException("Unsupported value type: " + value.getClass());
+    }
+
     protected Object executeScript(String domain, String sqlScript) {
         EntityManager em = persistence.getEntityManager(getDataStore(domain));
         StrTokenizer tokenizer = new StrTokenizer(sqlScript, SequenceSupport.SQL_DELIMITER);
@@ -205,7 +253,9 @@ public class UniqueNumbers implements UniqueNumbersAPI {
             Query query = em.createNativeQuery(getSequenceSupport(domain).sequenceExistsSql(seqName));
             List list = query.getResultList();
             if (list.isEmpty()) {
-                query = em.createNativeQuery(getSequenceSupport(domain).createSequenceSql(seqName, 1, 1));
+                int blockSize = getBlockSize(domain);
+                long startValue = blockSize > 1 ? getBlockSequenceStartValue(domain) : 1;
+                query = em.createNativeQuery(getSequenceSupport(domain).createSequenceSql(seqName, startValue, blockSize));
                 query.executeUpdate();
             }
             tx.commit();
@@ -217,6 +267,16 @@ public class UniqueNumbers implements UniqueNumbersAPI {
         }
     }
 
+    protected long getBlockSequenceStartValue(String domain) {
+        EntityManager em = persistence.getEntityManager(getDataStore(domain));
+        SequenceSupport sequenceSupport = getSequenceSupport(domain);
+        String seqName = "seq_un_" + domain;
+        List list = em.createNativeQuery(sequenceSupport.sequenceExistsSql(seqName)).getResultList();
+        if (list.isEmpty())
+            return 1;
+        return toLong(executeScript(domain, sequenceSupport.getNextValueSql(seqName))) + 1;
+    }
+
     protected boolean containsSequence(String name) {
         try {
             lock.readLock().lock();
@@ -232,6 +292,6 @@ public class UniqueNumbers implements UniqueNumbersAPI {
         if (!SEQ_PATTERN.matcher(domain).matches())
             throw new IllegalArgumentException("Invalid sequence name: '" + domain + "'. It can contain only alphanumeric characters and underscores");
 
-        return "seq_un_" + domain;
+        return getBlockSize(domain) > 1 ? "seq_unb_" + domain : "seq_un_" + domain;
     }
 }
\ No newline at end of file
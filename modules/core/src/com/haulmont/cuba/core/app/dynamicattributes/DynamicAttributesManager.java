@@ -18,6 +18,8 @@
 package com.haulmont.cuba.core.app.dynamicattributes;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.haulmont.chile.core.model.MetaClass;
 import com.haulmont.chile.core.model.MetaProperty;
@@ -72,6 +74,13 @@ public class DynamicAttributesManager implements DynamicAttributesManagerAPI {
 
     protected volatile DynamicAttributesCache dynamicAttributesCache;
 
+    // hooks of the fetching by entity types and batches, still invoked if a subclass overrides them
+    protected final boolean fetchByTypeOverridden =
+            isOverridden("doFetchDynamicAttributes", MetaClass.class, Collection.class);
+    protected final boolean fetchByBatchOverridden =
+            isOverridden("handleAttributeValuesForIds", MetaClass.class, List.class, Multimap.class)
+                    || isOverridden("loadAttributeValues", MetaClass.class, List.class);
+
     @Inject
     public void setClusterManager(ClusterManagerAPI clusterManager) {
         this.clusterManager = clusterManager;
@@ -222,10 +231,18 @@ public class DynamicAttributesManager implements DynamicAttributesManagerAPI {
         try (Transaction tx = persistence.getTransaction()) {
             Multimap<String, BaseGenericIdEntity> entitiesByType = HashMultimap.create();
             toProcess.forEach(e -> entitiesByType.put(e.getMetaClass().getName(), e));
+            // entity values for all types are loaded together after attribute values of all types
+            List<CategoryAttributeValue> loadedValues = new ArrayList<>();
             entitiesByType.keySet().forEach(entityType -> {
                 MetaClass metaClass = metadata.getExtendedEntities().getOriginalOrThisMetaClass(metadata.getClass(entityType));
-                doFetchDynamicAttributes(metaClass, entitiesByType.get(entityType));
+                if (fetchByTypeOverridden) {
+                    doFetchDynamicAttributes(metaClass, entitiesByType.get(entityType));
+                } else {
+                    doFetchDynamicAttributes(metaClass, entitiesByType.get(entityType), loadedValues);
+                }
             });
+            loadEntityValues(getCavsOfEntityType(loadedValues));
+            fillCollectionValues(loadedValues);
             tx.commit();
         }
     }
@@ -319,7 +336,28 @@ public class DynamicAttributesManager implements DynamicAttributesManagerAPI {
         });
     }
 
+    /**
+     * Sets attribute values to the given entities, including entity and collection values.
+     * <p>{@link #fetchDynamicAttributes(List, Set)} invokes this method for each entity type only if it is
+     * overridden. Otherwise it loads attribute values of all entity types first and then resolves entity values for
+     * all of them together.
+     *
+     * @deprecated override {@link #doFetchDynamicAttributes(MetaClass, Collection, List)} instead
+     */
+    @Deprecated
     protected void doFetchDynamicAttributes(MetaClass metaClass, Collection<BaseGenericIdEntity> entities) {
+        List<CategoryAttributeValue> loadedValues = new ArrayList<>();
+        doFetchDynamicAttributes(metaClass, entities, loadedValues);
+        loadEntityValues(getCavsOfEntityType(loadedValues));
+        fillCollectionValues(loadedValues);
+    }
+
+    /**
+     * Sets attribute values to the given entities. Entity values and collection values are not filled: the loaded
+     * attribute values are added to {@code loadedValues} to be processed later.
+     */
+    protected void doFetchDynamicAttributes(MetaClass metaClass, Collection<BaseGenericIdEntity> entities,
+                                            List<CategoryAttributeValue> loadedValues) {
         Collection<CategoryAttribute> categoryAttributes = getAttributesForMetaClass(metaClass);
         if (categoryAttributes == null || categoryAttributes.isEmpty()) {
             for (BaseGenericIdEntity entity : entities) {
@@ -341,17 +379,23 @@ public class DynamicAttributesManager implements DynamicAttributesManagerAPI {
                 .map(e -> referenceToEntitySupport.getReferenceId(e))
                 .collect(Collectors.toList());
 
-        Multimap<Object, CategoryAttributeValue> allAttributeValues = HashMultimap.create();
+        boolean hasCollections = categoryAttributes.stream()
+                .anyMatch(attribute -> BooleanUtils.isTrue(attribute.getIsCollection()));
 
-        List<Object> currentIds = new ArrayList<>();
-        for (Object id : ids) {
-            currentIds.add(id);
-            if (currentIds.size() >= MAX_ENTITIES_FOR_ATTRIBUTE_VALUES_BATCH) {
-                handleAttributeValuesForIds(metaClass, currentIds, allAttributeValues);
-                currentIds = new ArrayList<>();
+        Multimap<Object, CategoryAttributeValue> allAttributeValues = HashMultimap.create();
+        if (fetchByBatchOverridden) {
+            // the overridden hooks fill entity and collection values of each batch themselves
+            for (List<Object> currentIds : Lists.partition(ids, MAX_ENTITIES_FOR_ATTRIBUTE_VALUES_BATCH)) {
+                handleAttributeValuesForIds(metaClass, new ArrayList<>(currentIds), allAttributeValues);
+            }
+        } else {
+            for (List<Object> currentIds : Lists.partition(ids, MAX_ENTITIES_FOR_ATTRIBUTE_VALUES_BATCH)) {
+                for (CategoryAttributeValue attributeValue : queryAttributeValues(metaClass, currentIds, hasCollections)) {
+                    allAttributeValues.put(attributeValue.getObjectEntityId(), attributeValue);
+                }
             }
+            loadedValues.addAll(allAttributeValues.values());
         }
-        handleAttributeValuesForIds(metaClass, currentIds, allAttributeValues);
 
         for (BaseGenericIdEntity entity : entities) {
             Collection<CategoryAttributeValue> entityAttributeValues = allAttributeValues.get(referenceToEntitySupport.getReferenceId(entity));
@@ -368,6 +412,15 @@ public class DynamicAttributesManager implements DynamicAttributesManagerAPI {
         }
     }
 
+    /**
+     * Loads attribute values of a batch of entities.
+     * <p>{@link #doFetchDynamicAttributes(MetaClass, Collection, List)} invokes this method for each batch only if
+     * this method or {@link #loadAttributeValues(MetaClass, List)} is overridden. Otherwise it queries each batch by
+     * {@link #queryAttributeValues(MetaClass, List, boolean)} and resolves entity values after all batches are loaded.
+     *
+     * @deprecated override {@link #queryAttributeValues(MetaClass, List, boolean)} instead
+     */
+    @Deprecated
     protected void handleAttributeValuesForIds(MetaClass metaClass, List<Object> currentIds, Multimap<Object, CategoryAttributeValue> attributeValuesForEntity) {
         if (CollectionUtils.isNotEmpty(currentIds)) {
             for (CategoryAttributeValue attributeValue : loadAttributeValues(metaClass, currentIds)) {
@@ -376,78 +429,110 @@ public class DynamicAttributesManager implements DynamicAttributesManagerAPI {
         }
     }
 
+    /**
+     * Loads attribute values of a batch of entities with their entity and collection values. Invoked by
+     * {@link #handleAttributeValuesForIds(MetaClass, List, Multimap)}.
+     *
+     * @deprecated loads entity values for each batch separately. Override
+     * {@link #queryAttributeValues(MetaClass, List, boolean)}, {@link #loadEntityValues(List)}
+     * or {@link #fillCollectionValues(Collection)} instead.
+     */
+    @Deprecated
     protected List<CategoryAttributeValue> loadAttributeValues(MetaClass metaClass, List<Object> entityIds) {
-        List<CategoryAttributeValue> attributeValues = new ArrayList<>();
+        List<CategoryAttributeValue> attributeValues;
         try (Transaction tx = persistence.getTransaction()) {
-            EntityManager em = persistence.getEntityManager();
-
-            View view = new View(viewRepository.getView(CategoryAttributeValue.class, View.LOCAL), null, false)
-                    .addProperty("categoryAttribute", new View(viewRepository.getView(CategoryAttribute.class, View.LOCAL), null, false)
-                            .addProperty("category")
-                            .addProperty("defaultEntity", viewRepository.getView(ReferenceToEntity.class, View.LOCAL)));
-
-            TypedQuery<CategoryAttributeValue> query;
-            if (HasUuid.class.isAssignableFrom(metaClass.getJavaClass())) {
-                query = em.createQuery(format("select cav from sys$CategoryAttributeValue cav where cav.entity.%s in :ids and cav.parent is null",
-                        referenceToEntitySupport.getReferenceIdPropertyName(metaClass)),
-                        CategoryAttributeValue.class);
-            } else {
-                query = em.createQuery(format("select cav from sys$CategoryAttributeValue cav where cav.entity.%s in :ids " +
-                                "and cav.categoryAttribute.categoryEntityType = :entityType and cav.parent is null",
-                        referenceToEntitySupport.getReferenceIdPropertyName(metaClass)),
-                        CategoryAttributeValue.class);
-                query.setParameter("entityType", metaClass.getName());
-            }
-            query.setParameter("ids", entityIds);
-            query.setView(view);
-            List<CategoryAttributeValue> resultList = query.getResultList();
-
-            List<CategoryAttributeValue> cavsOfEntityType = resultList.stream()
-                    .filter(cav -> cav.getObjectEntityValueId() != null)
-                    .collect(Collectors.toList());
-
-            List<CategoryAttributeValue> cavsOfCollectionType = resultList.stream()
-                    .filter(cav -> cav.getCategoryAttribute().getIsCollection())
-                    .collect(Collectors.toList());
-
-            if (cavsOfCollectionType.isEmpty()) {
-                loadEntityValues(cavsOfEntityType);
-                attributeValues.addAll(resultList);
-            } else {
-                List<CategoryAttributeValue> cavsOfCollectionTypeWithChildren = reloadCategoryAttributeValuesWithChildren(cavsOfCollectionType);
-
-                //add nested collection values to the cavsOfEntityType collection, because this collection will later be
-                //used for loading entity values
-                cavsOfCollectionTypeWithChildren.stream()
-                        .filter(cav -> cav.getCategoryAttribute().getDataType() == PropertyType.ENTITY && cav.getChildValues() != null)
-                        .forEach(cav -> cavsOfEntityType.addAll(cav.getChildValues()));
-
-                loadEntityValues(cavsOfEntityType);
-
-                cavsOfCollectionTypeWithChildren.stream()
-                        .filter(cav -> cav.getChildValues() != null)
-                        .forEach(cav -> {
-                            List<Object> value = cav.getChildValues().stream()
-                                    .map(CategoryAttributeValue::getValue)
-                                    .collect(Collectors.toList());
-                            cav.setTransientCollectionValue(value);
-                        });
-
-                attributeValues.addAll(resultList.stream()
-                        .filter(cav -> !cavsOfCollectionTypeWithChildren.contains(cav))
-                        .collect(Collectors.toList()));
-
-                attributeValues.addAll(cavsOfCollectionTypeWithChildren);
-            }
+            attributeValues = queryAttributeValues(metaClass, entityIds, true);
+
+            List<CategoryAttributeValue> cavsOfEntityType = getCavsOfEntityType(attributeValues);
+            loadEntityValues(cavsOfEntityType);
+            fillCollectionValues(attributeValues);
 
             tx.commit();
         }
         return attributeValues;
     }
 
+    /**
+     * Loads root attribute values of the given entities by one query. Child values of collection attributes
+     * are fetched with the same view if {@code withChildValues} is true.
+     */
+    protected List<CategoryAttributeValue> queryAttributeValues(MetaClass metaClass, List<Object> entityIds,
+                                                                boolean withChildValues) {
+        EntityManager em = persistence.getEntityManager();
+
+        View categoryAttributeValueLocalView = viewRepository.getView(CategoryAttributeValue.class, View.LOCAL);
+        View view = new View(categoryAttributeValueLocalView, null, false)
+                .addProperty("categoryAttribute", new View(viewRepository.getView(CategoryAttribute.class, View.LOCAL), null, false)
+                        .addProperty("category")
+                        .addProperty("defaultEntity", viewRepository.getView(ReferenceToEntity.class, View.LOCAL)));
+        if (withChildValues) {
+            view.addProperty("childValues", categoryAttributeValueLocalView);
+        }
+
+        TypedQuery<CategoryAttributeValue> query;
+        if (HasUuid.class.isAssignableFrom(metaClass.getJavaClass())) {
+            query = em.createQuery(format("select cav from sys$CategoryAttributeValue cav where cav.entity.%s in :ids and cav.parent is null",
+                    referenceToEntitySupport.getReferenceIdPropertyName(metaClass)),
+                    CategoryAttributeValue.class);
+        } else {
+            query = em.createQuery(format("select cav from sys$CategoryAttributeValue cav where cav.entity.%s in :ids " +
+                            "and cav.categoryAttribute.categoryEntityType = :entityType and cav.parent is null",
+                    referenceToEntitySupport.getReferenceIdPropertyName(metaClass)),
+                    CategoryAttributeValue.class);
+            query.setParameter("entityType", metaClass.getName());
+        }
+        query.setParameter("ids", entityIds);
+        query.setView(view);
+        return query.getResultList();
+    }
+
+    /**
+     * @return values of entity type and items of collection values of entity type
+     */
+    protected List<CategoryAttributeValue> getCavsOfEntityType(Collection<CategoryAttributeValue> attributeValues) {
+        List<CategoryAttributeValue> cavsOfEntityType = new ArrayList<>();
+        for (CategoryAttributeValue cav : attributeValues) {
+            if (cav.getObjectEntityValueId() != null) {
+                cavsOfEntityType.add(cav);
+            }
+            if (isCollectionOfEntities(cav)) {
+                for (CategoryAttributeValue childCav : cav.getChildValues()) {
+                    if (childCav.getObjectEntityValueId() != null) {
+                        cavsOfEntityType.add(childCav);
+                    }
+                }
+            }
+        }
+        return cavsOfEntityType;
+    }
+
+    protected boolean isCollectionOfEntities(CategoryAttributeValue cav) {
+        return BooleanUtils.isTrue(cav.getCategoryAttribute().getIsCollection())
+                && cav.getCategoryAttribute().getDataType() == PropertyType.ENTITY
+                && cav.getChildValues() != null;
+    }
+
+    /**
+     * Sets transient collection values of collection attributes from the loaded child values.
+     * Must be invoked after entity values of child values are loaded.
+     */
+    protected void fillCollectionValues(Collection<CategoryAttributeValue> attributeValues) {
+        for (CategoryAttributeValue cav : attributeValues) {
+            if (cav.getCategoryAttribute() != null
+                    && BooleanUtils.isTrue(cav.getCategoryAttribute().getIsCollection())
+                    && cav.getChildValues() != null) {
+                List<Object> value = cav.getChildValues().stream()
+                        .map(CategoryAttributeValue::getValue)
+                        .collect(Collectors.toList());
+                cav.setTransientCollectionValue(value);
+            }
+        }
+    }
+
     /**
      * Method loads entity values for CategoryAttributeValues of entity type and sets entity values to the corresponding
-     * property of the {@code CategoryAttributeValue} entity.
+     * property of the {@code CategoryAttributeValue} entity. Values referencing the same entity class are loaded
+     * together, by batches of {@link #MAX_ENTITIES_FOR_ATTRIBUTE_VALUES_BATCH} identifiers.
      */
     @SuppressWarnings("unchecked")
     protected void loadEntityValues(List<CategoryAttributeValue> cavsOfEntityType) {
@@ -455,6 +540,8 @@ public class DynamicAttributesManager implements DynamicAttributesManagerAPI {
         HashMultimap<MetaClass, CategoryAttributeValue> cavByType = HashMultimap.create();
 
         cavsOfEntityType.forEach(cav -> {
+            if (cav.getObjectEntityValueId() == null)
+                return;
             String className = cav.getCategoryAttribute().getEntityClass();
             try {
                 Class<?> aClass = Class.forName(className);
@@ -471,10 +558,9 @@ public class DynamicAttributesManager implements DynamicAttributesManagerAPI {
         for (Map.Entry<MetaClass, Collection<Object>> entry : entitiesIdsToBeLoaded.asMap().entrySet()) {
             Map<Object, BaseGenericIdEntity> idToEntityMap = new HashMap<>();
             MetaClass metaClass = entry.getKey();
-            Collection<Object> ids = entry.getValue();
+            String pkName = referenceToEntitySupport.getPrimaryKeyForLoadingEntity(metaClass);
 
-            if (!ids.isEmpty()) {
-                String pkName = referenceToEntitySupport.getPrimaryKeyForLoadingEntity(metaClass);
+            for (List<Object> ids : Iterables.partition(entry.getValue(), MAX_ENTITIES_FOR_ATTRIBUTE_VALUES_BATCH)) {
                 List<BaseGenericIdEntity> entitiesValues = em.createQuery(format("select e from %s e where e.%s in :ids", metaClass.getName(), pkName))
                         .setParameter("ids", ids)
                         .setView(metaClass.getJavaClass(), View.MINIMAL)
@@ -491,6 +577,10 @@ public class DynamicAttributesManager implements DynamicAttributesManagerAPI {
         }
     }
 
+    /**
+     * @deprecated child values are fetched together with root values by {@link #queryAttributeValues}
+     */
+    @Deprecated
     protected List<CategoryAttributeValue> reloadCategoryAttributeValuesWithChildren(List<CategoryAttributeValue> categoryAttributeValues) {
         EntityManager em = persistence.getEntityManager();
 
@@ -511,7 +601,19 @@ public class DynamicAttributesManager implements DynamicAttributesManagerAPI {
                 .getResultList();
     }
 
+    protected boolean isOverridden(String methodName, Class<?>... parameterTypes) {
+        for (Class<?> c = getClass(); c != null && c != DynamicAttributesManager.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(methodName, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // not declared in this class
+            }
+        }
+        return false;
+    }
+
     private static class ReloadCacheMsg implements Serializable {
         private static final long serialVersionUID = -3116358584797500962L;
     }
-}
\ No newline at end of file
+}
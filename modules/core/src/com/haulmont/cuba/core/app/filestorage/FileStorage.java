@@ -16,31 +16,36 @@
  */
 package com.haulmont.cuba.core.app.filestorage;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
 import com.haulmont.cuba.core.app.FileStorageAPI;
 import com.haulmont.cuba.core.app.ServerConfig;
 import com.haulmont.cuba.core.entity.FileDescriptor;
 import com.haulmont.cuba.core.global.*;
-import com.haulmont.cuba.core.sys.AppContext;
-import com.haulmont.cuba.core.sys.SecurityContext;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
 
 import static com.haulmont.bali.util.Preconditions.checkNotNullArgument;
 
@@ -49,6 +54,10 @@ public class FileStorage implements FileStorageAPI {
 
     private static final Logger log = LoggerFactory.getLogger(FileStorage.class);
 
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    protected static final FastDateFormat LOG_DATE_FORMAT = FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss.SSS");
+
     @Inject
     protected UserSessionSource userSessionSource;
 
@@ -58,13 +67,28 @@ public class FileStorage implements FileStorageAPI {
     @Inject
     protected Configuration configuration;
 
+    @Inject
+    protected Persistence persistence;
+
     protected boolean isImmutableFileStorage;
 
-    protected ExecutorService writeExecutor = Executors.newFixedThreadPool(5,
-            new ThreadFactoryBuilder().setNameFormat("FileStorageWriter-%d").build());
+    protected Queue<LogRecord> logQueue = new ConcurrentLinkedQueue<>();
+    protected Lock logLock = new ReentrantLock();
+
+    protected ThreadLocal<ByteBuffer> bufferHolder = new ThreadLocal<>();
 
     protected volatile File[] storageRoots;
 
+    protected static class LogRecord {
+        protected final File logFile;
+        protected final String text;
+
+        protected LogRecord(File logFile, String text) {
+            this.logFile = logFile;
+            this.text = text;
+        }
+    }
+
     @PostConstruct
     public void init() {
         this.isImmutableFileStorage = configuration.getConfig(ServerConfig.class).getImmutableFileStorage();
@@ -103,8 +127,6 @@ public class FileStorage implements FileStorageAPI {
 
         File[] roots = getStorageRoots();
 
-        // Store to primary storage
-
         checkStorageDefined(roots, fileDescr);
         checkPrimaryStorageAccessible(roots, fileDescr);
 
@@ -112,56 +134,129 @@ public class FileStorage implements FileStorageAPI {
         dir.mkdirs();
         checkDirectoryExists(dir);
 
-        final File file = new File(dir, getFileName(fileDescr));
+        File file = new File(dir, getFileName(fileDescr));
         checkFileExists(file);
 
-        long size = 0;
-        OutputStream os = null;
+        // Open the primary file and copies in all accessible secondary storages to write them at once
+
+        List<File> files = new ArrayList<>(roots.length);
+        List<FileChannel> channels = new ArrayList<>(roots.length);
         try {
-            os = FileUtils.openOutputStream(file);
-            size = IOUtils.copyLarge(inputStream, os);
-            os.flush();
-            writeLog(file, false);
+            channels.add(openChannel(file));
+            files.add(file);
         } catch (IOException e) {
-            IOUtils.closeQuietly(os);
-            FileUtils.deleteQuietly(file);
-
             throw new FileStorageException(FileStorageException.Type.IO_EXCEPTION, file.getAbsolutePath(), e);
-        } finally {
-            IOUtils.closeQuietly(os);
         }
-
-        // Copy file to secondary storages asynchronously
-
-        final SecurityContext securityContext = AppContext.getSecurityContext();
         for (int i = 1; i < roots.length; i++) {
             if (!roots[i].exists()) {
                 log.error("Error saving {} into {} : directory doesn't exist", fileDescr, roots[i]);
                 continue;
             }
-
             File copyDir = getStorageDir(roots[i], fileDescr);
-            final File fileCopy = new File(copyDir, getFileName(fileDescr));
+            File fileCopy = new File(copyDir, getFileName(fileDescr));
+            try {
+                copyDir.mkdirs();
+                channels.add(openChannel(fileCopy));
+                files.add(fileCopy);
+            } catch (IOException e) {
+                log.error("Error saving {} into {} : {}", fileDescr, fileCopy.getAbsolutePath(), e.getMessage());
+            }
+        }
 
-            writeExecutor.submit(new Runnable() {
-                @Override
-                public void run() {
+        long size = 0;
+        CRC32 checksum = new CRC32();
+        ByteBuffer buffer = getBuffer();
+        try {
+            ReadableByteChannel source = Channels.newChannel(inputStream);
+            while (true) {
+                buffer.clear();
+                int read = source.read(buffer);
+                if (read < 0)
+                    break;
+                if (read == 0)
+                    continue;
+                size += read;
+                buffer.flip();
+                checksum.update(buffer);
+
+                for (int i = 0; i < channels.size(); i++) {
+                    buffer.rewind();
                     try {
-                        AppContext.setSecurityContext(securityContext);
-                        FileUtils.copyFile(file, fileCopy, true);
-                        writeLog(fileCopy, false);
-                    } catch (Exception e) {
+                        FileChannel channel = channels.get(i);
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    } catch (IOException e) {
+                        if (i == 0)
+                            throw e;
+                        // a failed copy must not break the primary one
+                        File fileCopy = files.remove(i);
                         log.error("Error saving {} into {} : {}", fileDescr, fileCopy.getAbsolutePath(), e.getMessage());
-                    } finally {
-                        AppContext.setSecurityContext(null);
+                        IOUtils.closeQuietly(channels.remove(i));
+                        FileUtils.deleteQuietly(fileCopy);
+                        i--;
                     }
                 }
-            });
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < channels.size(); i++) {
+                IOUtils.closeQuietly(channels.get(i));
+                FileUtils.deleteQuietly(files.get(i));
+            }
+            throw new FileStorageException(FileStorageException.Type.IO_EXCEPTION, file.getAbsolutePath(), e);
         }
 
+        for (int i = 0; i < channels.size(); i++) {
+            try {
+                channels.get(i).close();
+                writeLog(files.get(i), false);
+            } catch (IOException e) {
+                if (i == 0) {
+                    for (int j = 0; j < channels.size(); j++) {
+                        IOUtils.closeQuietly(channels.get(j));
+                        FileUtils.deleteQuietly(files.get(j));
+                    }
+                    throw new FileStorageException(FileStorageException.Type.IO_EXCEPTION, file.getAbsolutePath(), e);
+                }
+                log.error("Error saving {} into {} : {}", fileDescr, files.get(i).getAbsolutePath(), e.getMessage());
+                FileUtils.deleteQuietly(files.get(i));
+            }
+        }
+
+        fileDescr.setChecksum(String.format("%08x", checksum.getValue()));
+        storeChecksum(fileDescr);
         return size;
     }
 
+    /**
+     * Writes the checksum to the database if the file descriptor is already stored there. Otherwise the checksum
+     * is stored when the caller commits the descriptor it has received from the storage.
+     */
+    protected void storeChecksum(FileDescriptor fileDescr) {
+        try (Transaction tx = persistence.getTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+            em.createQuery("update sys$FileDescriptor fd set fd.checksum = :checksum where fd.id = :id")
+                    .setParameter("checksum", fileDescr.getChecksum())
+                    .setParameter("id", fileDescr.getId())
+                    .executeUpdate();
+            tx.commit();
+        }
+    }
+
+    protected FileChannel openChannel(File file) throws IOException {
+        return FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    protected ByteBuffer getBuffer() {
+        ByteBuffer buffer = bufferHolder.get();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            bufferHolder.set(buffer);
+        }
+        return buffer;
+    }
+
     protected void checkFileExists(File file) throws FileStorageException {
         if (file.exists() && isImmutableFileStorage)
             throw new FileStorageException(FileStorageException.Type.FILE_ALREADY_EXISTS, file.getAbsolutePath());
@@ -192,15 +287,11 @@ public class FileStorage implements FileStorageAPI {
         saveStream(fileDescr, new ByteArrayInputStream(data));
     }
 
-    protected synchronized void writeLog(File file, boolean remove) {
-        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-
-        StringBuilder sb = new StringBuilder();
-        sb.append(df.format(timeSource.currentTimestamp())).append(" ");
-        sb.append("[").append(userSessionSource.getUserSession().getUser()).append("] ");
-        sb.append(remove ? "REMOVE" : "CREATE").append(" ");
-        sb.append("\"").append(file.getAbsolutePath()).append("\"\n");
-
+    /**
+     * Adds a record to the storage log. Records of concurrent callers are written together by one of them,
+     * so the log files are opened once per group instead of once per record.
+     */
+    protected void writeLog(File file, boolean remove) {
         File rootDir;
         try {
             rootDir = file.getParentFile().getParentFile().getParentFile().getParentFile();
@@ -208,13 +299,37 @@ public class FileStorage implements FileStorageAPI {
             log.error("Unable to write log: invalid file storage structure", e);
             return;
         }
-        File logFile = new File(rootDir, "storage.log");
-        try {
-            try (FileOutputStream fos = new FileOutputStream(logFile, true)) {
-                IOUtils.write(sb.toString(), fos, StandardCharsets.UTF_8.name());
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(LOG_DATE_FORMAT.format(timeSource.currentTimestamp())).append(" ");
+        sb.append("[").append(userSessionSource.getUserSession().getUser()).append("] ");
+        sb.append(remove ? "REMOVE" : "CREATE").append(" ");
+        sb.append("\"").append(file.getAbsolutePath()).append("\"\n");
+
+        logQueue.add(new LogRecord(new File(rootDir, "storage.log"), sb.toString()));
+
+        // the holder of the lock writes records of all threads; after releasing it, check for records added meanwhile
+        while (!logQueue.isEmpty() && logLock.tryLock()) {
+            try {
+                flushLog();
+            } finally {
+                logLock.unlock();
+            }
+        }
+    }
+
+    protected void flushLog() {
+        Map<File, StringBuilder> groups = new LinkedHashMap<>();
+        LogRecord record;
+        while ((record = logQueue.poll()) != null) {
+            groups.computeIfAbsent(record.logFile, f -> new StringBuilder()).append(record.text);
+        }
+        for (Map.Entry<File, StringBuilder> entry : groups.entrySet()) {
+            try (FileOutputStream fos = new FileOutputStream(entry.getKey(), true)) {
+                IOUtils.write(entry.getValue().toString(), fos, StandardCharsets.UTF_8.name());
+            } catch (IOException e) {
+                log.error("Unable to write log", e);
             }
-        } catch (IOException e) {
-            log.error("Unable to write log", e);
         }
     }
 
@@ -280,6 +395,34 @@ public class FileStorage implements FileStorageAPI {
             throw new FileStorageException(FileStorageException.Type.FILE_NOT_FOUND, fileDescr.getId().toString());
     }
 
+    /**
+     * Transfers the file contents by {@link FileChannel#transferTo}. The OS copies the data without passing it
+     * through the Java heap only if the target is a file; other streams are written through an intermediate buffer.
+     */
+    @Override
+    public long writeTo(FileDescriptor fileDescr, OutputStream outputStream) throws FileStorageException {
+        InputStream inputStream = openStream(fileDescr);
+        try {
+            if (!(inputStream instanceof FileInputStream)) {
+                return IOUtils.copyLarge(inputStream, outputStream);
+            }
+            FileChannel channel = ((FileInputStream) inputStream).getChannel();
+            WritableByteChannel target = outputStream instanceof FileOutputStream
+                    ? ((FileOutputStream) outputStream).getChannel()
+                    : Channels.newChannel(outputStream);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return position;
+        } catch (IOException e) {
+            throw new FileStorageException(FileStorageException.Type.IO_EXCEPTION, fileDescr.getId().toString(), e);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
     @Override
     public byte[] loadFile(FileDescriptor fileDescr) throws FileStorageException {
         InputStream inputStream = openStream(fileDescr);
@@ -328,9 +471,4 @@ public class FileStorage implements FileStorageAPI {
     public static String getFileName(FileDescriptor fileDescriptor) {
         return fileDescriptor.getId().toString() + "." + fileDescriptor.getExtension();
     }
-
-    @PreDestroy
-    protected void stopWriteExecutor() {
-        writeExecutor.shutdown();
-    }
 }
\ No newline at end of file
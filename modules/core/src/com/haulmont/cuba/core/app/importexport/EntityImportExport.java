@@ -17,6 +17,11 @@
 
 package com.haulmont.cuba.core.app.importexport;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 import com.haulmont.chile.core.model.MetaClass;
 import com.haulmont.chile.core.model.MetaProperty;
 import com.haulmont.chile.core.model.Range;
@@ -24,6 +29,7 @@ import com.haulmont.cuba.core.Persistence;
 import com.haulmont.cuba.core.PersistenceSecurity;
 import com.haulmont.cuba.core.app.DataStore;
 import com.haulmont.cuba.core.app.RdbmsStore;
+import com.haulmont.cuba.core.app.ServerConfig;
 import com.haulmont.cuba.core.app.StoreFactory;
 import com.haulmont.cuba.core.app.dynamicattributes.DynamicAttributesManagerAPI;
 import com.haulmont.cuba.core.app.dynamicattributes.DynamicAttributesUtils;
@@ -39,6 +45,8 @@ import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nullable;
@@ -49,10 +57,16 @@ import javax.validation.groups.Default;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import java.util.zip.CRC32;
 
 import static java.lang.String.format;
@@ -60,6 +74,17 @@ import static java.lang.String.format;
 @Component(EntityImportExportAPI.NAME)
 public class EntityImportExport implements EntityImportExportAPI {
 
+    private static final Logger log = LoggerFactory.getLogger(EntityImportExport.class);
+
+    /**
+     * Maximum number of ids in one query when entities are loaded by lists of ids.
+     */
+    protected static final int BULK_LOAD_SIZE = 500;
+
+    // properties of an entity written in the compact form, i.e. only by id
+    protected static final Set<String> COMPACT_ENTITY_PROPERTIES = new HashSet<>(
+            Arrays.asList("_entityName", "_instanceName", "id", "uuid", "__securityToken"));
+
     @Inject
     protected EntitySerializationAPI entitySerialization;
 
@@ -93,6 +118,9 @@ public class EntityImportExport implements EntityImportExportAPI {
     @Inject
     protected GlobalConfig globalConfig;
 
+    @Inject
+    protected ServerConfig serverConfig;
+
     @Override
     public byte[] exportEntitiesToZIP(Collection<? extends Entity> entities, View view) {
         return exportEntitiesToZIP(reloadEntities(entities, view));
@@ -120,6 +148,37 @@ public class EntityImportExport implements EntityImportExportAPI {
         return byteArrayOutputStream.toByteArray();
     }
 
+    @Override
+    public void exportEntitiesToZIP(Iterable<? extends Entity> entities, OutputStream outputStream) {
+        ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(outputStream);
+        zipOutputStream.setEncoding(StandardCharsets.UTF_8.name());
+        try {
+            zipOutputStream.putArchiveEntry(new ZipArchiveEntry("entities.json"));
+            writeEntities(entities, zipOutputStream);
+            zipOutputStream.closeArchiveEntry();
+            // finish instead of close to leave the stream open
+            zipOutputStream.finish();
+        } catch (IOException e) {
+            throw new RuntimeException("Error on creating zip archive during entities export", e);
+        }
+    }
+
+    @Override
+    public void exportEntitiesToJSON(Iterable<? extends Entity> entities, OutputStream outputStream) {
+        try {
+            writeEntities(entities, outputStream, EntitySerializationOption.PRETTY_PRINT);
+        } catch (IOException e) {
+            throw new RuntimeException("Error on writing entities during export", e);
+        }
+    }
+
+    protected void writeEntities(Iterable<? extends Entity> entities, OutputStream outputStream,
+                                 EntitySerializationOption... options) throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        entitySerialization.toJson(entities, null, writer, options);
+        writer.flush();
+    }
+
     @Override
     public String exportEntitiesToJSON(Collection<? extends Entity> entities, View view) {
         return exportEntitiesToJSON(reloadEntities(entities, view));
@@ -194,6 +253,34 @@ public class EntityImportExport implements EntityImportExportAPI {
         return IOUtils.toByteArray(archiveReader);
     }
 
+    @Override
+    public EntityImportProgress importEntitiesFromJson(InputStream inputStream, EntityImportView view, long skip,
+                                                       @Nullable Consumer<EntityImportProgress> progressListener) {
+        ChunkedImport chunkedImport = new ChunkedImport(view, skip, progressListener);
+        try {
+            chunkedImport.read(inputStream);
+        } catch (IOException e) {
+            throw new RuntimeException("Exception occurred while importing entities", e);
+        }
+        return chunkedImport.finish();
+    }
+
+    @Override
+    public EntityImportProgress importEntitiesFromZIP(InputStream inputStream, EntityImportView view, long skip,
+                                                      @Nullable Consumer<EntityImportProgress> progressListener) {
+        ChunkedImport chunkedImport = new ChunkedImport(view, skip, progressListener);
+        // the archive stream is not closed to leave the input stream open
+        ZipArchiveInputStream archiveReader = new ZipArchiveInputStream(inputStream);
+        try {
+            while (archiveReader.getNextZipEntry() != null) {
+                chunkedImport.read(archiveReader);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Exception occurred while importing entities", e);
+        }
+        return chunkedImport.finish();
+    }
+
     @Override
     public Collection<Entity> importEntities(Collection<? extends Entity> entities, EntityImportView importView) {
         return importEntities(entities, importView, false);
@@ -210,25 +297,34 @@ public class EntityImportExport implements EntityImportExportAPI {
         //
         //1. entities that should be persisted are processed first, fields that should be references to existing entities
         //are stored in the referenceInfoList variable
+        View regularView = buildViewFromImportView(importView);
+        Map<Entity, Entity> existingEntities = loadEntities(entities, metaClass -> regularView, true, true);
         for (Entity srcEntity : entities) {
-            View regularView = buildViewFromImportView(importView);
-            //set softDeletion to false because we can import deleted entity, so we'll restore it and update
-            LoadContext<? extends Entity> ctx = LoadContext.create(srcEntity.getClass())
-                    .setSoftDeletion(false)
-                    .setView(regularView)
-                    .setLoadDynamicAttributes(true)
-                    .setId(srcEntity.getId())
-                    .setAuthorizationRequired(true);
-            Entity dstEntity = dataManager.load(ctx);
+            Entity dstEntity;
+            if (isBulkLoadSupported(srcEntity.getMetaClass())) {
+                dstEntity = existingEntities.get(srcEntity);
+            } else {
+                //set softDeletion to false because we can import deleted entity, so we'll restore it and update
+                LoadContext<? extends Entity> ctx = LoadContext.create(srcEntity.getClass())
+                        .setSoftDeletion(false)
+                        .setView(regularView)
+                        .setLoadDynamicAttributes(true)
+                        .setId(srcEntity.getId())
+                        .setAuthorizationRequired(true);
+                dstEntity = dataManager.load(ctx);
+            }
 
             importEntity(srcEntity, dstEntity, importView, regularView, commitContext, referenceInfoList);
         }
 
         //2. references to existing entities are processed
 
-        //store a list of loaded entities in the collection to prevent unnecessary database requests for searching the
-        //same instance
-        Set<Entity> loadedEntities = new HashSet<>();
+        //store loaded entities in the map to prevent unnecessary database requests for searching the same instance
+        Map<Entity, Entity> loadedEntities = new HashMap<>();
+        for (Entity commitInstance : commitContext.getCommitInstances()) {
+            loadedEntities.put(commitInstance, commitInstance);
+        }
+        loadedEntities.putAll(loadReferencedEntities(referenceInfoList, loadedEntities));
         for (ReferenceInfo referenceInfo : referenceInfoList) {
             processReferenceInfo(referenceInfo, commitContext, loadedEntities);
         }
@@ -544,7 +640,7 @@ public class EntityImportExport implements EntityImportExportAPI {
      * Method finds and set a reference value to the entity or throws EntityImportException if ERROR_ON_MISSING policy
      * is violated
      */
-    protected void processReferenceInfo(ReferenceInfo referenceInfo, CommitContext commitContext, Set<Entity> loadedEntities) {
+    protected void processReferenceInfo(ReferenceInfo referenceInfo, CommitContext commitContext, Map<Entity, Entity> loadedEntities) {
         Entity entity = referenceInfo.getEntity();
         EntityImportViewProperty viewProperty = referenceInfo.getViewProperty();
         MetaProperty metaProperty = entity.getMetaClass().getPropertyNN(viewProperty.getName());
@@ -679,29 +775,231 @@ public class EntityImportExport implements EntityImportExportAPI {
         return globalConfig.getRestRequiresSecurityToken();
     }
 
+    /**
+     * Method finds a referenced entity among the imported and already loaded entities or loads it from the database.
+     * Entities of classes that support bulk loading are expected to be loaded in advance by {@link
+     * #loadReferencedEntities(Collection, Map)}.
+     */
     protected Entity findReferenceEntity(Entity entity, EntityImportViewProperty viewProperty, CommitContext commitContext,
-                                         Set<Entity> loadedEntities) {
-        Entity result = Stream.concat(loadedEntities.stream(), commitContext.getCommitInstances().stream())
-                .filter(item -> item.equals(entity))
-                .findFirst().orElse(null);
-        if (result == null) {
+                                         Map<Entity, Entity> loadedEntities) {
+        Entity result = loadedEntities.get(entity);
+        if (result == null && !isBulkLoadSupported(entity.getMetaClass())) {
             LoadContext<? extends Entity> ctx = LoadContext.create(entity.getClass())
                     .setSoftDeletion(false)
                     .setView(View.MINIMAL)
                     .setId(entity.getId());
             result = dataManager.load(ctx);
-            if (result == null) {
-                if (viewProperty.getReferenceImportBehaviour() == ReferenceImportBehaviour.ERROR_ON_MISSING) {
-                    throw new EntityImportException(String.format("Referenced entity for property '%s' with id = %s is missing",
-                            viewProperty.getName(), entity.getId()));
+            if (result != null) {
+                loadedEntities.put(result, result);
+            }
+        }
+        if (result == null && viewProperty.getReferenceImportBehaviour() == ReferenceImportBehaviour.ERROR_ON_MISSING) {
+            throw new EntityImportException(String.format("Referenced entity for property '%s' with id = %s is missing",
+                    viewProperty.getName(), entity.getId()));
+        }
+        return result;
+    }
+
+    /**
+     * Loads entities referenced by the imported entities with {@link View#MINIMAL} view.
+     *
+     * @param referenceInfoList references of the imported entities
+     * @param loadedEntities    entities that are already available and should not be loaded
+     * @return map of referenced entities to loaded instances
+     */
+    protected Map<Entity, Entity> loadReferencedEntities(Collection<ReferenceInfo> referenceInfoList,
+                                                         Map<Entity, Entity> loadedEntities) {
+        Set<Entity> references = new LinkedHashSet<>();
+        for (ReferenceInfo referenceInfo : referenceInfoList) {
+            Object value = referenceInfo.getPropertyValue();
+            if (value instanceof Entity) {
+                references.add((Entity) value);
+            } else if (value instanceof Collection) {
+                for (Object item : (Collection) value) {
+                    if (item instanceof Entity) {
+                        references.add((Entity) item);
+                    }
+                }
+            }
+        }
+        references.removeIf(loadedEntities::containsKey);
+        return loadEntities(references, metaClass -> viewRepository.getView(metaClass, View.MINIMAL), false, false);
+    }
+
+    /**
+     * Loads the given entities from the database including soft deleted ones. Entities are loaded by queries with
+     * lists of up to {@link #BULK_LOAD_SIZE} ids instead of loading each instance separately. Entities of classes
+     * that don't support such loading (see {@link #isBulkLoadSupported(MetaClass)}) are skipped.
+     *
+     * @return map of the given entities to loaded instances, missing entities are absent in the map
+     */
+    protected Map<Entity, Entity> loadEntities(Collection<? extends Entity> entities,
+                                               Function<MetaClass, View> viewProvider,
+                                               boolean loadDynamicAttributes,
+                                               boolean authorizationRequired) {
+        Map<MetaClass, Set<Object>> idsByClass = new LinkedHashMap<>();
+        for (Entity entity : entities) {
+            if (entity.getId() != null && isBulkLoadSupported(entity.getMetaClass())) {
+                idsByClass.computeIfAbsent(entity.getMetaClass(), metaClass -> new LinkedHashSet<>()).add(entity.getId());
+            }
+        }
+        Map<Entity, Entity> result = new HashMap<>();
+        for (Map.Entry<MetaClass, Set<Object>> entry : idsByClass.entrySet()) {
+            MetaClass metaClass = entry.getKey();
+            String queryString = "select e from " + metaClass.getName() + " e where e."
+                    + metadata.getTools().getPrimaryKeyName(metaClass) + " in :ids";
+            List<Object> ids = new ArrayList<>(entry.getValue());
+            for (int i = 0; i < ids.size(); i += BULK_LOAD_SIZE) {
+                LoadContext<Entity> ctx = new LoadContext<>(metaClass);
+                ctx.setSoftDeletion(false)
+                        .setView(viewProvider.apply(metaClass))
+                        .setLoadDynamicAttributes(loadDynamicAttributes)
+                        .setAuthorizationRequired(authorizationRequired)
+                        .setQuery(LoadContext.createQuery(queryString)
+                                .setParameter("ids", new ArrayList<>(ids.subList(i, Math.min(i + BULK_LOAD_SIZE, ids.size())))));
+                for (Entity loaded : dataManager.loadList(ctx)) {
+                    result.put(loaded, loaded);
                 }
-            } else {
-                loadedEntities.add(result);
             }
         }
         return result;
     }
 
+    /**
+     * @return true if entities of the class can be loaded by a query with a list of ids
+     */
+    protected boolean isBulkLoadSupported(MetaClass metaClass) {
+        return !metadata.getTools().hasCompositePrimaryKey(metaClass)
+                && !BaseDbGeneratedIdEntity.class.isAssignableFrom(metaClass.getJavaClass())
+                && metadata.getTools().getPrimaryKeyName(metaClass) != null;
+    }
+
+    /**
+     * Reads JSON arrays of entities element by element and imports them by chunks.
+     * <p>
+     * Keys of entities written in full are kept for the whole import, to detect entities written in the compact form
+     * which refer to entities of previous chunks. Such entities cannot be resolved, so the import fails instead of
+     * losing their attributes.
+     */
+    protected class ChunkedImport {
+        protected EntityImportView view;
+        protected long skip;
+        protected Consumer<EntityImportProgress> progressListener;
+        protected int chunkSize;
+        protected long startTs;
+
+        protected JsonParser jsonParser = new JsonParser();
+        protected JsonArray chunk = new JsonArray();
+        protected long position;
+        protected long importedCount;
+        protected int chunkCount;
+        protected Set<String> importedEntityKeys = new HashSet<>();
+
+        public ChunkedImport(EntityImportView view, long skip, @Nullable Consumer<EntityImportProgress> progressListener) {
+            this.view = view;
+            this.skip = skip;
+            this.progressListener = progressListener;
+            this.chunkSize = Math.max(serverConfig.getEntityImportChunkSize(), 1);
+            this.startTs = System.currentTimeMillis();
+        }
+
+        /**
+         * Reads a JSON array from the stream, imports full chunks and keeps the rest for the next call or {@link
+         * #finish()}. The stream is not closed.
+         */
+        public void read(InputStream inputStream) throws IOException {
+            JsonReader jsonReader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                if (position < skip) {
+                    // skipped entities can be repeated in the compact form in the rest of the stream
+                    checkRepeatedEntities(jsonParser.parse(jsonReader), null, importedEntityKeys, position);
+                    position++;
+                    continue;
+                }
+                chunk.add(jsonParser.parse(jsonReader));
+                if (chunk.size() >= chunkSize) {
+                    importChunk();
+                }
+            }
+            jsonReader.endArray();
+        }
+
+        public EntityImportProgress finish() {
+            importChunk();
+            EntityImportProgress progress = getProgress();
+            log.info("Entities import finished: {}", progress);
+            return progress;
+        }
+
+        protected void importChunk() {
+            if (chunk.size() == 0)
+                return;
+            Set<String> chunkEntityKeys = new HashSet<>();
+            for (int i = 0; i < chunk.size(); i++) {
+                checkRepeatedEntities(chunk.get(i), view, chunkEntityKeys, position + i);
+            }
+            Collection<? extends Entity> entities = entitySerialization.entitiesCollectionFromJson(chunk.toString(),
+                    null,
+                    EntitySerializationOption.COMPACT_REPEATED_ENTITIES);
+            importEntities(entities, view);
+            importedEntityKeys.addAll(chunkEntityKeys);
+
+            position += chunk.size();
+            importedCount += chunk.size();
+            chunkCount++;
+            chunk = new JsonArray();
+
+            EntityImportProgress progress = getProgress();
+            log.debug("Entities import: {}", progress);
+            if (progressListener != null) {
+                progressListener.accept(progress);
+            }
+        }
+
+        protected EntityImportProgress getProgress() {
+            return new EntityImportProgress(position, importedCount, chunkCount, System.currentTimeMillis() - startTs);
+        }
+
+        /**
+         * Adds keys of entities written in full to the set and checks entities written in the compact form whose
+         * attributes are imported according to the view. Such an entity must be written in full earlier in the same
+         * chunk if it is written in full in a previous chunk, otherwise it would be imported with empty attributes.
+         * References imported by {@link ReferenceImportBehaviour} are loaded from the database, so they can be
+         * written in the compact form anywhere.
+         */
+        protected void checkRepeatedEntities(JsonElement element, @Nullable EntityImportView elementView,
+                                             Set<String> chunkEntityKeys, long elementPosition) {
+            if (element.isJsonArray()) {
+                for (JsonElement item : element.getAsJsonArray()) {
+                    checkRepeatedEntities(item, elementView, chunkEntityKeys, elementPosition);
+                }
+            } else if (element.isJsonObject()) {
+                JsonObject jsonObject = element.getAsJsonObject();
+                JsonElement entityName = jsonObject.get("_entityName");
+                JsonElement id = jsonObject.get("id");
+                if (entityName != null && entityName.isJsonPrimitive() && id != null) {
+                    String key = entityName.getAsString() + "-" + id;
+                    if (!COMPACT_ENTITY_PROPERTIES.containsAll(jsonObject.keySet())) {
+                        chunkEntityKeys.add(key);
+                    } else if (elementView != null
+                            && importedEntityKeys.contains(key) && !chunkEntityKeys.contains(key)) {
+                        throw new EntityImportException(format("Entity %s in the element at position %d is written " +
+                                "in the compact form and refers to an entity imported in a previous chunk. " +
+                                "Import the JSON as a whole or export entities in full by the streaming export",
+                                key, elementPosition));
+                    }
+                }
+                for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
+                    EntityImportViewProperty viewProperty = elementView != null
+                            ? elementView.getProperty(entry.getKey()) : null;
+                    checkRepeatedEntities(entry.getValue(), viewProperty != null ? viewProperty.getView() : null,
+                            chunkEntityKeys, elementPosition);
+                }
+            }
+        }
+    }
+
     protected class ReferenceInfo {
         protected Entity entity;
         protected SecurityState prevSecurityState;
@@ -20,7 +20,11 @@ package com.haulmont.cuba.core.app.importexport;
 import com.haulmont.cuba.core.entity.Entity;
 import com.haulmont.cuba.core.global.View;
 
+import javax.annotation.Nullable;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
+import java.util.function.Consumer;
 
 /**
  * Class that is used for exporting a collection of entities and importing them. See full java docs in the {@link
@@ -40,6 +44,21 @@ public interface EntityImportExportAPI {
      */
     byte[] exportEntitiesToZIP(Collection<? extends Entity> entities, View view);
 
+    /**
+     * Writes entities to the output stream as a ZIP archive with a single JSON entry. Unlike {@link
+     * #exportEntitiesToZIP(Collection)}, the archive is not kept in memory, and entities are obtained from the
+     * iterable while writing, so it can load them by chunks. Repeated entities are written in full, so each
+     * entity can be imported independently by {@link #importEntitiesFromZIP(InputStream, EntityImportView, long,
+     * Consumer)}. The stream is not closed.
+     */
+    void exportEntitiesToZIP(Iterable<? extends Entity> entities, OutputStream outputStream);
+
+    /**
+     * Writes entities to the output stream as a JSON array in UTF-8. Works like the {@link
+     * #exportEntitiesToZIP(Iterable, OutputStream)}. The stream is not closed.
+     */
+    void exportEntitiesToJSON(Iterable<? extends Entity> entities, OutputStream outputStream);
+
     /**
      * See documentation for {@link EntityImportExportService#exportEntitiesToJSON(Collection, View)}
      */
@@ -60,6 +79,37 @@ public interface EntityImportExportAPI {
      */
     Collection<Entity> importEntitiesFromZIP(byte[] zipBytes, EntityImportView entityImportView);
 
+    /**
+     * Imports entities from a JSON array in UTF-8 read from the input stream. Entities are read, imported and
+     * committed by chunks of {@code cuba.entityImportChunkSize} entities in separate transactions, so the whole
+     * array is never kept in memory.
+     * <p>
+     * If the import fails, the entities of the previous chunks remain committed. The import can be resumed from
+     * the last {@link EntityImportProgress#getPosition()} reported to the listener by passing it in the
+     * {@code skip} parameter.
+     * <p>
+     * Repeated entities written in the compact form are resolved only within a chunk. If such an entity refers to an
+     * entity of a previous chunk and its attributes are imported according to the view, the import fails with {@link
+     * EntityImportException}, because the attributes would be lost. References imported by {@link
+     * ReferenceImportBehaviour} can be written in the compact form anywhere.
+     *
+     * @param inputStream      stream containing a JSON array of entities. The stream is not closed.
+     * @param view             import view
+     * @param skip             number of entities at the beginning of the stream to skip
+     * @param progressListener receives the progress after each committed chunk
+     * @return final progress of the import
+     */
+    EntityImportProgress importEntitiesFromJson(InputStream inputStream, EntityImportView view, long skip,
+                                                @Nullable Consumer<EntityImportProgress> progressListener);
+
+    /**
+     * Imports entities from a ZIP archive read from the input stream. Works like the {@link
+     * #importEntitiesFromJson(InputStream, EntityImportView, long, Consumer)} for each entry of the archive, the
+     * position is counted through all entries.
+     */
+    EntityImportProgress importEntitiesFromZIP(InputStream inputStream, EntityImportView view, long skip,
+                                               @Nullable Consumer<EntityImportProgress> progressListener);
+
     /**
      * See documentation for {@link EntityImportExportService#importEntities(Collection, EntityImportView)}
      */
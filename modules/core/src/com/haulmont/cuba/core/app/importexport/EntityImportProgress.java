@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.haulmont.cuba.core.app.importexport;
+
+import java.io.Serializable;
+
+/**
+ * State of a chunked import of entities from a stream, see {@link EntityImportExportAPI#importEntitiesFromJson(
+ * java.io.InputStream, EntityImportView, long, java.util.function.Consumer)}.
+ * <p>
+ * The {@link #getPosition()} value is a checkpoint: all entities before it are committed, so an interrupted import
+ * can be resumed by passing this value as the number of entities to skip.
+ */
+public class EntityImportProgress implements Serializable {
+
+    private static final long serialVersionUID = 2853240167236523651L;
+
+    protected final long position;
+    protected final long importedCount;
+    protected final int chunkCount;
+    protected final long elapsedMs;
+
+    public EntityImportProgress(long position, long importedCount, int chunkCount, long elapsedMs) {
+        this.position = position;
+        this.importedCount = importedCount;
+        this.chunkCount = chunkCount;
+        this.elapsedMs = elapsedMs;
+    }
+
+    /**
+     * @return number of entities from the beginning of the stream that are committed or skipped
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return number of entities imported by this call
+     */
+    public long getImportedCount() {
+        return importedCount;
+    }
+
+    /**
+     * @return number of committed chunks
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    /**
+     * @return average number of imported entities per second
+     */
+    public double getEntitiesPerSecond() {
+        return elapsedMs == 0 ? 0 : importedCount * 1000.0 / elapsedMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EntityImportProgress{position=%d, imported=%d, chunks=%d, elapsed=%dms, rate=%.1f/s}",
+                position, importedCount, chunkCount, elapsedMs, getEntitiesPerSecond());
+    }
+}
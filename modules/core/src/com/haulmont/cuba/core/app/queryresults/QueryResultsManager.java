@@ -17,23 +17,51 @@
 
 package com.haulmont.cuba.core.app.queryresults;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.haulmont.bali.datastruct.Pair;
 import com.haulmont.bali.db.QueryRunner;
+import com.haulmont.bali.util.ReflectionHelper;
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.chile.core.model.MetaProperty;
 import com.haulmont.cuba.core.*;
 import com.haulmont.cuba.core.app.ClusterManagerAPI;
 import com.haulmont.cuba.core.app.RdbmsQueryBuilder;
+import com.haulmont.cuba.core.app.ServerConfig;
 import com.haulmont.cuba.core.global.*;
 import com.haulmont.cuba.core.sys.AppContext;
 import com.haulmont.cuba.core.sys.QueryHolder;
 import com.haulmont.cuba.core.sys.persistence.DbTypeConverter;
+import com.haulmont.cuba.core.sys.persistence.DbmsSpecificFactory;
+import com.haulmont.cuba.core.sys.persistence.DbmsType;
 import com.haulmont.cuba.security.app.UserSessionsAPI;
+import com.haulmont.cuba.security.auth.events.UserLoggedOutEvent;
 import com.haulmont.cuba.security.global.UserSession;
+import org.eclipse.persistence.internal.databaseaccess.DatabaseCall;
+import org.eclipse.persistence.internal.queries.CallQueryMechanism;
+import org.eclipse.persistence.internal.sessions.AbstractRecord;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.jpa.JpaQuery;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.sessions.DatabaseRecord;
+import org.eclipse.persistence.sessions.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 /**
@@ -68,6 +96,9 @@ public class QueryResultsManager implements QueryResultsManagerAPI {
 
     protected static final int INACTIVE_DELETION_MAX = 100000;
 
+    protected ExecutorService cleanupExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("QueryResultsCleaner-%d").setDaemon(true).build());
+
     @Override
     public void savePreviousQueryResults(LoadContext loadContext) {
         List<LoadContext.Query> prevQueries = loadContext.getPrevQueries();
@@ -91,9 +122,10 @@ public class QueryResultsManager implements QueryResultsManagerAPI {
         try {
             EntityManager em = persistence.getEntityManager();
             em.setSoftDeletion(loadContext.isSoftDeletion());
+            MetaClass metaClass = metadata.getClassNN(entityName);
 
             QueryTransformer transformer = QueryTransformerFactory.createTransformer(contextQuery.getQueryString());
-            transformer.replaceWithSelectId(metadata.getTools().getPrimaryKeyName(metadata.getClassNN(entityName)));
+            transformer.replaceWithSelectId(metadata.getTools().getPrimaryKeyName(metaClass));
             transformer.removeOrderBy();
             String queryString = transformer.getResult();
 
@@ -106,6 +138,17 @@ public class QueryResultsManager implements QueryResultsManagerAPI {
             }
             Query query = queryBuilder.getQuery(em);
 
+            if (configuration.getConfig(ServerConfig.class).getQueryResultsInsertSelect()) {
+                Pair<String, Object[]> nativeQuery = getNativeQuery(em, query);
+                if (nativeQuery != null) {
+                    MetaProperty primaryKey = metadata.getTools().getPrimaryKeyProperty(metaClass);
+                    insertSelect(em, queryKey, getIdColumn(primaryKey.getJavaType()),
+                            nativeQuery.getFirst(), nativeQuery.getSecond(), prevQueries.size() > 1);
+                    tx.commit();
+                    return;
+                }
+            }
+
             String logMsg = "Load previous query results: " + RdbmsQueryBuilder.printQuery(query.getQueryString());
             log.debug(logMsg);
             long start = System.currentTimeMillis();
@@ -146,6 +189,96 @@ public class QueryResultsManager implements QueryResultsManagerAPI {
         return queryHolder.equals(oldQueryHolder);
     }
 
+    /**
+     * Translates the JPQL query selecting identifiers to SQL with {@code ?} placeholders and collects the values
+     * to be bound to them.
+     *
+     * @return SQL string and its parameter values, or null if the query cannot be translated reliably
+     */
+    @Nullable
+    protected Pair<String, Object[]> getNativeQuery(EntityManager em, Query query) {
+        try {
+            JpaQuery jpaQuery = (JpaQuery) query.getDelegate();
+            DatabaseQuery databaseQuery = jpaQuery.getDatabaseQuery();
+            Session session = ((JpaEntityManager) em.getDelegate()).getActiveSession();
+
+            DatabaseRecord row = new DatabaseRecord();
+            for (String argument : databaseQuery.getArguments()) {
+                Object value = jpaQuery.getParameterValue(argument);
+                // nulls and collections are expanded by EclipseLink at execution time, leave them to the regular path
+                if (value == null || value instanceof Collection) {
+                    return null;
+                }
+                row.put(argument, value);
+            }
+            databaseQuery.prepareCall(session, row);
+
+            CallQueryMechanism queryMechanism = (CallQueryMechanism) databaseQuery.getQueryMechanism();
+            if (!(queryMechanism.getCall() instanceof DatabaseCall)) {
+                return null;
+            }
+            DatabaseCall call = (DatabaseCall) queryMechanism.getCall().clone();
+            call.setUsesBinding(true);
+            call.translate((AbstractRecord) row, queryMechanism.getModifyRow(), (AbstractSession) session);
+
+            DbTypeConverter converter = persistence.getDbTypeConverter();
+            List parameters = call.getParameters();
+            Object[] params = new Object[parameters.size()];
+            for (int i = 0; i < params.length; i++) {
+                params[i] = converter.getSqlObject(parameters.get(i));
+            }
+            return new Pair<>(call.getSQLString(), params);
+        } catch (RuntimeException e) {
+            log.debug("Cannot translate query to SQL, identifiers will be loaded to the middleware: {}", e.toString());
+            return null;
+        }
+    }
+
+    protected void insertSelect(EntityManager em, int queryKey, String idColumn, String selectSql, Object[] params,
+                                boolean restrictedByPreviousResults) {
+        DbTypeConverter converter = persistence.getDbTypeConverter();
+        UUID userSessionId = userSessionSource.getUserSession().getId();
+        String userSessionIdStr = converter.getSqlObject(userSessionId).toString();
+        long start = System.currentTimeMillis();
+        String logMsg = "Insert-select query results for " + userSessionId + " / " + queryKey;
+        log.debug(logMsg);
+
+        Connection connection = em.getConnection();
+        QueryRunner runner = new QueryRunner();
+        String sessionCondition = "where SESSION_ID = '" + userSessionIdStr + "' and QUERY_KEY = ";
+        try {
+            int count;
+            if (restrictedByPreviousResults) {
+                // the query reads results saved under the same key, so collect new results under a temporary key
+                int tempKey = -queryKey - 1;
+                runner.update(connection, "delete from SYS_QUERY_RESULT " + sessionCondition + tempKey);
+                count = runner.update(connection, DbmsSpecificFactory.getDbmsFeatures()
+                        .getQueryResultsInsertSelectStatement(idColumn, userSessionIdStr, tempKey, selectSql), params);
+                runner.update(connection, "delete from SYS_QUERY_RESULT " + sessionCondition + queryKey);
+                runner.update(connection, "update SYS_QUERY_RESULT set QUERY_KEY = " + queryKey + " " + sessionCondition + tempKey);
+            } else {
+                runner.update(connection, "delete from SYS_QUERY_RESULT " + sessionCondition + queryKey);
+                count = runner.update(connection, DbmsSpecificFactory.getDbmsFeatures()
+                        .getQueryResultsInsertSelectStatement(idColumn, userSessionIdStr, queryKey, selectSql), params);
+            }
+            log.debug("Done in " + (System.currentTimeMillis() - start) + "ms, " + count + " rows: " + logMsg);
+        } catch (SQLException e) {
+            throw new RuntimeException("Error saving query results", e);
+        }
+    }
+
+    protected String getIdColumn(Class idClass) {
+        if (String.class.equals(idClass)) {
+            return "STRING_ENTITY_ID";
+        } else if (Long.class.equals(idClass)) {
+            return "LONG_ENTITY_ID";
+        } else if (Integer.class.equals(idClass)) {
+            return "INT_ENTITY_ID";
+        } else {
+            return "ENTITY_ID";
+        }
+    }
+
     @Override
     public void insert(int queryKey, List idList) {
         if (idList.isEmpty())
@@ -161,19 +294,17 @@ public class QueryResultsManager implements QueryResultsManagerAPI {
             EntityManager em = persistence.getEntityManager();
             DbTypeConverter converter = persistence.getDbTypeConverter();
             Object idFromList = idList.get(0);
-            String columnName = null;
-            if (idFromList instanceof String) {
-                columnName = "STRING_ENTITY_ID";
-            } else if (idFromList instanceof Long) {
-                columnName = "LONG_ENTITY_ID";
-            } else if (idFromList instanceof Integer) {
-                columnName = "INT_ENTITY_ID";
-            } else {
-                columnName = "ENTITY_ID";
-            }
+            String columnName = getIdColumn(idFromList.getClass());
             QueryRunner runner = new QueryRunner();
             try {
                 String userSessionIdStr = converter.getSqlObject(userSessionId).toString(); // assuming that UUID can be passed to query as string in all databases
+                if (configuration.getConfig(ServerConfig.class).getQueryResultsCopy()
+                        && "postgres".equals(DbmsType.getType())
+                        && copyIn(em.getConnection(), columnName, userSessionIdStr, queryKey, idList)) {
+                    log.debug("Done by COPY in " + (System.currentTimeMillis() - start) + "ms: " + logMsg);
+                    tx.commit();
+                    return;
+                }
                 String sql = String.format("insert into SYS_QUERY_RESULT (SESSION_ID, QUERY_KEY, %s) values ('%s', %s, ?)",
                         columnName, userSessionIdStr, queryKey);
                 int[] paramTypes = new int[]{converter.getSqlType(idFromList.getClass())};
@@ -196,6 +327,63 @@ public class QueryResultsManager implements QueryResultsManagerAPI {
         }
     }
 
+    /**
+     * Inserts identifiers by PostgreSQL COPY protocol, which is much faster than batched inserts.
+     * The driver API is accessed reflectively since the driver is not a compile-time dependency.
+     *
+     * @return false if the connection does not support COPY
+     */
+    protected boolean copyIn(Connection connection, String columnName, String userSessionIdStr, int queryKey, List idList)
+            throws SQLException {
+        Object copyManager;
+        Class<?> pgConnectionClass;
+        try {
+            pgConnectionClass = ReflectionHelper.loadClass("org.postgresql.PGConnection");
+            if (!connection.isWrapperFor(pgConnectionClass)) {
+                return false;
+            }
+            Object pgConnection = connection.unwrap(pgConnectionClass);
+            copyManager = pgConnectionClass.getMethod("getCopyAPI").invoke(pgConnection);
+        } catch (ReflectiveOperationException e) {
+            log.debug("PostgreSQL COPY is not available: {}", e.toString());
+            return false;
+        }
+
+        DbTypeConverter converter = persistence.getDbTypeConverter();
+        StringBuilder data = new StringBuilder(idList.size() * 64);
+        String prefix = userSessionIdStr + '\t' + queryKey + '\t';
+        for (Object id : idList) {
+            data.append(prefix);
+            String value = converter.getSqlObject(id).toString();
+            // escape characters having special meaning in COPY text format
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\': data.append("\\\\"); break;
+                    case '\t': data.append("\\t"); break;
+                    case '\n': data.append("\\n"); break;
+                    case '\r': data.append("\\r"); break;
+                    default: data.append(c);
+                }
+            }
+            data.append('\n');
+        }
+
+        String sql = "copy SYS_QUERY_RESULT (SESSION_ID, QUERY_KEY, " + columnName + ") from stdin";
+        try {
+            copyManager.getClass().getMethod("copyIn", String.class, Reader.class)
+                    .invoke(copyManager, sql, new StringReader(data.toString()));
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException)
+                throw (SQLException) e.getCause();
+            throw new RuntimeException("Error copying query results", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            log.debug("PostgreSQL COPY is not available: {}", e.toString());
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void delete(int queryKey) {
         DbTypeConverter converter = persistence.getDbTypeConverter();
@@ -219,18 +407,34 @@ public class QueryResultsManager implements QueryResultsManagerAPI {
 
     @Override
     public void deleteForCurrentSession() {
-        QueryRunner runner = new QueryRunner(persistence.getDataSource());
+        deleteForSessions(Collections.singletonList(userSessionSource.getUserSession().getId()));
+    }
+
+    @EventListener
+    protected void onUserLoggedOut(UserLoggedOutEvent event) {
+        if (!configuration.getConfig(GlobalConfig.class).getAllowQueryFromSelected()
+                || !configuration.getConfig(ServerConfig.class).getQueryResultsAsyncCleanup())
+            return;
+
+        UUID sessionId = event.getSource().getId();
         try {
-            DbTypeConverter converter = persistence.getDbTypeConverter();
-            UUID userSessionId = userSessionSource.getUserSession().getId();
-            String userSessionIdStr = converter.getSqlObject(userSessionId).toString();
-            runner.update("delete from SYS_QUERY_RESULT where SESSION_ID = '"
-                    + userSessionIdStr + "'");
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+            cleanupExecutor.submit(() -> {
+                try {
+                    deleteForSessions(Collections.singletonList(sessionId));
+                } catch (Exception e) {
+                    log.warn("Error deleting query results of session " + sessionId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Query results cleanup is stopped, results of {} will be deleted later", sessionId);
         }
     }
 
+    @PreDestroy
+    protected void shutdown() {
+        cleanupExecutor.shutdownNow();
+    }
+
     @Override
     public void deleteForInactiveSessions() {
         if (!AppContext.isStarted() || !clusterManager.isMaster()
@@ -243,34 +447,43 @@ public class QueryResultsManager implements QueryResultsManagerAPI {
     public void internalDeleteForInactiveSessions() {
         log.debug("Delete query results for inactive user sessions");
 
-        List<Object[]> rows;
+        // only distinct session ids are loaded, rows are deleted by the (SESSION_ID, QUERY_KEY) index
+        List<UUID> storedSessionIds;
         try (Transaction tx = persistence.createTransaction()) {
-            TypedQuery<Object[]> query = persistence.getEntityManager().createQuery(
-                    "select e.id, e.sessionId from sys$QueryResult e", Object[].class);
+            TypedQuery<UUID> query = persistence.getEntityManager().createQuery(
+                    "select distinct e.sessionId from sys$QueryResult e", UUID.class);
             query.setMaxResults(INACTIVE_DELETION_MAX);
-            rows = query.getResultList();
+            storedSessionIds = query.getResultList();
         }
-        if (rows.size() == INACTIVE_DELETION_MAX) {
-            log.debug("Processing " + INACTIVE_DELETION_MAX + " records, run again for the rest");
+        if (storedSessionIds.size() == INACTIVE_DELETION_MAX) {
+            log.debug("Processing " + INACTIVE_DELETION_MAX + " sessions, run again for the rest");
         }
 
         Set<UUID> sessionIds = userSessions.getUserSessionsStream().map(UserSession::getId).collect(Collectors.toSet());
 
-        List<Long> ids = new ArrayList<>();
-        int i = 0;
-        for (Object[] row : rows) {
-            if (!sessionIds.contains((UUID) row[1])) {
-                ids.add((Long) row[0]);
-            }
-            i++;
-            if (i % DELETE_BATCH_SIZE == 0) {
-                if (!ids.isEmpty())
-                    delete(ids);
-                ids.clear();
-            }
+        List<UUID> inactive = storedSessionIds.stream()
+                .filter(id -> !sessionIds.contains(id))
+                .collect(Collectors.toList());
+        for (int i = 0; i < inactive.size(); i += DELETE_BATCH_SIZE) {
+            deleteForSessions(inactive.subList(i, Math.min(i + DELETE_BATCH_SIZE, inactive.size())));
+        }
+    }
+
+    protected void deleteForSessions(List<UUID> sessionIds) {
+        if (sessionIds.isEmpty())
+            return;
+
+        log.debug("Deleting query results of " + sessionIds.size() + " sessions");
+        DbTypeConverter converter = persistence.getDbTypeConverter();
+        String str = sessionIds.stream()
+                .map(id -> "'" + converter.getSqlObject(id) + "'")
+                .collect(Collectors.joining(","));
+        QueryRunner runner = new QueryRunner(persistence.getDataSource());
+        try {
+            runner.update("delete from SYS_QUERY_RESULT where SESSION_ID in (" + str + ")");
+        } catch (SQLException e) {
+            throw new RuntimeException("Error deleting query result records", e);
         }
-        if (!ids.isEmpty())
-            delete(ids);
     }
 
     protected void delete(List<Long> ids) {
@@ -43,4 +43,13 @@ public interface Coordinator {
     boolean isLastExecutionFinished(ScheduledTask task, long now);
 
     long getLastFinished(ScheduledTask task);
+
+    /**
+     * Whether the coordinator itself selects a server for singleton tasks that have no permitted servers, by
+     * returning such tasks in {@link Context#getTasks()} only on the selected server. If false, these tasks are run
+     * on the master node.
+     */
+    default boolean assignsSingletonTasks() {
+        return false;
+    }
 }
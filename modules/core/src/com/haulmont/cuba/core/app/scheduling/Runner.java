@@ -40,4 +40,11 @@ public interface Runner {
      * @param userSession user session
      */
     void runTaskOnce(ScheduledTask task, long now, @Nullable UserSession userSession);
+
+    /**
+     * Writes to the database the execution history that is accumulated to be written in batches.
+     * Invoked by {@link Scheduling} on each processing of tasks.
+     */
+    default void flushExecutionHistory() {
+    }
 }
@@ -29,6 +29,7 @@ import com.haulmont.cuba.core.entity.ScheduledTask;
 import com.haulmont.cuba.core.entity.SchedulingType;
 import com.haulmont.cuba.core.global.*;
 import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.AuditInfoProvider;
 import com.haulmont.cuba.core.sys.SecurityContext;
 import com.haulmont.cuba.security.app.UserSessionsAPI;
 import com.haulmont.cuba.security.auth.AuthenticationManager;
@@ -43,6 +44,7 @@ import org.springframework.stereotype.Component;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -90,8 +92,19 @@ public class RunnerBean implements Runner {
     @Inject
     protected Configuration configuration;
 
+    @Inject
+    protected AuditInfoProvider auditInfoProvider;
+
     protected Map<String, UUID> userSessionIds = new ConcurrentHashMap<>();
 
+    protected final Object historyLock = new Object();
+
+    // executions to insert on the next flush, may already contain finish time
+    protected List<ScheduledExecution> newExecutions = new ArrayList<>();
+
+    // inserted executions to update with finish time on the next flush
+    protected List<ScheduledExecution> finishedExecutions = new ArrayList<>();
+
     @PostConstruct
     public void init() {
         int nThreads = configuration.getConfig(ServerConfig.class).getSchedulingThreadPoolSize();
@@ -130,12 +143,18 @@ public class RunnerBean implements Runner {
                         setSecurityContext(taskCopy, userSession);
                         ScheduledExecution execution = registerExecutionStart(taskCopy, now);
                         statisticsCounter.incCubaScheduledTasksCount();
+                        long start = timeSource.currentTimeMillis();
+                        boolean failed = false;
                         try {
                             Object result = executeTask(taskCopy);
                             registerExecutionFinish(taskCopy, execution, result, manually);
                         } catch (Throwable throwable) {
+                            failed = true;
                             registerExecutionFinish(taskCopy, execution, throwable, manually);
                             throw throwable;
+                        } finally {
+                            scheduling.registerExecution(taskCopy, start - now,
+                                    timeSource.currentTimeMillis() - start, failed);
                         }
                     } finally {
                         scheduling.setRunning(taskCopy, false);
@@ -168,6 +187,20 @@ public class RunnerBean implements Runner {
 
         log.trace("{}: registering execution start", task);
 
+        if (isExecutionHistoryBatched(task)) {
+            ScheduledExecution execution = metadata.create(ScheduledExecution.class);
+            execution.setTask(task);
+            execution.setStartTime(new Date(now));
+            execution.setServer(serverInfo.getServerId());
+            // the history is flushed without the task's security context, so the audit fields are taken now
+            execution.setCreateTs(timeSource.currentTimestamp());
+            execution.setCreatedBy(auditInfoProvider.getCurrentUserLogin());
+            synchronized (historyLock) {
+                newExecutions.add(execution);
+            }
+            return execution;
+        }
+
         Transaction tx = persistence.createTransaction();
         try {
             EntityManager em = persistence.getEntityManager();
@@ -192,28 +225,105 @@ public class RunnerBean implements Runner {
             return;
 
         log.trace("{}: registering execution finish", task);
+
+        if (isExecutionHistoryBatched(task)) {
+            synchronized (historyLock) {
+                execution.setFinishTime(timeSource.currentTimestamp());
+                execution.setResult(getExecutionResult(result, manually));
+                if (!newExecutions.contains(execution)) {
+                    finishedExecutions.add(execution);
+                }
+            }
+            return;
+        }
+
         Transaction tx = persistence.createTransaction();
         try {
             EntityManager em = persistence.getEntityManager();
             execution = em.merge(execution);
             execution.setFinishTime(timeSource.currentTimestamp());
+            execution.setResult(getExecutionResult(result, manually));
 
-            StringBuilder sb = new StringBuilder();
-            if (result != null) {
-                sb.append(result.toString());
-            }
+            tx.commit();
+        } finally {
+            tx.end();
+        }
+    }
 
-            if (manually) {
-                sb.append("\n{Executed manually}");
+    protected String getExecutionResult(Object result, boolean manually) {
+        StringBuilder sb = new StringBuilder();
+        if (result != null) {
+            sb.append(result.toString());
+        }
+
+        if (manually) {
+            sb.append("\n{Executed manually}");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Whether executions of the task are written in batches. Executions of singleton and fixed-delay tasks are used
+     * for coordination and are always written immediately.
+     */
+    protected boolean isExecutionHistoryBatched(ScheduledTask task) {
+        return !BooleanUtils.isTrue(task.getSingleton())
+                && task.getSchedulingType() != SchedulingType.FIXED_DELAY
+                && configuration.getConfig(ServerConfig.class).getSchedulingBatchExecutionHistory();
+    }
+
+    @Override
+    public void flushExecutionHistory() {
+        List<ScheduledExecution> toInsert = new ArrayList<>();
+        Map<UUID, ScheduledExecution> toFinish = new HashMap<>();
+        synchronized (historyLock) {
+            if (newExecutions.isEmpty() && finishedExecutions.isEmpty())
+                return;
+            // running tasks keep changing their instances, so copies are written
+            for (ScheduledExecution execution : newExecutions) {
+                toInsert.add(metadata.getTools().copy(execution));
             }
-            execution.setResult(sb.toString());
+            for (ScheduledExecution execution : finishedExecutions) {
+                toFinish.put(execution.getId(), metadata.getTools().copy(execution));
+            }
+            newExecutions = new ArrayList<>();
+            finishedExecutions = new ArrayList<>();
+        }
 
+        log.trace("Writing {} new and {} finished executions", toInsert.size(), toFinish.size());
+        try (Transaction tx = persistence.createTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+            for (ScheduledExecution execution : toInsert) {
+                execution.setTask(em.getReference(ScheduledTask.class, execution.getTask().getId()));
+                Date createTs = execution.getCreateTs();
+                String createdBy = execution.getCreatedBy();
+                em.persist(execution);
+                // persisting fills the audit fields from the flushing thread, restore the ones of the task run
+                execution.setCreateTs(createTs);
+                execution.setCreatedBy(createdBy);
+            }
+            if (!toFinish.isEmpty()) {
+                List<ScheduledExecution> executions = em.createQuery(
+                        "select e from sys$ScheduledExecution e where e.id in :ids", ScheduledExecution.class)
+                        .setParameter("ids", new ArrayList<>(toFinish.keySet()))
+                        .getResultList();
+                for (ScheduledExecution execution : executions) {
+                    ScheduledExecution finished = toFinish.get(execution.getId());
+                    execution.setFinishTime(finished.getFinishTime());
+                    execution.setResult(finished.getResult());
+                }
+            }
             tx.commit();
-        } finally {
-            tx.end();
+        } catch (Exception e) {
+            log.error("Unable to write {} scheduled task executions", toInsert.size() + toFinish.size(), e);
         }
     }
 
+    @PreDestroy
+    protected void destroy() {
+        flushExecutionHistory();
+    }
+
     protected Object executeTask(ScheduledTask task) {
         switch (task.getDefinedBy()) {
             case BEAN: {
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.app.scheduling;
+
+/**
+ * Execution statistics of a scheduled task on the current server since the server start.
+ */
+public class ScheduledTaskStatistics {
+
+    protected final String task;
+
+    protected long executions;
+    protected long failures;
+    protected long lastLagMs;
+    protected long maxLagMs;
+    protected long lastRunTimeMs;
+    protected long maxRunTimeMs;
+    protected long totalRunTimeMs;
+
+    public ScheduledTaskStatistics(String task) {
+        this.task = task;
+    }
+
+    /**
+     * @param lagMs     time between the planned start and the actual start of the execution
+     * @param runTimeMs execution time
+     * @param failed    whether the execution has thrown an exception
+     */
+    public synchronized void registerExecution(long lagMs, long runTimeMs, boolean failed) {
+        executions++;
+        if (failed)
+            failures++;
+        lastLagMs = lagMs;
+        maxLagMs = Math.max(maxLagMs, lagMs);
+        lastRunTimeMs = runTimeMs;
+        maxRunTimeMs = Math.max(maxRunTimeMs, runTimeMs);
+        totalRunTimeMs += runTimeMs;
+    }
+
+    public String getTask() {
+        return task;
+    }
+
+    public synchronized long getExecutions() {
+        return executions;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized long getLastLagMs() {
+        return lastLagMs;
+    }
+
+    public synchronized long getMaxLagMs() {
+        return maxLagMs;
+    }
+
+    public synchronized long getLastRunTimeMs() {
+        return lastRunTimeMs;
+    }
+
+    public synchronized long getMaxRunTimeMs() {
+        return maxRunTimeMs;
+    }
+
+    public synchronized long getAvgRunTimeMs() {
+        return executions == 0 ? 0 : totalRunTimeMs / executions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return task + ": executions=" + executions + ", failures=" + failures
+                + ", lag=" + lastLagMs + "ms (max " + maxLagMs + "ms)"
+                + ", runTime=" + lastRunTimeMs + "ms (avg " + getAvgRunTimeMs() + "ms, max " + maxRunTimeMs + "ms)";
+    }
+}
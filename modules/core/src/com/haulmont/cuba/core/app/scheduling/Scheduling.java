@@ -89,6 +89,25 @@ public class Scheduling implements SchedulingAPI {
 
     protected volatile long schedulingStartTime;
 
+    protected volatile long lastProcessingTimeMs;
+
+    // earliest time when a task can be started, to skip evaluation of tasks that are not due
+    protected Map<ScheduledTask, TaskTrigger> triggers = new ConcurrentHashMap<>();
+
+    protected Map<ScheduledTask, ScheduledTaskStatistics> taskStatistics = new ConcurrentHashMap<>();
+
+    protected Map<String, CronSequenceGenerator> cronGenerators = new ConcurrentHashMap<>();
+
+    protected static class TaskTrigger {
+        protected final Date updateTs;
+        protected final long notBefore;
+
+        protected TaskTrigger(Date updateTs, long notBefore) {
+            this.updateTs = updateTs;
+            this.notBefore = notBefore;
+        }
+    }
+
     @Override
     public void processScheduledTasks() {
         if (AppContext.isStarted()) {
@@ -98,6 +117,8 @@ public class Scheduling implements SchedulingAPI {
 
     @Override
     public void processScheduledTasks(boolean onlyIfActive) {
+        runner.flushExecutionHistory();
+
         if (onlyIfActive && !isActive())
             return;
 
@@ -110,13 +131,17 @@ public class Scheduling implements SchedulingAPI {
             StopWatch sw = new Slf4JStopWatch("Scheduling.processTasks");
             Coordinator.Context context = coordinator.begin();
             try {
+                long now = timeSource.currentTimeMillis();
                 for (ScheduledTask task : context.getTasks()) {
-                    processTask(task);
+                    if (isDue(task, now)) {
+                        processTask(task);
+                    }
                 }
             } finally {
                 coordinator.end(context);
             }
             sw.stop();
+            lastProcessingTimeMs = sw.getElapsedTime();
         } finally {
             authentication.end();
         }
@@ -141,6 +166,23 @@ public class Scheduling implements SchedulingAPI {
     @Override
     public void setFinished(ScheduledTask task) {
         lastFinishCache.put(task, timeSource.currentTimeMillis());
+        triggers.remove(task);
+    }
+
+    @Override
+    public void registerExecution(ScheduledTask task, long lagMs, long runTimeMs, boolean failed) {
+        taskStatistics.computeIfAbsent(task, t -> new ScheduledTaskStatistics(t.toString()))
+                .registerExecution(lagMs, runTimeMs, failed);
+    }
+
+    @Override
+    public Collection<ScheduledTaskStatistics> getTaskStatistics() {
+        return Collections.unmodifiableCollection(taskStatistics.values());
+    }
+
+    @Override
+    public long getLastProcessingTimeMs() {
+        return lastProcessingTimeMs;
     }
 
     @Override
@@ -271,11 +313,16 @@ public class Scheduling implements SchedulingAPI {
                             runTask(task, now);
                         } else {
                             log.trace("{}\n time has not come", task);
+                            if (lastStart < lastFinish) {
+                                // otherwise the task is running and the trigger is set when it finishes
+                                setTrigger(task, lastFinish + period);
+                            }
                         }
                     } else if (now >= lastStart + period) {
                         runTask(task, now);
                     } else {
                         log.trace("{}\n time has not come", task);
+                        setTrigger(task, lastStart + period);
                     }
                 }
             }
@@ -284,13 +331,32 @@ public class Scheduling implements SchedulingAPI {
         }
     }
 
+    /**
+     * @return false if the task is known to be not due at the given time, so it should not be processed
+     */
+    protected boolean isDue(ScheduledTask task, long now) {
+        TaskTrigger trigger = triggers.get(task);
+        if (trigger == null)
+            return true;
+        if (!Objects.equals(trigger.updateTs, task.getUpdateTs())) {
+            // the task has been changed
+            triggers.remove(task);
+            return true;
+        }
+        return now >= trigger.notBefore;
+    }
+
+    protected void setTrigger(ScheduledTask task, long notBefore) {
+        triggers.put(task, new TaskTrigger(task.getUpdateTs(), notBefore));
+    }
+
     protected boolean needToStartInTimeFrame(long now, long frame, long lastStart, long currentStart) {
         return currentStart <= now && now < currentStart + frame && lastStart < currentStart;
     }
 
     protected long calculateNextCronDate(ScheduledTask task, long date, long currentDate, long frame) {
         StopWatch sw = new Slf4JStopWatch("Cron next date calculations");
-        CronSequenceGenerator cronSequenceGenerator = new CronSequenceGenerator(task.getCron(), getCurrentTimeZone());
+        CronSequenceGenerator cronSequenceGenerator = getCronSequenceGenerator(task.getCron(), getCurrentTimeZone());
         //if last start = 0 (task never has run) or to far in the past, we use (NOW - FRAME) timestamp for pivot time
         //this approach should work fine cause cron works with absolute time
         long pivotPreviousTime = Math.max(date, currentDate - frame);
@@ -311,6 +377,12 @@ public class Scheduling implements SchedulingAPI {
         return currentStart.getTime();
     }
 
+    protected CronSequenceGenerator getCronSequenceGenerator(String cron, TimeZone timeZone) {
+        // generators are immutable, so they are shared
+        return cronGenerators.computeIfAbsent(cron + "|" + timeZone.getID(),
+                key -> new CronSequenceGenerator(cron, timeZone));
+    }
+
     protected long calculateNextPeriodDate(ScheduledTask task, long date, long currentDate, long frame, long period) {
         long repetitions = (currentDate - task.getStartDate().getTime()) / period;
         long currentStart = task.getStartDate().getTime() + repetitions * period;
@@ -380,7 +452,8 @@ public class Scheduling implements SchedulingAPI {
         String permittedServers = task.getPermittedServers();
 
         if (StringUtils.isBlank(permittedServers)) {
-            if (BooleanUtils.isTrue(task.getSingleton()) && !clusterManager.isMaster())
+            if (BooleanUtils.isTrue(task.getSingleton()) && !coordinator.assignsSingletonTasks()
+                    && !clusterManager.isMaster())
                 return null;
             else
                 return 0;
@@ -438,6 +511,7 @@ public class Scheduling implements SchedulingAPI {
         }
 
         lastStartCache.put(task, timeSource.currentTimeMillis());
+        triggers.remove(task);
         runner.runTaskOnce(task, timeSource.currentTimeMillis(), userSession);
     }
 }
\ No newline at end of file
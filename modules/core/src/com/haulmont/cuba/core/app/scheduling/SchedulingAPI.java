@@ -20,6 +20,7 @@ package com.haulmont.cuba.core.app.scheduling;
 import com.haulmont.cuba.core.entity.ScheduledTask;
 import com.haulmont.cuba.core.global.RunTaskOnceException;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -71,6 +72,25 @@ public interface SchedulingAPI {
      */
     void setFinished(ScheduledTask task);
 
+    /**
+     * Register statistics of a task execution. This method should not be used in the application code.
+     * @param task      task instance
+     * @param lagMs     time between the planned start and the actual start of the execution
+     * @param runTimeMs execution time
+     * @param failed    whether the execution has thrown an exception
+     */
+    void registerExecution(ScheduledTask task, long lagMs, long runTimeMs, boolean failed);
+
+    /**
+     * @return execution statistics of tasks run on this server
+     */
+    Collection<ScheduledTaskStatistics> getTaskStatistics();
+
+    /**
+     * @return duration of the last processing of active tasks in milliseconds
+     */
+    long getLastProcessingTimeMs();
+
     /**
      * @return a list of active task instances in detached state
      */
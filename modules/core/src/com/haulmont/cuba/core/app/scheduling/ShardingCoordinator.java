@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.app.scheduling;
+
+import com.google.common.hash.Hashing;
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.app.ClusterManagerAPI;
+import com.haulmont.cuba.core.entity.ScheduledTask;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.persistence.LockModeType;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Implementation of {@link Coordinator} interface that distributes singleton tasks between cluster nodes by
+ * consistent hashing of task identifiers instead of locking the tasks in the database on each processing.
+ * <p>
+ * A singleton task without permitted servers is processed only by the node it is mapped to on the hash ring built
+ * from names of active cluster nodes. When a node joins or leaves the cluster, only the tasks of that node change
+ * their owner. While nodes receive a new cluster view, a task can be started on two nodes, so use
+ * {@link DbBasedCoordinator} if tasks must never overlap. Singleton tasks with permitted servers are still
+ * synchronized by locking their rows.
+ * <p>
+ * To use this coordinator, register it in the <code>spring.xml</code> of the core module:
+ * <pre>&lt;bean name="cuba_SchedulingCoordinator" class="com.haulmont.cuba.core.app.scheduling.ShardingCoordinator"/&gt;</pre>
+ */
+public class ShardingCoordinator extends DbBasedCoordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardingCoordinator.class);
+
+    @Inject
+    protected ClusterManagerAPI clusterManager;
+
+    protected volatile HashRing ring = new HashRing(Collections.emptyList());
+
+    @Override
+    public boolean assignsSingletonTasks() {
+        return true;
+    }
+
+    @Override
+    protected synchronized List<ScheduledTask> getTasks() {
+        log.trace("Read all active tasks from DB");
+        EntityManager em = persistence.getEntityManager();
+        List<ScheduledTask> tasks = em.createQuery("select t from sys$ScheduledTask t where t.active = true",
+                ScheduledTask.class)
+                .getResultList();
+
+        String me = clusterManager.getCurrentMemberName();
+        HashRing ring = getRing();
+
+        List<ScheduledTask> result = new ArrayList<>(tasks.size());
+        boolean lockRequired = false;
+        for (ScheduledTask task : tasks) {
+            if (!BooleanUtils.isTrue(task.getSingleton())) {
+                result.add(task);
+            } else if (StringUtils.isNotBlank(task.getPermittedServers())) {
+                lockRequired = true;
+                result.add(task);
+            } else if (me == null || me.equals(ring.getOwner(task.getId().toString()))) {
+                // the cluster is not started or the task belongs to this node
+                result.add(task);
+            }
+        }
+
+        if (lockRequired) {
+            log.trace("Lock active singleton tasks with permitted servers");
+            em.createQuery("select t from sys$ScheduledTask t where t.active = true and t.singleton = true " +
+                    "and t.permittedServers is not null")
+                    .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                    .getResultList();
+        }
+        return result;
+    }
+
+    protected HashRing getRing() {
+        List<String> members = clusterManager.getMemberNames();
+        HashRing ring = this.ring;
+        if (!ring.getMembers().equals(members)) {
+            log.debug("Cluster members changed, distributing singleton tasks between {}", members);
+            ring = new HashRing(members);
+            this.ring = ring;
+        }
+        return ring;
+    }
+
+    /**
+     * Consistent hash ring of cluster nodes. Each node is placed on the ring several times to distribute keys evenly.
+     */
+    protected static class HashRing {
+
+        protected static final int VIRTUAL_NODES = 64;
+
+        protected final List<String> members;
+        protected final TreeMap<Integer, String> nodes = new TreeMap<>();
+
+        protected HashRing(List<String> members) {
+            this.members = members;
+            for (String member : members) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    nodes.put(hash(member + "#" + i), member);
+                }
+            }
+        }
+
+        public List<String> getMembers() {
+            return members;
+        }
+
+        /**
+         * @return name of the node owning the key or null if there are no nodes
+         */
+        @Nullable
+        public String getOwner(String key) {
+            if (nodes.isEmpty())
+                return null;
+            Map.Entry<Integer, String> entry = nodes.ceilingEntry(hash(key));
+            return entry != null ? entry.getValue() : nodes.firstEntry().getValue();
+        }
+
+        protected static int hash(String value) {
+            return Hashing.murmur3_32().hashString(value, StandardCharsets.UTF_8).asInt();
+        }
+    }
+}
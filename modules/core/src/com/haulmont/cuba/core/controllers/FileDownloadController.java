@@ -88,9 +88,13 @@ public class FileDownloadController {
             InputStream is = null;
             ServletOutputStream os = null;
             try {
-                is = fd != null ? fileStorage.openStream(fd) : FileUtils.openInputStream(file);
                 os = response.getOutputStream();
-                IOUtils.copy(is, os);
+                if (fd != null) {
+                    fileStorage.writeTo(fd, os);
+                } else {
+                    is = FileUtils.openInputStream(file);
+                    IOUtils.copy(is, os);
+                }
                 os.flush();
             } catch (FileStorageException e) {
                 log.error("Unable to download file", e);
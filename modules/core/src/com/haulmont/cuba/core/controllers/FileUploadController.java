@@ -69,6 +69,11 @@ public class FileUploadController {
 
             try {
                 fileStorage.saveStream(fd, is);
+                // the descriptor is usually committed by the client after uploading, so return the computed checksum
+                if (fd.getChecksum() != null) {
+                    response.setContentType("text/plain");
+                    response.getWriter().write(fd.getChecksum());
+                }
             } catch (FileStorageException e) {
                 log.error("Unable to upload file", e);
                 response.sendError(e.getType().getHttpStatus());
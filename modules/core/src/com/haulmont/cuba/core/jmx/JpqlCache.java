@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.jmx;
+
+import com.google.common.cache.CacheStats;
+import com.haulmont.cuba.core.global.QueryTransformerFactory;
+import com.haulmont.cuba.core.sys.jpql.QueryTreeCache;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+
+@Component("cuba_JpqlCacheMBean")
+public class JpqlCache implements JpqlCacheMBean {
+
+    @Inject
+    protected QueryTransformerFactory queryTransformerFactory;
+
+    @Override
+    public int getParseCacheMaxSize() {
+        return queryTransformerFactory.getTreeCache().getMaxSize();
+    }
+
+    @Override
+    public long getParseCacheSize() {
+        return queryTransformerFactory.getTreeCache().getSize();
+    }
+
+    @Override
+    public double getParseCacheHitRatio() {
+        return queryTransformerFactory.getTreeCache().getStats().hitRate();
+    }
+
+    @Override
+    public long getParseCount() {
+        return queryTransformerFactory.getTreeCache().getParseCount();
+    }
+
+    @Override
+    public long getAvgParseTimeMicros() {
+        return queryTransformerFactory.getTreeCache().getAvgParseTimeMicros();
+    }
+
+    @Override
+    public long getTransformationCacheSize() {
+        return queryTransformerFactory.getTransformationCacheSize();
+    }
+
+    @Override
+    public double getTransformationCacheHitRatio() {
+        return queryTransformerFactory.getTransformationCacheStats().hitRate();
+    }
+
+    @Override
+    public String printStatistics() {
+        QueryTreeCache treeCache = queryTransformerFactory.getTreeCache();
+        CacheStats treeStats = treeCache.getStats();
+        CacheStats transformationStats = queryTransformerFactory.getTransformationCacheStats();
+        return String.format("Parse cache: size=%d, maxSize=%d, hits=%d, misses=%d, evictions=%d, hitRatio=%.3f\n" +
+                        "Parser: invocations=%d, avgTime=%d us\n" +
+                        "Transformation cache: size=%d, hits=%d, misses=%d, evictions=%d, hitRatio=%.3f",
+                treeCache.getSize(), treeCache.getMaxSize(), treeStats.hitCount(), treeStats.missCount(),
+                treeStats.evictionCount(), treeStats.hitRate(),
+                treeCache.getParseCount(), treeCache.getAvgParseTimeMicros(),
+                queryTransformerFactory.getTransformationCacheSize(), transformationStats.hitCount(),
+                transformationStats.missCount(), transformationStats.evictionCount(), transformationStats.hitRate());
+    }
+
+    @Override
+    public String clear() {
+        queryTransformerFactory.clearCaches();
+        return "Done";
+    }
+}
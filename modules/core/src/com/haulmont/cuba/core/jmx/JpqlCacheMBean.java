@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.jmx;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+@ManagedResource(description = "Manages caches of parsed and transformed JPQL queries")
+public interface JpqlCacheMBean {
+
+    @ManagedAttribute(description = "Maximum number of cached query trees")
+    int getParseCacheMaxSize();
+
+    @ManagedAttribute(description = "Current number of cached query trees")
+    long getParseCacheSize();
+
+    @ManagedAttribute(description = "Ratio of query trees taken from the cache")
+    double getParseCacheHitRatio();
+
+    @ManagedAttribute(description = "Number of times the JPQL parser was invoked")
+    long getParseCount();
+
+    @ManagedAttribute(description = "Average time of parsing a query in microseconds")
+    long getAvgParseTimeMicros();
+
+    @ManagedAttribute(description = "Current number of memoized transformation results")
+    long getTransformationCacheSize();
+
+    @ManagedAttribute(description = "Ratio of transformation results taken from the cache")
+    double getTransformationCacheHitRatio();
+
+    @ManagedOperation(description = "Print statistics of the caches")
+    String printStatistics();
+
+    @ManagedOperation(description = "Discard all cached query trees and transformation results")
+    String clear();
+}
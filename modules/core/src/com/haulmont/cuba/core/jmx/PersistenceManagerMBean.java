@@ -49,6 +49,12 @@ public interface PersistenceManagerMBean {
     @ManagedOperation(description = "Print list of views with properties from ViewRepository as HTML markup")
     String printViewRepositoryDumpHtml();
 
+    @ManagedOperation(description = "Show fetch plans calculated from views and cached by FetchGroupManager")
+    String printFetchPlanCache();
+
+    @ManagedOperation(description = "Clear cache of fetch plans calculated from views")
+    String clearFetchPlanCache();
+
     /**
      * Start the database update.
      * @param token 'update' string must be passed to avoid accidental invocation
@@ -20,6 +20,7 @@ import com.google.common.base.Strings;
 import com.haulmont.cuba.core.global.UuidProvider;
 import com.haulmont.cuba.core.sys.entitycache.QueryCache;
 import com.haulmont.cuba.core.sys.entitycache.QueryCacheManager;
+import com.haulmont.cuba.core.sys.entitycache.QueryCacheStats;
 import com.haulmont.cuba.core.sys.entitycache.QueryKey;
 import com.haulmont.cuba.core.sys.entitycache.QueryResult;
 import org.springframework.stereotype.Component;
@@ -45,6 +46,18 @@ public class QueryCacheSupport implements QueryCacheSupportMBean {
         return queryCache.size();
     }
 
+    @Override
+    public long getHitCount() {
+        QueryCacheStats stats = queryCache.getTotalStatistics();
+        return stats != null ? stats.getHitCount() : 0;
+    }
+
+    @Override
+    public long getMissCount() {
+        QueryCacheStats stats = queryCache.getTotalStatistics();
+        return stats != null ? stats.getMissCount() : 0;
+    }
+
     @Override
     public String evictAll() {
         queryCacheMgr.invalidateAll(true);
@@ -109,4 +122,24 @@ public class QueryCacheSupport implements QueryCacheSupportMBean {
         }
         return null;
     }
+
+    @Override
+    public String printStatistics() {
+        QueryCacheStats total = queryCache.getTotalStatistics();
+        if (total == null) {
+            return "Statistics is not supported by " + queryCache.getClass().getName();
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append("Total: ").append(formatStats(total)).append("\n");
+        for (QueryCacheStats stats : queryCache.getStatistics().values()) {
+            builder.append(stats.getType()).append(": ").append(formatStats(stats)).append("\n");
+        }
+        return builder.toString();
+    }
+
+    protected String formatStats(QueryCacheStats stats) {
+        return String.format("hits=%d, misses=%d, hitRate=%.2f, evictions=%d, invalidations=%d",
+                stats.getHitCount(), stats.getMissCount(), stats.getHitRate(),
+                stats.getEvictionCount(), stats.getInvalidationCount());
+    }
 }
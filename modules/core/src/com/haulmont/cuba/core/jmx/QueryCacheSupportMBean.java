@@ -27,6 +27,12 @@ public interface QueryCacheSupportMBean {
     @ManagedAttribute(description = "Current number of cached queries")
     long getSize();
 
+    @ManagedAttribute(description = "Number of times cached query results were returned")
+    long getHitCount();
+
+    @ManagedAttribute(description = "Number of times query results were not found in the cache or were stale")
+    long getMissCount();
+
     @ManagedOperation(description = "Discard all query results in the cache")
     String evictAll();
 
@@ -50,4 +56,7 @@ public interface QueryCacheSupportMBean {
             @ManagedOperationParameter(name = "id", description = "query identifier")
     })
     String printQueryResultsByQueryId(String id);
+
+    @ManagedOperation(description = "Print hit, miss, eviction and invalidation counts by entity")
+    String printStatistics();
 }
@@ -21,6 +21,7 @@ import com.haulmont.cuba.core.EntityManager;
 import com.haulmont.cuba.core.Persistence;
 import com.haulmont.cuba.core.Query;
 import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.app.scheduling.ScheduledTaskStatistics;
 import com.haulmont.cuba.core.app.scheduling.SchedulingAPI;
 import com.haulmont.cuba.core.entity.ScheduledTask;
 import com.haulmont.cuba.core.global.TimeSource;
@@ -33,9 +34,7 @@ import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
 import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
 
 @Component("cuba_SchedulingMBean")
 public class Scheduling implements SchedulingMBean {
@@ -60,6 +59,22 @@ public class Scheduling implements SchedulingMBean {
         scheduling.setActive(value);
     }
 
+    @Override
+    public long getLastProcessingTimeMs() {
+        return scheduling.getLastProcessingTimeMs();
+    }
+
+    @Override
+    public String printTaskStatistics() {
+        StringBuilder sb = new StringBuilder();
+        List<ScheduledTaskStatistics> statistics = new ArrayList<>(scheduling.getTaskStatistics());
+        statistics.sort(Comparator.comparing(ScheduledTaskStatistics::getMaxLagMs).reversed());
+        for (ScheduledTaskStatistics taskStatistics : statistics) {
+            sb.append(taskStatistics).append("\n");
+        }
+        return sb.toString();
+    }
+
     @Override
     public String printActiveScheduledTasks() {
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
@@ -41,9 +41,18 @@ public interface SchedulingMBean {
      */
     void setActive(boolean value);
 
+    /**
+     * @return duration of the last processing of active tasks in milliseconds
+     * @see com.haulmont.cuba.core.app.scheduling.SchedulingAPI#getLastProcessingTimeMs()
+     */
+    long getLastProcessingTimeMs();
+
     @ManagedOperation(description = "Print active scheduled tasks")
     String printActiveScheduledTasks();
 
+    @ManagedOperation(description = "Print start lag and run time statistics of tasks executed on this server")
+    String printTaskStatistics();
+
     @ManagedOperation(description = "Starts the processing once, regardless of 'active' attribute")
     String processScheduledTasks();
 
@@ -18,9 +18,12 @@
 package com.haulmont.cuba.core.jmx;
 
 import com.haulmont.cuba.core.app.UniqueNumbersAPI;
+import com.haulmont.cuba.core.sys.NumberBlockGenerator;
+import com.haulmont.cuba.core.sys.NumberIdCache;
 
 import org.springframework.stereotype.Component;
 import javax.inject.Inject;
+import java.util.Map;
 
 @Component("cuba_UniqueNumbersMBean")
 public class UniqueNumbers implements UniqueNumbersMBean {
@@ -28,6 +31,9 @@ public class UniqueNumbers implements UniqueNumbersMBean {
     @Inject
     protected UniqueNumbersAPI uniqueNumbers;
 
+    @Inject
+    protected NumberIdCache numberIdCache;
+
     @Override
     public long getCurrentNumber(String domain) {
         return uniqueNumbers.getCurrentNumber(domain);
@@ -42,4 +48,22 @@ public class UniqueNumbers implements UniqueNumbersMBean {
     public long getNextNumber(String domain) {
         return uniqueNumbers.getNextNumber(domain);
     }
+
+    @Override
+    public String printNumberIdStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("entity, range size, ranges per block, blocks, prefetched, waited, avg time ms, max time ms\n");
+        for (Map.Entry<String, NumberBlockGenerator> entry : numberIdCache.getGenerators().entrySet()) {
+            NumberBlockGenerator generator = entry.getValue();
+            sb.append(entry.getKey()).append(", ")
+                    .append(generator.getRangeSize()).append(", ")
+                    .append(generator.getRangesPerBlock()).append(", ")
+                    .append(generator.getReserveCount()).append(", ")
+                    .append(generator.getPrefetchCount()).append(", ")
+                    .append(generator.getWaitCount()).append(", ")
+                    .append(generator.getAvgReserveTimeMs()).append(", ")
+                    .append(generator.getMaxReserveTimeMs()).append("\n");
+        }
+        return sb.toString();
+    }
 }
\ No newline at end of file
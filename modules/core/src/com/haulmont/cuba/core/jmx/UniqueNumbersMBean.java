@@ -16,6 +16,7 @@
  */
 package com.haulmont.cuba.core.jmx;
 
+import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedOperationParameter;
 import org.springframework.jmx.export.annotation.ManagedOperationParameters;
 
@@ -36,4 +37,7 @@ public interface UniqueNumbersMBean {
 
     @ManagedOperationParameters({@ManagedOperationParameter(name = "domain", description = "")})
     long getNextNumber(String domain);
+
+    @ManagedOperation(description = "Print entity id block sizes and the time of obtaining blocks from the sequences")
+    String printNumberIdStatistics();
 }
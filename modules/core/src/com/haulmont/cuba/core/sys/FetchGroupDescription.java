@@ -56,4 +56,15 @@ public class FetchGroupDescription {
     public boolean hasBatches() {
         return batches;
     }
+
+    /**
+     * @return a copy of this description that throws {@code UnsupportedOperationException} on modification
+     */
+    public FetchGroupDescription toImmutable() {
+        FetchGroupDescription copy = new FetchGroupDescription();
+        copy.fetchGroupAttributes = Collections.unmodifiableSet(new TreeSet<>(fetchGroupAttributes));
+        copy.fetchHints = Collections.unmodifiableMap(new TreeMap<>(fetchHints));
+        copy.batches = batches;
+        return copy;
+    }
 }
@@ -17,11 +17,15 @@
 
 package com.haulmont.cuba.core.sys;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.haulmont.bali.util.Preconditions;
 import com.haulmont.chile.core.model.MetaClass;
 import com.haulmont.chile.core.model.MetaProperty;
 import com.haulmont.chile.core.model.MetaPropertyPath;
 import com.haulmont.chile.core.model.Range;
+import com.haulmont.cuba.core.app.ServerConfig;
 import com.haulmont.cuba.core.entity.BaseUuidEntity;
 import com.haulmont.cuba.core.entity.EmbeddableEntity;
 import com.haulmont.cuba.core.entity.Entity;
@@ -39,6 +43,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.ClassUtils;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.lang.reflect.Method;
 import java.util.*;
@@ -60,6 +65,21 @@ public class FetchGroupManager {
     @Inject
     private ViewRepository viewRepository;
 
+    @Inject
+    private ServerConfig serverConfig;
+
+    protected Cache<FetchPlanKey, FetchGroupDescription> planCache;
+
+    protected volatile long viewRepositoryVersion;
+
+    @PostConstruct
+    protected void init() {
+        int cacheSize = serverConfig.getFetchPlanCacheSize();
+        if (cacheSize > 0) {
+            planCache = CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats().build();
+        }
+    }
+
     public void setView(JpaQuery query, String queryString, @Nullable View view, boolean singleResultExpected) {
         Preconditions.checkNotNullArgument(query, "query is null");
         if (view != null) {
@@ -128,10 +148,111 @@ public class FetchGroupManager {
         }
     }
 
+    /**
+     * Returns attributes and fetch hints for loading the view by the query. Results are cached by the query text,
+     * the structure of the view and the flags, and are discarded when views are redeployed.
+     *
+     * @return description that must not be modified
+     */
     public FetchGroupDescription calculateFetchGroup(String queryString,
                                                      View view,
                                                      boolean singleResultExpected,
                                                      boolean useFetchGroup) {
+        if (planCache == null) {
+            return doCalculateFetchGroup(queryString, view, singleResultExpected, useFetchGroup);
+        }
+
+        long version = getViewRepositoryVersion();
+        if (version != viewRepositoryVersion) {
+            planCache.invalidateAll();
+            viewRepositoryVersion = version;
+        }
+
+        FetchPlanKey key = new FetchPlanKey(queryString, getViewKey(view), singleResultExpected, useFetchGroup);
+        FetchGroupDescription description = planCache.getIfPresent(key);
+        if (description == null) {
+            description = doCalculateFetchGroup(queryString, view, singleResultExpected, useFetchGroup).toImmutable();
+            // don't cache the plan if views were redeployed while it was calculated
+            if (version == getViewRepositoryVersion()) {
+                planCache.put(key, description);
+            }
+        }
+        return description;
+    }
+
+    /**
+     * Discards cached fetch plans.
+     */
+    public void clearCache() {
+        if (planCache != null) {
+            planCache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return cached fetch plans with attributes and JOIN/BATCH decisions, for diagnostics
+     */
+    public String printCache() {
+        if (planCache == null) {
+            return "Fetch plan cache is disabled";
+        }
+        CacheStats stats = planCache.stats();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Fetch plans: size=%d, hits=%d, misses=%d, evictions=%d, hitRatio=%.3f\n",
+                planCache.size(), stats.hitCount(), stats.missCount(), stats.evictionCount(), stats.hitRate()));
+        for (Map.Entry<FetchPlanKey, FetchGroupDescription> entry : planCache.asMap().entrySet()) {
+            FetchPlanKey key = entry.getKey();
+            FetchGroupDescription description = entry.getValue();
+            sb.append("\n").append(key.viewKey).append("\n");
+            sb.append("  query: ").append(key.queryString).append("\n");
+            sb.append("  singleResult=").append(key.singleResultExpected)
+                    .append(", ").append(key.useFetchGroup ? "fetch group" : "load group").append("\n");
+            sb.append("  attributes: ").append(String.join(", ", description.getAttributes())).append("\n");
+            String fetchModes = description.getHints().entrySet().stream()
+                    .map(e -> e.getKey() + "=" + (e.getValue().equals(QueryHints.LEFT_FETCH) ? "JOIN" : "BATCH"))
+                    .collect(Collectors.joining(", "));
+            sb.append("  fetch modes: ").append(fetchModes.isEmpty() ? "<none>" : fetchModes).append("\n");
+        }
+        return sb.toString();
+    }
+
+    protected long getViewRepositoryVersion() {
+        return viewRepository instanceof AbstractViewRepository ? ((AbstractViewRepository) viewRepository).getVersion() : 0;
+    }
+
+    /**
+     * Builds a string reflecting everything in the view graph that affects the fetch plan. Views are copied
+     * on each request to the repository, so their identity cannot be used.
+     */
+    protected String getViewKey(View view) {
+        StringBuilder sb = new StringBuilder();
+        appendViewKey(sb, view);
+        return sb.toString();
+    }
+
+    private void appendViewKey(StringBuilder sb, View view) {
+        sb.append(view.getEntityClass().getName()).append('/').append(view.getName()).append('{');
+        boolean first = true;
+        for (ViewProperty property : view.getProperties()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(property.getName());
+            if (property.getFetchMode() != FetchMode.AUTO) {
+                sb.append(':').append(property.getFetchMode());
+            }
+            if (property.getView() != null) {
+                appendViewKey(sb, property.getView());
+            }
+        }
+        sb.append('}');
+    }
+
+    protected FetchGroupDescription doCalculateFetchGroup(String queryString,
+                                                          View view,
+                                                          boolean singleResultExpected,
+                                                          boolean useFetchGroup) {
         Set<FetchGroupField> fetchGroupFields = new LinkedHashSet<>();
         processView(view, null, fetchGroupFields, useFetchGroup);
 
@@ -439,6 +560,42 @@ public class FetchGroupManager {
         return metadataTools.isCacheable(metaClass) ? FetchMode.UNDEFINED : fetchMode;
     }
 
+    protected static class FetchPlanKey {
+        private final String queryString;
+        private final String viewKey;
+        private final boolean singleResultExpected;
+        private final boolean useFetchGroup;
+
+        public FetchPlanKey(String queryString, String viewKey, boolean singleResultExpected, boolean useFetchGroup) {
+            this.queryString = queryString;
+            this.viewKey = viewKey;
+            this.singleResultExpected = singleResultExpected;
+            this.useFetchGroup = useFetchGroup;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            FetchPlanKey that = (FetchPlanKey) o;
+
+            return singleResultExpected == that.singleResultExpected
+                    && useFetchGroup == that.useFetchGroup
+                    && queryString.equals(that.queryString)
+                    && viewKey.equals(that.viewKey);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = queryString.hashCode();
+            result = 31 * result + viewKey.hashCode();
+            result = 31 * result + (singleResultExpected ? 1 : 0);
+            result = 31 * result + (useFetchGroup ? 1 : 0);
+            return result;
+        }
+    }
+
     protected static class FetchGroupField {
         private final MetaClass metaClass;
         private FetchMode fetchMode;
@@ -70,10 +70,27 @@ public class PersistenceSecurityImpl extends SecurityImpl implements Persistence
     @Inject
     protected GlobalConfig globalConfig;
 
+    @Inject
+    protected QueryTransformerFactory queryTransformerFactory;
+
+    /**
+     * Query with applied constraints, memoized by {@link QueryTransformerFactory}.
+     */
+    protected static class ConstrainedQuery {
+        protected final String queryString;
+        protected final Set<String> addedParams;
+
+        protected ConstrainedQuery(String queryString, Set<String> addedParams) {
+            this.queryString = queryString;
+            this.addedParams = addedParams;
+        }
+    }
+
     @Override
     public boolean applyConstraints(Query query) {
-        QueryParser parser = QueryTransformerFactory.createParser(query.getQueryString());
-        String entityName = parser.getEntityName();
+        String queryString = query.getQueryString();
+        String entityName = queryTransformerFactory.transformCached(queryString, "entityName",
+                qs -> QueryTransformerFactory.createParser(qs).getEntityName());
 
         List<ConstraintData> constraints = getConstraints(metadata.getClassNN(entityName), constraint ->
                 constraint.getCheckType().database()
@@ -83,14 +100,20 @@ public class PersistenceSecurityImpl extends SecurityImpl implements Persistence
         if (constraints.isEmpty())
             return false;
 
-        QueryTransformer transformer = QueryTransformerFactory.createTransformer(query.getQueryString());
-
+        List<List<String>> constraintsKey = new ArrayList<>(constraints.size());
         for (ConstraintData constraint : constraints) {
-            processConstraint(transformer, constraint, entityName);
+            constraintsKey.add(Arrays.asList(constraint.getJoin(), constraint.getWhereClause()));
         }
-        query.setQueryString(transformer.getResult());
+        ConstrainedQuery constrainedQuery = queryTransformerFactory.transformCached(queryString, constraintsKey, qs -> {
+            QueryTransformer transformer = QueryTransformerFactory.createTransformer(qs);
+            for (ConstraintData constraint : constraints) {
+                processConstraint(transformer, constraint, entityName);
+            }
+            return new ConstrainedQuery(transformer.getResult(), new HashSet<>(transformer.getAddedParams()));
+        });
+        query.setQueryString(constrainedQuery.queryString);
 
-        for (String paramName : transformer.getAddedParams()) {
+        for (String paramName : constrainedQuery.addedParams) {
             setQueryParam(query, paramName);
         }
         return true;
@@ -130,16 +153,15 @@ public class PersistenceSecurityImpl extends SecurityImpl implements Persistence
 
     @Override
     public boolean filterByConstraints(Collection<Entity> entities) {
-        boolean filtered = false;
-        for (Iterator<Entity> iterator = entities.iterator(); iterator.hasNext(); ) {
-            Entity entity = iterator.next();
-            if (!isPermittedInMemory(entity)) {
-                //we ignore situations when the collection is immutable
-                iterator.remove();
-                filtered = true;
-            }
+        List<Entity> permitted = filterPermitted(entities, ConstraintOperationType.READ);
+        if (permitted.size() == entities.size()) {
+            return false;
         }
-        return filtered;
+        Set<Entity> permittedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        permittedSet.addAll(permitted);
+        //we ignore situations when the collection is immutable
+        entities.removeIf(entity -> !permittedSet.contains(entity));
+        return true;
     }
 
     @Override
@@ -39,6 +39,7 @@ import org.eclipse.persistence.config.QueryHints;
 import org.eclipse.persistence.internal.helper.CubaUtil;
 import org.eclipse.persistence.internal.jpa.EJBQueryImpl;
 import org.eclipse.persistence.jpa.JpaQuery;
+import org.eclipse.persistence.queries.Cursor;
 import org.eclipse.persistence.queries.DatabaseQuery;
 import org.eclipse.persistence.queries.ObjectLevelReadQuery;
 import org.slf4j.Logger;
@@ -408,6 +409,29 @@ public class QueryImpl<T> implements TypedQuery<T> {
         }
     }
 
+    /**
+     * Execute a SELECT query and return an ORM cursor over the results.
+     * <br>Entity listeners are fired and the persistence context is flushed before execution the same way as for
+     * {@link #getResultList()}, but the results are not taken from the query cache and views are not fetched
+     * for them: the caller reads the cursor by chunks and is responsible for fetching and closing it.
+     *
+     * @param pageSize number of rows to read from the database at once
+     * @return the cursor
+     */
+    public Cursor getResultCursor(int pageSize) {
+        if (log.isDebugEnabled())
+            log.debug(queryString.replaceAll("[\\t\\n\\x0B\\f\\r]", " "));
+
+        singleResultExpected = false;
+
+        JpaQuery<T> jpaQuery = getQuery();
+        jpaQuery.setHint(QueryHints.CURSOR, HintValues.TRUE);
+        jpaQuery.setHint(QueryHints.CURSOR_PAGE_SIZE, pageSize);
+        jpaQuery.setHint(QueryHints.JDBC_FETCH_SIZE, pageSize);
+        preExecute(jpaQuery);
+        return (Cursor) jpaQuery.getSingleResult();
+    }
+
     @Override
     public int executeUpdate() {
         JpaQuery<T> jpaQuery = getQuery();
@@ -40,15 +40,22 @@ public class ConfigurationImpl implements Configuration, BeanFactoryPostProcesso
 
     protected Map<Class, ConfigHandler> cache = new ConcurrentHashMap<>();
 
+    // proxies are stateless, so one instance per interface is enough
+    protected Map<Class, Config> proxies = new ConcurrentHashMap<>();
+
     @Override
     public <T extends Config> T getConfig(Class<T> configInterface) {
-        ConfigHandler handler = cache.get(configInterface);
-        if (handler == null) {
-            handler = new ConfigHandler(createPersister(), configInterface);
-            cache.put(configInterface, handler);
+        Config proxy = proxies.get(configInterface);
+        if (proxy == null) {
+            ConfigHandler handler = cache.get(configInterface);
+            if (handler == null) {
+                handler = new ConfigHandler(createPersister(), configInterface);
+                cache.put(configInterface, handler);
+            }
+            ClassLoader classLoader = configInterface.getClassLoader();
+            proxy = (Config) Proxy.newProxyInstance(classLoader, new Class[]{configInterface}, handler);
+            proxies.put(configInterface, proxy);
         }
-        ClassLoader classLoader = configInterface.getClassLoader();
-        Object proxy = Proxy.newProxyInstance(classLoader, new Class[]{configInterface}, handler);
         return configInterface.cast(proxy);
     }
 
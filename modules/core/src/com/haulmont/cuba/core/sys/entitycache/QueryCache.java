@@ -17,6 +17,7 @@
 package com.haulmont.cuba.core.sys.entitycache;
 
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -85,4 +86,19 @@ public interface QueryCache {
      * the map doesn't affect the cache.
      */
     Map<QueryKey, QueryResult> asMap();
+
+    /**
+     * Returns statistics of this cache grouped by result metaClass name.
+     * Implementations that don't collect statistics return an empty map.
+     */
+    default Map<String, QueryCacheStats> getStatistics() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Returns overall statistics of this cache or null if the implementation doesn't collect statistics.
+     */
+    default QueryCacheStats getTotalStatistics() {
+        return null;
+    }
 }
@@ -24,6 +24,7 @@ import com.haulmont.cuba.core.EntityManager;
 import com.haulmont.cuba.core.Persistence;
 import com.haulmont.cuba.core.app.ClusterListenerAdapter;
 import com.haulmont.cuba.core.app.ClusterManagerAPI;
+import com.haulmont.cuba.core.app.MergeableClusterMessage;
 import com.haulmont.cuba.core.entity.BaseGenericIdEntity;
 import com.haulmont.cuba.core.global.Metadata;
 import com.haulmont.cuba.core.global.View;
@@ -35,7 +36,6 @@ import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.persistence.MappedSuperclass;
 import javax.persistence.TypedQuery;
-import java.io.Serializable;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -272,7 +272,7 @@ public class QueryCacheManager {
         return newRelatedTypes;
     }
 
-    protected static class InvalidateQueryCacheMsg implements Serializable {
+    protected static class InvalidateQueryCacheMsg implements MergeableClusterMessage<InvalidateQueryCacheMsg> {
         private static final long serialVersionUID = -9099037380378341477L;
 
         protected Set<String> typeNames;
@@ -290,5 +290,18 @@ public class QueryCacheManager {
         public InvalidateQueryCacheMsg(QueryKey queryKey) {
             this.queryKey = queryKey;
         }
+
+        @Override
+        public Object getMergeKey() {
+            // only invalidations by types are merged
+            return typeNames != null ? "typeNames" : null;
+        }
+
+        @Override
+        public InvalidateQueryCacheMsg merge(InvalidateQueryCacheMsg newer) {
+            Set<String> union = new HashSet<>(typeNames);
+            union.addAll(newer.typeNames);
+            return new InvalidateQueryCacheMsg(union);
+        }
     }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.haulmont.cuba.core.sys.entitycache;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.Serializable;
+
+/**
+ * Immutable snapshot of query cache statistics for a single entity type.
+ */
+public class QueryCacheStats implements Serializable {
+
+    private static final long serialVersionUID = 2469017583712964321L;
+
+    protected final String type;
+    protected final long hitCount;
+    protected final long missCount;
+    protected final long evictionCount;
+    protected final long invalidationCount;
+
+    public QueryCacheStats(String type, long hitCount, long missCount, long evictionCount, long invalidationCount) {
+        this.type = type;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.invalidationCount = invalidationCount;
+    }
+
+    /**
+     * @return metaClass name
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return number of times a valid cached result was returned
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups that returned no result. For a single entity type, only lookups of results
+     * that were stale because this type or a related type was invalidated are counted, since a query that is
+     * not in the cache cannot be attributed to a type. The total statistics also count such lookups.
+     *
+     * @return number of cache misses
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of cached results evicted because of the cache size limit
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return number of times the type was invalidated
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * @return ratio of hits to all counted lookups, or 1.0 if there were no lookups
+     */
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .addValue(type)
+                .add("hits", hitCount)
+                .add("misses", missCount)
+                .add("evictions", evictionCount)
+                .add("invalidations", invalidationCount)
+                .toString();
+    }
+}
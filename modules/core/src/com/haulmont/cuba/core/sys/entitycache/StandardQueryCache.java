@@ -22,7 +22,6 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -34,7 +33,12 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-@Component(QueryCache.NAME)
+/**
+ * Query cache that tracks cached queries by type in lists guarded by a global lock.
+ * <p>
+ * Replaced by {@link TaggedQueryCache} by default. Can be registered as {@link QueryCache#NAME} bean in
+ * {@code spring.xml} of the application if the previous behaviour is required.
+ */
 public class StandardQueryCache implements QueryCache {
 
     protected Cache<QueryKey, QueryResult> data;
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.haulmont.cuba.core.sys.entitycache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Query cache that doesn't track cached queries by type. Instead, each cached result is stamped with
+ * generations of its related types, so invalidation of a type is a constant-time counter increment.
+ * Stale results are discarded when they are read or evicted by the cache size limit.
+ * <p>
+ * Readers and writers never block each other, queries are looked up by identifier using a secondary index.
+ */
+@Component(QueryCache.NAME)
+public class TaggedQueryCache implements QueryCache {
+
+    protected Cache<QueryKey, Entry> data;
+    protected ConcurrentMap<UUID, QueryKey> idIndex = new ConcurrentHashMap<>();
+    protected ConcurrentMap<String, TypeTag> tags = new ConcurrentHashMap<>();
+
+    protected LongAdder missCount = new LongAdder();
+
+    @Inject
+    protected QueryCacheConfig queryCacheConfig;
+
+    protected static final Logger log = LoggerFactory.getLogger(QueryCache.class);
+
+    @PostConstruct
+    protected void init() {
+        data = CacheBuilder.newBuilder()
+                .maximumSize(queryCacheConfig.getQueryCacheMaxSize())
+                .removalListener(this::onRemoval)
+                .build();
+    }
+
+    @Override
+    public QueryResult get(QueryKey queryKey) {
+        Entry entry = data.getIfPresent(queryKey);
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+        if (!entry.isValid()) {
+            entry.resultTag.misses.increment();
+            data.asMap().remove(queryKey, entry);
+            return null;
+        }
+        entry.resultTag.hits.increment();
+        return entry.result;
+    }
+
+    @Override
+    public void put(QueryKey queryKey, QueryResult queryResult) {
+        Set<String> relatedTypes = queryResult.getRelatedTypes();
+        int size = relatedTypes == null ? 0 : relatedTypes.size();
+        TypeTag[] relatedTags = new TypeTag[size];
+        long[] generations = new long[size];
+        if (relatedTypes != null) {
+            int i = 0;
+            for (String type : relatedTypes) {
+                TypeTag tag = getTag(type);
+                relatedTags[i] = tag;
+                generations[i] = tag.generation.get();
+                i++;
+            }
+        }
+        Entry entry = new Entry(queryKey, queryResult, getTag(queryResult.getType()), relatedTags, generations);
+        idIndex.put(queryKey.getId(), queryKey);
+        Entry previous = data.asMap().put(queryKey, entry);
+        if (previous != null && previous.queryKey != queryKey) {
+            // an equal key with another identifier has been replaced
+            idIndex.remove(previous.queryKey.getId(), previous.queryKey);
+        }
+    }
+
+    @Override
+    public QueryKey findQueryKeyById(UUID queryId) {
+        return idIndex.get(queryId);
+    }
+
+    @Override
+    public void invalidate(QueryKey queryKey) {
+        log.debug("Invalidate query by key {}", queryKey.printDescription());
+        data.invalidate(queryKey);
+    }
+
+    @Override
+    public void invalidate(String typeName) {
+        TypeTag tag = tags.get(typeName);
+        if (tag == null) return;
+        log.debug("Invalidate cache for type {}", typeName);
+        tag.generation.incrementAndGet();
+        tag.invalidations.increment();
+    }
+
+    @Override
+    public void invalidate(Set<String> typeNames) {
+        typeNames.forEach(this::invalidate);
+    }
+
+    @Override
+    public QueryKey invalidate(UUID queryId) {
+        QueryKey queryKey = idIndex.get(queryId);
+        if (queryKey != null) {
+            log.debug("Invalidate query by identifier {}", queryId);
+            data.invalidate(queryKey);
+        }
+        return queryKey;
+    }
+
+    @Override
+    public void invalidateAll() {
+        log.debug("Invalidate all cache");
+        data.invalidateAll();
+    }
+
+    /**
+     * Returns number of valid entries in this cache. Discards stale entries as a side effect,
+     * so the method traverses the whole cache and should be used for diagnostic purposes only.
+     */
+    @Override
+    public long size() {
+        data.asMap().values().removeIf(entry -> !entry.isValid());
+        return data.size();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return queryCacheConfig.getQueryCacheMaxSize();
+    }
+
+    @Override
+    public Map<QueryKey, QueryResult> asMap() {
+        Map<QueryKey, QueryResult> map = new HashMap<>();
+        for (Entry entry : data.asMap().values()) {
+            if (entry.isValid()) {
+                map.put(entry.queryKey, entry.result);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, QueryCacheStats> getStatistics() {
+        Map<String, QueryCacheStats> statistics = new TreeMap<>();
+        for (TypeTag tag : tags.values()) {
+            statistics.put(tag.type, tag.toStats());
+        }
+        return statistics;
+    }
+
+    @Override
+    public QueryCacheStats getTotalStatistics() {
+        long hits = 0, misses = missCount.sum(), evictions = 0, invalidations = 0;
+        for (TypeTag tag : tags.values()) {
+            hits += tag.hits.sum();
+            misses += tag.misses.sum();
+            evictions += tag.evictions.sum();
+            invalidations += tag.invalidations.sum();
+        }
+        return new QueryCacheStats(null, hits, misses, evictions, invalidations);
+    }
+
+    protected TypeTag getTag(String type) {
+        return tags.computeIfAbsent(type, TypeTag::new);
+    }
+
+    protected void onRemoval(RemovalNotification<QueryKey, Entry> notification) {
+        Entry entry = notification.getValue();
+        if (entry == null || notification.getCause() == RemovalCause.REPLACED) return;
+
+        idIndex.remove(entry.queryKey.getId(), entry.queryKey);
+        if (notification.getCause() == RemovalCause.SIZE) {
+            entry.resultTag.evictions.increment();
+        }
+    }
+
+    protected static class TypeTag {
+        protected final String type;
+        protected final AtomicLong generation = new AtomicLong();
+
+        protected final LongAdder hits = new LongAdder();
+        protected final LongAdder misses = new LongAdder();
+        protected final LongAdder evictions = new LongAdder();
+        protected final LongAdder invalidations = new LongAdder();
+
+        protected TypeTag(String type) {
+            this.type = type;
+        }
+
+        protected QueryCacheStats toStats() {
+            return new QueryCacheStats(type, hits.sum(), misses.sum(), evictions.sum(), invalidations.sum());
+        }
+    }
+
+    protected static class Entry {
+        protected final QueryKey queryKey;
+        protected final QueryResult result;
+        protected final TypeTag resultTag;
+        protected final TypeTag[] relatedTags;
+        protected final long[] generations;
+
+        protected Entry(QueryKey queryKey, QueryResult result, TypeTag resultTag,
+                        TypeTag[] relatedTags, long[] generations) {
+            this.queryKey = queryKey;
+            this.result = result;
+            this.resultTag = resultTag;
+            this.relatedTags = relatedTags;
+            this.generations = generations;
+        }
+
+        protected boolean isValid() {
+            for (int i = 0; i < relatedTags.length; i++) {
+                if (relatedTags[i].generation.get() != generations[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -80,4 +80,19 @@ public interface DbmsFeatures {
      * @return true if the DBMS supports equals conditions in the filter and sort for LOB columns
      */
     boolean supportsLobSortingAndFiltering();
+
+    /**
+     * Returns a statement copying identifiers selected by a native query into the SYS_QUERY_RESULT table
+     * on the database side, without passing them through the middleware.
+     *
+     * @param idColumn  column of SYS_QUERY_RESULT to store identifiers in
+     * @param sessionId user session id as returned by {@link DbTypeConverter#getSqlObject(Object)}
+     * @param queryKey  query key
+     * @param selectSql native query selecting a single column of identifiers; it may contain {@code ?} placeholders,
+     *                  the returned statement must keep them in the same order and add no other placeholders
+     */
+    default String getQueryResultsInsertSelectStatement(String idColumn, String sessionId, int queryKey, String selectSql) {
+        return "insert into SYS_QUERY_RESULT (SESSION_ID, QUERY_KEY, " + idColumn + ") select '"
+                + sessionId + "', " + queryKey + ", QR.* from (" + selectSql + ") QR";
+    }
 }
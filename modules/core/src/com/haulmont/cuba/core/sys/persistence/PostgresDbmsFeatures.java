@@ -77,4 +77,11 @@ public class PostgresDbmsFeatures implements DbmsFeatures {
     public boolean supportsLobSortingAndFiltering() {
         return true;
     }
+
+    @Override
+    public String getQueryResultsInsertSelectStatement(String idColumn, String sessionId, int queryKey, String selectSql) {
+        // untyped literals in a select list are resolved to text, so the session id must be cast explicitly
+        return "insert into SYS_QUERY_RESULT (SESSION_ID, QUERY_KEY, " + idColumn + ") select cast('"
+                + sessionId + "' as uuid), " + queryKey + ", QR.* from (" + selectSql + ") QR";
+    }
 }
\ No newline at end of file
@@ -18,6 +18,7 @@
 package com.haulmont.cuba.core.sys.remoting;
 
 import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.serialization.CompactSerialization;
 import com.haulmont.cuba.core.sys.serialization.SerializationSupport;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.remoting.httpinvoker.HttpInvokerServiceExporter;
@@ -32,6 +33,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OptionalDataException;
+import java.io.OutputStream;
 
 /**
  * Exports a middleware service bean as an HTTP invoker service endpoint.
@@ -86,6 +88,26 @@ public class HttpServiceExporter extends HttpInvokerServiceExporter implements B
         }
     }
 
+    /*
+     * Writes the result using compact serialization if the client has requested it and its schema version
+     * is the same as on the middleware.
+     */
+    @Override
+    protected void writeRemoteInvocationResult(HttpServletRequest request, HttpServletResponse response,
+                                               RemoteInvocationResult result) throws IOException {
+        String schemaVersion = request.getHeader(CompactSerialization.SCHEMA_VERSION_HEADER);
+        CompactSerialization compactSerialization = SerializationSupport.getCompactSerialization();
+        if (schemaVersion != null && schemaVersion.equals(String.valueOf(compactSerialization.getSchemaVersion()))) {
+            response.setContentType(getContentType());
+            response.setHeader(CompactSerialization.SCHEMA_VERSION_HEADER, schemaVersion);
+            try (OutputStream os = decorateOutputStream(request, response, response.getOutputStream())) {
+                compactSerialization.serialize(result, os);
+            }
+        } else {
+            super.writeRemoteInvocationResult(request, response, result);
+        }
+    }
+
     @Override
     protected void doWriteRemoteInvocationResult(RemoteInvocationResult result, ObjectOutputStream oos) throws IOException {
         SerializationSupport.serialize(result, oos);
@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 
+
 package com.haulmont.cuba.restapi;
 
 import com.google.common.base.Strings;
@@ -48,13 +49,20 @@ import javax.inject.Inject;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
 
+/**
+ * Keeps REST API tokens in memory, replicating them to the cluster, and optionally in the database.
+ * <p>Each token is held in a single record, and the records are found by authentication key, user login and refresh
+ * token through secondary indexes. Every change of a record gets a version, which is sent to the cluster with the
+ * change. A node applies a received change or cluster state only if it is not older than the record it has,
+ * so the state received on joining the cluster does not overwrite the changes received meanwhile.
+ * <p>Versions come from the clocks of different nodes, so a removal is applied regardless of the version of the
+ * record: otherwise a logout on one node could be ignored on another one. A removed token leaves a tombstone with
+ * its version for {@link #TOMBSTONE_TTL_MS}, and a record received from the cluster is put only if it is newer than
+ * the tombstone, so the state transferred on joining the cluster does not bring removed tokens back.
+ */
 @Component(ServerTokenStore.NAME)
 public class ServerTokenStoreImpl implements ServerTokenStore {
 
@@ -84,22 +92,33 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
 
     private static final Logger log = LoggerFactory.getLogger(ServerTokenStoreImpl.class);
 
+    protected static final int STATE_FORMAT = 1;
+
+    protected static final int EXPIRY_WHEEL_BUCKETS = 1024;
+
+    protected static final long EXPIRY_WHEEL_TICK_MS = 1000;
+
+    protected static final long TOMBSTONE_TTL_MS = 10 * 60 * 1000;
+
     protected ReadWriteLock lock = new ReentrantReadWriteLock();
 
-    private ConcurrentHashMap<String, byte[]> accessTokenValueToAccessTokenStore = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, byte[]> accessTokenValueToAuthenticationStore = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, byte[]> authenticationToAccessTokenStore = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, RestUserSessionInfo> accessTokenValueToSessionInfoStore = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, String> accessTokenValueToAuthenticationKeyStore = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, String> accessTokenValueToUserLoginStore = new ConcurrentHashMap<>();
+    protected final Map<String, AccessTokenRecord> accessTokens = new ConcurrentHashMap<>();
+    protected final Map<String, RefreshTokenRecord> refreshTokens = new ConcurrentHashMap<>();
 
-    private ConcurrentHashMap<String, byte[]> refreshTokenValueToRefreshTokenStore = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, byte[]> refreshTokenValueToAuthenticationStore = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, String> refreshTokenValueToAccessTokenValueStore = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, String> refreshTokenValueToUserLoginStore = new ConcurrentHashMap<>();
+    protected final Map<String, String> accessTokenByAuthenticationKey = new ConcurrentHashMap<>();
+    protected final Map<String, String> accessTokenByRefreshToken = new ConcurrentHashMap<>();
+    protected final Map<String, Set<String>> accessTokensByUserLogin = new ConcurrentHashMap<>();
+    protected final Map<String, Set<String>> refreshTokensByUserLogin = new ConcurrentHashMap<>();
 
-    private final DelayQueue<TokenExpiry> accessTokensExpiryQueue = new DelayQueue<>();
-    private final DelayQueue<TokenExpiry> refreshTokensExpiryQueue = new DelayQueue<>();
+    protected final TokenExpiryWheel accessTokensExpiry = new TokenExpiryWheel(EXPIRY_WHEEL_BUCKETS, EXPIRY_WHEEL_TICK_MS);
+    protected final TokenExpiryWheel refreshTokensExpiry = new TokenExpiryWheel(EXPIRY_WHEEL_BUCKETS, EXPIRY_WHEEL_TICK_MS);
+
+    // versions of removed tokens
+    protected final Map<String, Long> accessTokenTombstones = new ConcurrentHashMap<>();
+    protected final Map<String, Long> refreshTokenTombstones = new ConcurrentHashMap<>();
+
+    protected final TokenExpiryWheel accessTokenTombstonesExpiry = new TokenExpiryWheel(EXPIRY_WHEEL_BUCKETS, EXPIRY_WHEEL_TICK_MS);
+    protected final TokenExpiryWheel refreshTokenTombstonesExpiry = new TokenExpiryWheel(EXPIRY_WHEEL_BUCKETS, EXPIRY_WHEEL_TICK_MS);
 
     @PostConstruct
     public void init() {
@@ -110,27 +129,20 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
         clusterManagerAPI.addListener(TokenStoreAddAccessTokenMsg.class, new ClusterListener<TokenStoreAddAccessTokenMsg>() {
             @Override
             public void receive(TokenStoreAddAccessTokenMsg message) {
-                storeAccessTokenToMemory(message.getAccessTokenValue(),
+                putAccessTokenRecord(new AccessTokenRecord(message.getAccessTokenValue(),
                         message.getAccessTokenBytes(),
                         message.getAuthenticationKey(),
                         message.getAuthenticationBytes(),
-                        message.getTokenExpiry(),
+                        toExpiry(message.getTokenExpiry()),
                         message.getUserLogin(),
-                        message.getRefreshTokenValue());
+                        message.getRefreshTokenValue(),
+                        null,
+                        message.getVersion()));
             }
 
             @Override
             public byte[] getState() {
-                if (accessTokenValueToAccessTokenStore.isEmpty() &&
-                        accessTokenValueToAuthenticationStore.isEmpty() &&
-                        authenticationToAccessTokenStore.isEmpty() &&
-                        accessTokenValueToSessionInfoStore.isEmpty() &&
-                        accessTokenValueToAuthenticationKeyStore.isEmpty() &&
-                        accessTokenValueToUserLoginStore.isEmpty() &&
-                        refreshTokenValueToRefreshTokenStore.isEmpty() &&
-                        refreshTokenValueToAuthenticationStore.isEmpty() &&
-                        refreshTokenValueToAccessTokenValueStore.isEmpty() &&
-                        refreshTokenValueToUserLoginStore.isEmpty()) {
+                if (accessTokens.isEmpty() && refreshTokens.isEmpty()) {
                     return new byte[0];
                 }
 
@@ -138,17 +150,9 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
 
                 lock.readLock().lock();
                 try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    oos.writeObject(accessTokenValueToAccessTokenStore);
-                    oos.writeObject(accessTokenValueToAuthenticationStore);
-                    oos.writeObject(authenticationToAccessTokenStore);
-                    oos.writeObject(accessTokenValueToSessionInfoStore);
-                    oos.writeObject(accessTokenValueToAuthenticationKeyStore);
-                    oos.writeObject(accessTokenValueToUserLoginStore);
-                    oos.writeObject(refreshTokenValueToRefreshTokenStore);
-                    oos.writeObject(refreshTokenValueToAuthenticationStore);
-                    oos.writeObject(refreshTokenValueToAccessTokenValueStore);
-                    oos.writeObject(refreshTokenValueToUserLoginStore);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bos));
+                    writeState(out);
+                    out.flush();
                 } catch (IOException e) {
                     throw new RuntimeException("Unable to serialize ServerTokenStore fields for cluster state", e);
                 } finally {
@@ -158,31 +162,17 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
                 return bos.toByteArray();
             }
 
-            @SuppressWarnings("unchecked")
             @Override
             public void setState(byte[] state) {
                 if (state == null || state.length == 0) {
                     return;
                 }
 
-                ByteArrayInputStream bis = new ByteArrayInputStream(state);
-                lock.writeLock().lock();
                 try {
-                    ObjectInputStream ois = new ObjectInputStream(bis);
-                    accessTokenValueToAccessTokenStore = (ConcurrentHashMap<String, byte[]>) ois.readObject();
-                    accessTokenValueToAuthenticationStore = (ConcurrentHashMap<String, byte[]>) ois.readObject();
-                    authenticationToAccessTokenStore = (ConcurrentHashMap<String, byte[]>) ois.readObject();
-                    accessTokenValueToSessionInfoStore = (ConcurrentHashMap<String, RestUserSessionInfo>) ois.readObject();
-                    accessTokenValueToAuthenticationKeyStore = (ConcurrentHashMap<String, String>) ois.readObject();
-                    accessTokenValueToUserLoginStore = (ConcurrentHashMap<String, String>) ois.readObject();
-                    refreshTokenValueToRefreshTokenStore = (ConcurrentHashMap<String, byte[]>) ois.readObject();
-                    refreshTokenValueToAuthenticationStore = (ConcurrentHashMap<String, byte[]>) ois.readObject();
-                    refreshTokenValueToAccessTokenValueStore = (ConcurrentHashMap<String, String>) ois.readObject();
-                    refreshTokenValueToUserLoginStore = (ConcurrentHashMap<String, String>) ois.readObject();
-                } catch (IOException | ClassNotFoundException e) {
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+                    readState(in);
+                } catch (IOException e) {
                     log.error("Error receiving state", e);
-                } finally {
-                    lock.writeLock().unlock();
                 }
             }
         });
@@ -190,32 +180,33 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
         clusterManagerAPI.addListener(TokenStorePutSessionInfoMsg.class, new ClusterListenerAdapter<TokenStorePutSessionInfoMsg>() {
             @Override
             public void receive(TokenStorePutSessionInfoMsg message) {
-                _putSessionInfo(message.getTokenValue(), message.getSessionInfo());
+                putSessionInfoToMemory(message.getTokenValue(), message.getSessionInfo(), message.getVersion());
             }
         });
 
         clusterManagerAPI.addListener(TokenStoreRemoveAccessTokenMsg.class, new ClusterListenerAdapter<TokenStoreRemoveAccessTokenMsg>() {
             @Override
             public void receive(TokenStoreRemoveAccessTokenMsg message) {
-                removeAccessTokenFromMemory(message.getTokenValue());
+                removeAccessTokenFromMemory(message.getTokenValue(), message.getVersion());
             }
         });
 
         clusterManagerAPI.addListener(TokenStoreAddRefreshTokenMsg.class, new ClusterListenerAdapter<TokenStoreAddRefreshTokenMsg>() {
             @Override
             public void receive(TokenStoreAddRefreshTokenMsg message) {
-                storeRefreshTokenToMemory(message.getTokenValue(),
+                putRefreshTokenRecord(new RefreshTokenRecord(message.getTokenValue(),
                         message.getTokenBytes(),
                         message.getAuthenticationBytes(),
-                        message.getTokenExpiry(),
-                        message.getUserLogin());
+                        toExpiry(message.getTokenExpiry()),
+                        message.getUserLogin(),
+                        message.getVersion()));
             }
         });
 
         clusterManagerAPI.addListener(TokenStoreRemoveRefreshTokenMsg.class, new ClusterListenerAdapter<TokenStoreRemoveRefreshTokenMsg>() {
             @Override
             public void receive(TokenStoreRemoveRefreshTokenMsg message) {
-                removeAccessTokenFromMemory(message.getTokenValue());
+                removeRefreshTokenFromMemory(message.getTokenValue(), message.getVersion());
             }
         });
     }
@@ -235,7 +226,8 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
     }
 
     protected byte[] getAccessTokenByAuthenticationFromMemory(String authenticationKey) {
-        return authenticationToAccessTokenStore.get(authenticationKey);
+        String tokenValue = accessTokenByAuthenticationKey.get(authenticationKey);
+        return tokenValue != null ? getAccessTokenByTokenValueFromMemory(tokenValue) : null;
     }
 
     @Override
@@ -248,10 +240,8 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
     }
 
     protected Set<String> getAccessTokenValuesByUserLoginFromMemory(String userLogin) {
-        return accessTokenValueToUserLoginStore.entrySet().stream()
-                .filter(entry -> userLogin.equals(entry.getValue()))
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toSet());
+        Set<String> tokenValues = accessTokensByUserLogin.get(userLogin);
+        return tokenValues != null ? new HashSet<>(tokenValues) : new HashSet<>();
     }
 
     protected Set<String> getAccessTokenValuesByUserLoginFromDatabase(String userLogin) {
@@ -275,10 +265,8 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
     }
 
     protected Set<String> getRefreshTokenValuesByUserLoginFromMemory(String userLogin) {
-        return refreshTokenValueToUserLoginStore.entrySet().stream()
-                .filter(entry -> userLogin.equals(entry.getValue()))
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toSet());
+        Set<String> tokenValues = refreshTokensByUserLogin.get(userLogin);
+        return tokenValues != null ? new HashSet<>(tokenValues) : new HashSet<>();
     }
 
     protected Set<String> getRefreshTokenValuesByUserLoginFromDatabase(String userLogin) {
@@ -301,8 +289,8 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
                                  String userLogin,
                                  Locale locale,
                                  String refreshTokenValue) {
-        storeAccessTokenToMemory(tokenValue, accessTokenBytes, authenticationKey, authenticationBytes, tokenExpiry,
-                userLogin, refreshTokenValue);
+        long version = storeAccessTokenToMemory(tokenValue, accessTokenBytes, authenticationKey, authenticationBytes,
+                tokenExpiry, userLogin, refreshTokenValue);
         if (serverConfig.getRestStoreTokensInDb()) {
             try (Transaction tx = persistence.getTransaction()) {
                 removeAccessTokenFromDatabase(tokenValue);
@@ -312,34 +300,23 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
             }
         }
         clusterManagerAPI.send(new TokenStoreAddAccessTokenMsg(tokenValue, accessTokenBytes, authenticationKey,
-                authenticationBytes, tokenExpiry, userLogin, refreshTokenValue));
+                authenticationBytes, tokenExpiry, userLogin, refreshTokenValue, version));
     }
 
-    protected void storeAccessTokenToMemory(String accessTokenValue,
+    /**
+     * @return version of the stored token record
+     */
+    protected long storeAccessTokenToMemory(String accessTokenValue,
                                             byte[] accessTokenBytes,
                                             String authenticationKey,
                                             byte[] authenticationBytes,
                                             Date tokenExpiry,
                                             String userLogin,
                                             @Nullable String refreshTokenValue) {
-        lock.writeLock().lock();
-        try {
-            accessTokenValueToAccessTokenStore.put(accessTokenValue, accessTokenBytes);
-            authenticationToAccessTokenStore.put(authenticationKey, accessTokenBytes);
-            accessTokenValueToAuthenticationStore.put(accessTokenValue, authenticationBytes);
-            accessTokenValueToAuthenticationKeyStore.put(accessTokenValue, authenticationKey);
-            accessTokenValueToUserLoginStore.put(accessTokenValue, userLogin);
-            if (!Strings.isNullOrEmpty(refreshTokenValue)) {
-                refreshTokenValueToAccessTokenValueStore.put(refreshTokenValue, accessTokenValue);
-            }
-        } finally {
-            lock.writeLock().unlock();
-        }
-
-        if (tokenExpiry != null) {
-            TokenExpiry expiry = new TokenExpiry(accessTokenValue, tokenExpiry);
-            this.accessTokensExpiryQueue.put(expiry);
-        }
+        long version = nextVersion(getAccessTokenVersion(accessTokenValue));
+        putAccessTokenRecord(new AccessTokenRecord(accessTokenValue, accessTokenBytes, authenticationKey,
+                authenticationBytes, toExpiry(tokenExpiry), userLogin, refreshTokenValue, null, version));
+        return version;
     }
 
     protected void storeAccessTokenToDatabase(String tokenValue,
@@ -373,7 +350,8 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
                                   byte[] authenticationBytes,
                                   Date tokenExpiry,
                                   String userLogin) {
-        storeRefreshTokenToMemory(refreshTokenValue, refreshTokenBytes, authenticationBytes, tokenExpiry, userLogin);
+        long version = storeRefreshTokenToMemory(refreshTokenValue, refreshTokenBytes, authenticationBytes,
+                tokenExpiry, userLogin);
         if (serverConfig.getRestStoreTokensInDb()) {
             try (Transaction tx = persistence.getTransaction()) {
                 removeRefreshTokenFromDatabase(refreshTokenValue);
@@ -382,21 +360,22 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
                 tx.commit();
             }
         }
+        clusterManagerAPI.send(new TokenStoreAddRefreshTokenMsg(refreshTokenValue, refreshTokenBytes,
+                authenticationBytes, tokenExpiry, userLogin, version));
     }
 
-    protected void storeRefreshTokenToMemory(String refreshTokenValue,
+    /**
+     * @return version of the stored token record
+     */
+    protected long storeRefreshTokenToMemory(String refreshTokenValue,
                                              byte[] refreshTokenBytes,
                                              byte[] authenticationBytes,
                                              Date tokenExpiry,
                                              String userLogin) {
-        refreshTokenValueToRefreshTokenStore.put(refreshTokenValue, refreshTokenBytes);
-        refreshTokenValueToAuthenticationStore.put(refreshTokenValue, authenticationBytes);
-        refreshTokenValueToUserLoginStore.put(refreshTokenValue, userLogin);
-
-        if (tokenExpiry != null) {
-            TokenExpiry expiry = new TokenExpiry(refreshTokenValue, tokenExpiry);
-            this.refreshTokensExpiryQueue.put(expiry);
-        }
+        long version = nextVersion(getRefreshTokenVersion(refreshTokenValue));
+        putRefreshTokenRecord(new RefreshTokenRecord(refreshTokenValue, refreshTokenBytes, authenticationBytes,
+                toExpiry(tokenExpiry), userLogin, version));
+        return version;
     }
 
     protected void storeRefreshTokenToDatabase(String tokenValue,
@@ -418,6 +397,165 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
         }
     }
 
+    /**
+     * Puts the record into memory and indexes it, unless the current record of the token is newer or the token
+     * has been removed by a newer change. A record of version 0 is put unless the token has been removed.
+     *
+     * @return true if the record has been put
+     */
+    protected boolean putAccessTokenRecord(AccessTokenRecord record) {
+        lock.writeLock().lock();
+        try {
+            if (!checkTombstone(accessTokenTombstones, record.tokenValue, record.version)) {
+                return false;
+            }
+            AccessTokenRecord current = accessTokens.get(record.tokenValue);
+            if (current != null) {
+                // a record containing only the session info is completed anyway
+                if (record.version != 0 && current.version > record.version && current.tokenBytes != null) {
+                    return false;
+                }
+                if (record.sessionInfo == null && current.sessionInfo != null) {
+                    record = record.withSessionInfo(current.sessionInfo, Math.max(record.version, current.version));
+                }
+                unindexAccessToken(current);
+            }
+            accessTokens.put(record.tokenValue, record);
+            indexAccessToken(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (record.expiry > 0) {
+            accessTokensExpiry.add(record.tokenValue, record.expiry);
+        } else {
+            accessTokensExpiry.remove(record.tokenValue);
+        }
+        return true;
+    }
+
+    protected void indexAccessToken(AccessTokenRecord record) {
+        if (record.authenticationKey != null) {
+            accessTokenByAuthenticationKey.put(record.authenticationKey, record.tokenValue);
+        }
+        if (!Strings.isNullOrEmpty(record.refreshTokenValue)) {
+            accessTokenByRefreshToken.put(record.refreshTokenValue, record.tokenValue);
+        }
+        addToIndex(accessTokensByUserLogin, record.userLogin, record.tokenValue);
+    }
+
+    protected void unindexAccessToken(AccessTokenRecord record) {
+        if (record.authenticationKey != null) {
+            accessTokenByAuthenticationKey.remove(record.authenticationKey, record.tokenValue);
+        }
+        if (!Strings.isNullOrEmpty(record.refreshTokenValue)) {
+            accessTokenByRefreshToken.remove(record.refreshTokenValue, record.tokenValue);
+        }
+        removeFromIndex(accessTokensByUserLogin, record.userLogin, record.tokenValue);
+    }
+
+    /**
+     * Puts the record into memory and indexes it, unless the current record of the token is newer or the token
+     * has been removed by a newer change. A record of version 0 is put unless the token has been removed.
+     *
+     * @return true if the record has been put
+     */
+    protected boolean putRefreshTokenRecord(RefreshTokenRecord record) {
+        lock.writeLock().lock();
+        try {
+            if (!checkTombstone(refreshTokenTombstones, record.tokenValue, record.version)) {
+                return false;
+            }
+            RefreshTokenRecord current = refreshTokens.get(record.tokenValue);
+            if (current != null) {
+                if (record.version != 0 && current.version > record.version) {
+                    return false;
+                }
+                removeFromIndex(refreshTokensByUserLogin, current.userLogin, current.tokenValue);
+            }
+            refreshTokens.put(record.tokenValue, record);
+            addToIndex(refreshTokensByUserLogin, record.userLogin, record.tokenValue);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (record.expiry > 0) {
+            refreshTokensExpiry.add(record.tokenValue, record.expiry);
+        } else {
+            refreshTokensExpiry.remove(record.tokenValue);
+        }
+        return true;
+    }
+
+    /**
+     * Drops the tombstone of the token if the given version is newer. Must be called under the write lock.
+     *
+     * @return false if the token has been removed by a change not older than the given version
+     */
+    protected boolean checkTombstone(Map<String, Long> tombstones, String tokenValue, long version) {
+        Long removedVersion = tombstones.get(tokenValue);
+        if (removedVersion == null) {
+            return true;
+        }
+        if (version <= removedVersion) {
+            return false;
+        }
+        tombstones.remove(tokenValue);
+        return true;
+    }
+
+    /**
+     * Registers the removal of the token. Must be called under the write lock.
+     */
+    protected void putTombstone(Map<String, Long> tombstones, TokenExpiryWheel tombstonesExpiry,
+                                String tokenValue, long version) {
+        tombstones.merge(tokenValue, version, Math::max);
+        tombstonesExpiry.add(tokenValue, timeSource.currentTimeMillis() + TOMBSTONE_TTL_MS);
+    }
+
+    protected void addToIndex(Map<String, Set<String>> index, @Nullable String key, String tokenValue) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(tokenValue);
+        }
+    }
+
+    protected void removeFromIndex(Map<String, Set<String>> index, @Nullable String key, String tokenValue) {
+        if (key != null) {
+            Set<String> tokenValues = index.get(key);
+            if (tokenValues != null) {
+                tokenValues.remove(tokenValue);
+                if (tokenValues.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return version for a changed record, greater than the given version of the current record
+     */
+    protected long nextVersion(long currentVersion) {
+        long now = timeSource.currentTimeMillis();
+        return currentVersion >= now ? currentVersion + 1 : now;
+    }
+
+    /**
+     * @return version of the current record or the tombstone of the token, or 0 if the token is unknown
+     */
+    protected long getAccessTokenVersion(String tokenValue) {
+        AccessTokenRecord record = accessTokens.get(tokenValue);
+        Long removedVersion = accessTokenTombstones.get(tokenValue);
+        return Math.max(record != null ? record.version : 0, removedVersion != null ? removedVersion : 0);
+    }
+
+    protected long getRefreshTokenVersion(String tokenValue) {
+        RefreshTokenRecord record = refreshTokens.get(tokenValue);
+        Long removedVersion = refreshTokenTombstones.get(tokenValue);
+        return Math.max(record != null ? record.version : 0, removedVersion != null ? removedVersion : 0);
+    }
+
+    protected long toExpiry(@Nullable Date tokenExpiry) {
+        return tokenExpiry != null ? tokenExpiry.getTime() : 0;
+    }
+
     @Override
     public byte[] getAccessTokenByTokenValue(String accessTokenValue) {
         byte[] accessTokenBytes;
@@ -433,7 +571,8 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
     }
 
     protected byte[] getAccessTokenByTokenValueFromMemory(String tokenValue) {
-        return accessTokenValueToAccessTokenStore.get(tokenValue);
+        AccessTokenRecord record = accessTokens.get(tokenValue);
+        return record != null ? record.tokenBytes : null;
     }
 
     @Override
@@ -451,7 +590,8 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
     }
 
     protected byte[] getAuthenticationByTokenValueFromMemory(String tokenValue) {
-        return accessTokenValueToAuthenticationStore.get(tokenValue);
+        AccessTokenRecord record = accessTokens.get(tokenValue);
+        return record != null ? record.authenticationBytes : null;
     }
 
     @Nullable
@@ -510,36 +650,36 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
     }
 
     /**
-     * Method fills in-memory maps from the {@link AccessToken} object got from the database
+     * Method fills in-memory record from the {@link AccessToken} object got from the database
      */
     protected void restoreAccessTokenIntoMemory(AccessToken accessToken) {
-        lock.writeLock().lock();
-        try {
-            accessTokenValueToAccessTokenStore.put(accessToken.getTokenValue(), accessToken.getTokenBytes());
-            authenticationToAccessTokenStore.put(accessToken.getAuthenticationKey(), accessToken.getTokenBytes());
-            accessTokenValueToAuthenticationStore.put(accessToken.getTokenValue(), accessToken.getAuthenticationBytes());
-            accessTokenValueToAuthenticationKeyStore.put(accessToken.getTokenValue(), accessToken.getAuthenticationKey());
-        } finally {
-            lock.writeLock().unlock();
-        }
+        putAccessTokenRecord(new AccessTokenRecord(accessToken.getTokenValue(),
+                accessToken.getTokenBytes(),
+                accessToken.getAuthenticationKey(),
+                accessToken.getAuthenticationBytes(),
+                toExpiry(accessToken.getExpiry()),
+                accessToken.getUserLogin(),
+                accessToken.getRefreshTokenValue(),
+                null,
+                0));
     }
 
     /**
-     * Method fills in-memory maps from the {@link RefreshToken} object got from the database
+     * Method fills in-memory record from the {@link RefreshToken} object got from the database
      */
     protected void restoreRefreshTokenIntoMemory(RefreshToken refreshToken) {
-        lock.writeLock().lock();
-        try {
-            refreshTokenValueToRefreshTokenStore.put(refreshToken.getTokenValue(), refreshToken.getTokenBytes());
-            refreshTokenValueToAuthenticationStore.put(refreshToken.getTokenValue(), refreshToken.getAuthenticationBytes());
-        } finally {
-            lock.writeLock().unlock();
-        }
+        putRefreshTokenRecord(new RefreshTokenRecord(refreshToken.getTokenValue(),
+                refreshToken.getTokenBytes(),
+                refreshToken.getAuthenticationBytes(),
+                toExpiry(refreshToken.getExpiry()),
+                refreshToken.getUserLogin(),
+                0));
     }
 
     @Override
     public RestUserSessionInfo getSessionInfoByTokenValue(String tokenValue) {
-        RestUserSessionInfo sessionInfo = accessTokenValueToSessionInfoStore.get(tokenValue);
+        AccessTokenRecord record = accessTokens.get(tokenValue);
+        RestUserSessionInfo sessionInfo = record != null ? record.sessionInfo : null;
         if (sessionInfo == null && serverConfig.getRestStoreTokensInDb()) {
             AccessToken accessToken = getAccessTokenByTokenValueFromDatabase(tokenValue);
             if (accessToken != null) {
@@ -556,15 +696,37 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
 
     @Override
     public RestUserSessionInfo putSessionInfo(String tokenValue, RestUserSessionInfo sessionInfo) {
-        RestUserSessionInfo info = _putSessionInfo(tokenValue, sessionInfo);
-        clusterManagerAPI.send(new TokenStorePutSessionInfoMsg(tokenValue, sessionInfo));
+        long version = nextVersion(getAccessTokenVersion(tokenValue));
+        RestUserSessionInfo info = putSessionInfoToMemory(tokenValue, sessionInfo, version);
+        clusterManagerAPI.send(new TokenStorePutSessionInfoMsg(tokenValue, sessionInfo, version));
         return info;
     }
 
-    protected RestUserSessionInfo _putSessionInfo(String tokenValue, RestUserSessionInfo sessionInfo) {
+    /**
+     * Sets the session info of the token record. If the record does not exist yet, creates a record containing
+     * only the session info, to be completed when the token is stored or restored from the database.
+     *
+     * @return previous session info
+     */
+    @Nullable
+    protected RestUserSessionInfo putSessionInfoToMemory(String tokenValue, RestUserSessionInfo sessionInfo,
+                                                         long version) {
         lock.writeLock().lock();
         try {
-            return accessTokenValueToSessionInfoStore.put(tokenValue, sessionInfo);
+            AccessTokenRecord current = accessTokens.get(tokenValue);
+            if (current == null) {
+                if (!checkTombstone(accessTokenTombstones, tokenValue, version)) {
+                    return null;
+                }
+                accessTokens.put(tokenValue, new AccessTokenRecord(tokenValue, null, null, null, 0,
+                        null, null, sessionInfo, version));
+                return null;
+            }
+            if (version != 0 && current.version > version) {
+                return current.sessionInfo;
+            }
+            accessTokens.put(tokenValue, current.withSessionInfo(sessionInfo, version));
+            return current.sessionInfo;
         } finally {
             lock.writeLock().unlock();
         }
@@ -572,28 +734,61 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
 
     @Override
     public void removeAccessToken(String tokenValue) {
-        removeAccessTokenFromMemory(tokenValue);
+        long version = nextVersion(getAccessTokenVersion(tokenValue));
+        removeAccessTokenFromMemory(tokenValue, version);
         if (serverConfig.getRestStoreTokensInDb()) {
             removeAccessTokenFromDatabase(tokenValue);
         }
-        clusterManagerAPI.send(new TokenStoreRemoveAccessTokenMsg(tokenValue));
+        clusterManagerAPI.send(new TokenStoreRemoveAccessTokenMsg(tokenValue, version));
+    }
+
+    /**
+     * Removes the token record whatever its version is, and leaves a tombstone of the given version.
+     * Logs out the middleware session of the token.
+     */
+    protected void removeAccessTokenFromMemory(String tokenValue, long version) {
+        AccessTokenRecord record;
+        lock.writeLock().lock();
+        try {
+            record = accessTokens.remove(tokenValue);
+            putTombstone(accessTokenTombstones, accessTokenTombstonesExpiry, tokenValue,
+                    record != null ? Math.max(version, record.version) : version);
+            if (record == null) {
+                return;
+            }
+            unindexAccessToken(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        accessTokenRemoved(record);
     }
 
-    protected void removeAccessTokenFromMemory(String tokenValue) {
-        RestUserSessionInfo sessionInfo;
+    /**
+     * Removes the token record if it has expired by the given time.
+     */
+    protected void removeExpiredAccessTokenFromMemory(String tokenValue, long now) {
+        AccessTokenRecord record;
         lock.writeLock().lock();
         try {
-            accessTokenValueToAccessTokenStore.remove(tokenValue);
-            accessTokenValueToAuthenticationStore.remove(tokenValue);
-            accessTokenValueToUserLoginStore.remove(tokenValue);
-            String authenticationKey = accessTokenValueToAuthenticationKeyStore.remove(tokenValue);
-            if (authenticationKey != null) {
-                authenticationToAccessTokenStore.remove(authenticationKey);
+            record = accessTokens.get(tokenValue);
+            // the token could be stored again with another expiration time
+            if (record == null || record.expiry <= 0 || record.expiry > now) {
+                return;
             }
-            sessionInfo = accessTokenValueToSessionInfoStore.remove(tokenValue);
+            accessTokens.remove(tokenValue);
+            unindexAccessToken(record);
         } finally {
             lock.writeLock().unlock();
         }
+        accessTokenRemoved(record);
+    }
+
+    protected void accessTokenRemoved(AccessTokenRecord record) {
+        if (record.expiry > 0) {
+            accessTokensExpiry.remove(record.tokenValue, record.expiry);
+        }
+
+        RestUserSessionInfo sessionInfo = record.sessionInfo;
         if (sessionInfo != null) {
             try {
                 UserSession session = userSessions.get(sessionInfo.getId());
@@ -624,19 +819,51 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
 
     @Override
     public void removeRefreshToken(String refreshTokenValue) {
-        removeRefreshTokenFromMemory(refreshTokenValue);
+        long version = nextVersion(getRefreshTokenVersion(refreshTokenValue));
+        removeRefreshTokenFromMemory(refreshTokenValue, version);
 
         if (serverConfig.getRestStoreTokensInDb()) {
             removeRefreshTokenFromDatabase(refreshTokenValue);
         }
+        clusterManagerAPI.send(new TokenStoreRemoveRefreshTokenMsg(refreshTokenValue, version));
     }
 
-    protected void removeRefreshTokenFromMemory(String refreshTokenValue) {
+    /**
+     * Removes the token record whatever its version is, and leaves a tombstone of the given version.
+     */
+    protected void removeRefreshTokenFromMemory(String refreshTokenValue, long version) {
+        RefreshTokenRecord record;
         lock.writeLock().lock();
         try {
-            refreshTokenValueToRefreshTokenStore.remove(refreshTokenValue);
-            refreshTokenValueToAuthenticationStore.remove(refreshTokenValue);
-            refreshTokenValueToAccessTokenValueStore.remove(refreshTokenValue);
+            record = refreshTokens.remove(refreshTokenValue);
+            putTombstone(refreshTokenTombstones, refreshTokenTombstonesExpiry, refreshTokenValue,
+                    record != null ? Math.max(version, record.version) : version);
+            accessTokenByRefreshToken.remove(refreshTokenValue);
+            if (record == null) {
+                return;
+            }
+            removeFromIndex(refreshTokensByUserLogin, record.userLogin, refreshTokenValue);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (record.expiry > 0) {
+            refreshTokensExpiry.remove(refreshTokenValue, record.expiry);
+        }
+    }
+
+    /**
+     * Removes the token record if it has expired by the given time.
+     */
+    protected void removeExpiredRefreshTokenFromMemory(String refreshTokenValue, long now) {
+        lock.writeLock().lock();
+        try {
+            RefreshTokenRecord record = refreshTokens.get(refreshTokenValue);
+            if (record == null || record.expiry <= 0 || record.expiry > now) {
+                return;
+            }
+            refreshTokens.remove(refreshTokenValue);
+            accessTokenByRefreshToken.remove(refreshTokenValue);
+            removeFromIndex(refreshTokensByUserLogin, record.userLogin, refreshTokenValue);
         } finally {
             lock.writeLock().unlock();
         }
@@ -656,6 +883,7 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
     public void deleteExpiredTokens() {
         deleteExpiredAccessTokensInMemory();
         deleteExpiredRefreshTokensInMemory();
+        deleteExpiredTombstones();
         if (serverConfig.getRestStoreTokensInDb() && clusterManagerAPI.isMaster()) {
             deleteExpiredAccessTokensInDatabase();
             deleteExpiredRefreshTokensInDatabase();
@@ -663,12 +891,14 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
     }
 
     protected byte[] getRefreshTokenByTokenValueFromMemory(String tokenValue) {
-        return refreshTokenValueToRefreshTokenStore.get(tokenValue);
+        RefreshTokenRecord record = refreshTokens.get(tokenValue);
+        return record != null ? record.tokenBytes : null;
     }
 
     @Override
     public byte[] getAuthenticationByRefreshTokenValue(String tokenValue) {
-        return refreshTokenValueToAuthenticationStore.get(tokenValue);
+        RefreshTokenRecord record = refreshTokens.get(tokenValue);
+        return record != null ? record.authenticationBytes : null;
     }
 
     @Override
@@ -679,7 +909,7 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
     }
 
     protected String getAccessTokenValueByRefreshTokenValue(String refreshTokenValue) {
-        String accessTokenValue = refreshTokenValueToAccessTokenValueStore.get(refreshTokenValue);
+        String accessTokenValue = accessTokenByRefreshToken.get(refreshTokenValue);
         if (accessTokenValue == null && serverConfig.getRestStoreTokensInDb()) {
             accessTokenValue = getAccessTokenValueByRefreshTokenValueFromDatabase(refreshTokenValue);
         }
@@ -699,19 +929,31 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
         }
     }
 
+    /**
+     * Removes expired tokens from memory of this node only: each node of the cluster has the same tokens and
+     * expires them itself, and the database records are deleted by the master node.
+     */
     protected void deleteExpiredAccessTokensInMemory() {
-        TokenExpiry expiry = accessTokensExpiryQueue.poll();
-        while (expiry != null) {
-            removeAccessToken(expiry.getValue());
-            expiry = accessTokensExpiryQueue.poll();
+        long now = timeSource.currentTimeMillis();
+        for (String tokenValue : accessTokensExpiry.pollExpired(now)) {
+            removeExpiredAccessTokenFromMemory(tokenValue, now);
         }
     }
 
     protected void deleteExpiredRefreshTokensInMemory() {
-        TokenExpiry expiry = refreshTokensExpiryQueue.poll();
-        while (expiry != null) {
-            removeRefreshToken(expiry.getValue());
-            expiry = refreshTokensExpiryQueue.poll();
+        long now = timeSource.currentTimeMillis();
+        for (String tokenValue : refreshTokensExpiry.pollExpired(now)) {
+            removeExpiredRefreshTokenFromMemory(tokenValue, now);
+        }
+    }
+
+    protected void deleteExpiredTombstones() {
+        long now = timeSource.currentTimeMillis();
+        for (String tokenValue : accessTokenTombstonesExpiry.pollExpired(now)) {
+            accessTokenTombstones.remove(tokenValue);
+        }
+        for (String tokenValue : refreshTokenTombstonesExpiry.pollExpired(now)) {
+            refreshTokenTombstones.remove(tokenValue);
         }
     }
 
@@ -733,33 +975,171 @@ public class ServerTokenStoreImpl implements ServerTokenStore {
         }
     }
 
-    protected static class TokenExpiry implements Delayed {
+    protected void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(STATE_FORMAT);
+
+        out.writeInt(accessTokens.size());
+        for (AccessTokenRecord record : accessTokens.values()) {
+            out.writeUTF(record.tokenValue);
+            writeBytes(out, record.tokenBytes);
+            writeString(out, record.authenticationKey);
+            writeBytes(out, record.authenticationBytes);
+            out.writeLong(record.expiry);
+            writeString(out, record.userLogin);
+            writeString(out, record.refreshTokenValue);
+            writeSessionInfo(out, record.sessionInfo);
+            out.writeLong(record.version);
+        }
 
-        private final long expiry;
+        out.writeInt(refreshTokens.size());
+        for (RefreshTokenRecord record : refreshTokens.values()) {
+            out.writeUTF(record.tokenValue);
+            writeBytes(out, record.tokenBytes);
+            writeBytes(out, record.authenticationBytes);
+            out.writeLong(record.expiry);
+            writeString(out, record.userLogin);
+            out.writeLong(record.version);
+        }
+    }
 
-        private final String value;
+    /**
+     * Merges the state received from the cluster: a record is put only if it is not older than the current one
+     * and the token has not been removed by a newer change.
+     */
+    protected void readState(DataInputStream in) throws IOException {
+        int format = in.readInt();
+        if (format != STATE_FORMAT) {
+            log.warn("Unsupported format of ServerTokenStore cluster state: {}, the state is ignored", format);
+            return;
+        }
 
-        public TokenExpiry(String value, Date date) {
-            this.value = value;
-            this.expiry = date.getTime();
+        int accessTokensCount = in.readInt();
+        for (int i = 0; i < accessTokensCount; i++) {
+            AccessTokenRecord record = new AccessTokenRecord(in.readUTF(), readBytes(in), readString(in),
+                    readBytes(in), in.readLong(), readString(in), readString(in), readSessionInfo(in), in.readLong());
+            putAccessTokenRecord(record);
         }
 
-        @Override
-        public int compareTo(Delayed other) {
-            if (this == other) {
-                return 0;
+        int refreshTokensCount = in.readInt();
+        for (int i = 0; i < refreshTokensCount; i++) {
+            RefreshTokenRecord record = new RefreshTokenRecord(in.readUTF(), readBytes(in), readBytes(in),
+                    in.readLong(), readString(in), in.readLong());
+            putRefreshTokenRecord(record);
+        }
+    }
+
+    protected void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    @Nullable
+    protected String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    protected void writeBytes(DataOutputStream out, @Nullable byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    @Nullable
+    protected byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    protected void writeSessionInfo(DataOutputStream out, @Nullable RestUserSessionInfo sessionInfo) throws IOException {
+        out.writeBoolean(sessionInfo != null);
+        if (sessionInfo != null) {
+            UUID id = sessionInfo.getId();
+            out.writeBoolean(id != null);
+            if (id != null) {
+                out.writeLong(id.getMostSignificantBits());
+                out.writeLong(id.getLeastSignificantBits());
             }
-            long diff = getDelay(TimeUnit.MILLISECONDS) - other.getDelay(TimeUnit.MILLISECONDS);
-            return (diff == 0 ? 0 : ((diff < 0) ? -1 : 1));
+            writeString(out, sessionInfo.getLocale() != null ? sessionInfo.getLocale().toString() : null);
+        }
+    }
+
+    @Nullable
+    protected RestUserSessionInfo readSessionInfo(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        UUID id = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+        String locale = readString(in);
+        return new RestUserSessionInfo(id, locale != null ? LocaleUtils.toLocale(locale) : null);
+    }
+
+    protected abstract static class TokenRecord {
+
+        protected final String tokenValue;
+
+        // expiration time in milliseconds, or 0 if the token does not expire
+        protected final long expiry;
+
+        protected final long version;
+
+        protected TokenRecord(String tokenValue, long expiry, long version) {
+            this.tokenValue = tokenValue;
+            this.expiry = expiry;
+            this.version = version;
         }
+    }
 
-        @Override
-        public long getDelay(TimeUnit unit) {
-            return expiry - System.currentTimeMillis();
+    protected static class AccessTokenRecord extends TokenRecord {
+
+        protected final byte[] tokenBytes;
+        protected final String authenticationKey;
+        protected final byte[] authenticationBytes;
+        protected final String userLogin;
+        protected final String refreshTokenValue;
+        protected final RestUserSessionInfo sessionInfo;
+
+        protected AccessTokenRecord(String tokenValue, @Nullable byte[] tokenBytes, @Nullable String authenticationKey,
+                                    @Nullable byte[] authenticationBytes, long expiry, @Nullable String userLogin,
+                                    @Nullable String refreshTokenValue, @Nullable RestUserSessionInfo sessionInfo,
+                                    long version) {
+            super(tokenValue, expiry, version);
+            this.tokenBytes = tokenBytes;
+            this.authenticationKey = authenticationKey;
+            this.authenticationBytes = authenticationBytes;
+            this.userLogin = userLogin;
+            this.refreshTokenValue = refreshTokenValue;
+            this.sessionInfo = sessionInfo;
         }
 
-        public String getValue() {
-            return value;
+        protected AccessTokenRecord withSessionInfo(@Nullable RestUserSessionInfo sessionInfo, long version) {
+            return new AccessTokenRecord(tokenValue, tokenBytes, authenticationKey, authenticationBytes, expiry,
+                    userLogin, refreshTokenValue, sessionInfo, version);
+        }
+    }
+
+    protected static class RefreshTokenRecord extends TokenRecord {
+
+        protected final byte[] tokenBytes;
+        protected final byte[] authenticationBytes;
+        protected final String userLogin;
+
+        protected RefreshTokenRecord(String tokenValue, @Nullable byte[] tokenBytes,
+                                     @Nullable byte[] authenticationBytes, long expiry, @Nullable String userLogin,
+                                     long version) {
+            super(tokenValue, expiry, version);
+            this.tokenBytes = tokenBytes;
+            this.authenticationBytes = authenticationBytes;
+            this.userLogin = userLogin;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.restapi;
+
+import java.util.*;
+
+/**
+ * Hashed timing wheel of token expiration times.
+ * <p>A token is placed into the bucket of the tick of its expiration time, so adding and removing a token takes
+ * constant time regardless of the number of tokens, and {@link #pollExpired(long)} looks only into the buckets
+ * of the ticks passed since the previous call. Tokens expiring later than one rotation of the wheel stay in their
+ * bucket until their time comes.
+ * <p>A token registered for a tick that has already been processed is placed into the bucket checked by the next
+ * poll, so the wheel remembers the bucket of every token to find it there on removal.
+ */
+public class TokenExpiryWheel {
+
+    protected final long tickMs;
+
+    protected final Map<String, Long>[] buckets;
+
+    // bucket index of each registered token
+    protected final Map<String, Integer> tokenBuckets = new HashMap<>();
+
+    // last tick checked by pollExpired(), its bucket is checked again by the next call
+    protected long processedTick = -1;
+
+    protected int size;
+
+    /**
+     * @param bucketCount number of buckets in the wheel
+     * @param tickMs      time span of one bucket in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public TokenExpiryWheel(int bucketCount, long tickMs) {
+        if (bucketCount <= 0 || tickMs <= 0) {
+            throw new IllegalArgumentException("Bucket count and tick must be positive");
+        }
+        this.tickMs = tickMs;
+        this.buckets = new Map[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new HashMap<>();
+        }
+    }
+
+    /**
+     * Registers the expiration time of a token, replacing the time registered before.
+     */
+    public synchronized void add(String token, long expiry) {
+        remove(token);
+        int index = getBucketIndex(expiry);
+        buckets[index].put(token, expiry);
+        tokenBuckets.put(token, index);
+        size++;
+    }
+
+    /**
+     * Unregisters the token if it is registered with the given expiration time.
+     */
+    public synchronized void remove(String token, long expiry) {
+        Integer index = tokenBuckets.get(token);
+        if (index != null && buckets[index].remove(token, expiry)) {
+            tokenBuckets.remove(token);
+            size--;
+        }
+    }
+
+    /**
+     * Unregisters the token whatever its expiration time is.
+     */
+    public synchronized void remove(String token) {
+        Integer index = tokenBuckets.remove(token);
+        if (index != null) {
+            buckets[index].remove(token);
+            size--;
+        }
+    }
+
+    /**
+     * Removes from the wheel and returns the tokens expired by the given time.
+     */
+    public synchronized List<String> pollExpired(long now) {
+        long nowTick = now / tickMs;
+        long fromTick = processedTick < 0 ? nowTick - buckets.length + 1 : processedTick;
+        if (nowTick - fromTick >= buckets.length) {
+            fromTick = nowTick - buckets.length + 1;
+        }
+
+        List<String> expired = new ArrayList<>();
+        for (long tick = fromTick; tick <= nowTick; tick++) {
+            Iterator<Map.Entry<String, Long>> iterator = buckets[getIndex(tick)].entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getValue() <= now) {
+                    expired.add(entry.getKey());
+                    tokenBuckets.remove(entry.getKey());
+                    iterator.remove();
+                    size--;
+                }
+            }
+        }
+        processedTick = Math.max(processedTick, nowTick);
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    protected int getBucketIndex(long expiry) {
+        long tick = expiry / tickMs;
+        if (processedTick >= 0 && tick < processedTick) {
+            // the tick has already passed, so put the token where the next poll looks
+            tick = processedTick;
+        }
+        return getIndex(tick);
+    }
+
+    protected int getIndex(long tick) {
+        return (int) Math.floorMod(tick, (long) buckets.length);
+    }
+}
@@ -30,6 +30,7 @@ public class TokenStoreAddAccessTokenMsg implements Serializable {
     protected byte[] authenticationBytes;
     protected Date tokenExpiry;
     protected String userLogin;
+    protected long version;
 
     public TokenStoreAddAccessTokenMsg(String accessTokenValue,
                                        byte[] accessTokenBytes,
@@ -47,6 +48,19 @@ public class TokenStoreAddAccessTokenMsg implements Serializable {
         this.refreshTokenValue = refreshTokenValue;
     }
 
+    public TokenStoreAddAccessTokenMsg(String accessTokenValue,
+                                       byte[] accessTokenBytes,
+                                       String authenticationKey,
+                                       byte[] authenticationBytes,
+                                       Date tokenExpiry,
+                                       String userLogin,
+                                       String refreshTokenValue,
+                                       long version) {
+        this(accessTokenValue, accessTokenBytes, authenticationKey, authenticationBytes, tokenExpiry, userLogin,
+                refreshTokenValue);
+        this.version = version;
+    }
+
     public String getAccessTokenValue() {
         return accessTokenValue;
     }
@@ -74,4 +88,11 @@ public class TokenStoreAddAccessTokenMsg implements Serializable {
     public String getRefreshTokenValue() {
         return refreshTokenValue;
     }
+
+    /**
+     * @return version of the token record after the change, or 0 if the message is sent by a node without versions
+     */
+    public long getVersion() {
+        return version;
+    }
 }
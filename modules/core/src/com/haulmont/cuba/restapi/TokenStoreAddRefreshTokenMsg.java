@@ -28,6 +28,7 @@ public class TokenStoreAddRefreshTokenMsg implements Serializable {
     protected byte[] authenticationBytes;
     protected Date tokenExpiry;
     protected String userLogin;
+    protected long version;
 
     public TokenStoreAddRefreshTokenMsg(String tokenValue,
                                         byte[] tokenBytes,
@@ -42,6 +43,16 @@ public class TokenStoreAddRefreshTokenMsg implements Serializable {
         this.userLogin = userLogin;
     }
 
+    public TokenStoreAddRefreshTokenMsg(String tokenValue,
+                                        byte[] tokenBytes,
+                                        byte[] authenticationBytes,
+                                        Date tokenExpiry,
+                                        String userLogin,
+                                        long version) {
+        this(tokenValue, tokenBytes, authenticationBytes, tokenExpiry, userLogin, (String) null);
+        this.version = version;
+    }
+
     public String getTokenValue() {
         return tokenValue;
     }
@@ -61,4 +72,11 @@ public class TokenStoreAddRefreshTokenMsg implements Serializable {
     public String getUserLogin() {
         return userLogin;
     }
+
+    /**
+     * @return version of the token record after the change, or 0 if the message is sent by a node without versions
+     */
+    public long getVersion() {
+        return version;
+    }
 }
@@ -25,12 +25,18 @@ import java.util.UUID;
 public class TokenStorePutSessionInfoMsg implements Serializable {
     protected String tokenValue;
     protected RestUserSessionInfo sessionInfo;
+    protected long version;
 
     public TokenStorePutSessionInfoMsg(String tokenValue, RestUserSessionInfo sessionInfo) {
         this.tokenValue = tokenValue;
         this.sessionInfo = sessionInfo;
     }
 
+    public TokenStorePutSessionInfoMsg(String tokenValue, RestUserSessionInfo sessionInfo, long version) {
+        this(tokenValue, sessionInfo);
+        this.version = version;
+    }
+
     public String getTokenValue() {
         return tokenValue;
     }
@@ -38,4 +44,11 @@ public class TokenStorePutSessionInfoMsg implements Serializable {
     public RestUserSessionInfo getSessionInfo() {
         return sessionInfo;
     }
+
+    /**
+     * @return version of the token record after the change, or 0 if the message is sent by a node without versions
+     */
+    public long getVersion() {
+        return version;
+    }
 }
@@ -23,12 +23,25 @@ import java.io.Serializable;
  */
 public class TokenStoreRemoveAccessTokenMsg implements Serializable {
     protected String tokenValue;
+    protected long version;
 
     public TokenStoreRemoveAccessTokenMsg(String tokenValue) {
         this.tokenValue = tokenValue;
     }
 
+    public TokenStoreRemoveAccessTokenMsg(String tokenValue, long version) {
+        this(tokenValue);
+        this.version = version;
+    }
+
     public String getTokenValue() {
         return tokenValue;
     }
+
+    /**
+     * @return version of the token record after the change, or 0 if the message is sent by a node without versions
+     */
+    public long getVersion() {
+        return version;
+    }
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.security.app;
+
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.global.Configuration;
+import com.haulmont.cuba.security.entity.EntityLogItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes entity log items to the database in a background thread.
+ * <p>
+ * Items are accepted after the business transaction is committed and are kept in a bounded queue. A single writer
+ * thread persists them through {@link EntityManager} in transactions of up to {@code cuba.entityLog.asyncBatchSize}
+ * items in the order they were queued, so changes of an entity are written in the order of commits. If the queue
+ * stays full for {@code cuba.entityLog.asyncQueueTimeoutMs}, the calling thread writes one batch of the oldest
+ * items to make room and queues its own items. Only if they still don't fit, the calling thread writes its own items
+ * itself, ahead of the items remaining in the queue.
+ * <p>
+ * Queued items are lost if the application is terminated abnormally.
+ */
+@Component(AsyncEntityLogWriter.NAME)
+public class AsyncEntityLogWriter {
+
+    public static final String NAME = "cuba_AsyncEntityLogWriter";
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncEntityLogWriter.class);
+
+    protected static final int MAX_ATTEMPTS = 3;
+
+    @Inject
+    protected Persistence persistence;
+
+    protected EntityLogConfig config;
+
+    protected volatile BlockingQueue<QueuedItem> queue;
+    protected volatile Thread writerThread;
+    protected volatile boolean stopped;
+
+    // held while items are taken from the queue and written, fair to let a blocked caller in between batches
+    protected final Lock writeLock = new ReentrantLock(true);
+
+    protected AtomicLong writtenCount = new AtomicLong();
+    protected AtomicLong batchCount = new AtomicLong();
+    protected AtomicLong callerWrittenCount = new AtomicLong();
+    protected AtomicLong failedCount = new AtomicLong();
+
+    protected static class QueuedItem {
+        protected final EntityLogItem item;
+        protected final long queuedTs;
+
+        protected QueuedItem(EntityLogItem item) {
+            this.item = item;
+            this.queuedTs = System.currentTimeMillis();
+        }
+    }
+
+    @Inject
+    public AsyncEntityLogWriter(Configuration configuration) {
+        config = configuration.getConfig(EntityLogConfig.class);
+    }
+
+    /**
+     * Queues items for writing. Blocks while the queue is full, but not longer than
+     * {@code cuba.entityLog.asyncQueueTimeoutMs}, and then makes room by writing one batch of the queued items in the
+     * current thread, see {@link #writeInCallerThread}.
+     */
+    public void enqueue(Collection<EntityLogItem> items) {
+        BlockingQueue<QueuedItem> queue = getQueue();
+        List<EntityLogItem> rejected = new ArrayList<>();
+        try {
+            for (EntityLogItem item : items) {
+                if (!rejected.isEmpty()
+                        || !queue.offer(new QueuedItem(item), config.getAsyncQueueTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                    rejected.add(item);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!rejected.isEmpty()) {
+            writeInCallerThread(queue, rejected);
+        }
+    }
+
+    protected void writeInCallerThread(BlockingQueue<QueuedItem> queue, List<EntityLogItem> rejected) {
+        int batchSize = Math.max(config.getAsyncBatchSize(), 1);
+        writeLock.lock();
+        try {
+            // make room by writing one batch of the oldest items, as the writer thread would do
+            List<QueuedItem> batch = new ArrayList<>();
+            queue.drainTo(batch, batchSize);
+            if (!batch.isEmpty()) {
+                log.warn("Entity log queue is full, writing {} queued items in the calling thread", batch.size());
+                try {
+                    if (writeBatch(batch)) {
+                        callerWrittenCount.addAndGet(batch.size());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failedCount.addAndGet(batch.size());
+                    log.error("Interrupted while writing entity log items, {} items are lost", batch.size());
+                }
+            }
+
+            // queue the own items if all of them fit, so that they are written after the earlier ones
+            List<QueuedItem> own = new ArrayList<>(rejected.size());
+            for (EntityLogItem item : rejected) {
+                own.add(new QueuedItem(item));
+            }
+            int queued = 0;
+            if (queue.remainingCapacity() >= own.size()) {
+                while (queued < own.size() && queue.offer(own.get(queued))) {
+                    queued++;
+                }
+            }
+            if (queued == own.size())
+                return;
+
+            List<QueuedItem> remaining = own.subList(queued, own.size());
+            log.warn("Entity log queue is full, writing {} items in the calling thread", remaining.size());
+            for (int i = 0; i < remaining.size(); i += batchSize) {
+                List<QueuedItem> ownBatch = remaining.subList(i, Math.min(i + batchSize, remaining.size()));
+                try {
+                    if (writeBatch(ownBatch)) {
+                        callerWrittenCount.addAndGet(ownBatch.size());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failedCount.addAndGet(remaining.size() - i);
+                    log.error("Interrupted while writing entity log items, {} items are lost", remaining.size() - i);
+                    return;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int getQueueSize() {
+        BlockingQueue<QueuedItem> queue = this.queue;
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * @return time in milliseconds the oldest queued item is waiting for writing
+     */
+    public long getLagMs() {
+        BlockingQueue<QueuedItem> queue = this.queue;
+        QueuedItem head = queue == null ? null : queue.peek();
+        return head == null ? 0 : System.currentTimeMillis() - head.queuedTs;
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getCallerWrittenCount() {
+        return callerWrittenCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    protected BlockingQueue<QueuedItem> getQueue() {
+        if (queue == null) {
+            synchronized (this) {
+                if (queue == null) {
+                    BlockingQueue<QueuedItem> newQueue = new ArrayBlockingQueue<>(config.getAsyncQueueCapacity());
+                    writerThread = new Thread(() -> run(newQueue), "EntityLogWriter");
+                    writerThread.setDaemon(true);
+                    queue = newQueue;
+                    writerThread.start();
+                }
+            }
+        }
+        return queue;
+    }
+
+    protected void run(BlockingQueue<QueuedItem> queue) {
+        List<QueuedItem> batch = new ArrayList<>();
+        while (!stopped) {
+            try {
+                writeLock.lockInterruptibly();
+                try {
+                    QueuedItem first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null)
+                        continue;
+                    batch.add(first);
+                    queue.drainTo(batch, Math.max(config.getAsyncBatchSize(), 1) - 1);
+                    if (writeBatch(batch)) {
+                        writtenCount.addAndGet(batch.size());
+                        batchCount.incrementAndGet();
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Throwable e) {
+                log.error("Error in entity log writer", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the items in one transaction, retrying up to {@link #MAX_ATTEMPTS} times.
+     *
+     * @return true if the items are written, false if they are lost
+     */
+    protected boolean writeBatch(List<QueuedItem> batch) throws InterruptedException {
+        List<EntityLogItem> items = new ArrayList<>(batch.size());
+        for (QueuedItem queuedItem : batch) {
+            items.add(queuedItem.item);
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                write(items);
+                return true;
+            } catch (Exception e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    failedCount.addAndGet(items.size());
+                    log.error("Unable to write {} entity log items", items.size(), e);
+                    return false;
+                }
+                log.warn("Error writing entity log items, attempt {}: {}", attempt, e.toString());
+                TimeUnit.SECONDS.sleep(attempt);
+            }
+        }
+    }
+
+    protected void write(List<EntityLogItem> items) {
+        try (Transaction tx = persistence.createTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+            for (EntityLogItem item : items) {
+                Date createTs = item.getCreateTs();
+                String createdBy = item.getCreatedBy();
+                em.persist(item);
+                // persisting fills the audit fields from the writer thread, restore the ones of the committing user
+                item.setCreateTs(createTs);
+                item.setCreatedBy(createdBy);
+            }
+            tx.commit();
+        }
+    }
+
+    @PreDestroy
+    protected void shutdown() {
+        stopped = true;
+        Thread thread = writerThread;
+        if (thread == null)
+            return;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<QueuedItem> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            log.info("Writing {} remaining entity log items", remaining.size());
+            try {
+                if (writeBatch(remaining)) {
+                    writtenCount.addAndGet(remaining.size());
+                    batchCount.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
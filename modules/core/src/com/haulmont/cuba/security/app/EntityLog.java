@@ -38,6 +38,8 @@ import org.eclipse.persistence.internal.sessions.ObjectChangeSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -76,6 +78,8 @@ public class EntityLog implements EntityLogAPI {
     protected DataManager dataManager;
     @Inject
     protected ServerConfig serverConfig;
+    @Inject
+    protected AsyncEntityLogWriter asyncWriter;
 
     protected volatile boolean loaded;
     protected EntityLogConfig config;
@@ -110,16 +114,42 @@ public class EntityLog implements EntityLogAPI {
         if (items == null || items.isEmpty())
             return;
 
+        boolean async = config.getAsync() && TransactionSynchronizationManager.isSynchronizationActive();
+        Set<EntityLogItem> itemsToWrite = new LinkedHashSet<>();
         for (EntityLogItem item : items) {
             List<EntityLogItem> sameEntityList = items.stream()
                     .filter(entityLogItem -> entityLogItem.getObjectEntityId().equals(item.getObjectEntityId()))
                     .collect(Collectors.toList());
             EntityLogItem itemToSave = sameEntityList.get(0);
             computeChanges(itemToSave, sameEntityList);
-            saveItem(itemToSave);
+            if (async) {
+                itemsToWrite.add(itemToSave);
+            } else {
+                saveItem(itemToSave);
+            }
+        }
+        if (async) {
+            // the items must not be queued again if flush is invoked once more in this transaction
+            items.clear();
+            enqueueAfterCommit(itemsToWrite);
         }
     }
 
+    protected void enqueueAfterCommit(Collection<EntityLogItem> itemsToWrite) {
+        Date ts = timeSource.currentTimestamp();
+        String login = auditInfoProvider.getCurrentUserLogin();
+        for (EntityLogItem item : itemsToWrite) {
+            item.setCreateTs(ts);
+            item.setCreatedBy(login);
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                asyncWriter.enqueue(itemsToWrite);
+            }
+        });
+    }
+
     protected void computeChanges(EntityLogItem itemToSave, List<EntityLogItem> sameEntityList) {
         Set<String> allAttributes = sameEntityList.stream()
                 .flatMap(entityLogItem -> entityLogItem.getAttributes().stream().map(EntityLogAttr::getName))
@@ -21,6 +21,7 @@ import com.haulmont.cuba.core.config.Property;
 import com.haulmont.cuba.core.config.Source;
 import com.haulmont.cuba.core.config.SourceType;
 import com.haulmont.cuba.core.config.defaults.DefaultBoolean;
+import com.haulmont.cuba.core.config.defaults.DefaultInt;
 
 /**
  * {@link com.haulmont.cuba.security.app.EntityLog} configuration parameters
@@ -35,4 +36,34 @@ public interface EntityLogConfig extends Config {
     @DefaultBoolean(true)
     boolean getEnabled();
     void setEnabled(boolean value);
-}
\ No newline at end of file
+
+    /**
+     * @return whether log items are written to the database by {@link AsyncEntityLogWriter} after the transaction
+     * is committed instead of being saved in the transaction
+     */
+    @Property("cuba.entityLog.async")
+    @DefaultBoolean(false)
+    boolean getAsync();
+
+    /**
+     * @return maximum number of log items waiting for {@link AsyncEntityLogWriter}. Applied on first use.
+     */
+    @Property("cuba.entityLog.asyncQueueCapacity")
+    @DefaultInt(10000)
+    int getAsyncQueueCapacity();
+
+    /**
+     * @return how long a committing thread waits for space in the full queue before writing a batch of the queued
+     * items itself to make room
+     */
+    @Property("cuba.entityLog.asyncQueueTimeoutMs")
+    @DefaultInt(1000)
+    int getAsyncQueueTimeoutMs();
+
+    /**
+     * @return maximum number of log items written by the asynchronous writer in one transaction
+     */
+    @Property("cuba.entityLog.asyncBatchSize")
+    @DefaultInt(100)
+    int getAsyncBatchSize();
+}
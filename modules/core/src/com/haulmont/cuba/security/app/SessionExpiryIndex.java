@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.security.app;
+
+import java.util.*;
+
+/**
+ * Index of user sessions by usage time, grouped into buckets of a fixed time span. Allows to find the entries
+ * used before some time without iterating over all entries.
+ * <p>An entry is reported as expired when its whole bucket is older than the given time, so it can be reported
+ * up to one bucket span later than it actually expires.
+ *
+ * @param <K> type of entry identifiers
+ */
+public class SessionExpiryIndex<K> {
+
+    protected final long bucketMs;
+
+    protected final NavigableMap<Long, Set<K>> buckets = new TreeMap<>();
+
+    public SessionExpiryIndex(long bucketMs) {
+        if (bucketMs <= 0) {
+            throw new IllegalArgumentException("Bucket span must be positive");
+        }
+        this.bucketMs = bucketMs;
+    }
+
+    public synchronized void add(K id, long ts) {
+        buckets.computeIfAbsent(getBucket(ts), k -> new HashSet<>()).add(id);
+    }
+
+    public synchronized void remove(K id, long ts) {
+        long bucket = getBucket(ts);
+        Set<K> ids = buckets.get(bucket);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            buckets.remove(bucket);
+        }
+    }
+
+    /**
+     * Moves the entry to the bucket of the new time.
+     *
+     * @return false if the new time belongs to the same bucket, so nothing has been changed
+     */
+    public boolean move(K id, long oldTs, long newTs) {
+        if (getBucket(oldTs) == getBucket(newTs)) {
+            return false;
+        }
+        synchronized (this) {
+            remove(id, oldTs);
+            add(id, newTs);
+        }
+        return true;
+    }
+
+    /**
+     * Removes from the index and returns the entries of the buckets ending not later than the given time.
+     * The caller should check the actual time of each entry and add the ones that are not expired back.
+     */
+    public synchronized List<K> pollBefore(long ts) {
+        List<K> ids = new ArrayList<>();
+        Map<Long, Set<K>> expired = buckets.headMap(getBucket(ts), false);
+        for (Set<K> bucketIds : expired.values()) {
+            ids.addAll(bucketIds);
+        }
+        expired.clear();
+        return ids;
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (Set<K> ids : buckets.values()) {
+            size += ids.size();
+        }
+        return size;
+    }
+
+    protected long getBucket(long ts) {
+        return Math.floorDiv(ts, bucketMs);
+    }
+}
@@ -17,7 +17,9 @@ package com.haulmont.cuba.security.app;
 
 import com.haulmont.bali.util.Preconditions;
 import com.haulmont.cuba.core.app.ClusterListener;
+import com.haulmont.cuba.core.app.ClusterListenerAdapter;
 import com.haulmont.cuba.core.app.ClusterManagerAPI;
+import com.haulmont.cuba.core.app.MergeableClusterMessage;
 import com.haulmont.cuba.core.app.ServerConfig;
 import com.haulmont.cuba.core.global.Configuration;
 import com.haulmont.cuba.core.global.Metadata;
@@ -42,17 +44,22 @@ import java.util.stream.Stream;
 
 /**
  * User sessions distributed cache.
+ * <p>Non-system sessions are indexed by the last usage time, so the eviction looks only at the sessions that can be
+ * expired. Full sessions are sent to the cluster when they are created, removed or explicitly propagated. Regular
+ * usage of sessions is collected and sent on eviction as one {@link UserSessionsTouchMessage} containing only
+ * session ids and usage times.
  */
 @Component(UserSessionsAPI.NAME)
 public class UserSessions implements UserSessionsAPI {
 
-    public static class UserSessionInfo implements Serializable {
+    public static class UserSessionInfo implements MergeableClusterMessage<UserSessionInfo> {
         private static final long serialVersionUID = -4834267718111570841L;
 
         public final UserSession session;
         public final long since;
         public volatile long lastUsedTs; // set to 0 when propagating removal to cluster
         public volatile long lastSentTs;
+        protected transient volatile long indexedTs; // last usage time the session is indexed by for expiration
 
         public UserSessionInfo(UserSession session, long now) {
             this.session = session;
@@ -77,6 +84,17 @@ public class UserSessions implements UserSessionsAPI {
             return lastSentTs;
         }
 
+        @Override
+        public Object getMergeKey() {
+            return session.getId();
+        }
+
+        @Override
+        public UserSessionInfo merge(UserSessionInfo newer) {
+            // the newest state of the session including removal replaces previous ones
+            return newer;
+        }
+
         @Override
         public String toString() {
             return String.format("%s, since: %s, lastUsed: %s",
@@ -84,10 +102,59 @@ public class UserSessions implements UserSessionsAPI {
         }
     }
 
+    /**
+     * Last usage times of several sessions.
+     */
+    public static class UserSessionsTouchMessage implements Serializable {
+        private static final long serialVersionUID = 3427802471512539516L;
+
+        // most and least significant bits of each session id
+        private final long[] sessionIds;
+        private final long[] lastUsedTs;
+
+        public UserSessionsTouchMessage(Map<UUID, Long> touches) {
+            sessionIds = new long[touches.size() * 2];
+            lastUsedTs = new long[touches.size()];
+            int i = 0;
+            for (Map.Entry<UUID, Long> entry : touches.entrySet()) {
+                sessionIds[i * 2] = entry.getKey().getMostSignificantBits();
+                sessionIds[i * 2 + 1] = entry.getKey().getLeastSignificantBits();
+                lastUsedTs[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        public int size() {
+            return lastUsedTs.length;
+        }
+
+        public UUID getSessionId(int index) {
+            return new UUID(sessionIds[index * 2], sessionIds[index * 2 + 1]);
+        }
+
+        public long getLastUsedTs(int index) {
+            return lastUsedTs[index];
+        }
+
+        @Override
+        public String toString() {
+            return "UserSessionsTouchMessage{size=" + size() + "}";
+        }
+    }
+
     private static final Logger log = LoggerFactory.getLogger(UserSessions.class);
 
+    protected static final long EXPIRY_BUCKET_MS = 10_000;
+
+    protected static final int TOUCH_MESSAGE_MAX_SIZE = 5000;
+
     protected Map<UUID, UserSessionInfo> cache = new ConcurrentHashMap<>();
 
+    protected SessionExpiryIndex<UUID> expiryIndex = new SessionExpiryIndex<>(EXPIRY_BUCKET_MS);
+
+    // usage times of sessions to be sent to the cluster
+    protected Map<UUID, Long> pendingTouches = new ConcurrentHashMap<>();
+
     protected volatile int expirationTimeout = 1800;
 
     protected volatile int sendTimeout = 10;
@@ -153,6 +220,15 @@ public class UserSessions implements UserSessionsAPI {
                     }
                 }
         );
+        this.clusterManager.addListener(
+                UserSessionsTouchMessage.class,
+                new ClusterListenerAdapter<UserSessionsTouchMessage>() {
+                    @Override
+                    public void receive(UserSessionsTouchMessage message) {
+                        receiveTouchMessage(message);
+                    }
+                }
+        );
     }
 
     protected void receiveClusterMessage(UserSessionInfo message) {
@@ -168,6 +244,17 @@ public class UserSessions implements UserSessionsAPI {
         }
     }
 
+    protected void receiveTouchMessage(UserSessionsTouchMessage message) {
+        for (int i = 0; i < message.size(); i++) {
+            UUID id = message.getSessionId(i);
+            UserSessionInfo usi = getSessionInfo(id);
+            if (usi != null && usi.lastUsedTs < message.getLastUsedTs(i)) {
+                usi.lastUsedTs = message.getLastUsedTs(i);
+                putSessionInfo(id, usi);
+            }
+        }
+    }
+
     protected void receiveClusterState(byte[] state) {
         if (state == null || state.length == 0)
             return;
@@ -287,7 +374,7 @@ public class UserSessions implements UserSessionsAPI {
                 if (propagate && !usi.session.isSystem()) {
                     if (now > (usi.lastSentTs + sendTimeout * 1000)) {
                         usi.lastSentTs = now;
-                        clusterManager.send(usi);
+                        pendingTouches.put(id, now);
                     }
                 }
             }
@@ -389,21 +476,52 @@ public class UserSessions implements UserSessionsAPI {
         if (!AppContext.isStarted())
             return;
 
+        sendTouches();
+
         log.trace("Processing eviction");
         long now = timeSource.currentTimeMillis();
+        long expirationTimeoutMs = expirationTimeout * 1000L;
 
-        getSessionInfoStream()
-                .filter(info -> !info.session.isSystem() && now > (info.lastUsedTs + expirationTimeout * 1000))
-                .forEach(usi -> {
-                    log.debug("Removing session due to timeout: {}", usi);
+        for (UUID id : expiryIndex.pollBefore(now - expirationTimeoutMs)) {
+            UserSessionInfo usi = getSessionInfo(id);
+            if (usi == null || usi.session.isSystem()) {
+                continue;
+            }
+            if (now > (usi.lastUsedTs + expirationTimeoutMs)) {
+                log.debug("Removing session due to timeout: {}", usi);
 
-                    userSessionLog.updateSessionLogRecord(usi.getSession(), SessionAction.EXPIRATION);
+                userSessionLog.updateSessionLogRecord(usi.getSession(), SessionAction.EXPIRATION);
 
-                    removeSessionInfo(usi.session.getId());
+                removeSessionInfo(id);
 
-                    usi.lastUsedTs = 0;
-                    clusterManager.send(usi);
-                });
+                usi.lastUsedTs = 0;
+                clusterManager.send(usi);
+            } else {
+                // used after it had been indexed
+                usi.indexedTs = usi.lastUsedTs;
+                expiryIndex.add(id, usi.indexedTs);
+            }
+        }
+    }
+
+    /**
+     * Sends usage times of sessions collected since the previous call to the cluster.
+     */
+    protected void sendTouches() {
+        Map<UUID, Long> touches = new HashMap<>();
+        for (Map.Entry<UUID, Long> entry : pendingTouches.entrySet()) {
+            touches.put(entry.getKey(), entry.getValue());
+            // keep the entry if it has been updated meanwhile
+            pendingTouches.remove(entry.getKey(), entry.getValue());
+
+            if (touches.size() >= TOUCH_MESSAGE_MAX_SIZE) {
+                clusterManager.send(new UserSessionsTouchMessage(touches));
+                touches = new HashMap<>();
+            }
+        }
+        if (!touches.isEmpty()) {
+            clusterManager.send(new UserSessionsTouchMessage(touches));
+        }
     }
 
     protected UserSessionInfo getSessionInfo(UUID id) {
@@ -411,12 +529,32 @@ public class UserSessions implements UserSessionsAPI {
     }
 
     protected void putSessionInfo(UUID id, UserSessionInfo info) {
-        cache.put(id, info);
+        UserSessionInfo previous = cache.put(id, info);
+        if (info.session.isSystem()) {
+            return;
+        }
+        if (previous == info) {
+            long indexedTs = info.indexedTs;
+            if (expiryIndex.move(id, indexedTs, info.lastUsedTs)) {
+                info.indexedTs = info.lastUsedTs;
+            }
+        } else {
+            if (previous != null) {
+                expiryIndex.remove(id, previous.indexedTs);
+            }
+            info.indexedTs = info.lastUsedTs;
+            expiryIndex.add(id, info.indexedTs);
+        }
     }
 
     @Nullable
     protected UserSessionInfo removeSessionInfo(UUID id) {
-        return cache.remove(id);
+        UserSessionInfo usi = cache.remove(id);
+        if (usi != null) {
+            expiryIndex.remove(id, usi.indexedTs);
+            pendingTouches.remove(id);
+        }
+        return usi;
     }
 
     protected Stream<UserSessionInfo> getSessionInfoStream() {
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.security.idp;
+
+import java.util.*;
+
+/**
+ * Index of IDP sessions or tickets by time, grouped into buckets of a fixed time span. Allows to find the entries
+ * used or created before some time without iterating over all entries.
+ * <p>An entry is reported as expired when its whole bucket is older than the given time, so it can be reported
+ * up to one bucket span later than it actually expires.
+ * <p>Entries are partitioned into stripes by the hash of their identifiers, each stripe having its own lock, so
+ * concurrent updates of different entries rarely contend.
+ */
+public class IdpExpiryIndex {
+
+    public static final int DEFAULT_STRIPES = 16;
+
+    protected final long bucketMs;
+
+    protected final Stripe[] stripes;
+
+    protected static class Stripe {
+        protected final NavigableMap<Long, Set<String>> buckets = new TreeMap<>();
+    }
+
+    public IdpExpiryIndex(long bucketMs) {
+        this(bucketMs, DEFAULT_STRIPES);
+    }
+
+    public IdpExpiryIndex(long bucketMs, int stripeCount) {
+        if (bucketMs <= 0) {
+            throw new IllegalArgumentException("Bucket span must be positive");
+        }
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Number of stripes must be positive");
+        }
+        this.bucketMs = bucketMs;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public void add(String id, long ts) {
+        Stripe stripe = getStripe(id);
+        synchronized (stripe) {
+            stripe.buckets.computeIfAbsent(getBucket(ts), k -> new HashSet<>()).add(id);
+        }
+    }
+
+    public void remove(String id, long ts) {
+        Stripe stripe = getStripe(id);
+        long bucket = getBucket(ts);
+        synchronized (stripe) {
+            Set<String> ids = stripe.buckets.get(bucket);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                stripe.buckets.remove(bucket);
+            }
+        }
+    }
+
+    /**
+     * Moves the entry to the bucket of the new time.
+     *
+     * @return false if the new time belongs to the same bucket, so nothing has been changed
+     */
+    public boolean move(String id, long oldTs, long newTs) {
+        if (getBucket(oldTs) == getBucket(newTs)) {
+            return false;
+        }
+        synchronized (getStripe(id)) {
+            remove(id, oldTs);
+            add(id, newTs);
+        }
+        return true;
+    }
+
+    /**
+     * Removes from the index and returns the entries of the buckets ending not later than the given time.
+     * The caller should check the actual time of each entry and add the ones that are not expired back.
+     */
+    public List<String> pollBefore(long ts) {
+        long bucket = getBucket(ts);
+        List<String> ids = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Map<Long, Set<String>> expired = stripe.buckets.headMap(bucket, false);
+                for (Set<String> bucketIds : expired.values()) {
+                    ids.addAll(bucketIds);
+                }
+                expired.clear();
+            }
+        }
+        return ids;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Set<String> ids : stripe.buckets.values()) {
+                    size += ids.size();
+                }
+            }
+        }
+        return size;
+    }
+
+    protected long getBucket(long ts) {
+        return Math.floorDiv(ts, bucketMs);
+    }
+
+    protected Stripe getStripe(String id) {
+        int hash = id.hashCode();
+        return stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+    }
+}
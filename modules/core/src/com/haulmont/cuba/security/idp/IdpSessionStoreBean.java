@@ -27,24 +27,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps IDP sessions and service provider tickets in concurrent maps, so logins, ticket activations and session
+ * lookups do not block each other. Sessions are indexed by the last usage time and tickets by the creation time,
+ * so the eviction looks only at the entries that can be expired.
+ * <p>Changes are sent to the cluster as separate messages. Regular usage of a session is sent as a small message
+ * containing only the session id and the usage time.
+ */
 @Component(IdpSessionStore.NAME)
 public class IdpSessionStoreBean implements IdpSessionStore {
     private static final Logger log = LoggerFactory.getLogger(IdpSessionStoreBean.class);
 
-    @GuardedBy("lock")
-    protected Map<String, IdpSessionRecord> sessions = new HashMap<>();
-    @GuardedBy("lock")
-    protected Map<String, IdpSessionTicketRecord> sessionTickets = new HashMap<>();
+    protected static final long EXPIRY_BUCKET_MS = 10_000;
+
+    protected final ConcurrentMap<String, IdpSessionRecord> sessions = new ConcurrentHashMap<>();
+    protected final ConcurrentMap<String, IdpSessionTicketRecord> sessionTickets = new ConcurrentHashMap<>();
 
-    protected ReadWriteLock lock = new ReentrantReadWriteLock();
+    protected final IdpExpiryIndex sessionsExpiry = new IdpExpiryIndex(EXPIRY_BUCKET_MS);
+    protected final IdpExpiryIndex ticketsExpiry = new IdpExpiryIndex(EXPIRY_BUCKET_MS);
 
     protected ClusterManagerAPI clusterManager;
 
@@ -74,18 +80,16 @@ public class IdpSessionStoreBean implements IdpSessionStore {
                         }
 
                         ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-                        lock.readLock().lock();
                         try {
+                            List<IdpSessionRecord> sessionRecords = new ArrayList<>(sessions.values());
                             ObjectOutputStream oos = new ObjectOutputStream(bos);
-                            oos.writeInt(sessions.size());
-                            for (IdpSessionRecord sessionRecord : sessions.values()) {
+                            oos.writeInt(sessionRecords.size());
+                            for (IdpSessionRecord sessionRecord : sessionRecords) {
                                 oos.writeObject(sessionRecord);
                             }
+                            oos.flush();
                         } catch (IOException e) {
                             throw new RuntimeException("Unable to serialize IdpSessions for cluster state", e);
-                        } finally {
-                            lock.readLock().unlock();
                         }
 
                         return bos.toByteArray();
@@ -125,18 +129,16 @@ public class IdpSessionStoreBean implements IdpSessionStore {
                         }
 
                         ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-                        lock.readLock().lock();
                         try {
+                            List<IdpSessionTicketRecord> ticketRecords = new ArrayList<>(sessionTickets.values());
                             ObjectOutputStream oos = new ObjectOutputStream(bos);
-                            oos.writeInt(sessionTickets.size());
-                            for (IdpSessionTicketRecord ticketRecord : sessionTickets.values()) {
+                            oos.writeInt(ticketRecords.size());
+                            for (IdpSessionTicketRecord ticketRecord : ticketRecords) {
                                 oos.writeObject(ticketRecord);
                             }
+                            oos.flush();
                         } catch (IOException e) {
                             throw new RuntimeException("Unable to serialize IdpSessions for cluster state", e);
-                        } finally {
-                            lock.readLock().unlock();
                         }
 
                         return bos.toByteArray();
@@ -170,82 +172,104 @@ public class IdpSessionStoreBean implements IdpSessionStore {
                         receivedTicketFromCluster(message.getTicket());
                     }
                 });
+
+        this.clusterManager.addListener(SessionUsedClusterMessage.class,
+                new ClusterListenerAdapter<SessionUsedClusterMessage>() {
+                    @Override
+                    public void receive(SessionUsedClusterMessage message) {
+                        IdpSessionRecord sessionRecord = sessions.get(message.getSessionId());
+                        if (sessionRecord != null && sessionRecord.getLastUsedTs() < message.getLastUsedTs()) {
+                            touchSession(sessionRecord, message.getLastUsedTs());
+                        }
+                    }
+                });
     }
 
     protected void receivedSessionFromCluster(IdpSessionRecord message) {
         String id = message.session.getId();
 
-        lock.writeLock().lock();
-        try {
-            if (message.lastUsedTs == 0) {
-                log.debug("Removing session due to cluster message: {}", message);
-                sessions.remove(id);
-            } else {
-                IdpSessionRecord sessionRecord = sessions.get(id);
-                if (sessionRecord == null || sessionRecord.lastUsedTs < message.lastUsedTs) {
-                    sessions.put(id, message);
-                }
+        if (message.lastUsedTs == 0) {
+            log.debug("Removing session due to cluster message: {}", message);
+            IdpSessionRecord removedRecord = sessions.remove(id);
+            if (removedRecord != null) {
+                sessionsExpiry.remove(id, removedRecord.indexedTs);
             }
-        } finally {
-            lock.writeLock().unlock();
+        } else {
+            sessions.compute(id, (key, sessionRecord) -> {
+                if (sessionRecord != null && sessionRecord.lastUsedTs >= message.lastUsedTs) {
+                    return sessionRecord;
+                }
+                if (sessionRecord != null) {
+                    sessionsExpiry.remove(id, sessionRecord.indexedTs);
+                }
+                message.indexedTs = message.lastUsedTs;
+                sessionsExpiry.add(id, message.indexedTs);
+                return message;
+            });
         }
     }
 
     protected void receivedTicketFromCluster(IdpSessionTicketRecord message) {
         String id = message.getId();
 
-        lock.writeLock().lock();
-        try {
-            if (!message.isActive()) {
-                log.debug("Removing ticket due to cluster message: {}", message);
-                sessionTickets.remove(id);
-            } else {
-                sessionTickets.putIfAbsent(id, message);
+        if (!message.isActive()) {
+            log.debug("Removing ticket due to cluster message: {}", message);
+            IdpSessionTicketRecord removedRecord = sessionTickets.remove(id);
+            if (removedRecord != null) {
+                ticketsExpiry.remove(id, removedRecord.getSince());
             }
-        } finally {
-            lock.writeLock().unlock();
+        } else if (sessionTickets.putIfAbsent(id, message) == null) {
+            ticketsExpiry.add(id, message.getSince());
         }
     }
 
     @Override
     public String putSession(IdpSession session) {
-        String serviceProviderTicket;
-        lock.writeLock().lock();
+        long now = timeSource.currentTimeMillis();
 
-        IdpSessionRecord sessionRecord;
-        IdpSessionTicketRecord ticketRecord;
-
-        try {
-            sessionRecord = new IdpSessionRecord(session, timeSource.currentTimeMillis());
-            sessions.put(session.getId(), sessionRecord);
-
-            serviceProviderTicket = uuidSource.createUuid().toString().replace("-", "");
-            ticketRecord = new IdpSessionTicketRecord(serviceProviderTicket, session.getId(), timeSource.currentTimeMillis());
-            sessionTickets.put(serviceProviderTicket, ticketRecord);
-        } finally {
-            lock.writeLock().unlock();
+        IdpSessionRecord sessionRecord = new IdpSessionRecord(session, now);
+        IdpSessionRecord replacedRecord = sessions.put(session.getId(), sessionRecord);
+        if (replacedRecord != null) {
+            sessionsExpiry.remove(session.getId(), replacedRecord.indexedTs);
         }
+        sessionsExpiry.add(session.getId(), sessionRecord.indexedTs);
+
+        String serviceProviderTicket = uuidSource.createUuid().toString().replace("-", "");
+        IdpSessionTicketRecord ticketRecord = new IdpSessionTicketRecord(serviceProviderTicket, session.getId(), now);
+        putTicket(ticketRecord);
 
         clusterManager.sendSync(new NewSessionClusterMessage(sessionRecord, ticketRecord));
 
         return serviceProviderTicket;
     }
 
+    protected void putTicket(IdpSessionTicketRecord ticketRecord) {
+        sessionTickets.put(ticketRecord.getId(), ticketRecord);
+        ticketsExpiry.add(ticketRecord.getId(), ticketRecord.getSince());
+    }
+
+    /**
+     * Sets the last usage time of the session and moves it in the expiry index if needed.
+     */
+    protected void touchSession(IdpSessionRecord sessionRecord, long lastUsedTs) {
+        long indexedTs = sessionRecord.indexedTs;
+        sessionRecord.setLastUsedTs(lastUsedTs);
+        if (sessionsExpiry.move(sessionRecord.getSession().getId(), indexedTs, lastUsedTs)) {
+            sessionRecord.indexedTs = lastUsedTs;
+        }
+    }
+
     @Override
     public boolean removeSession(String sessionId) {
-        lock.writeLock().lock();
-        IdpSessionRecord removedRecord;
-        try {
-            removedRecord = sessions.remove(sessionId);
-            // tickets will be removed on expiration
-        } finally {
-            lock.writeLock().unlock();
-        }
+        IdpSessionRecord removedRecord = sessions.remove(sessionId);
+        // tickets will be removed on expiration
 
         if (removedRecord == null) {
             return false;
         }
 
+        sessionsExpiry.remove(sessionId, removedRecord.indexedTs);
+
         removedRecord.setLastUsedTs(0);
 
         clusterManager.sendSync(removedRecord);
@@ -255,23 +279,14 @@ public class IdpSessionStoreBean implements IdpSessionStore {
 
     @Override
     public IdpSession activateSessionTicket(String serviceProviderTicket) {
-        IdpSession idpSession;
-
-        IdpSessionTicketRecord ticketRecord;
-
-        lock.writeLock().lock();
-        try {
-            ticketRecord = sessionTickets.remove(serviceProviderTicket);
-            if (ticketRecord == null) {
-                return null;
-            }
-
-            String sessionId = ticketRecord.getSessionId();
-            IdpSessionRecord sessionInfo = sessions.get(sessionId);
-            idpSession = sessionInfo != null ? sessionInfo.getSession() : null;
-        } finally {
-            lock.writeLock().unlock();
+        IdpSessionTicketRecord ticketRecord = sessionTickets.remove(serviceProviderTicket);
+        if (ticketRecord == null) {
+            return null;
         }
+        ticketsExpiry.remove(serviceProviderTicket, ticketRecord.getSince());
+
+        IdpSessionRecord sessionInfo = sessions.get(ticketRecord.getSessionId());
+        IdpSession idpSession = sessionInfo != null ? sessionInfo.getSession() : null;
 
         if (idpSession != null) {
             ticketRecord.setActive(false);
@@ -284,15 +299,8 @@ public class IdpSessionStoreBean implements IdpSessionStore {
 
     @Override
     public String createServiceProviderTicket(String sessionId) {
-        lock.readLock().lock();
-
-        IdpSession session;
-        try {
-            IdpSessionRecord sessionInfo = sessions.get(sessionId);
-            session = sessionInfo != null ? sessionInfo.getSession() : null;
-        } finally {
-            lock.readLock().unlock();
-        }
+        IdpSessionRecord sessionInfo = sessions.get(sessionId);
+        IdpSession session = sessionInfo != null ? sessionInfo.getSession() : null;
 
         if (session == null) {
             return null;
@@ -300,15 +308,9 @@ public class IdpSessionStoreBean implements IdpSessionStore {
 
         String serviceProviderTicket = uuidSource.createUuid().toString().replace("-", "");
 
-        IdpSessionTicketRecord ticketRecord;
-
-        lock.writeLock().lock();
-        try {
-            ticketRecord = new IdpSessionTicketRecord(serviceProviderTicket, sessionId, timeSource.currentTimeMillis());
-            sessionTickets.put(serviceProviderTicket, ticketRecord);
-        } finally {
-            lock.writeLock().unlock();
-        }
+        IdpSessionTicketRecord ticketRecord =
+                new IdpSessionTicketRecord(serviceProviderTicket, sessionId, timeSource.currentTimeMillis());
+        putTicket(ticketRecord);
 
         clusterManager.sendSync(ticketRecord);
 
@@ -317,33 +319,19 @@ public class IdpSessionStoreBean implements IdpSessionStore {
 
     @Override
     public List<IdpSessionInfo> getSessions() {
-        lock.readLock().lock();
-
-        List<IdpSessionInfo> sessionInfos;
-        try {
-            sessionInfos = new ArrayList<>(
-                    sessions.values().stream()
-                            .map(this::toSessionInfo)
-                            .collect(Collectors.toList()));
-        } finally {
-            lock.readLock().unlock();
+        List<IdpSessionInfo> sessionInfos = new ArrayList<>(sessions.size());
+        for (IdpSessionRecord sessionRecord : sessions.values()) {
+            sessionInfos.add(toSessionInfo(sessionRecord));
         }
-
         return sessionInfos;
     }
 
     @Override
     public Map<String, IdpSessionTicketInfo> getTickets() {
         Map<String, IdpSessionTicketInfo> tickets = new HashMap<>();
-        lock.readLock().lock();
-        try {
-            for (Map.Entry<String, IdpSessionTicketRecord> entry : sessionTickets.entrySet()) {
-                tickets.put(entry.getKey(), toTicketInfo(entry.getValue()));
-            }
-        } finally {
-            lock.readLock().unlock();
+        for (Map.Entry<String, IdpSessionTicketRecord> entry : sessionTickets.entrySet()) {
+            tickets.put(entry.getKey(), toTicketInfo(entry.getValue()));
         }
-
         return tickets;
     }
 
@@ -359,39 +347,47 @@ public class IdpSessionStoreBean implements IdpSessionStore {
         List<IdpSessionRecord> expiredSessionRecords = new ArrayList<>();
         List<IdpSessionTicketRecord> expiredTicketRecords = new ArrayList<>();
 
-        lock.writeLock().lock();
-        try {
-            long now = timeSource.currentTimeMillis();
-            for (Iterator<IdpSessionRecord> it = sessions.values().iterator(); it.hasNext(); ) {
-                IdpSessionRecord sessionRecord = it.next();
-                if (now > (sessionRecord.getLastUsedTs() + sessionExpirationTimeoutSec * 1000)) {
+        long now = timeSource.currentTimeMillis();
+        long sessionExpirationTimeoutMs = sessionExpirationTimeoutSec * 1000L;
+        for (String sessionId : sessionsExpiry.pollBefore(now - sessionExpirationTimeoutMs)) {
+            IdpSessionRecord sessionRecord = sessions.get(sessionId);
+            if (sessionRecord == null) {
+                continue;
+            }
+            if (now > (sessionRecord.getLastUsedTs() + sessionExpirationTimeoutMs)) {
+                if (sessions.remove(sessionId, sessionRecord)) {
                     log.debug("Removing session due to timeout: {}", sessionRecord);
 
-                    it.remove();
-
                     expiredSessionRecords.add(sessionRecord);
 
                     expiredSessions.add(toSessionInfo(sessionRecord));
                 }
+            } else {
+                // used after it had been indexed
+                sessionRecord.indexedTs = sessionRecord.getLastUsedTs();
+                sessionsExpiry.add(sessionId, sessionRecord.indexedTs);
             }
+        }
 
-            for (Iterator<IdpSessionTicketRecord> it = sessionTickets.values().iterator(); it.hasNext(); ) {
-                IdpSessionTicketRecord sessionTicketRecord = it.next();
-
-                if (now > (sessionTicketRecord.getSince() + ticketExpirationTimeoutSec * 1000)) {
+        long ticketExpirationTimeoutMs = ticketExpirationTimeoutSec * 1000L;
+        for (String ticketId : ticketsExpiry.pollBefore(now - ticketExpirationTimeoutMs)) {
+            IdpSessionTicketRecord sessionTicketRecord = sessionTickets.get(ticketId);
+            if (sessionTicketRecord == null) {
+                continue;
+            }
+            if (now > (sessionTicketRecord.getSince() + ticketExpirationTimeoutMs)) {
+                if (sessionTickets.remove(ticketId, sessionTicketRecord)) {
                     log.debug("Removing ticket due to timeout: {}", sessionTicketRecord);
 
-                    it.remove();
-
                     expiredTicketRecords.add(sessionTicketRecord);
                 }
+            } else {
+                ticketsExpiry.add(ticketId, sessionTicketRecord.getSince());
             }
-        } finally {
-            lock.writeLock().unlock();
         }
 
         for (IdpSessionRecord expiredSession : expiredSessionRecords) {
-            expiredSession.setLastSentTs(0);
+            expiredSession.setLastUsedTs(0);
 
             clusterManager.send(expiredSession);
         }
@@ -407,18 +403,11 @@ public class IdpSessionStoreBean implements IdpSessionStore {
 
     @Override
     public void propagate(String sessionId) {
-        lock.readLock().lock();
-
-        IdpSessionRecord sessionRecord;
-        try {
-            sessionRecord = sessions.get(sessionId);
-        } finally {
-            lock.readLock().unlock();
-        }
+        IdpSessionRecord sessionRecord = sessions.get(sessionId);
 
         if (sessionRecord != null) {
             long now = timeSource.currentTimeMillis();
-            sessionRecord.setLastUsedTs(now);
+            touchSession(sessionRecord, now);
             sessionRecord.setLastSentTs(now);
             clusterManager.sendSync(sessionRecord);
         }
@@ -426,25 +415,17 @@ public class IdpSessionStoreBean implements IdpSessionStore {
 
     @Override
     public IdpSession getSession(String sessionId) {
-        IdpSession session;
-        IdpSessionRecord sessionRecord;
-
-        lock.readLock().lock();
-        try {
-            sessionRecord = sessions.get(sessionId);
-            session = sessionRecord != null ? sessionRecord.getSession() : null;
-        } finally {
-            lock.readLock().unlock();
-        }
+        IdpSessionRecord sessionRecord = sessions.get(sessionId);
+        IdpSession session = sessionRecord != null ? sessionRecord.getSession() : null;
 
         if (sessionRecord != null) {
             long now = timeSource.currentTimeMillis();
 
-            sessionRecord.setLastUsedTs(now);
+            touchSession(sessionRecord, now);
 
             if (now > sessionRecord.getLastSentTs() + sendTimeoutSec * 1000) {
                 sessionRecord.setLastSentTs(now);
-                clusterManager.send(sessionRecord);
+                clusterManager.send(new SessionUsedClusterMessage(sessionId, now));
             }
         }
 
@@ -453,15 +434,7 @@ public class IdpSessionStoreBean implements IdpSessionStore {
 
     @Override
     public IdpSessionInfo getSessionInfo(String sessionId) {
-        lock.readLock().lock();
-
-        IdpSessionRecord sessionRecord;
-        try {
-            sessionRecord = sessions.get(sessionId);
-        } finally {
-            lock.readLock().unlock();
-        }
-        return toSessionInfo(sessionRecord);
+        return toSessionInfo(sessions.get(sessionId));
     }
 
     public int getSendTimeoutSec() {
@@ -545,12 +518,14 @@ public class IdpSessionStoreBean implements IdpSessionStore {
         protected final long since;
         protected volatile long lastUsedTs; // set to 0 when propagating removal to cluster
         protected volatile long lastSentTs;
+        protected transient volatile long indexedTs; // last usage time the session is indexed by for expiration
 
         public IdpSessionRecord(IdpSession session, long since) {
             this.session = session;
             this.since = since;
             this.lastSentTs = since;
             this.lastUsedTs = since;
+            this.indexedTs = since;
         }
 
         public IdpSession getSession() {
@@ -612,4 +587,30 @@ public class IdpSessionStoreBean implements IdpSessionStore {
                     '}';
         }
     }
-}
\ No newline at end of file
+
+    protected static class SessionUsedClusterMessage implements Serializable {
+        private final String sessionId;
+        private final long lastUsedTs;
+
+        public SessionUsedClusterMessage(String sessionId, long lastUsedTs) {
+            this.sessionId = sessionId;
+            this.lastUsedTs = lastUsedTs;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public long getLastUsedTs() {
+            return lastUsedTs;
+        }
+
+        @Override
+        public String toString() {
+            return "SessionUsedClusterMessage{" +
+                    "sessionId='" + sessionId + '\'' +
+                    ", lastUsedTs=" + new Date(lastUsedTs) +
+                    '}';
+        }
+    }
+}
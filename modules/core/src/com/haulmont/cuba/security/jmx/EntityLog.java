@@ -17,6 +17,7 @@
 
 package com.haulmont.cuba.security.jmx;
 
+import com.haulmont.cuba.security.app.AsyncEntityLogWriter;
 import com.haulmont.cuba.security.app.Authenticated;
 import com.haulmont.cuba.security.app.EntityLogAPI;
 
@@ -29,6 +30,9 @@ public class EntityLog implements EntityLogMBean {
     @Inject
     protected EntityLogAPI entityLog;
 
+    @Inject
+    protected AsyncEntityLogWriter asyncWriter;
+
     @Override
     public boolean isEnabled() {
         return entityLog.isEnabled();
@@ -44,4 +48,34 @@ public class EntityLog implements EntityLogMBean {
     public void invalidateCache() {
         entityLog.invalidateCache();
     }
-}
\ No newline at end of file
+
+    @Override
+    public int getAsyncQueueSize() {
+        return asyncWriter.getQueueSize();
+    }
+
+    @Override
+    public long getAsyncQueueLagMs() {
+        return asyncWriter.getLagMs();
+    }
+
+    @Override
+    public long getAsyncWrittenCount() {
+        return asyncWriter.getWrittenCount();
+    }
+
+    @Override
+    public long getAsyncBatchCount() {
+        return asyncWriter.getBatchCount();
+    }
+
+    @Override
+    public long getAsyncCallerWrittenCount() {
+        return asyncWriter.getCallerWrittenCount();
+    }
+
+    @Override
+    public long getAsyncFailedCount() {
+        return asyncWriter.getFailedCount();
+    }
+}
@@ -36,4 +36,34 @@ public interface EntityLogMBean {
      * The configuration will be recreated from the database on next lifecycle event.
      */
     void invalidateCache();
+
+    /**
+     * @return number of log items waiting for the asynchronous writer
+     */
+    int getAsyncQueueSize();
+
+    /**
+     * @return time in milliseconds the oldest queued log item is waiting for the asynchronous writer
+     */
+    long getAsyncQueueLagMs();
+
+    /**
+     * @return number of log items written by the asynchronous writer
+     */
+    long getAsyncWrittenCount();
+
+    /**
+     * @return number of transactions executed by the asynchronous writer
+     */
+    long getAsyncBatchCount();
+
+    /**
+     * @return number of log items written by committing threads because the queue was full
+     */
+    long getAsyncCallerWrittenCount();
+
+    /**
+     * @return number of log items that could not be written
+     */
+    long getAsyncFailedCount();
 }
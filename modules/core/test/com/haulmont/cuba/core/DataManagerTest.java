@@ -30,6 +30,8 @@ import org.junit.Test;
 
 import javax.persistence.TemporalType;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
@@ -111,6 +113,74 @@ public class DataManagerTest {
         assertTrue(list.size() == 1);
     }
 
+    @Test
+    public void testStream() {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            Server server = new Server();
+            server.setName("server" + i);
+            server.setRunning(true);
+            names.add(server.getName());
+            dataManager.commit(server);
+        }
+
+        LoadContext<Server> loadContext = LoadContext.create(Server.class);
+        loadContext.setQueryString("select s from sys$Server s order by s.name");
+
+        List<Server> list;
+        try (Stream<Server> stream = dataManager.stream(loadContext)) {
+            list = stream.collect(Collectors.toList());
+        }
+        assertEquals(3, list.size());
+        assertEquals("server0", list.get(0).getName());
+        for (Server server : list) {
+            assertTrue(names.contains(server.getName()));
+            assertTrue(PersistenceHelper.isDetached(server));
+        }
+
+        try (Stream<Server> stream = dataManager.load(Server.class)
+                .query("select s from sys$Server s order by s.name")
+                .firstResult(1)
+                .stream()) {
+            assertEquals(2, stream.count());
+        }
+    }
+
+    @Test
+    public void testStreamInJoinedTransaction() {
+        Server server = new Server();
+        server.setName("server0");
+        server.setRunning(true);
+        dataManager.commit(server);
+
+        try (Transaction tx = cont.persistence().createTransaction()) {
+            Server newServer = new Server();
+            newServer.setName("server1");
+            newServer.setRunning(true);
+            cont.entityManager().persist(newServer);
+
+            LoadContext<Server> loadContext = LoadContext.create(Server.class).setJoinTransaction(true);
+            loadContext.setQueryString("select s from sys$Server s order by s.name");
+
+            // the new instance is flushed before the query is executed
+            List<String> names;
+            try (Stream<Server> stream = dataManager.stream(loadContext)) {
+                names = stream.map(Server::getName).collect(Collectors.toList());
+            }
+            assertEquals(Arrays.asList("server0", "server1"), names);
+
+            tx.commit();
+        }
+
+        LoadContext<Server> loadContext = LoadContext.create(Server.class);
+        loadContext.setQueryString("select s from sys$Server s where s.name = :name")
+                .setParameter("name", "server1")
+                .setCacheable(true);
+        try (Stream<Server> stream = dataManager.stream(loadContext)) {
+            assertEquals(1, stream.count());
+        }
+    }
+
     @Test
     public void testAssociatedResult() throws Exception {
         LoadContext<Group> loadContext = LoadContext.create(Group.class);
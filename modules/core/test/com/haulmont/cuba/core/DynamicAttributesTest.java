@@ -18,10 +18,15 @@ package com.haulmont.cuba.core;
 
 import com.google.common.collect.Lists;
 import com.haulmont.bali.db.QueryRunner;
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.cuba.core.app.ClusterManagerAPI;
+import com.haulmont.cuba.core.app.dynamicattributes.DynamicAttributesManager;
 import com.haulmont.cuba.core.app.dynamicattributes.DynamicAttributesManagerAPI;
 import com.haulmont.cuba.core.app.dynamicattributes.PropertyType;
+import com.haulmont.cuba.core.entity.BaseGenericIdEntity;
 import com.haulmont.cuba.core.entity.Category;
 import com.haulmont.cuba.core.entity.CategoryAttribute;
+import com.haulmont.cuba.core.entity.CategoryAttributeValue;
 import com.haulmont.cuba.core.global.*;
 import com.haulmont.cuba.security.entity.Group;
 import com.haulmont.cuba.security.entity.Role;
@@ -32,10 +37,11 @@ import com.haulmont.cuba.testmodel.primary_keys.EntityKey;
 import com.haulmont.cuba.testsupport.TestContainer;
 import org.junit.*;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class DynamicAttributesTest {
 
@@ -185,6 +191,7 @@ public class DynamicAttributesTest {
         QueryRunner runner = new QueryRunner(cont.persistence().getDataSource());
         runner.update("delete from SYS_ATTR_VALUE");
         runner.update("delete from TEST_COMPOSITE_KEY");
+        runner.update("delete from SEC_USER where LOGIN like 'bulk%'");
         cont.deleteRecord(userRole, role, user, user2, group, group2);
         cont.deleteRecord(userAttribute, userRoleAttribute, userGroupAttribute, userGroupCollectionAttribute, userIntCollectionAttribute);
         cont.deleteRecord(userCategory, userRoleCategory);
@@ -269,6 +276,98 @@ public class DynamicAttributesTest {
         assertTrue(intCollection.contains(3));
     }
 
+    @Test
+    public void testBulkLoadOfSeveralBatches() {
+        int count = DynamicAttributesManager.MAX_ENTITIES_FOR_ATTRIBUTE_VALUES_BATCH * 2 + 10;
+        try (Transaction tx = cont.persistence().createTransaction()) {
+            EntityManager em = cont.entityManager();
+            for (int i = 0; i < count; i++) {
+                User bulkUser = metadata.create(User.class);
+                bulkUser.setLogin(String.format("bulk%03d", i));
+                bulkUser.setGroup(group);
+                em.persist(bulkUser);
+
+                CategoryAttributeValue stringValue = metadata.create(CategoryAttributeValue.class);
+                stringValue.setCategoryAttribute(userAttribute);
+                stringValue.setCode(userAttribute.getCode());
+                stringValue.setObjectEntityId(bulkUser.getId());
+                stringValue.setStringValue("bulk" + i);
+                em.persist(stringValue);
+
+                CategoryAttributeValue entityValue = metadata.create(CategoryAttributeValue.class);
+                entityValue.setCategoryAttribute(userGroupAttribute);
+                entityValue.setCode(userGroupAttribute.getCode());
+                entityValue.setObjectEntityId(bulkUser.getId());
+                entityValue.setObjectEntityValueId(i % 2 == 0 ? group.getId() : group2.getId());
+                em.persist(entityValue);
+            }
+            tx.commit();
+        }
+
+        LoadContext<User> ctx = LoadContext.create(User.class).setLoadDynamicAttributes(true);
+        ctx.setQueryString("select u from sec$User u where u.login like 'bulk%' order by u.login");
+        List<User> users = dataManager.loadList(ctx);
+        assertEquals(count, users.size());
+        for (int i = 0; i < count; i++) {
+            User bulkUser = users.get(i);
+            assertEquals("bulk" + i, bulkUser.getValue("+userAttribute"));
+            assertEquals(i % 2 == 0 ? group : group2, bulkUser.getValue("+userGroupAttribute"));
+        }
+    }
+
+    @Test
+    public void testBulkLoadOfCollectionValues() {
+        LoadContext<User> ctx = LoadContext.create(User.class).setLoadDynamicAttributes(true);
+        ctx.setQueryString("select u from sec$User u where u.login like 'user%' order by u.login");
+        List<User> users = dataManager.loadList(ctx);
+        assertEquals(2, users.size());
+
+        User loadedUser = users.get(0);
+        List<Group> groupsCollection = loadedUser.getValue("+userGroupCollectionAttribute");
+        assertEquals(2, groupsCollection.size());
+        assertTrue(groupsCollection.contains(group));
+        assertTrue(groupsCollection.contains(group2));
+        groupsCollection.forEach(g -> assertNotNull(g.getName()));
+
+        List<Integer> intCollection = loadedUser.getValue("+userIntCollectionAttribute");
+        assertEquals(2, intCollection.size());
+        assertTrue(intCollection.contains(1));
+        assertTrue(intCollection.contains(2));
+
+        User loadedUser2 = users.get(1);
+        assertEquals(group, loadedUser2.getValue("+userGroupAttribute"));
+        List<Group> groupsCollection2 = loadedUser2.getValue("+userGroupCollectionAttribute");
+        assertTrue(groupsCollection2 == null || groupsCollection2.isEmpty());
+    }
+
+    @Test
+    public void testFetchDynamicAttributesOfSeveralTypes() {
+        User loadedUser = dataManager.load(LoadContext.create(User.class).setId(user.getId()));
+        UserRole loadedUserRole = dataManager.load(LoadContext.create(UserRole.class).setId(userRole.getId()));
+
+        dynamicAttributesManagerAPI.fetchDynamicAttributes(Lists.newArrayList(loadedUser, loadedUserRole),
+                Collections.emptySet());
+
+        assertEquals("userName", loadedUser.getValue("+userAttribute"));
+        assertEquals(group, loadedUser.getValue("+userGroupAttribute"));
+        List<Group> groupsCollection = loadedUser.getValue("+userGroupCollectionAttribute");
+        assertEquals(2, groupsCollection.size());
+        assertEquals("userRole", loadedUserRole.getValue("+userRoleAttribute"));
+    }
+
+    @Test
+    public void testOverriddenFetchHooksAreInvoked() {
+        User loadedUser = dataManager.load(LoadContext.create(User.class).setId(user.getId()));
+        HooksDynamicAttributesManager manager = new HooksDynamicAttributesManager();
+
+        manager.fetchDynamicAttributes(Lists.newArrayList(loadedUser), Collections.emptySet());
+
+        assertEquals(1, manager.fetchByTypeCalls);
+        assertEquals(1, manager.loadAttributeValuesCalls);
+        assertEquals("userName", loadedUser.getValue("+userAttribute"));
+        assertEquals(group, loadedUser.getValue("+userGroupAttribute"));
+    }
+
     @Test
     public void testLoadDynamicAttributesForCompositeKeyEntity() {
         LoadContext<CompositeKeyEntity> loadContext = LoadContext.create(CompositeKeyEntity.class).setLoadDynamicAttributes(true);
@@ -287,4 +386,33 @@ public class DynamicAttributesTest {
         });
         loadedUser.setValue("+userAttribute", "newName");
     }
+
+    private static class HooksDynamicAttributesManager extends DynamicAttributesManager {
+
+        private int fetchByTypeCalls;
+        private int loadAttributeValuesCalls;
+
+        private HooksDynamicAttributesManager() {
+            metadata = AppBeans.get(Metadata.class);
+            timeSource = AppBeans.get(TimeSource.class);
+            viewRepository = AppBeans.get(ViewRepository.class);
+            persistence = AppBeans.get(Persistence.class);
+            referenceToEntitySupport = AppBeans.get(ReferenceToEntitySupport.class);
+            clusterManager = AppBeans.get(ClusterManagerAPI.class);
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        protected void doFetchDynamicAttributes(MetaClass metaClass, Collection<BaseGenericIdEntity> entities) {
+            fetchByTypeCalls++;
+            super.doFetchDynamicAttributes(metaClass, entities);
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        protected List<CategoryAttributeValue> loadAttributeValues(MetaClass metaClass, List<Object> entityIds) {
+            loadAttributeValuesCalls++;
+            return super.loadAttributeValues(metaClass, entityIds);
+        }
+    }
 }
@@ -20,6 +20,7 @@ package com.haulmont.cuba.core;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.haulmont.cuba.core.app.UniqueNumbersAPI;
 import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.sys.AppContext;
 import com.haulmont.cuba.testsupport.TestContainer;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.ClassRule;
@@ -59,6 +60,25 @@ public class UniqueNumbersTest {
         uniqueNumbersAPI.getCurrentNumber("s1");
     }
 
+    @Test
+    public void testBlockDomain() throws Exception {
+        UniqueNumbersAPI uniqueNumbersAPI = AppBeans.get(UniqueNumbersAPI.NAME);
+        long plain = uniqueNumbersAPI.getNextNumber("tb1");
+
+        AppContext.setProperty("cuba.uniqueNumbersBlockSize.tb1", "10");
+        try {
+            long first = uniqueNumbersAPI.getNextNumber("tb1");
+            assertTrue(first > plain);
+            for (int i = 1; i < 25; i++) {
+                assertEquals(first + i, uniqueNumbersAPI.getNextNumber("tb1"));
+            }
+            assertEquals(first + 24, uniqueNumbersAPI.getCurrentNumber("tb1"));
+            uniqueNumbersAPI.deleteSequence("tb1");
+        } finally {
+            AppContext.setProperty("cuba.uniqueNumbersBlockSize.tb1", null);
+        }
+    }
+
     @Test
     public void testConcurrentModification() throws Exception {
         int threadCnt = 8;
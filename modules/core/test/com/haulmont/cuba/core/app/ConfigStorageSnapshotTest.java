@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.app;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class ConfigStorageSnapshotTest {
+
+    private ConfigStorage.Snapshot snapshot(long version, String... keyValues) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            map.put(keyValues[i], keyValues[i + 1]);
+        }
+        return new ConfigStorage.Snapshot(map, version, new TreeMap<>());
+    }
+
+    @Test
+    public void testChangesAppliedInOrder() {
+        ConfigStorage.Snapshot snapshot = snapshot(5, "a", "1", "b", "2");
+
+        snapshot = snapshot.apply(6, Collections.singletonMap("a", "10"));
+        assertEquals(6, snapshot.version);
+        assertEquals("10", snapshot.properties.get("a"));
+
+        snapshot = snapshot.apply(7, Collections.singletonMap("b", null));
+        assertEquals(7, snapshot.version);
+        assertFalse(snapshot.properties.containsKey("b"));
+    }
+
+    @Test
+    public void testOldChangesIgnored() {
+        ConfigStorage.Snapshot snapshot = snapshot(5, "a", "1");
+        assertSame(snapshot, snapshot.apply(5, Collections.singletonMap("a", "old")));
+        assertSame(snapshot, snapshot.apply(3, Collections.singletonMap("a", "old")));
+        assertEquals("1", snapshot.properties.get("a"));
+    }
+
+    @Test
+    public void testChangesAheadAreKeptUntilMissingArrives() {
+        ConfigStorage.Snapshot snapshot = snapshot(5, "a", "1");
+
+        snapshot = snapshot.apply(8, Collections.singletonMap("a", "8"));
+        snapshot = snapshot.apply(7, Collections.singletonMap("c", "7"));
+        assertEquals(5, snapshot.version);
+        assertEquals("1", snapshot.properties.get("a"));
+        assertEquals(2, snapshot.pendingChanges.size());
+
+        snapshot = snapshot.apply(6, Collections.singletonMap("a", "6"));
+        assertEquals(8, snapshot.version);
+        assertEquals("8", snapshot.properties.get("a"));
+        assertEquals("7", snapshot.properties.get("c"));
+        assertTrue(snapshot.pendingChanges.isEmpty());
+    }
+
+    @Test
+    public void testLocalChangesVisibleImmediately() {
+        ConfigStorage.Snapshot snapshot = snapshot(5, "a", "1", "b", "2");
+
+        // version 6 has been missed, version 7 is made by this server
+        snapshot = snapshot.apply(7, Collections.singletonMap("a", "7"), true);
+        assertEquals(5, snapshot.version);
+        assertEquals("7", snapshot.properties.get("a"));
+        assertEquals(1, snapshot.pendingChanges.size());
+
+        Map<String, String> changes = new HashMap<>();
+        changes.put("a", "6");
+        changes.put("b", "6");
+        snapshot = snapshot.apply(6, changes);
+        assertEquals(7, snapshot.version);
+        assertEquals("7", snapshot.properties.get("a"));
+        assertEquals("6", snapshot.properties.get("b"));
+        assertTrue(snapshot.pendingChanges.isEmpty());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.app;
+
+import com.haulmont.bali.db.QueryRunner;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.testsupport.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConfigStorageVersionTest {
+
+    @ClassRule
+    public static TestContainer cont = TestContainer.Common.INSTANCE;
+
+    @Before
+    public void setUp() throws Exception {
+        deleteVersionRow();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteVersionRow();
+    }
+
+    @Test
+    public void testVersionRowCreated() throws Exception {
+        ConfigStorage configStorage = new ConfigStorage();
+        configStorage.persistence = cont.persistence();
+        long version;
+        try (Transaction tx = cont.persistence().createTransaction()) {
+            version = configStorage.incrementVersion();
+            tx.commit();
+        }
+        assertEquals(version, getVersionRowValue());
+
+        try (Transaction tx = cont.persistence().createTransaction()) {
+            assertEquals(version + 1, configStorage.incrementVersion());
+            tx.commit();
+        }
+        assertEquals(version + 1, getVersionRowValue());
+    }
+
+    @Test
+    public void testVersionRowCreatedConcurrently() throws Exception {
+        ConfigStorage configStorage = new ConfigStorage() {
+            @Override
+            protected void createVersionInstance() {
+                // another cluster member inserts the row first
+                try {
+                    new QueryRunner(persistence.getDataSource()).update(
+                            "insert into SYS_CONFIG (ID, NAME, VALUE_) values (?, ?, ?)",
+                            new Object[]{UUID.randomUUID().toString(), VERSION_PROPERTY, "10"});
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+                super.createVersionInstance();
+            }
+        };
+        configStorage.persistence = cont.persistence();
+
+        try (Transaction tx = cont.persistence().createTransaction()) {
+            assertEquals(11, configStorage.incrementVersion());
+            tx.commit();
+        }
+        assertEquals(11, getVersionRowValue());
+    }
+
+    private long getVersionRowValue() throws SQLException {
+        QueryRunner runner = new QueryRunner(cont.persistence().getDataSource());
+        return runner.query("select VALUE_ from SYS_CONFIG where NAME = ?", ConfigStorage.VERSION_PROPERTY,
+                rs -> rs.next() ? Long.parseLong(rs.getString(1)) : -1);
+    }
+
+    private void deleteVersionRow() throws SQLException {
+        QueryRunner runner = new QueryRunner(cont.persistence().getDataSource());
+        runner.update("delete from SYS_CONFIG where NAME = ?", ConfigStorage.VERSION_PROPERTY);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.app;
+
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.Metadata;
+import com.haulmont.cuba.core.global.View;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.security.entity.Group;
+import com.haulmont.cuba.security.entity.User;
+import com.haulmont.cuba.testmodel.not_persistent.TestCrossStoreRefEntity;
+import com.haulmont.cuba.testsupport.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Not persistent entities do not belong to any data store, so their references to entities of the main store are
+ * loaded as cross data store references.
+ */
+public class CrossDataStoreReferenceLoaderTest {
+
+    @ClassRule
+    public static TestContainer cont = TestContainer.Common.INSTANCE;
+
+    private Metadata metadata;
+    private Group group;
+    private User user1, user2;
+    private View view;
+
+    @Before
+    public void setUp() throws Exception {
+        metadata = cont.metadata();
+
+        try (Transaction tx = cont.persistence().createTransaction()) {
+            EntityManager em = cont.entityManager();
+
+            group = metadata.create(Group.class);
+            group.setName("crossStoreGroup");
+            em.persist(group);
+
+            user1 = createUser(em, "crossStoreUser1");
+            user2 = createUser(em, "crossStoreUser2");
+
+            tx.commit();
+        }
+
+        View userView = new View(User.class)
+                .addProperty("login");
+        View groupView = new View(Group.class)
+                .addProperty("name");
+        View childView = new View(TestCrossStoreRefEntity.class)
+                .addProperty("name")
+                .addProperty("user", userView)
+                .addProperty("group", groupView);
+        view = new View(TestCrossStoreRefEntity.class)
+                .addProperty("name")
+                .addProperty("user", userView)
+                .addProperty("substitute", userView)
+                .addProperty("group", groupView)
+                .addProperty("child", childView);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        AppContext.setProperty("cuba.crossDataStoreReferenceParallelLoading", null);
+        cont.deleteRecord(user1, user2, group);
+    }
+
+    @Test
+    public void testSeveralPropertiesOfOneClass() {
+        TestCrossStoreRefEntity entity1 = createEntity(user1.getId(), user2.getId());
+        TestCrossStoreRefEntity entity2 = createEntity(user2.getId(), user1.getId());
+        entity2.setGroupId(group.getId());
+
+        createLoader(false).processEntities(Arrays.asList(entity1, entity2));
+
+        assertEquals("crossStoreUser1", entity1.getUser().getLogin());
+        assertEquals("crossStoreUser2", entity1.getSubstitute().getLogin());
+        assertNull(entity1.getGroup());
+        assertEquals("crossStoreUser2", entity2.getUser().getLogin());
+        assertEquals("crossStoreGroup", entity2.getGroup().getName());
+        // references of both properties are loaded together, each instance once
+        assertSame(entity1.getUser(), entity2.getSubstitute());
+        assertSame(entity1.getSubstitute(), entity2.getUser());
+    }
+
+    @Test
+    public void testNestedLevels() {
+        TestCrossStoreRefEntity child = createEntity(user2.getId(), null);
+        child.setGroupId(group.getId());
+        TestCrossStoreRefEntity entity = createEntity(user1.getId(), null);
+        entity.setChild(child);
+
+        createLoader(false).processEntities(Collections.singletonList(entity));
+
+        assertEquals("crossStoreUser1", entity.getUser().getLogin());
+        assertEquals("crossStoreUser2", child.getUser().getLogin());
+        assertEquals("crossStoreGroup", child.getGroup().getName());
+    }
+
+    @Test
+    public void testMissingReference() {
+        User staleUser = metadata.create(User.class);
+
+        // the only reference is loaded by id
+        TestCrossStoreRefEntity entity = createEntity(UUID.randomUUID(), null);
+        entity.setUser(staleUser);
+
+        createLoader(false).processEntities(Collections.singletonList(entity));
+
+        assertNull(entity.getUser());
+
+        // several references are loaded by a query
+        TestCrossStoreRefEntity entity1 = createEntity(UUID.randomUUID(), user1.getId());
+        entity1.setUser(staleUser);
+        TestCrossStoreRefEntity entity2 = createEntity(user2.getId(), null);
+
+        createLoader(false).processEntities(Arrays.asList(entity1, entity2));
+
+        assertNull(entity1.getUser());
+        assertEquals("crossStoreUser1", entity1.getSubstitute().getLogin());
+        assertEquals("crossStoreUser2", entity2.getUser().getLogin());
+    }
+
+    @Test
+    public void testParallelLoading() {
+        AppContext.setProperty("cuba.crossDataStoreReferenceParallelLoading", "true");
+
+        TestCrossStoreRefEntity entity1 = createEntity(user1.getId(), user2.getId());
+        entity1.setGroupId(group.getId());
+        TestCrossStoreRefEntity entity2 = createEntity(user2.getId(), UUID.randomUUID());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CrossDataStoreReferenceLoader loader = createLoader(false);
+            loader.setExecutor(executor);
+            loader.processEntities(Arrays.asList(entity1, entity2));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("crossStoreUser1", entity1.getUser().getLogin());
+        assertEquals("crossStoreUser2", entity1.getSubstitute().getLogin());
+        assertEquals("crossStoreGroup", entity1.getGroup().getName());
+        assertSame(entity1.getSubstitute(), entity2.getUser());
+        assertNull(entity2.getSubstitute());
+
+        // a joined transaction is used in the calling thread, so not committed instances are found
+        try (Transaction tx = cont.persistence().createTransaction()) {
+            User newUser = createUser(cont.entityManager(), "crossStoreUser3");
+
+            TestCrossStoreRefEntity entity3 = createEntity(newUser.getId(), user1.getId());
+            createLoader(true).processEntities(Collections.singletonList(entity3));
+
+            assertEquals("crossStoreUser3", entity3.getUser().getLogin());
+            assertEquals("crossStoreUser1", entity3.getSubstitute().getLogin());
+        }
+    }
+
+    private CrossDataStoreReferenceLoader createLoader(boolean joinTransaction) {
+        return AppBeans.getPrototype(CrossDataStoreReferenceLoader.NAME,
+                metadata.getClassNN(TestCrossStoreRefEntity.class), view, joinTransaction);
+    }
+
+    private TestCrossStoreRefEntity createEntity(UUID userId, UUID substituteId) {
+        TestCrossStoreRefEntity entity = metadata.create(TestCrossStoreRefEntity.class);
+        entity.setName("entity");
+        entity.setUserId(userId);
+        entity.setSubstituteId(substituteId);
+        return entity;
+    }
+
+    private User createUser(EntityManager em, String login) {
+        User user = metadata.create(User.class);
+        user.setLogin(login);
+        user.setGroup(group);
+        em.persist(user);
+        return user;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.app.filestorage;
+
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.entity.FileDescriptor;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.Configuration;
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.cuba.core.global.UserSessionSource;
+import com.haulmont.cuba.testsupport.TestContainer;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class FileStorageTest {
+
+    @ClassRule
+    public static TestContainer cont = TestContainer.Common.INSTANCE;
+
+    private FileStorage fileStorage;
+    private File primaryRoot;
+    private File secondaryRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        primaryRoot = Files.createTempDirectory("filestorage1").toFile();
+        secondaryRoot = Files.createTempDirectory("filestorage2").toFile();
+
+        fileStorage = new FileStorage();
+        fileStorage.configuration = AppBeans.get(Configuration.class);
+        fileStorage.timeSource = AppBeans.get(TimeSource.class);
+        fileStorage.userSessionSource = AppBeans.get(UserSessionSource.class);
+        fileStorage.persistence = cont.persistence();
+        fileStorage.init();
+        fileStorage.storageRoots = new File[]{primaryRoot, secondaryRoot};
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(primaryRoot);
+        FileUtils.deleteQuietly(secondaryRoot);
+    }
+
+    @Test
+    public void testSaveToAllRoots() throws Exception {
+        byte[] data = new byte[FileStorage.BUFFER_SIZE * 3 + 17];
+        new Random(1).nextBytes(data);
+        FileDescriptor fd = createFileDescriptor();
+
+        long size = fileStorage.saveStream(fd, new ByteArrayInputStream(data));
+        assertEquals(data.length, size);
+
+        File primaryFile = new File(fileStorage.getStorageDir(primaryRoot, fd), FileStorage.getFileName(fd));
+        File secondaryFile = new File(fileStorage.getStorageDir(secondaryRoot, fd), FileStorage.getFileName(fd));
+        assertArrayEquals(data, FileUtils.readFileToByteArray(primaryFile));
+        assertArrayEquals(data, FileUtils.readFileToByteArray(secondaryFile));
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        assertEquals(String.format("%08x", crc.getValue()), fd.getChecksum());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data.length, fileStorage.writeTo(fd, out));
+        assertArrayEquals(data, out.toByteArray());
+
+        fileStorage.removeFile(fd);
+        assertFalse(primaryFile.exists());
+        assertFalse(secondaryFile.exists());
+
+        String log = FileUtils.readFileToString(new File(primaryRoot, "storage.log"), StandardCharsets.UTF_8);
+        assertTrue(log.contains("CREATE \"" + primaryFile.getAbsolutePath()));
+        assertTrue(log.contains("REMOVE \"" + primaryFile.getAbsolutePath()));
+        log = FileUtils.readFileToString(new File(secondaryRoot, "storage.log"), StandardCharsets.UTF_8);
+        assertTrue(log.contains("CREATE \"" + secondaryFile.getAbsolutePath()));
+    }
+
+    @Test
+    public void testInaccessibleSecondaryRoot() throws Exception {
+        fileStorage.storageRoots = new File[]{primaryRoot, new File(secondaryRoot, "missing")};
+        FileDescriptor fd = createFileDescriptor();
+
+        fileStorage.saveFile(fd, "content".getBytes(StandardCharsets.UTF_8));
+
+        assertArrayEquals("content".getBytes(StandardCharsets.UTF_8), fileStorage.loadFile(fd));
+    }
+
+    @Test
+    public void testChecksumOfStoredDescriptor() throws Exception {
+        FileDescriptor fd = createFileDescriptor();
+        try (Transaction tx = cont.persistence().createTransaction()) {
+            cont.entityManager().persist(fd);
+            tx.commit();
+        }
+        try {
+            byte[] data = "content".getBytes(StandardCharsets.UTF_8);
+            fileStorage.saveFile(fd, data);
+
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            try (Transaction tx = cont.persistence().createTransaction()) {
+                FileDescriptor stored = cont.entityManager().find(FileDescriptor.class, fd.getId());
+                assertNotNull(stored);
+                assertEquals(String.format("%08x", crc.getValue()), stored.getChecksum());
+                tx.commit();
+            }
+
+            File target = new File(secondaryRoot, "target.bin");
+            try (FileOutputStream out = new FileOutputStream(target)) {
+                assertEquals(data.length, fileStorage.writeTo(fd, out));
+            }
+            assertArrayEquals(data, FileUtils.readFileToByteArray(target));
+        } finally {
+            cont.deleteRecord(fd);
+        }
+    }
+
+    private FileDescriptor createFileDescriptor() {
+        FileDescriptor fd = new FileDescriptor();
+        fd.setCreateDate(new Date());
+        fd.setName("FileStorageTest.bin");
+        fd.setExtension("bin");
+        return fd;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.app.scheduling;
+
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.entity.ScheduledExecution;
+import com.haulmont.cuba.core.entity.ScheduledTask;
+import com.haulmont.cuba.core.entity.ScheduledTaskDefinedBy;
+import com.haulmont.cuba.core.entity.SchedulingType;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.Metadata;
+import com.haulmont.cuba.core.global.UserSessionSource;
+import com.haulmont.cuba.security.entity.User;
+import com.haulmont.cuba.security.global.UserSession;
+import com.haulmont.cuba.testsupport.TestContainer;
+import com.haulmont.cuba.testsupport.TestUserSessionSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class RunnerBeanTest {
+
+    @ClassRule
+    public static TestContainer cont = TestContainer.Common.INSTANCE;
+
+    private RunnerBean runner;
+    private Persistence persistence;
+    private TestUserSessionSource userSessionSource;
+    private UserSession savedUserSession;
+    private ScheduledTask task;
+
+    @Before
+    public void setUp() throws Exception {
+        runner = AppBeans.get(Runner.NAME);
+        persistence = cont.persistence();
+        userSessionSource = (TestUserSessionSource) AppBeans.get(UserSessionSource.class);
+        savedUserSession = userSessionSource.getUserSession();
+
+        task = AppBeans.get(Metadata.class).create(ScheduledTask.class);
+        task.setDefinedBy(ScheduledTaskDefinedBy.BEAN);
+        task.setBeanName("cuba_TestBean");
+        task.setMethodName("run");
+        task.setSchedulingType(SchedulingType.PERIOD);
+        task.setPeriod(60);
+        task.setLogStart(true);
+        task.setLogFinish(true);
+        task.setActive(false);
+        try (Transaction tx = persistence.createTransaction()) {
+            persistence.getEntityManager().persist(task);
+            tx.commit();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        userSessionSource.setUserSession(savedUserSession);
+        cont.deleteRecord("SYS_SCHEDULED_EXECUTION", "TASK_ID", task.getId());
+        cont.deleteRecord("SYS_SCHEDULED_TASK", task.getId());
+    }
+
+    @Test
+    public void testBatchedExecutionHistory() throws Exception {
+        assertTrue(runner.isExecutionHistoryBatched(task));
+
+        long now = System.currentTimeMillis();
+        // the task is run under its own user
+        userSessionSource.setUserSession(createUserSession("task_user"));
+        ScheduledExecution execution1 = runner.registerExecutionStart(task, now);
+        ScheduledExecution execution2 = runner.registerExecutionStart(task, now + 1000);
+        runner.registerExecutionFinish(task, execution1, "result1", false);
+
+        assertTrue(loadExecutions().isEmpty());
+
+        // the history is flushed by the scheduler under another user
+        userSessionSource.setUserSession(savedUserSession);
+        Thread.sleep(50);
+        runner.flushExecutionHistory();
+
+        List<ScheduledExecution> executions = loadExecutions();
+        assertEquals(2, executions.size());
+
+        ScheduledExecution loaded1 = executions.get(0);
+        assertEquals(execution1.getId(), loaded1.getId());
+        assertEquals(new Date(now), loaded1.getStartTime());
+        assertNotNull(loaded1.getFinishTime());
+        assertEquals("result1", loaded1.getResult());
+        assertEquals("task_user", loaded1.getCreatedBy());
+        assertEquals(execution1.getCreateTs(), loaded1.getCreateTs());
+
+        ScheduledExecution loaded2 = executions.get(1);
+        assertEquals(execution2.getId(), loaded2.getId());
+        assertNull(loaded2.getFinishTime());
+        assertEquals("task_user", loaded2.getCreatedBy());
+        assertEquals(execution2.getCreateTs(), loaded2.getCreateTs());
+
+        // the finish of an already written execution is written on the next flush
+        runner.registerExecutionFinish(task, execution2, "result2", true);
+        runner.flushExecutionHistory();
+
+        executions = loadExecutions();
+        assertEquals(2, executions.size());
+        assertNotNull(executions.get(1).getFinishTime());
+        assertEquals("result2\n{Executed manually}", executions.get(1).getResult());
+        assertEquals("task_user", executions.get(1).getCreatedBy());
+    }
+
+    private List<ScheduledExecution> loadExecutions() {
+        try (Transaction tx = persistence.createTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+            List<ScheduledExecution> executions = em.createQuery(
+                    "select e from sys$ScheduledExecution e where e.task.id = :taskId order by e.startTime",
+                    ScheduledExecution.class)
+                    .setParameter("taskId", task.getId())
+                    .getResultList();
+            tx.commit();
+            return executions;
+        }
+    }
+
+    private UserSession createUserSession(String login) {
+        User user = new User();
+        user.setLogin(login);
+        return new UserSession(UUID.randomUUID(), user, Collections.emptyList(), Locale.ENGLISH, false);
+    }
+}
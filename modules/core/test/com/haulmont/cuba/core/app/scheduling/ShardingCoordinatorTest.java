@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.app.scheduling;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ShardingCoordinatorTest {
+
+    @Test
+    public void testEmptyRing() {
+        ShardingCoordinator.HashRing ring = new ShardingCoordinator.HashRing(Collections.emptyList());
+        assertNull(ring.getOwner(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void testTasksAreDistributed() {
+        List<String> members = Arrays.asList("node-1", "node-2", "node-3");
+        ShardingCoordinator.HashRing ring = new ShardingCoordinator.HashRing(members);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String owner = ring.getOwner(UUID.randomUUID().toString());
+            assertTrue(members.contains(owner));
+            counts.merge(owner, 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (Integer count : counts.values()) {
+            assertTrue("uneven distribution: " + counts, count > 500);
+        }
+    }
+
+    @Test
+    public void testOnlyTasksOfLeftNodeMove() {
+        ShardingCoordinator.HashRing ring = new ShardingCoordinator.HashRing(Arrays.asList("node-1", "node-2", "node-3"));
+        ShardingCoordinator.HashRing newRing = new ShardingCoordinator.HashRing(Arrays.asList("node-1", "node-3"));
+
+        for (int i = 0; i < 1000; i++) {
+            String key = UUID.randomUUID().toString();
+            String owner = ring.getOwner(key);
+            if (!"node-2".equals(owner)) {
+                assertEquals(owner, newRing.getOwner(key));
+            }
+        }
+    }
+}
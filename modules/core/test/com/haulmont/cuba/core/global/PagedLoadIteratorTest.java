@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.global;
+
+import com.haulmont.bali.db.QueryRunner;
+import com.haulmont.cuba.core.entity.Server;
+import com.haulmont.cuba.testmodel.primary_keys.CompositeKeyEntity;
+import com.haulmont.cuba.testsupport.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class PagedLoadIteratorTest {
+
+    @ClassRule
+    public static TestContainer cont = TestContainer.Common.INSTANCE;
+
+    private DataManager dataManager;
+
+    @Before
+    public void setUp() throws Exception {
+        dataManager = AppBeans.get(DataManager.class);
+
+        QueryRunner runner = new QueryRunner(cont.persistence().getDataSource());
+        runner.update("delete from SYS_SERVER");
+
+        for (int i = 0; i < 5; i++) {
+            Server server = new Server();
+            server.setName("server" + i);
+            server.setRunning(true);
+            dataManager.commit(server);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        QueryRunner runner = new QueryRunner(cont.persistence().getDataSource());
+        runner.update("delete from SYS_SERVER");
+    }
+
+    @Test
+    public void testUnorderedQueryIsPagedByKeyset() {
+        LoadContext<Server> context = LoadContext.create(Server.class);
+        context.setQueryString("select s from sys$Server s");
+
+        List<Server> list;
+        try (Stream<Server> stream = PagedLoadIterator.stream(dataManager, context, 2)) {
+            list = stream.collect(Collectors.toList());
+        }
+        assertEquals(5, list.size());
+        Set<String> names = list.stream().map(Server::getName).collect(Collectors.toSet());
+        assertEquals(5, names.size());
+        // the context passed by the caller is not changed
+        assertFalse(context.getQuery().isKeysetPagination());
+    }
+
+    @Test
+    public void testOrderedQueryIsPagedByOffset() {
+        LoadContext<Server> context = LoadContext.create(Server.class);
+        context.setQueryString("select s from sys$Server s order by s.name desc")
+                .setKeysetPagination(true)
+                .setFirstResult(1);
+
+        List<String> names;
+        try (Stream<Server> stream = PagedLoadIterator.stream(dataManager, context, 2)) {
+            names = stream.map(Server::getName).collect(Collectors.toList());
+        }
+        assertEquals(4, names.size());
+        assertEquals("server3", names.get(0));
+        assertEquals("server0", names.get(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnorderedQueryOfCompositeKeyEntity() {
+        LoadContext<CompositeKeyEntity> context = LoadContext.create(CompositeKeyEntity.class);
+        context.setQueryString("select e from test$CompositeKeyEntity e");
+
+        PagedLoadIterator.stream(dataManager, context, 2).close();
+    }
+}
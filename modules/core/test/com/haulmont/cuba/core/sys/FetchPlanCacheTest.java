@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.sys;
+
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.View;
+import com.haulmont.cuba.core.global.ViewRepository;
+import com.haulmont.cuba.security.entity.Group;
+import com.haulmont.cuba.security.entity.User;
+import com.haulmont.cuba.testsupport.TestContainer;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FetchPlanCacheTest {
+
+    @ClassRule
+    public static TestContainer cont = TestContainer.Common.INSTANCE;
+
+    private static final String QUERY = "select u from sec$User u where u.login = :login";
+
+    @Test
+    public void testPlanIsCachedByViewStructure() {
+        FetchGroupManager fetchGroupManager = AppBeans.get(FetchGroupManager.NAME);
+
+        View view1 = new View(User.class, "fetchPlanTest")
+                .addProperty("login")
+                .addProperty("group", new View(Group.class).addProperty("name"));
+        View view2 = new View(User.class, "fetchPlanTest")
+                .addProperty("login")
+                .addProperty("group", new View(Group.class).addProperty("name"));
+
+        FetchGroupDescription description1 = fetchGroupManager.calculateFetchGroup(QUERY, view1, true, true);
+        FetchGroupDescription description2 = fetchGroupManager.calculateFetchGroup(QUERY, view2, true, true);
+        assertSame(description1, description2);
+        assertTrue(description1.getAttributes().contains("group.name"));
+
+        try {
+            description1.addAttribute("name");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // ok
+        }
+
+        View view3 = new View(User.class, "fetchPlanTest")
+                .addProperty("login")
+                .addProperty("group", new View(Group.class).addProperty("name").addProperty("parent"));
+        FetchGroupDescription description3 = fetchGroupManager.calculateFetchGroup(QUERY, view3, true, true);
+        assertNotSame(description1, description3);
+
+        assertNotSame(description1, fetchGroupManager.calculateFetchGroup(QUERY, view1, false, true));
+    }
+
+    @Test
+    public void testCacheIsClearedOnViewDeploy() {
+        FetchGroupManager fetchGroupManager = AppBeans.get(FetchGroupManager.NAME);
+        AbstractViewRepository viewRepository = AppBeans.get(ViewRepository.NAME);
+
+        View view = viewRepository.getView(User.class, View.LOCAL);
+        FetchGroupDescription description = fetchGroupManager.calculateFetchGroup(QUERY, view, false, true);
+        assertSame(description, fetchGroupManager.calculateFetchGroup(QUERY, view, false, true));
+
+        long version = viewRepository.getVersion();
+        viewRepository.storeView(cont.metadata().getClassNN(User.class), new View(User.class, "fetchPlanTestDeploy"));
+        assertTrue(viewRepository.getVersion() > version);
+
+        assertNotSame(description, fetchGroupManager.calculateFetchGroup(QUERY, view, false, true));
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.haulmont.cuba.core.sys;
+
+import com.haulmont.cuba.security.entity.Group;
+import com.haulmont.cuba.security.entity.User;
+import com.haulmont.cuba.testsupport.TestContainer;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SimpleConstraintConditionTest {
+
+    @ClassRule
+    public static TestContainer cont = TestContainer.Common.INSTANCE;
+
+    @Test
+    public void testParse() {
+        assertNotNull(SimpleConstraintCondition.parse("{E}.login == 'admin'"));
+        assertNotNull(SimpleConstraintCondition.parse(" {E}.group.name != null "));
+        assertNotNull(SimpleConstraintCondition.parse("{E}.active == true"));
+        assertNotNull(SimpleConstraintCondition.parse("{E}.loginLowerCase != \"admin\""));
+
+        assertNull(SimpleConstraintCondition.parse("{E}.login.startsWith('user')"));
+        assertNull(SimpleConstraintCondition.parse("{E}.login == userSession.user.login"));
+        assertNull(SimpleConstraintCondition.parse("{E}.login == \"${userSession.user.login}\""));
+        assertNull(SimpleConstraintCondition.parse("{E}.login == 'a' && {E}.active == true"));
+    }
+
+    @Test
+    public void testEvaluate() {
+        Group group = cont.metadata().create(Group.class);
+        group.setName("group1");
+        User user = cont.metadata().create(User.class);
+        user.setLogin("user1");
+        user.setActive(true);
+        user.setGroup(group);
+
+        assertEquals(Boolean.TRUE, SimpleConstraintCondition.parse("{E}.login == 'user1'").evaluate(user));
+        assertEquals(Boolean.FALSE, SimpleConstraintCondition.parse("{E}.login != 'user1'").evaluate(user));
+        assertEquals(Boolean.TRUE, SimpleConstraintCondition.parse("{E}.group.name == 'group1'").evaluate(user));
+        assertEquals(Boolean.FALSE, SimpleConstraintCondition.parse("{E}.active == false").evaluate(user));
+        assertEquals(Boolean.TRUE, SimpleConstraintCondition.parse("{E}.email == null").evaluate(user));
+        assertEquals(Boolean.FALSE, SimpleConstraintCondition.parse("{E}.email == 'email'").evaluate(user));
+
+        // cannot be decided without Groovy
+        assertNull(SimpleConstraintCondition.parse("{E}.login == 1").evaluate(user));
+        assertNull(SimpleConstraintCondition.parse("{E}.unknown == 'a'").evaluate(user));
+        user.setGroup(null);
+        assertNull(SimpleConstraintCondition.parse("{E}.group.name == 'group1'").evaluate(user));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.haulmont.cuba.core.sys.entitycache;
+
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class TaggedQueryCacheTest {
+
+    private TaggedQueryCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new TaggedQueryCache();
+        cache.queryCacheConfig = new QueryCacheConfig() {
+            @Override
+            public boolean getQueryCacheEnabled() {
+                return true;
+            }
+
+            @Override
+            public int getQueryCacheMaxSize() {
+                return 2;
+            }
+        };
+        cache.init();
+    }
+
+    @Test
+    public void testInvalidateByType() throws Exception {
+        QueryKey userKey = createKey("select u from sec$User u");
+        QueryKey groupKey = createKey("select g from sec$Group g");
+        cache.put(userKey, createResult("sec$User", "sec$User", "sec$Group"));
+        cache.put(groupKey, createResult("sec$Group", "sec$Group"));
+
+        assertNotNull(cache.get(userKey));
+        assertNotNull(cache.get(groupKey));
+
+        cache.invalidate("sec$User");
+
+        assertNull(cache.get(userKey));
+        assertNotNull(cache.get(groupKey));
+        assertEquals(1, cache.size());
+
+        cache.invalidate(Sets.newHashSet("sec$Group", "sec$Role"));
+
+        assertNull(cache.get(groupKey));
+        assertEquals(0, cache.size());
+
+        cache.put(userKey, createResult("sec$User", "sec$User"));
+        assertNotNull(cache.get(userKey));
+    }
+
+    @Test
+    public void testIdIndex() throws Exception {
+        QueryKey key = createKey("select u from sec$User u");
+        cache.put(key, createResult("sec$User", "sec$User"));
+
+        assertSame(key, cache.findQueryKeyById(key.getId()));
+        assertSame(key, cache.invalidate(key.getId()));
+        assertNull(cache.findQueryKeyById(key.getId()));
+        assertNull(cache.invalidate(UUID.randomUUID()));
+
+        cache.put(key, createResult("sec$User", "sec$User"));
+        cache.put(key, createResult("sec$User", "sec$User"));
+        assertSame(key, cache.findQueryKeyById(key.getId()));
+
+        QueryKey sameKey = createKey("select u from sec$User u");
+        cache.put(sameKey, createResult("sec$User", "sec$User"));
+
+        assertNull(cache.findQueryKeyById(key.getId()));
+        assertSame(sameKey, cache.findQueryKeyById(sameKey.getId()));
+
+        cache.invalidateAll();
+        assertNull(cache.findQueryKeyById(sameKey.getId()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        QueryKey key1 = createKey("select u from sec$User u where u.id = 1");
+        QueryKey key2 = createKey("select u from sec$User u where u.id = 2");
+        QueryKey key3 = createKey("select u from sec$User u where u.id = 3");
+
+        assertNull(cache.get(key1));
+
+        cache.put(key1, createResult("sec$User", "sec$User"));
+        cache.get(key1);
+        cache.put(key2, createResult("sec$User", "sec$User"));
+        cache.put(key3, createResult("sec$User", "sec$User"));
+
+        cache.invalidate("sec$User");
+        cache.get(key3);
+
+        QueryCacheStats stats = cache.getStatistics().get("sec$User");
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(1, stats.getInvalidationCount());
+
+        QueryCacheStats total = cache.getTotalStatistics();
+        assertEquals(1, total.getHitCount());
+        assertEquals(2, total.getMissCount());
+    }
+
+    private QueryKey createKey(String query) {
+        return new QueryKey(query, 0, 0, true, false, null, null);
+    }
+
+    private QueryResult createResult(String type, String... relatedTypes) {
+        return new QueryResult(Collections.singletonList(UUID.randomUUID()), type, Sets.newHashSet(relatedTypes));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.sys.jpql;
+
+import com.haulmont.cuba.core.global.QueryTransformer;
+import com.haulmont.cuba.core.sys.jpql.model.EntityBuilder;
+import com.haulmont.cuba.core.sys.jpql.model.JpqlEntityModel;
+import com.haulmont.cuba.core.sys.jpql.transform.QueryTransformerAstBased;
+import org.antlr.runtime.tree.CommonTree;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QueryTreeCacheTest {
+
+    private QueryTreeCache treeCache;
+    private DomainModel model;
+
+    @Before
+    public void setUp() throws Exception {
+        treeCache = new QueryTreeCache(10);
+        model = createModel();
+        model.setTreeCache(treeCache);
+    }
+
+    private DomainModel createModel() {
+        EntityBuilder builder = new EntityBuilder();
+        JpqlEntityModel teamEntity = builder.produceImmediately("Team", "name");
+        builder.startNewEntity("Player");
+        builder.addStringAttribute("name");
+        builder.addReferenceAttribute("team", "Team");
+        JpqlEntityModel playerEntity = builder.produce();
+        return new DomainModel(playerEntity, teamEntity);
+    }
+
+    @Test
+    public void testTreeIsParsedOnce() throws Exception {
+        String query = "select p from Player p join p.team t where p.name = :name order by p.name";
+
+        CommonTree tree1 = Parser.parse(query, true, model);
+        CommonTree tree2 = Parser.parse(query, true, model);
+
+        assertNotSame(tree1, tree2);
+        assertEquals(tree1.toStringTree(), tree2.toStringTree());
+        assertEquals(1, treeCache.getParseCount());
+        assertEquals(1, treeCache.getStats().hitCount());
+    }
+
+    @Test
+    public void testTreesAreNotSharedBetweenModels() throws Exception {
+        String query = "select p from Player p where p.name = :name";
+
+        Parser.parse(query, true, model);
+
+        DomainModel newModel = createModel();
+        newModel.setTreeCache(treeCache);
+        assertNotEquals(model.getVersion(), newModel.getVersion());
+
+        Parser.parse(query, true, newModel);
+        Parser.parse(query, true, newModel);
+
+        assertEquals(2, treeCache.getParseCount());
+        assertEquals(1, treeCache.getStats().hitCount());
+    }
+
+    @Test
+    public void testTransformationDoesNotAffectCachedTree() throws Exception {
+        String query = "select p from Player p where p.name = :name";
+
+        QueryTransformer transformer = new QueryTransformerAstBased(model, query);
+        transformer.addWhere("{E}.team.name = :team");
+        transformer.replaceOrderBy(true, "name");
+        assertEquals("select p from Player p where (p.name = :name) and (p.team.name = :team) order by p.name desc",
+                transformer.getResult());
+
+        transformer = new QueryTransformerAstBased(model, query);
+        assertEquals(query, transformer.getResult());
+        assertEquals(1, treeCache.getParseCount());
+    }
+
+    @Test
+    public void testUpdateQuery() throws Exception {
+        String query = "update Player p set p.name = :name where p.team.name = :team";
+
+        String result = "update Player p set p.name=:name where p.team.name = :team";
+        assertEquals(result, new QueryTransformerAstBased(model, query).getResult());
+        assertEquals(result, new QueryTransformerAstBased(model, query).getResult());
+    }
+
+    @Test
+    public void testDisabledCache() throws Exception {
+        treeCache = new QueryTreeCache(0);
+        model.setTreeCache(treeCache);
+        String query = "select p from Player p";
+
+        Parser.parse(query, true, model);
+        Parser.parse(query, true, model);
+
+        assertEquals(2, treeCache.getParseCount());
+        assertEquals(0, treeCache.getSize());
+    }
+}
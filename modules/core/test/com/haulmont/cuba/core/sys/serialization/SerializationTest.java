@@ -20,6 +20,8 @@ package com.haulmont.cuba.core.sys.serialization;
 import com.haulmont.cuba.core.EntityManager;
 import com.haulmont.cuba.core.Transaction;
 import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.DataManager;
+import com.haulmont.cuba.core.global.LoadContext;
 import com.haulmont.cuba.core.global.Metadata;
 import com.haulmont.cuba.core.global.View;
 import com.haulmont.cuba.core.global.ViewRepository;
@@ -31,6 +33,7 @@ import com.haulmont.cuba.testsupport.TestContainer;
 import org.junit.*;
 
 import java.util.BitSet;
+import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
@@ -242,6 +245,72 @@ public class SerializationTest {
         }
     }
 
+    @Test
+    public void testCompactSerialization() throws Exception {
+        View view = getView();
+        User user;
+        Transaction tx = cont.persistence().createTransaction();
+        try {
+            EntityManager em = cont.persistence().getEntityManager();
+            user = em.find(User.class, userId, view);
+            assertNotNull(user);
+            tx.commit();
+        } finally {
+            tx.end();
+        }
+
+        CompactSerialization compactSerialization = new CompactSerialization();
+        byte[] bytes = compactSerialization.serialize(user);
+        assertTrue(CompactSerialization.isCompact(bytes));
+        User compactUser = (User) compactSerialization.deserialize(bytes);
+
+        KryoSerialization kryoSerialization = new KryoSerialization();
+        assertTrue(bytes.length < kryoSerialization.serialize(user).length);
+
+        assertEquals(user, compactUser);
+        assertEquals(user.getLogin(), compactUser.getLogin());
+        assertEquals(user.getGroup(), compactUser.getGroup());
+        assertEquals(user.getGroup().getName(), compactUser.getGroup().getName());
+        assertEquals(user.getUserRoles().get(0), compactUser.getUserRoles().get(0));
+        assertEquals(user.getUserRoles().get(0).getRole().getName(), compactUser.getUserRoles().get(0).getRole().getName());
+    }
+
+    @Test
+    @Ignore
+    public void testCompareCompactSpeedAndSize() throws Exception {
+        DataManager dataManager = AppBeans.get(DataManager.class);
+        List<User> users = dataManager.loadList(LoadContext.create(User.class)
+                .setQuery(LoadContext.createQuery("select u from sec$User u"))
+                .setView(getView()));
+
+        printSpeedAndSize("Standard", new StandardSerialization(), users);
+        printSpeedAndSize("Kryo", new KryoSerialization(), users);
+        printSpeedAndSize("Compact", new CompactSerialization(), users);
+    }
+
+    protected void printSpeedAndSize(String name, Serialization serialization, Object payload) {
+        for (int i = 0; i < 100; i++) {
+            serialization.deserialize(serialization.serialize(payload)); //warm up
+        }
+
+        int length = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            length = serialization.serialize(payload).length;
+        }
+        double serializeTime = (System.nanoTime() - start) / 1000 / 1000.0;
+
+        byte[] bytes = serialization.serialize(payload);
+        start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            serialization.deserialize(bytes);
+        }
+        double deserializeTime = (System.nanoTime() - start) / 1000 / 1000.0;
+
+        System.out.printf("%s:\t\tSize [%d bytes]. Serialize [%.1f us]. Deserialize [%.1f us]\n",
+                name, length, serializeTime, deserializeTime);
+    }
+
     @Test
     public void testKryoBitSet() {
         BitSet set = new BitSet();
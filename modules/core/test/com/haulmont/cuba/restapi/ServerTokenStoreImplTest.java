@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.restapi;
+
+import com.haulmont.cuba.core.app.ClusterManagerAPI;
+import com.haulmont.cuba.core.app.ServerConfig;
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.cuba.security.app.UserSessionLog;
+import com.haulmont.cuba.security.app.UserSessionsAPI;
+import com.haulmont.cuba.security.auth.AuthenticationManager;
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ServerTokenStoreImplTest {
+
+    @Mocked
+    ClusterManagerAPI clusterManager;
+
+    @Mocked
+    ServerConfig serverConfig;
+
+    @Mocked
+    UserSessionsAPI userSessions;
+
+    @Mocked
+    AuthenticationManager authenticationManager;
+
+    @Mocked
+    UserSessionLog userSessionLog;
+
+    @Mocked
+    TimeSource timeSource;
+
+    private long now = 100_000;
+
+    private ServerTokenStoreImpl store;
+
+    @Before
+    public void setUp() {
+        new Expectations() {{
+            userSessions.get((UUID) any);
+            result = null;
+            minTimes = 0;
+
+            timeSource.currentTimeMillis();
+            result = new Delegate() {
+                @SuppressWarnings("unused")
+                long currentTimeMillis() {
+                    return now;
+                }
+            };
+            minTimes = 0;
+        }};
+        store = createStore();
+    }
+
+    @Test
+    public void testStoreAndRemove() {
+        store.storeAccessToken("t1", bytes(1), "key1", bytes(2), new Date(now + 60_000), "admin", null, "r1");
+
+        assertArrayEquals(bytes(1), store.getAccessTokenByTokenValue("t1"));
+        assertArrayEquals(bytes(1), store.getAccessTokenByAuthentication("key1"));
+        assertEquals(Collections.singleton("t1"), store.getAccessTokenValuesByUserLogin("admin"));
+        assertEquals("t1", store.getAccessTokenValueByRefreshTokenValue("r1"));
+
+        store.removeAccessToken("t1");
+
+        assertNull(store.getAccessTokenByTokenValue("t1"));
+        assertNull(store.getAccessTokenByAuthentication("key1"));
+        assertTrue(store.getAccessTokenValuesByUserLogin("admin").isEmpty());
+        assertNull(store.getAccessTokenValueByRefreshTokenValue("r1"));
+        assertEquals(0, store.accessTokensExpiry.size());
+    }
+
+    @Test
+    public void testOlderChangeIsIgnored() {
+        assertTrue(store.putAccessTokenRecord(record("t1", bytes(1), 200)));
+        assertFalse(store.putAccessTokenRecord(record("t1", bytes(2), 100)));
+        assertArrayEquals(bytes(1), store.getAccessTokenByTokenValue("t1"));
+
+        assertTrue(store.putAccessTokenRecord(record("t1", bytes(3), 300)));
+        assertArrayEquals(bytes(3), store.getAccessTokenByTokenValue("t1"));
+
+        // a node without versions
+        assertTrue(store.putAccessTokenRecord(record("t1", bytes(4), 0)));
+        assertArrayEquals(bytes(4), store.getAccessTokenByTokenValue("t1"));
+    }
+
+    @Test
+    public void testRemoveOfOlderVersionIsApplied() {
+        // the record has been changed locally with a version ahead of the clock of the removing node
+        store.putAccessTokenRecord(record("t1", bytes(1), 500));
+        store.putSessionInfoToMemory("t1", new RestUserSessionInfo(UUID.randomUUID(), Locale.ENGLISH), 600);
+
+        store.removeAccessTokenFromMemory("t1", 100);
+
+        assertNull(store.getAccessTokenByTokenValue("t1"));
+        assertNull(store.getSessionInfoByTokenValue("t1"));
+    }
+
+    @Test
+    public void testRemovedTokenIsNotRestoredFromState() throws IOException {
+        ServerTokenStoreImpl otherStore = createStore();
+        otherStore.storeAccessToken("t1", bytes(1), "key1", bytes(2), new Date(now + 60_000), "admin", null, null);
+        otherStore.storeRefreshToken("r1", bytes(3), bytes(2), new Date(now + 60_000), "admin");
+        byte[] state = getState(otherStore);
+
+        // the removes arrive before the state transfer is finished
+        store.removeAccessTokenFromMemory("t1", now);
+        store.removeRefreshTokenFromMemory("r1", now);
+        setState(store, state);
+
+        assertNull(store.getAccessTokenByTokenValue("t1"));
+        assertTrue(store.getAccessTokenValuesByUserLogin("admin").isEmpty());
+        assertNull(store.getRefreshTokenByTokenValue("r1"));
+        assertEquals(0, store.accessTokensExpiry.size());
+    }
+
+    @Test
+    public void testStateMerge() throws IOException {
+        ServerTokenStoreImpl otherStore = createStore();
+        otherStore.storeAccessToken("t1", bytes(1), "key1", bytes(2), new Date(now + 60_000), "admin", null, null);
+        otherStore.storeAccessToken("t2", bytes(3), "key2", bytes(2), new Date(now + 60_000), "admin", null, null);
+        byte[] state = getState(otherStore);
+
+        // t2 has been changed after the state was taken
+        now += 1000;
+        store.storeAccessToken("t2", bytes(4), "key2", bytes(2), new Date(now + 60_000), "admin", null, null);
+        setState(store, state);
+
+        assertArrayEquals(bytes(1), store.getAccessTokenByTokenValue("t1"));
+        assertArrayEquals(bytes(4), store.getAccessTokenByTokenValue("t2"));
+        assertEquals(2, store.getAccessTokenValuesByUserLogin("admin").size());
+    }
+
+    @Test
+    public void testStoreAfterRemove() {
+        store.removeAccessTokenFromMemory("t1", now + 5000);
+
+        // a stale add from the cluster
+        assertFalse(store.putAccessTokenRecord(record("t1", bytes(1), now)));
+        assertNull(store.getAccessTokenByTokenValue("t1"));
+
+        store.storeAccessToken("t1", bytes(2), "key1", bytes(2), null, "admin", null, null);
+        assertArrayEquals(bytes(2), store.getAccessTokenByTokenValue("t1"));
+        assertTrue(store.accessTokens.get("t1").version > now + 5000);
+        assertFalse(store.accessTokenTombstones.containsKey("t1"));
+    }
+
+    @Test
+    public void testSessionInfoBeforeToken() {
+        RestUserSessionInfo sessionInfo = new RestUserSessionInfo(UUID.randomUUID(), Locale.ENGLISH);
+        store.putSessionInfoToMemory("t1", sessionInfo, 100);
+        // the add message is older than the session info, but the record is completed anyway
+        assertTrue(store.putAccessTokenRecord(record("t1", bytes(1), 50)));
+
+        assertArrayEquals(bytes(1), store.getAccessTokenByTokenValue("t1"));
+        assertSame(sessionInfo, store.getSessionInfoByTokenValue("t1"));
+        assertEquals(100, store.accessTokens.get("t1").version);
+    }
+
+    @Test
+    public void testExpiration() {
+        store.storeAccessToken("t1", bytes(1), "key1", bytes(2), new Date(now + 5000), "admin", null, null);
+        store.storeAccessToken("t2", bytes(1), "key2", bytes(2), new Date(now + 60_000), "admin", null, null);
+        store.storeRefreshToken("r1", bytes(3), bytes(2), new Date(now + 5000), "admin");
+
+        now += 10_000;
+        store.deleteExpiredTokens();
+
+        assertNull(store.getAccessTokenByTokenValue("t1"));
+        assertNotNull(store.getAccessTokenByTokenValue("t2"));
+        assertNull(store.getRefreshTokenByTokenValue("r1"));
+        assertEquals(Collections.singleton("t2"), store.getAccessTokenValuesByUserLogin("admin"));
+    }
+
+    @Test
+    public void testTombstoneExpiration() {
+        store.removeAccessTokenFromMemory("t1", now);
+        store.removeRefreshTokenFromMemory("r1", now);
+
+        now += ServerTokenStoreImpl.TOMBSTONE_TTL_MS + 1000;
+        store.deleteExpiredTokens();
+
+        assertTrue(store.accessTokenTombstones.isEmpty());
+        assertTrue(store.refreshTokenTombstones.isEmpty());
+    }
+
+    private ServerTokenStoreImpl createStore() {
+        ServerTokenStoreImpl store = new ServerTokenStoreImpl();
+        store.clusterManagerAPI = clusterManager;
+        store.serverConfig = serverConfig;
+        store.userSessions = userSessions;
+        store.authenticationManager = authenticationManager;
+        store.userSessionLog = userSessionLog;
+        store.timeSource = timeSource;
+        return store;
+    }
+
+    private ServerTokenStoreImpl.AccessTokenRecord record(String tokenValue, byte[] tokenBytes, long version) {
+        return new ServerTokenStoreImpl.AccessTokenRecord(tokenValue, tokenBytes, "key-" + tokenValue, bytes(0),
+                now + 60_000, "admin", null, null, version);
+    }
+
+    private byte[] getState(ServerTokenStoreImpl store) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        store.writeState(out);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private void setState(ServerTokenStoreImpl store, byte[] state) throws IOException {
+        store.readState(new DataInputStream(new ByteArrayInputStream(state)));
+    }
+
+    private byte[] bytes(int value) {
+        return new byte[]{(byte) value};
+    }
+}
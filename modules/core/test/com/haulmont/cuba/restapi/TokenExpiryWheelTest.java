@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.restapi;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TokenExpiryWheelTest {
+
+    @Test
+    public void testPollExpired() {
+        TokenExpiryWheel wheel = new TokenExpiryWheel(8, 1000);
+        wheel.add("a", 1500);
+        wheel.add("b", 2500);
+        wheel.add("c", 2900);
+        assertEquals(3, wheel.size());
+
+        assertEquals(Collections.emptyList(), wheel.pollExpired(1400));
+        assertEquals(Collections.singletonList("a"), wheel.pollExpired(2000));
+        assertEquals(Collections.singletonList("b"), wheel.pollExpired(2600));
+        assertEquals(Collections.singletonList("c"), wheel.pollExpired(5000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testLaterRotation() {
+        TokenExpiryWheel wheel = new TokenExpiryWheel(4, 1000);
+        // the same bucket as 1500, but three rotations later
+        wheel.add("late", 13500);
+        wheel.add("early", 1500);
+
+        assertEquals(Collections.singletonList("early"), wheel.pollExpired(2000));
+        assertEquals(Collections.emptyList(), wheel.pollExpired(9999));
+        assertEquals(Collections.singletonList("late"), wheel.pollExpired(20000));
+    }
+
+    @Test
+    public void testAddAfterExpiration() {
+        TokenExpiryWheel wheel = new TokenExpiryWheel(8, 1000);
+        wheel.pollExpired(5000);
+        wheel.add("past", 1000);
+        wheel.add("future", 6000);
+
+        List<String> expired = wheel.pollExpired(6000);
+        assertEquals(new HashSet<>(Arrays.asList("past", "future")), new HashSet<>(expired));
+    }
+
+    @Test
+    public void testRemove() {
+        TokenExpiryWheel wheel = new TokenExpiryWheel(8, 1000);
+        wheel.add("a", 1500);
+        wheel.remove("a", 1500);
+        wheel.remove("b", 1500);
+
+        assertEquals(0, wheel.size());
+        assertEquals(Collections.emptyList(), wheel.pollExpired(2000));
+    }
+
+    @Test
+    public void testReplaceExpiry() {
+        TokenExpiryWheel wheel = new TokenExpiryWheel(8, 1000);
+        wheel.add("a", 1500);
+        wheel.add("a", 5500);
+        assertEquals(1, wheel.size());
+
+        assertEquals(Collections.emptyList(), wheel.pollExpired(2000));
+        assertEquals(Collections.singletonList("a"), wheel.pollExpired(6000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRemoveAddedAfterExpiration() {
+        TokenExpiryWheel wheel = new TokenExpiryWheel(8, 1000);
+        wheel.pollExpired(5000);
+        wheel.add("past", 1000);
+        wheel.add("other", 1000);
+        wheel.pollExpired(4000);
+        wheel.remove("past", 1000);
+        wheel.remove("other");
+        wheel.remove("unknown");
+
+        assertEquals(0, wheel.size());
+        assertEquals(Collections.emptyList(), wheel.pollExpired(7000));
+    }
+}
@@ -40,10 +40,10 @@ public class InMemoryConstraintTest {
     public static TestContainer cont = TestContainer.Common.INSTANCE;
 
     private Group parentGroup;
-    private Group constraintGroup1, constraintGroup2, constraintGroup3, constraintGroup4;
-    private Constraint constraint1, constraint2, constraint3, constraint4;
+    private Group constraintGroup1, constraintGroup2, constraintGroup3, constraintGroup4, constraintGroup5;
+    private Constraint constraint1, constraint2, constraint3, constraint4, constraint5;
     private List<User> usersList = new ArrayList<>(USERS_SIZE);
-    private User constraintUser1, constraintUser2, constraintUser3, constraintUser4;
+    private User constraintUser1, constraintUser2, constraintUser3, constraintUser4, constraintUser5;
     private PasswordEncryption passwordEncryption;
 
     private static final int USERS_SIZE = 200;
@@ -110,6 +110,18 @@ public class InMemoryConstraintTest {
             constraint4.setGroup(constraintGroup4);
             em.persist(constraint4);
 
+            constraintGroup5 = new Group();
+            constraintGroup5.setName("constraintGroup5");
+            em.persist(constraintGroup5);
+
+            constraint5 = new Constraint();
+            constraint5.setEntityName("sec$User");
+            constraint5.setCheckType(ConstraintCheckType.MEMORY);
+            constraint5.setOperationType(ConstraintOperationType.READ);
+            constraint5.setGroovyScript("if ({E}.login == 'user5') { ok = true }; ok");
+            constraint5.setGroup(constraintGroup5);
+            em.persist(constraint5);
+
             for (int i = 1; i <= USERS_SIZE; i++) {
                 User user = new User();
                 user.setLogin("user" + i);
@@ -143,6 +155,12 @@ public class InMemoryConstraintTest {
             constraintUser4.setEmail("email");
             em.persist(constraintUser4);
 
+            constraintUser5 = new User();
+            constraintUser5.setLogin("constraintUser5");
+            constraintUser5.setPassword(passwordEncryption.getPasswordHash(constraintUser5.getId(), PASSWORD));
+            constraintUser5.setGroup(constraintGroup5);
+            em.persist(constraintUser5);
+
             tx.commit();
         } finally {
             tx.end();
@@ -353,15 +371,40 @@ public class InMemoryConstraintTest {
         }
     }
 
+    @Test
+    public void testScriptVariablesAreNotShared() throws LoginException {
+        LoginWorker lw = AppBeans.get(LoginWorker.NAME);
+
+        UserSession userSession = lw.login("constraintUser5", passwordEncryption.getPlainHash(PASSWORD), Locale.getDefault());
+        assertNotNull(userSession);
 
+        UserSessionSource uss = AppBeans.get(UserSessionSource.class);
+        UserSession savedUserSession = uss.getUserSession();
+        ((TestUserSessionSource) uss).setUserSession(userSession);
+        try {
+            DataManager dataManager = AppBeans.get(DataManager.NAME);
+            dataManager = dataManager.secure();
+            LoadContext loadContext = new LoadContext(User.class).setView(View.LOCAL);
+            // 'ok' is assigned for user5 only and must be missing when user6 is checked
+            loadContext.setQuery(new LoadContext.Query("select u from sec$User u where u.login in ('user5', 'user6') order by u.login asc"));
+            List<User> resultList = dataManager.loadList(loadContext);
+            assertEquals(1, resultList.size());
+            assertEquals("user5", resultList.get(0).getLogin());
+        } finally {
+            ((TestUserSessionSource) uss).setUserSession(savedUserSession);
+        }
+    }
 
     @After
     public void tearDown() throws Exception {
         for (User user : usersList) {
             cont.deleteRecord("SEC_USER", user.getId());
         }
-        cont.deleteRecord("SEC_USER", constraintUser1.getId(), constraintUser2.getId(), constraintUser3.getId(), constraintUser4.getId());
-        cont.deleteRecord("SEC_CONSTRAINT", constraint1.getId(), constraint2.getId(), constraint3.getId(), constraint4.getId());
-        cont.deleteRecord("SEC_GROUP", parentGroup.getId(), constraintGroup1.getId(), constraintGroup2.getId(), constraintGroup3.getId(), constraintGroup4.getId());
+        cont.deleteRecord("SEC_USER", constraintUser1.getId(), constraintUser2.getId(), constraintUser3.getId(), constraintUser4.getId(),
+                constraintUser5.getId());
+        cont.deleteRecord("SEC_CONSTRAINT", constraint1.getId(), constraint2.getId(), constraint3.getId(), constraint4.getId(),
+                constraint5.getId());
+        cont.deleteRecord("SEC_GROUP", parentGroup.getId(), constraintGroup1.getId(), constraintGroup2.getId(), constraintGroup3.getId(), constraintGroup4.getId(),
+                constraintGroup5.getId());
     }
 }
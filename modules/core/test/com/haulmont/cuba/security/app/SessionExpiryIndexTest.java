@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.security.app;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SessionExpiryIndexTest {
+
+    @Test
+    public void testPollAndMove() {
+        SessionExpiryIndex<String> index = new SessionExpiryIndex<>(10);
+        index.add("a", 5);
+        index.add("b", 15);
+        index.add("c", 25);
+
+        assertTrue(index.pollBefore(9).isEmpty());
+        assertEquals(Collections.singletonList("a"), index.pollBefore(10));
+
+        assertFalse(index.move("b", 15, 19));
+        assertTrue(index.move("b", 15, 31));
+        assertEquals(Collections.singletonList("c"), index.pollBefore(30));
+        assertEquals(1, index.size());
+
+        index.remove("b", 31);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testNegativeTime() {
+        SessionExpiryIndex<String> index = new SessionExpiryIndex<>(10);
+        index.add("a", -5);
+
+        assertTrue(index.pollBefore(-10).isEmpty());
+        assertEquals(Collections.singletonList("a"), index.pollBefore(0));
+    }
+}
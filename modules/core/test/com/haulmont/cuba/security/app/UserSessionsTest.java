@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.security.app;
+
+import com.haulmont.cuba.core.app.ClusterManager;
+import com.haulmont.cuba.core.app.ServerConfig;
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.security.app.UserSessions.UserSessionInfo;
+import com.haulmont.cuba.security.app.UserSessions.UserSessionsTouchMessage;
+import com.haulmont.cuba.security.entity.SessionAction;
+import com.haulmont.cuba.security.entity.User;
+import com.haulmont.cuba.security.global.UserSession;
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class UserSessionsTest {
+
+    @Mocked
+    ServerConfig serverConfig;
+
+    @Mocked
+    UserSessionLog userSessionLog;
+
+    @Mocked
+    AppContext appContext;
+
+    @Mocked
+    TimeSource timeSource;
+
+    private long now = 1_000_000;
+
+    private List<Serializable> sent = new ArrayList<>();
+
+    private UserSessions userSessions;
+
+    @Before
+    public void setUp() {
+        new Expectations() {{
+            AppContext.isStarted();
+            result = true;
+            minTimes = 0;
+
+            timeSource.currentTimeMillis();
+            result = new Delegate() {
+                @SuppressWarnings("unused")
+                long currentTimeMillis() {
+                    return now;
+                }
+            };
+            minTimes = 0;
+        }};
+
+        userSessions = new UserSessions();
+        userSessions.serverConfig = serverConfig;
+        userSessions.userSessionLog = userSessionLog;
+        userSessions.timeSource = timeSource;
+        userSessions.setClusterManager(new ClusterManager() {
+            @Override
+            public void send(Serializable message) {
+                sent.add(message);
+            }
+
+            @Override
+            public void sendSync(Serializable message) {
+                sent.add(message);
+            }
+        });
+        userSessions.setExpirationTimeoutSec(30);
+        userSessions.setSendTimeoutSec(10);
+    }
+
+    @Test
+    public void testEvictionReindexesUsedSessions() {
+        UserSession session1 = createSession();
+        UserSession session2 = createSession();
+        userSessions.add(session1);
+        userSessions.add(session2);
+
+        now += 25_000;
+        userSessions.getAndRefresh(session2.getId());
+        sent.clear();
+
+        now += 15_000;
+        userSessions.processEviction();
+
+        assertNull(userSessions.get(session1.getId()));
+        assertSame(session2, userSessions.get(session2.getId()));
+        assertEquals(1, userSessions.expiryIndex.size());
+
+        assertEquals(1, sent.size());
+        UserSessionInfo removal = (UserSessionInfo) sent.get(0);
+        assertEquals(session1.getId(), removal.getSession().getId());
+        assertEquals(0, removal.getLastUsedTs());
+
+        new Verifications() {{
+            userSessionLog.updateSessionLogRecord(session1, SessionAction.EXPIRATION);
+            times = 1;
+        }};
+
+        // session2 was used 15 seconds ago and is evicted after its own timeout
+        now += 20_000;
+        userSessions.processEviction();
+
+        assertNull(userSessions.get(session2.getId()));
+        assertEquals(0, userSessions.expiryIndex.size());
+    }
+
+    @Test
+    public void testSystemSessionsAreNotEvicted() {
+        UserSession session = new UserSession(UUID.randomUUID(), new User(), Collections.emptyList(),
+                Locale.ENGLISH, true);
+        userSessions.add(session);
+        assertEquals(0, userSessions.expiryIndex.size());
+
+        now += 100_000;
+        userSessions.processEviction();
+
+        assertSame(session, userSessions.get(session.getId()));
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void testTouchesAreCoalesced() {
+        UserSession session = createSession();
+        userSessions.add(session);
+        sent.clear();
+
+        // not sent before the send timeout
+        now += 5_000;
+        userSessions.getAndRefresh(session.getId(), true);
+        assertTrue(userSessions.pendingTouches.isEmpty());
+
+        now += 6_000;
+        userSessions.getAndRefresh(session.getId(), true);
+        now += 11_000;
+        userSessions.getAndRefresh(session.getId(), true);
+        // without propagation
+        now += 11_000;
+        userSessions.getAndRefresh(session.getId());
+        assertTrue(sent.isEmpty());
+
+        userSessions.processEviction();
+
+        assertEquals(1, sent.size());
+        UserSessionsTouchMessage message = (UserSessionsTouchMessage) sent.get(0);
+        assertEquals(1, message.size());
+        assertEquals(session.getId(), message.getSessionId(0));
+        assertEquals(now - 11_000, message.getLastUsedTs(0));
+        assertTrue(userSessions.pendingTouches.isEmpty());
+
+        sent.clear();
+        userSessions.processEviction();
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void testTouchMessagesAreSplit() {
+        int count = UserSessions.TOUCH_MESSAGE_MAX_SIZE * 2 + 100;
+        Set<UUID> ids = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            userSessions.pendingTouches.put(id, now);
+        }
+
+        userSessions.processEviction();
+
+        assertEquals(3, sent.size());
+        Set<UUID> sentIds = new HashSet<>();
+        for (Serializable message : sent) {
+            UserSessionsTouchMessage touchMessage = (UserSessionsTouchMessage) message;
+            assertTrue(touchMessage.size() <= UserSessions.TOUCH_MESSAGE_MAX_SIZE);
+            for (int i = 0; i < touchMessage.size(); i++) {
+                sentIds.add(touchMessage.getSessionId(i));
+                assertEquals(now, touchMessage.getLastUsedTs(i));
+            }
+        }
+        assertEquals(ids, sentIds);
+        assertTrue(userSessions.pendingTouches.isEmpty());
+    }
+
+    @Test
+    public void testReceiveTouchMessage() {
+        UserSession session = createSession();
+        userSessions.add(session);
+        long addedTs = now;
+
+        Map<UUID, Long> touches = new HashMap<>();
+        touches.put(session.getId(), addedTs + 25_000);
+        touches.put(UUID.randomUUID(), addedTs + 25_000);
+        userSessions.receiveTouchMessage(new UserSessionsTouchMessage(touches));
+
+        assertEquals(addedTs + 25_000, userSessions.getSessionInfo(session.getId()).getLastUsedTs());
+
+        // an older touch does not move the usage time back
+        userSessions.receiveTouchMessage(
+                new UserSessionsTouchMessage(Collections.singletonMap(session.getId(), addedTs + 5_000)));
+        assertEquals(addedTs + 25_000, userSessions.getSessionInfo(session.getId()).getLastUsedTs());
+
+        // the session is kept by the touch and then expires
+        now = addedTs + 40_000;
+        userSessions.processEviction();
+        assertSame(session, userSessions.get(session.getId()));
+
+        now = addedTs + 60_000;
+        userSessions.processEviction();
+        assertNull(userSessions.get(session.getId()));
+    }
+
+    private UserSession createSession() {
+        User user = new User();
+        user.setLogin("user");
+        return new UserSession(UUID.randomUUID(), user, Collections.emptyList(), Locale.ENGLISH, false);
+    }
+}
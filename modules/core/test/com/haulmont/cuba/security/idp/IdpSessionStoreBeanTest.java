@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.security.idp;
+
+import com.haulmont.cuba.core.app.ClusterListener;
+import com.haulmont.cuba.core.app.ClusterManagerAPI;
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.cuba.core.global.UuidSource;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.security.global.IdpSession;
+import com.haulmont.cuba.security.idp.IdpSessionStore.IdpSessionInfo;
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class IdpSessionStoreBeanTest {
+
+    private static final Logger log = LoggerFactory.getLogger(IdpSessionStoreBeanTest.class);
+
+    @Mocked
+    private AppContext appContext;
+
+    @Mocked
+    private TimeSource timeSource;
+
+    private IdpSessionStoreBean store;
+    private TestClusterManager clusterManager;
+    private AtomicLong time = new AtomicLong(1_000_000);
+
+    @Before
+    public void setUp() {
+        new Expectations() {{
+            timeSource.currentTimeMillis();
+            result = new Delegate() {
+                @SuppressWarnings("unused")
+                long currentTimeMillis() {
+                    return time.get();
+                }
+            };
+            minTimes = 0;
+
+            timeSource.currentTimestamp();
+            result = new Delegate() {
+                @SuppressWarnings("unused")
+                Date currentTimestamp() {
+                    return new Date(time.get());
+                }
+            };
+            minTimes = 0;
+        }};
+        clusterManager = new TestClusterManager();
+        store = createStore(clusterManager);
+    }
+
+    private IdpSessionStoreBean createStore(ClusterManagerAPI clusterManager) {
+        IdpSessionStoreBean store = new IdpSessionStoreBean();
+        store.timeSource = timeSource;
+        store.uuidSource = UUID::randomUUID;
+        store.setClusterManager(clusterManager);
+        return store;
+    }
+
+    private IdpSession createSession(String id) {
+        IdpSession session = new IdpSession(id);
+        session.setLogin("user-" + id);
+        return session;
+    }
+
+    @Test
+    public void testActivateTicket() {
+        String ticket = store.putSession(createSession("s1"));
+
+        assertEquals(1, store.getTickets().size());
+        IdpSession session = store.activateSessionTicket(ticket);
+        assertNotNull(session);
+        assertEquals("s1", session.getId());
+
+        assertNull(store.activateSessionTicket(ticket));
+        assertTrue(store.getTickets().isEmpty());
+        assertEquals(0, store.ticketsExpiry.size());
+
+        assertNotNull(store.createServiceProviderTicket("s1"));
+        assertNull(store.createServiceProviderTicket("unknown"));
+    }
+
+    @Test
+    public void testRemoveSession() {
+        store.putSession(createSession("s1"));
+
+        assertTrue(store.removeSession("s1"));
+        assertFalse(store.removeSession("s1"));
+        assertNull(store.getSession("s1"));
+        assertEquals(0, store.sessionsExpiry.size());
+
+        IdpSessionStoreBean.IdpSessionRecord removal =
+                (IdpSessionStoreBean.IdpSessionRecord) clusterManager.sent.get(clusterManager.sent.size() - 1);
+        assertEquals(0, removal.getLastUsedTs());
+    }
+
+    @Test
+    public void testSessionUsageIsSentAsSmallMessage() {
+        store.putSession(createSession("s1"));
+        clusterManager.sent.clear();
+
+        store.getSession("s1");
+        assertTrue(clusterManager.sent.isEmpty());
+
+        time.addAndGet(11_000);
+        store.getSession("s1");
+        assertEquals(1, clusterManager.sent.size());
+        assertTrue(clusterManager.sent.get(0) instanceof IdpSessionStoreBean.SessionUsedClusterMessage);
+    }
+
+    @Test
+    public void testReplication() {
+        TestClusterManager otherClusterManager = new TestClusterManager();
+        IdpSessionStoreBean otherStore = createStore(otherClusterManager);
+
+        String ticket = store.putSession(createSession("s1"));
+        clusterManager.deliverTo(otherClusterManager);
+        assertNotNull(otherStore.getSession("s1"));
+        assertEquals(1, otherStore.getTickets().size());
+
+        store.activateSessionTicket(ticket);
+        time.addAndGet(11_000);
+        store.getSession("s1");
+        clusterManager.deliverTo(otherClusterManager);
+        assertTrue(otherStore.getTickets().isEmpty());
+        assertEquals(time.get(), otherStore.getSessionInfo("s1").getLastUsed().getTime());
+
+        store.removeSession("s1");
+        clusterManager.deliverTo(otherClusterManager);
+        assertNull(otherStore.getSession("s1"));
+        assertEquals(0, otherStore.sessionsExpiry.size());
+    }
+
+    @Test
+    public void testProcessEviction() {
+        new Expectations() {{
+            AppContext.isStarted();
+            result = true;
+        }};
+
+        TestClusterManager otherClusterManager = new TestClusterManager();
+        IdpSessionStoreBean otherStore = createStore(otherClusterManager);
+
+        store.putSession(createSession("s1"));
+        store.putSession(createSession("s2"));
+        clusterManager.deliverTo(otherClusterManager);
+
+        time.addAndGet(25_000);
+        // used after being indexed, must be indexed again instead of being evicted
+        store.getSession("s2");
+        clusterManager.sent.clear();
+
+        time.addAndGet(15_000);
+        List<IdpSessionInfo> expired = store.processEviction(30, 20);
+
+        assertEquals(1, expired.size());
+        assertEquals("s1", expired.get(0).getId());
+        assertNull(store.getSession("s1"));
+        assertTrue(store.getTickets().isEmpty());
+        assertEquals(0, store.ticketsExpiry.size());
+        assertEquals(1, store.sessionsExpiry.size());
+
+        // s2 was used 15 seconds ago
+        assertTrue(store.processEviction(30, 20).isEmpty());
+        time.addAndGet(30_000);
+        expired = store.processEviction(30, 20);
+        assertEquals(1, expired.size());
+        assertEquals("s2", expired.get(0).getId());
+        assertEquals(0, store.sessionsExpiry.size());
+
+        clusterManager.deliverTo(otherClusterManager);
+        assertNull(otherStore.getSession("s1"));
+        assertNull(otherStore.getSession("s2"));
+        assertTrue(otherStore.getTickets().isEmpty());
+    }
+
+    @Test
+    public void testNoEvictionBeforeStart() {
+        new Expectations() {{
+            AppContext.isStarted();
+            result = false;
+        }};
+
+        store.putSession(createSession("s1"));
+
+        time.addAndGet(100_000);
+        assertTrue(store.processEviction(30, 20).isEmpty());
+        assertNotNull(store.sessions.get("s1"));
+    }
+
+    @Test
+    public void testExpiryIndex() {
+        IdpExpiryIndex index = new IdpExpiryIndex(10);
+        index.add("a", 5);
+        index.add("b", 15);
+        index.add("c", 25);
+
+        assertTrue(index.pollBefore(9).isEmpty());
+        assertEquals(Collections.singletonList("a"), index.pollBefore(10));
+
+        assertFalse(index.move("b", 15, 19));
+        assertTrue(index.move("b", 15, 31));
+        assertEquals(Collections.singletonList("c"), index.pollBefore(30));
+        assertEquals(1, index.size());
+
+        index.remove("b", 31);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testExpiryIndexStripes() {
+        IdpExpiryIndex index = new IdpExpiryIndex(10, 4);
+        for (int i = 0; i < 100; i++) {
+            index.add("s" + i, i);
+        }
+        assertEquals(100, index.size());
+
+        assertTrue(index.move("s5", 5, 200));
+        index.remove("s6", 6);
+
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            if (i != 5 && i != 6) {
+                expected.add("s" + i);
+            }
+        }
+        List<String> expired = index.pollBefore(50);
+        assertEquals(expected.size(), expired.size());
+        assertEquals(expected, new HashSet<>(expired));
+        assertEquals(51, index.size());
+    }
+
+    /**
+     * Reports login throughput of the store with different numbers of threads. Run manually.
+     */
+    @Ignore
+    @Test
+    public void testLoginThroughput() throws Exception {
+        IdpSessionStoreBean store = createStore(new TestClusterManager() {
+            @Override
+            public void send(Serializable message) {
+            }
+
+            @Override
+            public void sendSync(Serializable message) {
+            }
+        });
+
+        int operations = 20_000;
+        for (int threads : new int[]{1, 8, 32}) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < operations / threads; i++) {
+                            String sessionId = thread + "-" + i + "-" + threads;
+                            String ticket = store.putSession(createSession(sessionId));
+                            assertNotNull(store.activateSessionTicket(ticket));
+                            store.getSession(sessionId);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    // rethrows failures of the workers
+                    future.get(60, TimeUnit.SECONDS);
+                }
+                long elapsed = System.nanoTime() - start;
+
+                log.info(String.format("IdpSessionStoreBean: %d threads, %.0f logins/s",
+                        threads, operations * 1e9 / elapsed));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        assertTrue(store.getTickets().isEmpty());
+    }
+
+    private static class TestClusterManager implements ClusterManagerAPI {
+
+        private List<Serializable> sent = new ArrayList<>();
+        private Map<Class, ClusterListener> listeners = new HashMap<>();
+
+        @SuppressWarnings("unchecked")
+        private void deliverTo(TestClusterManager other) {
+            for (Serializable message : sent) {
+                ClusterListener listener = other.listeners.get(message.getClass());
+                if (listener != null) {
+                    listener.receive(copy(message));
+                }
+            }
+            sent.clear();
+        }
+
+        private Serializable copy(Serializable message) {
+            try {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                    oos.writeObject(message);
+                }
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+                    return (Serializable) ois.readObject();
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void send(Serializable message) {
+            sent.add(message);
+        }
+
+        @Override
+        public void sendSync(Serializable message) {
+            sent.add(message);
+        }
+
+        @Override
+        public boolean getSyncSendingForCurrentThread() {
+            return false;
+        }
+
+        @Override
+        public void setSyncSendingForCurrentThread(boolean sync) {
+        }
+
+        @Override
+        public void addListener(Class messageClass, ClusterListener listener) {
+            listeners.put(messageClass, listener);
+        }
+
+        @Override
+        public void removeListener(Class messageClass, ClusterListener listener) {
+            listeners.remove(messageClass);
+        }
+
+        @Override
+        public boolean isMaster() {
+            return true;
+        }
+
+        @Override
+        public String getCurrentView() {
+            return null;
+        }
+
+        @Override
+        public List<String> getMemberNames() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String getCurrentMemberName() {
+            return null;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public boolean isStarted() {
+            return true;
+        }
+
+        @Override
+        public int getActiveThreadsCount() {
+            return 0;
+        }
+
+        @Override
+        public int getMessagesCount() {
+            return 0;
+        }
+
+        @Override
+        public String printSharedStateStat() {
+            return null;
+        }
+
+        @Override
+        public String printMessagesStat() {
+            return null;
+        }
+
+        @Override
+        public long getSentMessages(String className) {
+            return 0;
+        }
+
+        @Override
+        public long getSentBytes(String className) {
+            return 0;
+        }
+
+        @Override
+        public long getReceivedMessages(String className) {
+            return 0;
+        }
+
+        @Override
+        public long getReceivedBytes(String className) {
+            return 0;
+        }
+    }
+}
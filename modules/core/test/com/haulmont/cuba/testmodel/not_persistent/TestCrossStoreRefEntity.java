@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.testmodel.not_persistent;
+
+import com.haulmont.chile.core.annotations.MetaClass;
+import com.haulmont.chile.core.annotations.MetaProperty;
+import com.haulmont.cuba.core.entity.BaseUuidEntity;
+import com.haulmont.cuba.security.entity.Group;
+import com.haulmont.cuba.security.entity.User;
+
+import java.util.UUID;
+
+/**
+ * Not persistent entity referencing entities of the main data store by their identifiers.
+ */
+@MetaClass(name = "test$CrossStoreRefEntity")
+public class TestCrossStoreRefEntity extends BaseUuidEntity {
+
+    private static final long serialVersionUID = -2462817349712837219L;
+
+    @MetaProperty
+    private String name;
+
+    @MetaProperty
+    private UUID userId;
+
+    @MetaProperty(related = "userId")
+    private User user;
+
+    @MetaProperty
+    private UUID substituteId;
+
+    @MetaProperty(related = "substituteId")
+    private User substitute;
+
+    @MetaProperty
+    private UUID groupId;
+
+    @MetaProperty(related = "groupId")
+    private Group group;
+
+    @MetaProperty
+    private TestCrossStoreRefEntity child;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+    public void setUserId(UUID userId) {
+        this.userId = userId;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public UUID getSubstituteId() {
+        return substituteId;
+    }
+
+    public void setSubstituteId(UUID substituteId) {
+        this.substituteId = substituteId;
+    }
+
+    public User getSubstitute() {
+        return substitute;
+    }
+
+    public void setSubstitute(User substitute) {
+        this.substitute = substitute;
+    }
+
+    public UUID getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(UUID groupId) {
+        this.groupId = groupId;
+    }
+
+    public Group getGroup() {
+        return group;
+    }
+
+    public void setGroup(Group group) {
+        this.group = group;
+    }
+
+    public TestCrossStoreRefEntity getChild() {
+        return child;
+    }
+
+    public void setChild(TestCrossStoreRefEntity child) {
+        this.child = child;
+    }
+}
@@ -22,7 +22,10 @@ import com.haulmont.cuba.core.Query
 import com.haulmont.cuba.core.Transaction
 import com.haulmont.cuba.core.TypedQuery
 import com.haulmont.cuba.core.global.AppBeans
+import com.haulmont.cuba.core.global.Configuration
 import com.haulmont.cuba.core.global.View
+import com.haulmont.cuba.core.sys.AppContext
+import com.haulmont.cuba.security.app.AsyncEntityLogWriter
 import com.haulmont.cuba.security.app.EntityLogAPI
 import com.haulmont.cuba.security.entity.EntityLogItem
 import com.haulmont.cuba.security.entity.Group
@@ -36,6 +39,7 @@ import spock.lang.Shared
 import spock.lang.Specification
 
 import java.sql.SQLException
+import java.util.concurrent.ArrayBlockingQueue
 
 class EntityLogTest extends Specification {
 
@@ -207,4 +211,164 @@ class EntityLogTest extends Specification {
         item.attributes.find({ it.name == 'name' }).value == 'name11'
         item.attributes.find({ it.name == 'name' }).oldValue == 'name1'
     }
+
+    def "log items are written asynchronously after commit"() {
+        Group group = cont.persistence().callInTransaction({ em ->
+            em.find(Group.class, TestSupport.COMPANY_GROUP_ID)
+        })
+        AppContext.setProperty('cuba.entityLog.async', 'true')
+        def writer = AppBeans.get(AsyncEntityLogWriter)
+        def written = writer.writtenCount + writer.callerWrittenCount
+
+        when:
+
+        cont.persistence().runInTransaction({ em ->
+            User user1 = cont.metadata().create(User)
+            user1Id = user1.getId()
+            user1.setGroup(group)
+            user1.setLogin("test")
+            user1.setName("name1")
+            em.persist(user1)
+        })
+        cont.persistence().runInTransaction({ em ->
+            def user1 = em.find(User, user1Id)
+            user1.setName('name2')
+        })
+        for (int i = 0; i < 50 && writer.writtenCount + writer.callerWrittenCount < written + 2; i++) {
+            Thread.sleep(100)
+        }
+
+        then:
+
+        def items = getEntityLogItems(user1Id)
+        items.size() == 2
+        items[0].type == EntityLogItem.Type.MODIFY
+        items[0].createdBy == 'admin'
+        items[0].attributes.find({ it.name == 'name' }).value == 'name2'
+        items[0].attributes.find({ it.name == 'name' }).oldValue == 'name1'
+        items[1].type == EntityLogItem.Type.CREATE
+
+        cleanup:
+
+        AppContext.setProperty('cuba.entityLog.async', null)
+    }
+
+    def "caller writes a batch of queued items and queues its own ones when the queue is full"() {
+        def written = []
+        def writer = new AsyncEntityLogWriter(AppBeans.get(Configuration)) {
+            @Override
+            protected void write(List<EntityLogItem> items) {
+                written.addAll(items)
+                super.write(items)
+            }
+        }
+        writer.persistence = cont.persistence()
+        // no writer thread, the queue is full
+        writer.queue = new ArrayBlockingQueue<>(1)
+        AppContext.setProperty('cuba.entityLog.asyncQueueTimeoutMs', '10')
+
+        user1Id = UUID.randomUUID()
+        def queued = createLogItem(user1Id, EntityLogItem.Type.CREATE, 'user1')
+        def rejected = createLogItem(user1Id, EntityLogItem.Type.MODIFY, 'user2')
+        writer.queue.add(new AsyncEntityLogWriter.QueuedItem(queued))
+
+        when:
+
+        writer.enqueue([rejected])
+
+        then:
+
+        written == [queued]
+        writer.queueSize == 1
+        writer.queue.peek().item == rejected
+        writer.callerWrittenCount == 1
+
+        def items = getEntityLogItems(user1Id)
+        items.size() == 1
+        items[0].createdBy == 'user1'
+
+        cleanup:
+
+        AppContext.setProperty('cuba.entityLog.asyncQueueTimeoutMs', null)
+        user1Id = null
+    }
+
+    def "caller writes not more than one batch of queued items"() {
+        def written = []
+        def writer = new AsyncEntityLogWriter(AppBeans.get(Configuration)) {
+            @Override
+            protected void write(List<EntityLogItem> items) {
+                written.add(new ArrayList<>(items))
+            }
+        }
+        writer.queue = new ArrayBlockingQueue<>(5)
+        AppContext.setProperty('cuba.entityLog.asyncQueueTimeoutMs', '10')
+        AppContext.setProperty('cuba.entityLog.asyncBatchSize', '2')
+
+        def entityId = UUID.randomUUID()
+        def queued = (1..5).collect { createLogItem(entityId, EntityLogItem.Type.MODIFY, 'user1') }
+        queued.each { writer.queue.add(new AsyncEntityLogWriter.QueuedItem(it)) }
+        def rejected = createLogItem(entityId, EntityLogItem.Type.MODIFY, 'user2')
+
+        when:
+
+        writer.enqueue([rejected])
+
+        then:
+
+        written == [queued.subList(0, 2)]
+        writer.queue.collect { it.item } == queued.subList(2, 5) + [rejected]
+
+        cleanup:
+
+        AppContext.setProperty('cuba.entityLog.asyncQueueTimeoutMs', null)
+        AppContext.setProperty('cuba.entityLog.asyncBatchSize', null)
+    }
+
+    def "caller writes its own items that do not fit in the queue and retries on failure"() {
+        def written = []
+        def attempts = 0
+        def writer = new AsyncEntityLogWriter(AppBeans.get(Configuration)) {
+            @Override
+            protected void write(List<EntityLogItem> items) {
+                if (attempts++ == 1)
+                    throw new RuntimeException('test')
+                written.add(new ArrayList<>(items))
+            }
+        }
+        writer.queue = new ArrayBlockingQueue<>(1)
+        AppContext.setProperty('cuba.entityLog.asyncQueueTimeoutMs', '10')
+
+        def entityId = UUID.randomUUID()
+        def queued = createLogItem(entityId, EntityLogItem.Type.CREATE, 'user1')
+        writer.queue.add(new AsyncEntityLogWriter.QueuedItem(queued))
+        def rejected = (1..3).collect { createLogItem(entityId, EntityLogItem.Type.MODIFY, 'user2') }
+
+        when:
+
+        writer.enqueue(rejected)
+
+        then:
+
+        written == [[queued], rejected]
+        writer.queueSize == 0
+        writer.callerWrittenCount == 4
+        writer.failedCount == 0
+
+        cleanup:
+
+        AppContext.setProperty('cuba.entityLog.asyncQueueTimeoutMs', null)
+    }
+
+    private EntityLogItem createLogItem(UUID entityId, EntityLogItem.Type type, String createdBy) {
+        EntityLogItem item = cont.metadata().create(EntityLogItem)
+        item.setEntity('sec$User')
+        item.setObjectEntityId(entityId)
+        item.setType(type)
+        item.setEventTs(new Date())
+        item.setCreateTs(new Date())
+        item.setCreatedBy(createdBy)
+        item.setChanges('name=name1')
+        return item
+    }
 }
@@ -6,6 +6,7 @@
 package spec.cuba.core.entity_serialization
 
 import com.haulmont.cuba.core.app.serialization.EntitySerializationAPI
+import com.haulmont.cuba.core.app.serialization.EntitySerializationOption
 import com.haulmont.cuba.core.global.AppBeans
 import com.haulmont.cuba.testmodel.entity_serialization.Serialization_Order
 import com.haulmont.cuba.testmodel.entity_serialization.Serialization_OrderItem
@@ -59,4 +60,38 @@ class EntityJsonSerializationTest extends Specification {
         item2.relatedItem.order.id == parsedObject.id
         item2.relatedItem.order.name == null //order name should NOT exist, it is a cyclic reference
     }
+
+    def "writing entities to a writer produces the same JSON as serializing them to a string"() {
+        def order = cont.metadata().create(Serialization_Order.class)
+        order.setNumber('order-1')
+
+        def orderItem1 = cont.metadata().create(Serialization_OrderItem.class)
+        orderItem1.name = 'item-1'
+        orderItem1.order = order
+
+        def orderItem2 = cont.metadata().create(Serialization_OrderItem.class)
+        orderItem2.order = order
+        orderItem2.relatedItem = orderItem1
+
+        order.items = [orderItem1, orderItem2]
+
+        def entities = [order, orderItem1, orderItem2]
+
+        when:
+
+        def writer = new StringWriter()
+        entitySerializationAPI.toJson(entities, null, writer, options as EntitySerializationOption[])
+
+        then:
+
+        writer.toString() == entitySerializationAPI.toJson(entities, null, options as EntitySerializationOption[])
+
+        where:
+
+        options << [
+                [],
+                [EntitySerializationOption.SERIALIZE_NULLS, EntitySerializationOption.SERIALIZE_INSTANCE_NAME],
+                [EntitySerializationOption.PRETTY_PRINT, EntitySerializationOption.COMPACT_REPEATED_ENTITIES]
+        ]
+    }
 }
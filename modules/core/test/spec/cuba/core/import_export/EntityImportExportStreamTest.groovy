@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package spec.cuba.core.import_export
+
+import com.haulmont.cuba.core.app.importexport.EntityImportException
+import com.haulmont.cuba.core.app.importexport.EntityImportExportAPI
+import com.haulmont.cuba.core.app.importexport.EntityImportProgress
+import com.haulmont.cuba.core.app.importexport.EntityImportView
+import com.haulmont.cuba.core.app.importexport.ReferenceImportBehaviour
+import com.haulmont.cuba.core.global.AppBeans
+import com.haulmont.cuba.core.global.DataManager
+import com.haulmont.cuba.core.global.LoadContext
+import com.haulmont.cuba.core.global.View
+import com.haulmont.cuba.core.sys.AppContext
+import com.haulmont.cuba.security.entity.Group
+import com.haulmont.cuba.testsupport.TestContainer
+import org.junit.ClassRule
+import spock.lang.Shared
+import spock.lang.Specification
+
+class EntityImportExportStreamTest extends Specification {
+
+    @Shared @ClassRule
+    public TestContainer cont = TestContainer.Common.INSTANCE
+
+    private EntityImportExportAPI entityImportExport
+    private DataManager dataManager
+    private List<Group> groups
+    private EntityImportView importView
+
+    void setup() {
+        entityImportExport = AppBeans.get(EntityImportExportAPI)
+        dataManager = AppBeans.get(DataManager)
+        AppContext.setProperty('cuba.entityImportChunkSize', '2')
+
+        def rootGroup = dataManager.load(LoadContext.create(Group)
+                .setId(UUID.fromString('0fa2b1a5-1d68-4d69-9fbd-dff348347f93')))
+        groups = (1..5).collect {
+            def group = cont.metadata().create(Group)
+            group.name = "streamImportGroup-$it"
+            group.parent = rootGroup
+            group
+        }
+        importView = new EntityImportView(Group)
+                .addLocalProperties()
+                .addManyToOneProperty('parent', ReferenceImportBehaviour.ERROR_ON_MISSING)
+    }
+
+    void cleanup() {
+        AppContext.setProperty('cuba.entityImportChunkSize', null)
+        groups.each {
+            cont.deleteRecord('SEC_GROUP_HIERARCHY', 'GROUP_ID', it.id)
+            cont.deleteRecord(it)
+        }
+    }
+
+    def "entities exported to a stream are imported by chunks"() {
+        def out = new ByteArrayOutputStream()
+        entityImportExport.exportEntitiesToZIP(groups, out)
+        def progressList = []
+
+        when:
+
+        def progress = entityImportExport.importEntitiesFromZIP(new ByteArrayInputStream(out.toByteArray()),
+                importView, 0, { EntityImportProgress p -> progressList.add(p) })
+
+        then:
+
+        progress.position == 5
+        progress.importedCount == 5
+        progress.chunkCount == 3
+        progressList*.position == [2, 4, 5]
+
+        groups.every {
+            def group = dataManager.load(LoadContext.create(Group).setId(it.id).setView(new View(Group)
+                    .addProperty('name')
+                    .addProperty('parent', new View(Group).addProperty('name'))))
+            group != null && group.name == it.name && group.parent.id == it.parent.id
+        }
+    }
+
+    def "import is resumed from a checkpoint"() {
+        def out = new ByteArrayOutputStream()
+        entityImportExport.exportEntitiesToJSON(groups, out)
+
+        when:
+
+        def progress = entityImportExport.importEntitiesFromJson(new ByteArrayInputStream(out.toByteArray()),
+                importView, 3, null)
+
+        then:
+
+        progress.position == 5
+        progress.importedCount == 2
+        dataManager.load(LoadContext.create(Group).setId(groups[2].id)) == null
+        dataManager.load(LoadContext.create(Group).setId(groups[3].id)) != null
+        dataManager.load(LoadContext.create(Group).setId(groups[4].id)) != null
+    }
+
+    def "compact references to entities of previous chunks are imported"() {
+        // the parent is written in full only in the first element
+        def json = entityImportExport.exportEntitiesToJSON(groups)
+
+        when:
+
+        def progress = entityImportExport.importEntitiesFromJson(
+                new ByteArrayInputStream(json.getBytes('UTF-8')), importView, 0, null)
+
+        then:
+
+        progress.importedCount == 5
+        groups.every { dataManager.load(LoadContext.create(Group).setId(it.id)) != null }
+    }
+
+    def "compact entities repeated from previous chunks are rejected"() {
+        def json = entityImportExport.exportEntitiesToJSON([groups[0], groups[1], groups[0]])
+
+        when:
+
+        entityImportExport.importEntitiesFromJson(new ByteArrayInputStream(json.getBytes('UTF-8')), importView, 0, null)
+
+        then:
+
+        thrown(EntityImportException)
+        dataManager.load(LoadContext.create(Group).setId(groups[0].id)).name == groups[0].name
+    }
+}
@@ -98,4 +98,25 @@ class QueryResultsManagerTest extends Specification {
         userSessions.remove(session1)
         userSessions.remove(session2)
     }
+
+    def "test insert and deleteForCurrentSession"() {
+        def ids = (0..<150).collect { UUID.randomUUID() }
+
+        when:
+
+        queryResultsManager.insert(1, ids)
+
+        then:
+
+        def list = persistence.callInTransaction { em -> em.createQuery('select e.entityId from sys$QueryResult e').resultList }
+        list.toSet() == ids.toSet()
+
+        when:
+
+        queryResultsManager.deleteForCurrentSession()
+
+        then:
+
+        persistence.callInTransaction { em -> em.createQuery('select e from sys$QueryResult e').resultList }.isEmpty()
+    }
 }
@@ -2,7 +2,10 @@ package spec.cuba.core.query_sort
 
 import com.haulmont.cuba.core.app.RdbmsQueryBuilder
 import com.haulmont.cuba.core.global.AppBeans
+import com.haulmont.cuba.core.global.DataManager
+import com.haulmont.cuba.core.global.LoadContext
 import com.haulmont.cuba.core.global.Sort
+import com.haulmont.cuba.security.entity.User
 import com.haulmont.cuba.testsupport.TestContainer
 import org.junit.ClassRule
 import spock.lang.Shared
@@ -137,4 +140,176 @@ class QuerySortTest extends Specification {
 
         queryBuilder.getQueryString() == 'select e from sys$EntitySnapshot e left join e.author e_author order by e.snapshotDate desc, e_author.login desc, e_author.name desc'
     }
+
+    def "keyset pagination"() {
+
+        RdbmsQueryBuilder queryBuilder
+
+        when: "first page"
+
+        queryBuilder = AppBeans.get(RdbmsQueryBuilder)
+        queryBuilder.init('select u from sec$User u', null,
+                Sort.by('login'), [:], null, null, 'sec$User')
+        queryBuilder.restrictByKeyset(null, null, null)
+
+        then:
+
+        queryBuilder.getQueryString() == 'select u from sec$User u order by u.login, u.id'
+
+        when: "next page after a loaded row"
+
+        def last = new User(login: 'b')
+        queryBuilder = AppBeans.get(RdbmsQueryBuilder)
+        queryBuilder.init('select u from sec$User u', null,
+                Sort.by(Sort.Direction.DESC, 'login'), [:], null, null, 'sec$User')
+        queryBuilder.restrictByKeyset(last.id, last, null)
+        def queryString = queryBuilder.getQueryString()
+
+        then: "values are bound as parameters, nulls follow the non-null values in the descending order"
+
+        queryString.contains('((u.login < :_ks_0 or u.login is null)) or (u.login = :_ks_0 and u.id < :_ks_1)')
+        !queryString.contains('select _ks')
+        queryString.endsWith('order by u.login desc, u.id desc')
+        queryBuilder.queryParams['_ks_0'] == 'b'
+        queryBuilder.queryParams['_ks_1'] == last.id
+    }
+
+    def "keyset pagination after a row with null value"() {
+
+        RdbmsQueryBuilder queryBuilder
+
+        when:
+
+        def last = new User(login: 'b')
+        queryBuilder = AppBeans.get(RdbmsQueryBuilder)
+        queryBuilder.init('select u from sec$User u', null,
+                Sort.by('name'), [:], null, null, 'sec$User')
+        queryBuilder.restrictByKeyset(last.id, last, null)
+        def queryString = queryBuilder.getQueryString()
+
+        then: "nulls precede the non-null values in the ascending order"
+
+        queryString.contains('(u.name is not null) or (u.name is null and u.id > :_ks_1)')
+        !queryBuilder.queryParams.containsKey('_ks_0')
+        queryBuilder.queryParams['_ks_1'] == last.id
+    }
+
+    def "keyset pagination by reference property"() {
+
+        RdbmsQueryBuilder queryBuilder
+
+        when: "only the id of the last row is known"
+
+        def afterId = UUID.fromString('60885987-1b61-4247-94c7-dff348347f93')
+        queryBuilder = AppBeans.get(RdbmsQueryBuilder)
+        queryBuilder.init('select u from sec$User u', null,
+                Sort.by('group.name'), [:], null, null, 'sec$User')
+        cont.persistence().runInTransaction({ em -> queryBuilder.restrictByKeyset(afterId, null, em) })
+        def queryString = queryBuilder.getQueryString()
+
+        then: "the values are selected before and the predicate uses the left join of the order by"
+
+        queryString.startsWith('select u from sec$User u left join u.group u_group')
+        queryString.count('left join u.group') == 1
+        queryString.contains('u_group.name >= :_ks_0')
+        queryString.contains('(u_group.name > :_ks_0) or (u_group.name = :_ks_0 and u.id > :_ks_1)')
+        !queryString.contains('u.group.name')
+        !queryString.contains('select _ks')
+        queryString.endsWith('order by u_group.name, u.id')
+        queryBuilder.queryParams['_ks_0'] == 'Company'
+        queryBuilder.queryParams['_ks_1'] == afterId
+    }
+
+    def "keyset pagination after a missing row"() {
+
+        RdbmsQueryBuilder queryBuilder
+
+        when:
+
+        queryBuilder = AppBeans.get(RdbmsQueryBuilder)
+        queryBuilder.init('select u from sec$User u', null,
+                Sort.by('login'), [:], null, null, 'sec$User')
+        cont.persistence().runInTransaction({ em -> queryBuilder.restrictByKeyset(UUID.randomUUID(), null, em) })
+
+        then:
+
+        thrown(IllegalStateException)
+    }
+
+    def "keyset pagination keeps the order of the query"() {
+
+        RdbmsQueryBuilder queryBuilder
+
+        when: "first page"
+
+        queryBuilder = AppBeans.get(RdbmsQueryBuilder)
+        queryBuilder.init('select u from sec$User u order by u.name', null,
+                null, [:], null, null, 'sec$User')
+        queryBuilder.restrictByKeyset(null, null, null)
+
+        then:
+
+        queryBuilder.getQueryString() == 'select u from sec$User u order by u.name'
+
+        when: "next page"
+
+        queryBuilder = AppBeans.get(RdbmsQueryBuilder)
+        queryBuilder.init('select u from sec$User u order by u.name', null,
+                null, [:], null, null, 'sec$User')
+        queryBuilder.restrictByKeyset(UUID.randomUUID(), null, null)
+
+        then:
+
+        thrown(IllegalStateException)
+    }
+
+    def "load pages by keyset"() {
+
+        DataManager dataManager = AppBeans.get(DataManager)
+
+        def allUsers = dataManager.load(User).query('select u from sec$User u order by u.login, u.id').list()
+
+        when:
+
+        def loaded = []
+        def query = LoadContext.createQuery('select u from sec$User u')
+                .setSort(Sort.by('login'))
+                .setKeysetPagination(true)
+                .setMaxResults(1)
+        def page = dataManager.loadList(LoadContext.create(User).setQuery(query))
+        while (!page.isEmpty()) {
+            loaded.addAll(page)
+            query.setAfter(page.last())
+            page = dataManager.loadList(LoadContext.create(User).setQuery(query))
+        }
+
+        then:
+
+        loaded == allUsers
+    }
+
+    def "load pages by keyset with null values"() {
+
+        DataManager dataManager = AppBeans.get(DataManager)
+
+        def allUsers = dataManager.load(User).query('select u from sec$User u order by u.email, u.id').list()
+
+        when:
+
+        def loaded = []
+        def query = LoadContext.createQuery('select u from sec$User u')
+                .setSort(Sort.by('email'))
+                .setKeysetPagination(true)
+                .setMaxResults(1)
+        def page = dataManager.loadList(LoadContext.create(User).setQuery(query))
+        while (!page.isEmpty()) {
+            loaded.addAll(page)
+            query.setAfter(page.last())
+            page = dataManager.loadList(LoadContext.create(User).setQuery(query))
+        }
+
+        then:
+
+        loaded == allUsers
+    }
 }
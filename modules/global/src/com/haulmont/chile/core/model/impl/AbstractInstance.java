@@ -108,13 +108,7 @@ public abstract class AbstractInstance implements Instance {
     }
 
     protected MethodsCache getMethodsCache() {
-        Class cls = getClass();
-        MethodsCache cache = methodCacheMap.get(cls);
-        if (cache == null) {
-            cache = new MethodsCache(cls);
-            methodCacheMap.put(cls, cache);
-        }
-        return cache;
+        return methodCacheMap.computeIfAbsent(getClass(), MethodsCache::new);
     }
 
     @Override
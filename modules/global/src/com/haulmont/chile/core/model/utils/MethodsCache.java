@@ -16,62 +16,173 @@
  */
 package com.haulmont.chile.core.model.utils;
 
+import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Method;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
-import java.util.Map;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
+/**
+ * Getters and setters of a class by property name.
+ * <p>
+ * Accessors are generated by {@link LambdaMetafactory}, so a property is read or written by a direct method call.
+ * Reflection is used if the class or a method is not accessible for generated classes, e.g. it is loaded
+ * by a child class loader.
+ * <p>
+ * In both cases an exception thrown by an accessor is rethrown as a {@code RuntimeException} caused by
+ * {@link InvocationTargetException}. Invalid arguments, e.g. a value of another type, are passed to the reflective
+ * call, so they are reported by the same exceptions as before.
+ */
 public class MethodsCache {
 
-    private final transient Map<String, Method> getters = new HashMap<>();
-    private final transient Map<String, Method> setters = new HashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(MethodsCache.class);
+
+    private final transient Map<String, Function> getters = new HashMap<>();
+    private final transient Map<String, BiConsumer> setters = new HashMap<>();
 
     public MethodsCache(Class clazz) {
+        MethodHandles.Lookup lookup = isAccessorGenerationSupported(clazz) ? MethodHandles.lookup() : null;
         final Method[] methods = clazz.getMethods();
         for (Method method : methods) {
             String name = method.getName();
             if (name.startsWith("get") && method.getParameterTypes().length == 0) {
                 name = StringUtils.uncapitalize(name.substring(3));
                 method.setAccessible(true);
-                getters.put(name, method);
+                getters.put(name, createGetter(lookup, clazz, method));
             }
             if (name.startsWith("is") && method.getParameterTypes().length == 0) {
                 name = StringUtils.uncapitalize(name.substring(2));
                 method.setAccessible(true);
-                getters.put(name, method);
+                getters.put(name, createGetter(lookup, clazz, method));
             } else if (name.startsWith("set") && method.getParameterTypes().length == 1) {
                 name = StringUtils.uncapitalize(name.substring(3));
                 method.setAccessible(true);
-                setters.put(name, method);
+                setters.put(name, createSetter(lookup, clazz, method));
             }
         }
     }
 
+    @SuppressWarnings("unchecked")
     public void invokeSetter(Object object, String property, Object value) {
-        final Method method = setters.get(property);
-        if (method == null) {
+        final BiConsumer setter = setters.get(property);
+        if (setter == null) {
             throw new IllegalArgumentException(
                     String.format("Can't find setter for property '%s' at %s", property, object.getClass()));
         }
-        try {
-            method.invoke(object, value);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            throw new RuntimeException(e);
-        }
+        setter.accept(object, value);
     }
 
+    @SuppressWarnings("unchecked")
     public Object invokeGetter(Object object, String property) {
-        final Method method = getters.get(property);
-        if (method == null) {
+        final Function getter = getters.get(property);
+        if (getter == null) {
             throw new IllegalArgumentException(
                     String.format("Can't find getter for property '%s' at %s", property, object.getClass()));
         }
+        return getter.apply(object);
+    }
+
+    protected boolean isAccessorGenerationSupported(Class clazz) {
+        if (!Modifier.isPublic(clazz.getModifiers()))
+            return false;
+        // generated classes resolve the target class through the class loader of this class
         try {
-            return method.invoke(object);
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-            throw new RuntimeException(e);
+            return Class.forName(clazz.getName(), false, MethodsCache.class.getClassLoader()) == clazz;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    protected Function createGetter(MethodHandles.Lookup lookup, Class clazz, Method method) {
+        Function reflectiveGetter = createReflectiveGetter(method);
+        if (lookup != null && Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            try {
+                MethodHandle handle = lookup.unreflect(method);
+                CallSite callSite = LambdaMetafactory.metafactory(lookup, "apply",
+                        MethodType.methodType(Function.class),
+                        MethodType.methodType(Object.class, Object.class),
+                        handle,
+                        MethodType.methodType(ClassUtils.primitiveToWrapper(method.getReturnType()), clazz));
+                Function getter = (Function) callSite.getTarget().invoke();
+                return object -> {
+                    if (!clazz.isInstance(object)) {
+                        return reflectiveGetter.apply(object);
+                    }
+                    try {
+                        return getter.apply(object);
+                    } catch (Throwable e) {
+                        throw new RuntimeException(new InvocationTargetException(e));
+                    }
+                };
+            } catch (Throwable e) {
+                log.trace("Unable to generate getter {}, using reflection: {}", method, e.toString());
+            }
+        }
+        return reflectiveGetter;
+    }
+
+    protected Function createReflectiveGetter(Method method) {
+        return object -> {
+            try {
+                return method.invoke(object);
+            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    protected BiConsumer createSetter(MethodHandles.Lookup lookup, Class clazz, Method method) {
+        BiConsumer reflectiveSetter = createReflectiveSetter(method);
+        if (lookup != null && Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            try {
+                Class<?> parameterType = method.getParameterTypes()[0];
+                Class<?> valueType = ClassUtils.primitiveToWrapper(parameterType);
+                MethodHandle handle = lookup.unreflect(method);
+                CallSite callSite = LambdaMetafactory.metafactory(lookup, "accept",
+                        MethodType.methodType(BiConsumer.class),
+                        MethodType.methodType(void.class, Object.class, Object.class),
+                        handle,
+                        MethodType.methodType(void.class, clazz, valueType));
+                BiConsumer setter = (BiConsumer) callSite.getTarget().invoke();
+                return (object, value) -> {
+                    if (!clazz.isInstance(object)
+                            || (value == null ? parameterType.isPrimitive() : !valueType.isInstance(value))) {
+                        // reflection converts a value by widening or reports an invalid argument
+                        reflectiveSetter.accept(object, value);
+                        return;
+                    }
+                    try {
+                        setter.accept(object, value);
+                    } catch (Throwable e) {
+                        throw new RuntimeException(new InvocationTargetException(e));
+                    }
+                };
+            } catch (Throwable e) {
+                log.trace("Unable to generate setter {}, using reflection: {}", method, e.toString());
+            }
         }
+        return reflectiveSetter;
+    }
+
+    protected BiConsumer createReflectiveSetter(Method method) {
+        return (object, value) -> {
+            try {
+                method.invoke(object, value);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        };
     }
-}
\ No newline at end of file
+}
@@ -22,6 +22,8 @@ import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.haulmont.chile.core.datatypes.Datatype;
 import com.haulmont.chile.core.datatypes.Datatypes;
 import com.haulmont.chile.core.model.MetaClass;
@@ -42,12 +44,14 @@ import org.springframework.stereotype.Component;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.text.ParseException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.haulmont.cuba.core.entity.BaseEntityInternalAccess.*;
 
@@ -71,6 +75,8 @@ public class EntitySerialization implements EntitySerializationAPI {
     protected ThreadLocal<EntitySerializationContext> context =
             ThreadLocal.withInitial(EntitySerializationContext::new);
 
+    protected Map<Set<EntitySerializationOption>, Gson> serializationGsonCache = new ConcurrentHashMap<>();
+
     /**
      * Class is used for storing a collection of entities already processed during the serialization.
      */
@@ -92,7 +98,7 @@ public class EntitySerialization implements EntitySerializationAPI {
                          @Nullable View view,
                          EntitySerializationOption... options) {
         context.remove();
-        return createGsonForSerialization(view, options).toJson(entity);
+        return getGsonForSerialization(view, options).toJson(entity);
     }
 
     @Override
@@ -105,13 +111,36 @@ public class EntitySerialization implements EntitySerializationAPI {
                          @Nullable View view,
                          EntitySerializationOption... options) {
         context.remove();
-        return createGsonForSerialization(view, options).toJson(entities);
+        return getGsonForSerialization(view, options).toJson(entities);
+    }
+
+    @Override
+    public void toJson(Iterable<? extends Entity> entities,
+                       @Nullable View view,
+                       Writer writer,
+                       EntitySerializationOption... options) throws IOException {
+        context.remove();
+        try {
+            Gson gson = getGsonForSerialization(view, options);
+            TypeAdapter<Entity> adapter = gson.getAdapter(Entity.class);
+            JsonWriter jsonWriter = gson.newJsonWriter(writer);
+            // the same as Gson.toJson() does
+            jsonWriter.setLenient(true);
+            jsonWriter.beginArray();
+            for (Entity entity : entities) {
+                adapter.write(jsonWriter, entity);
+            }
+            jsonWriter.endArray();
+            jsonWriter.flush();
+        } finally {
+            context.remove();
+        }
     }
 
     @Override
     public String objectToJson(Object object, EntitySerializationOption... options) {
         context.remove();
-        return createGsonForSerialization(null, options).toJson(object);
+        return getGsonForSerialization(null, options).toJson(object);
     }
 
     @SuppressWarnings("unchecked")
@@ -139,6 +168,22 @@ public class EntitySerialization implements EntitySerializationAPI {
         return createGsonForDeserialization(null, options).fromJson(json, clazz);
     }
 
+    /**
+     * Returns Gson for serialization. Instances without a view are cached by the set of options.
+     */
+    protected Gson getGsonForSerialization(@Nullable View view, EntitySerializationOption... options) {
+        if (view != null) {
+            return createGsonForSerialization(view, options);
+        }
+        Set<EntitySerializationOption> key = options == null || options.length == 0 ?
+                EnumSet.noneOf(EntitySerializationOption.class) : EnumSet.copyOf(Arrays.asList(options));
+        Gson gson = serializationGsonCache.get(key);
+        if (gson == null) {
+            gson = serializationGsonCache.computeIfAbsent(key, k -> createGsonForSerialization(null, options));
+        }
+        return gson;
+    }
+
     protected Gson createGsonForSerialization(@Nullable View view, EntitySerializationOption... options) {
         GsonBuilder gsonBuilder = new GsonBuilder();
         if (ArrayUtils.contains(options, EntitySerializationOption.PRETTY_PRINT)) {
@@ -179,12 +224,18 @@ public class EntitySerialization implements EntitySerializationAPI {
         }
     }
 
-    protected class EntitySerializer implements JsonSerializer<Entity> {
+    /**
+     * Writes entities directly to a {@link JsonWriter}. Lists of properties to write are computed once for each
+     * combination of entity class and view.
+     */
+    protected class EntitySerializer extends TypeAdapter<Entity> {
 
         protected boolean compactRepeatedEntities = false;
         protected boolean serializeInstanceName;
         protected View view;
 
+        protected Map<PropertiesKey, List<PropertyToWrite>> propertiesCache = new ConcurrentHashMap<>();
+
         public EntitySerializer(@Nullable View view, EntitySerializationOption... options) {
             this.view = view;
             if (options != null) {
@@ -198,15 +249,28 @@ public class EntitySerialization implements EntitySerializationAPI {
         }
 
         @Override
-        public JsonElement serialize(Entity entity, Type typeOfSrc, JsonSerializationContext context) {
-            return serializeEntity(entity, view, new HashSet<>());
+        public void write(JsonWriter out, Entity entity) throws IOException {
+            if (entity == null) {
+                out.nullValue();
+                return;
+            }
+            serializeEntity(out, entity, view, new HashSet<>());
+        }
+
+        @Override
+        public Entity read(JsonReader in) {
+            throw new UnsupportedOperationException("Use EntityDeserializer to read entities");
         }
 
-        protected JsonObject serializeEntity(Entity entity, @Nullable View view, Set<Entity> cyclicReferences) {
-            JsonObject jsonObject = new JsonObject();
+        /**
+         * @param cyclicReferences entities being written on the path from the root, used to stop on cycles
+         */
+        protected void serializeEntity(JsonWriter out, Entity entity, @Nullable View view,
+                                       Set<Entity> cyclicReferences) throws IOException {
+            out.beginObject();
             MetaClass metaClass = entity.getMetaClass();
             if (!metadataTools.isEmbeddable(metaClass)) {
-                jsonObject.addProperty(ENTITY_NAME_PROP, metaClass.getName());
+                out.name(ENTITY_NAME_PROP).value(metaClass.getName());
                 if (serializeInstanceName) {
                     String instanceName = null;
                     try {
@@ -214,23 +278,23 @@ public class EntitySerialization implements EntitySerializationAPI {
                     } catch (Exception ignored) {
                         // todo trace logging
                     }
-                    jsonObject.addProperty(INSTANCE_NAME_PROP, instanceName);
+                    out.name(INSTANCE_NAME_PROP).value(instanceName);
                 }
-                writeIdField(entity, jsonObject);
+                writeIdField(out, entity);
                 if (compactRepeatedEntities) {
                     Table<Object, MetaClass, Entity> processedObjects = context.get().getProcessedEntities();
                     if (processedObjects.get(entity.getId(), metaClass) == null) {
                         processedObjects.put(entity.getId(), metaClass, entity);
-                        writeFields(entity, jsonObject, view, cyclicReferences);
+                        writeFields(out, entity, view, cyclicReferences);
                     }
                 } else {
-                    if (!cyclicReferences.contains(entity)) {
-                        cyclicReferences.add(entity);
-                        writeFields(entity, jsonObject, view, cyclicReferences);
+                    if (cyclicReferences.add(entity)) {
+                        writeFields(out, entity, view, cyclicReferences);
+                        cyclicReferences.remove(entity);
                     }
                 }
             } else {
-                writeFields(entity, jsonObject, view, cyclicReferences);
+                writeFields(out, entity, view, cyclicReferences);
             }
 
             if (globalConfig.getRestRequiresSecurityToken()) {
@@ -239,16 +303,15 @@ public class EntitySerialization implements EntitySerializationAPI {
                     if (securityState != null) {
                         byte[] securityToken = getSecurityToken(securityState);
                         if (securityToken != null) {
-                            jsonObject.addProperty("__securityToken", Base64.getEncoder().encodeToString(securityToken));
+                            out.name("__securityToken").value(Base64.getEncoder().encodeToString(securityToken));
                         }
                     }
                 }
             }
-
-            return jsonObject;
+            out.endObject();
         }
 
-        protected void writeIdField(Entity entity, JsonObject jsonObject) {
+        protected void writeIdField(JsonWriter out, Entity entity) throws IOException {
             MetaProperty primaryKeyProperty = metadataTools.getPrimaryKeyProperty(entity.getMetaClass());
             if (primaryKeyProperty == null) {
                 primaryKeyProperty = entity.getMetaClass().getProperty("id");
@@ -256,11 +319,11 @@ public class EntitySerialization implements EntitySerializationAPI {
             if (primaryKeyProperty == null)
                 throw new EntitySerializationException("Primary key property not found for entity " + entity.getMetaClass());
             if (metadataTools.hasCompositePrimaryKey(entity.getMetaClass())) {
-                JsonObject serializedIdEntity = serializeEntity((Entity) entity.getId(), null, Collections.emptySet());
-                jsonObject.add("id", serializedIdEntity);
+                out.name("id");
+                serializeEntity(out, (Entity) entity.getId(), null, new HashSet<>());
             } else {
                 Datatype idDatatype = Datatypes.getNN(primaryKeyProperty.getJavaType());
-                jsonObject.addProperty("id", idDatatype.format(entity.getId()));
+                out.name("id").value(idDatatype.format(entity.getId()));
             }
         }
 
@@ -272,102 +335,161 @@ public class EntitySerialization implements EntitySerializationAPI {
                             (metadataTools.isPersistent(metaProperty) && PersistenceHelper.isLoaded(entity, metaProperty.getName())));
         }
 
-        protected void writeFields(Entity entity, JsonObject jsonObject, @Nullable View view, Set<Entity> cyclicReferences) {
-            Collection<MetaProperty> properties = new ArrayList<>(entity.getMetaClass().getProperties());
-            if (entity instanceof BaseGenericIdEntity && ((BaseGenericIdEntity) entity).getDynamicAttributes() != null) {
-                List<MetaProperty> dynamicProperties = dynamicAttributes.getAttributesForMetaClass(entity.getMetaClass()).stream()
-                        .map(categoryAttribute -> DynamicAttributesUtils.getMetaPropertyPath(entity.getMetaClass(), categoryAttribute).getMetaProperty())
-                        .collect(Collectors.toList());
-                properties.addAll(dynamicProperties);
-            }
-            for (MetaProperty metaProperty : properties) {
-                if (propertyWritingAllowed(metaProperty, entity)) {
+        /**
+         * @return properties of the entity class that can be written according to the view
+         */
+        protected List<PropertyToWrite> getPropertiesToWrite(MetaClass metaClass, @Nullable View view) {
+            PropertiesKey key = new PropertiesKey(metaClass, view);
+            List<PropertyToWrite> properties = propertiesCache.get(key);
+            if (properties == null) {
+                properties = new ArrayList<>();
+                for (MetaProperty metaProperty : metaClass.getProperties()) {
+                    if ("id".equals(metaProperty.getName()))
+                        continue;
                     ViewProperty viewProperty = null;
-                    if (!DynamicAttributesUtils.isDynamicAttribute(metaProperty)) {
-                        if (view != null) {
-                            viewProperty = view.getProperty(metaProperty.getName());
-                            if (viewProperty == null) continue;
-                        }
-
-                        if (!PersistenceHelper.isNew(entity)
-                                && !PersistenceHelper.isLoaded(entity, metaProperty.getName())) {
+                    if (view != null) {
+                        viewProperty = view.getProperty(metaProperty.getName());
+                        if (viewProperty == null)
                             continue;
-                        }
                     }
+                    properties.add(new PropertyToWrite(metaProperty, viewProperty));
+                }
+                propertiesCache.put(key, properties);
+            }
+            return properties;
+        }
 
-                    Object fieldValue = entity.getValue(metaProperty.getName());
-
-                    //always write nulls here. GSON will not serialize them to the result if
-                    //EntitySerializationOptions.SERIALIZE_NULLS was not set.
-                    if (fieldValue == null) {
-                        jsonObject.add(metaProperty.getName(), null);
+        protected void writeFields(JsonWriter out, Entity entity, @Nullable View view,
+                                   Set<Entity> cyclicReferences) throws IOException {
+            for (PropertyToWrite property : getPropertiesToWrite(entity.getMetaClass(), view)) {
+                MetaProperty metaProperty = property.metaProperty;
+                if (propertyWritingAllowed(metaProperty, entity)) {
+                    if (!PersistenceHelper.isNew(entity)
+                            && !PersistenceHelper.isLoaded(entity, metaProperty.getName())) {
                         continue;
                     }
-
-                    Range propertyRange = metaProperty.getRange();
-                    if (propertyRange.isDatatype()) {
-                        if (isCollectionDynamicAttribute(metaProperty) && fieldValue instanceof Collection) {
-                            jsonObject.add(metaProperty.getName() ,
-                                    serializeSimpleCollection((Collection) fieldValue, metaProperty));
-                        } else {
-                            writeSimpleProperty(jsonObject, fieldValue, metaProperty);
-                        }
-                    } else if (propertyRange.isEnum()) {
-                        jsonObject.addProperty(metaProperty.getName(), fieldValue.toString());
-                    } else if (propertyRange.isClass()) {
-                        if (fieldValue instanceof Entity) {
-                            JsonObject propertyJsonObject = serializeEntity((Entity) fieldValue,
-                                    viewProperty != null ? viewProperty.getView() : null,
-                                    new HashSet<>(cyclicReferences));
-                            jsonObject.add(metaProperty.getName(), propertyJsonObject);
-                        } else if (fieldValue instanceof Collection) {
-                            JsonArray jsonArray = serializeCollection((Collection) fieldValue,
-                                    viewProperty != null ? viewProperty.getView() : null,
-                                    new HashSet<>(cyclicReferences));
-                            jsonObject.add(metaProperty.getName(), jsonArray);
-                        }
+                    writeProperty(out, entity, metaProperty, property.viewProperty, cyclicReferences);
+                }
+            }
+            if (entity instanceof BaseGenericIdEntity && ((BaseGenericIdEntity) entity).getDynamicAttributes() != null) {
+                for (CategoryAttribute categoryAttribute : dynamicAttributes.getAttributesForMetaClass(entity.getMetaClass())) {
+                    MetaProperty metaProperty = DynamicAttributesUtils.getMetaPropertyPath(entity.getMetaClass(), categoryAttribute)
+                            .getMetaProperty();
+                    if (propertyWritingAllowed(metaProperty, entity)) {
+                        writeProperty(out, entity, metaProperty, null, cyclicReferences);
                     }
                 }
             }
         }
 
-        protected void writeSimpleProperty(JsonObject jsonObject, @NotNull Object fieldValue, MetaProperty property) {
-            String propertyName = property.getName();
+        protected void writeProperty(JsonWriter out, Entity entity, MetaProperty metaProperty,
+                                     @Nullable ViewProperty viewProperty, Set<Entity> cyclicReferences) throws IOException {
+            Object fieldValue = entity.getValue(metaProperty.getName());
+
+            //always write nulls here. JsonWriter will skip them if
+            //EntitySerializationOptions.SERIALIZE_NULLS was not set.
+            if (fieldValue == null) {
+                out.name(metaProperty.getName()).nullValue();
+                return;
+            }
+
+            Range propertyRange = metaProperty.getRange();
+            if (propertyRange.isDatatype()) {
+                if (isCollectionDynamicAttribute(metaProperty) && fieldValue instanceof Collection) {
+                    out.name(metaProperty.getName());
+                    serializeSimpleCollection(out, (Collection) fieldValue, metaProperty);
+                } else {
+                    writeSimpleProperty(out, fieldValue, metaProperty);
+                }
+            } else if (propertyRange.isEnum()) {
+                out.name(metaProperty.getName()).value(fieldValue.toString());
+            } else if (propertyRange.isClass()) {
+                if (fieldValue instanceof Entity) {
+                    out.name(metaProperty.getName());
+                    serializeEntity(out, (Entity) fieldValue,
+                            viewProperty != null ? viewProperty.getView() : null,
+                            cyclicReferences);
+                } else if (fieldValue instanceof Collection) {
+                    out.name(metaProperty.getName());
+                    serializeCollection(out, (Collection) fieldValue,
+                            viewProperty != null ? viewProperty.getView() : null,
+                            cyclicReferences);
+                }
+            }
+        }
+
+        protected void writeSimpleProperty(JsonWriter out, @NotNull Object fieldValue, MetaProperty property) throws IOException {
+            out.name(property.getName());
             if (fieldValue instanceof Number) {
-                jsonObject.addProperty(propertyName, (Number) fieldValue);
+                out.value((Number) fieldValue);
             } else if (fieldValue instanceof Boolean) {
-                jsonObject.addProperty(propertyName, (Boolean) fieldValue);
+                out.value((Boolean) fieldValue);
             } else {
                 Datatype datatype = property.getRange().asDatatype();
-                jsonObject.addProperty(propertyName, datatype.format(fieldValue));
+                out.value(datatype.format(fieldValue));
             }
         }
 
-        protected JsonArray serializeCollection(Collection value, @Nullable View view, Set<Entity> cyclicReferences) {
-            JsonArray jsonArray = new JsonArray();
-            value.stream()
-                    .filter(e -> e instanceof Entity)
-                    .forEach(e -> {
-                        JsonObject jsonObject = serializeEntity((Entity) e, view, new HashSet<>(cyclicReferences));
-                        jsonArray.add(jsonObject);
-                    });
-            return jsonArray;
-        }
-
-        protected JsonArray serializeSimpleCollection(Collection fieldValue, MetaProperty property) {
-            JsonArray jsonArray = new JsonArray();
-            fieldValue.stream()
-                    .forEach(item -> {
-                        if (item instanceof Number) {
-                            jsonArray.add((Number) item);
-                        } else if (item instanceof Boolean) {
-                            jsonArray.add((Boolean) item);
-                        } else {
-                            Datatype datatype = property.getRange().asDatatype();
-                            jsonArray.add(datatype.format(item));
-                        }
-                    });
-            return jsonArray;
+        protected void serializeCollection(JsonWriter out, Collection value, @Nullable View view,
+                                           Set<Entity> cyclicReferences) throws IOException {
+            out.beginArray();
+            for (Object item : value) {
+                if (item instanceof Entity) {
+                    serializeEntity(out, (Entity) item, view, cyclicReferences);
+                }
+            }
+            out.endArray();
+        }
+
+        protected void serializeSimpleCollection(JsonWriter out, Collection fieldValue, MetaProperty property) throws IOException {
+            out.beginArray();
+            for (Object item : fieldValue) {
+                if (item instanceof Number) {
+                    out.value((Number) item);
+                } else if (item instanceof Boolean) {
+                    out.value((Boolean) item);
+                } else {
+                    Datatype datatype = property.getRange().asDatatype();
+                    out.value(datatype.format(item));
+                }
+            }
+            out.endArray();
+        }
+    }
+
+    protected static class PropertyToWrite {
+        protected final MetaProperty metaProperty;
+        protected final ViewProperty viewProperty;
+
+        protected PropertyToWrite(MetaProperty metaProperty, @Nullable ViewProperty viewProperty) {
+            this.metaProperty = metaProperty;
+            this.viewProperty = viewProperty;
+        }
+    }
+
+    /**
+     * Key of the properties cache. Views are compared by identity: they are not modified during serialization.
+     */
+    protected static class PropertiesKey {
+        protected final MetaClass metaClass;
+        protected final View view;
+
+        protected PropertiesKey(MetaClass metaClass, @Nullable View view) {
+            this.metaClass = metaClass;
+            this.view = view;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PropertiesKey that = (PropertiesKey) o;
+            return metaClass.equals(that.metaClass) && view == that.view;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * metaClass.hashCode() + System.identityHashCode(view);
         }
     }
 
@@ -22,6 +22,8 @@ import com.haulmont.cuba.core.entity.Entity;
 import com.haulmont.cuba.core.global.View;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
 
 /**
@@ -68,6 +70,22 @@ public interface EntitySerializationAPI {
                   @Nullable View view,
                   EntitySerializationOption... options);
 
+    /**
+     * Writes a JSON array of entities to the given writer. Method produces the same result as the {@link
+     * #toJson(Collection, View, EntitySerializationOption...)}, but does not keep the whole JSON in memory, and the
+     * entities are obtained from the iterable while writing. The writer is flushed but not closed.
+     *
+     * @param entities entities to be serialized
+     * @param view     a view that defines which entity properties should be added to the result JSON object
+     * @param writer   a writer to write the JSON array to
+     * @param options  options specifying how an entity should be serialized
+     * @throws IOException if writing to the writer fails
+     */
+    void toJson(Iterable<? extends Entity> entities,
+                @Nullable View view,
+                Writer writer,
+                EntitySerializationOption... options) throws IOException;
+
     /**
      * An overloaded version of the {@link #toJson(Entity, View, EntitySerializationOption...)} method with a null
      * {@code view} parameter and with no serialization options.
@@ -23,6 +23,8 @@ import com.haulmont.cuba.core.config.type.TypeFactory;
 
 import java.lang.reflect.Method;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.UUID;
 
 /**
  * Implementation of configuration getter methods.
@@ -38,6 +40,21 @@ public class ConfigGetter extends ConfigAccessorMethod {
 
     private TypeFactory factory;
 
+    /**
+     * The last built value of an immutable type together with the string it was built from.
+     */
+    private volatile BuiltValue builtValue;
+
+    private static class BuiltValue {
+        private final String str;
+        private final Object value;
+
+        private BuiltValue(String str, Object value) {
+            this.str = str;
+            this.value = value;
+        }
+    }
+
     /**
      * Create a new ConfigGetter instance.
      *
@@ -82,7 +99,38 @@ public class ConfigGetter extends ConfigAccessorMethod {
         if (factory == null)
             return str;
         else
-            return factory.build(str);
+            return build(str);
+    }
+
+    /**
+     * Builds the typed value. Values of immutable types are reused while the property string stays the same.
+     */
+    protected Object build(String str) {
+        BuiltValue built = builtValue;
+        if (built != null && Objects.equals(built.str, str)) {
+            return built.value;
+        }
+        Object value = factory.build(str);
+        if (isImmutable(value)) {
+            builtValue = new BuiltValue(str, value);
+        }
+        return value;
+    }
+
+    protected boolean isImmutable(Object value) {
+        return value == null
+                || value instanceof String
+                || value instanceof Boolean
+                || value instanceof Character
+                || value instanceof Integer
+                || value instanceof Long
+                || value instanceof Short
+                || value instanceof Byte
+                || value instanceof Double
+                || value instanceof Float
+                || value instanceof Enum
+                || value instanceof UUID
+                || value instanceof Class;
     }
 
     /**
@@ -16,9 +16,9 @@
 
 package com.haulmont.cuba.core.config;
 
-import org.apache.commons.collections4.map.MultiKeyMap;
-
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ConfigMethods {
     public ConfigMethods() {
@@ -51,7 +51,7 @@ public class ConfigMethods {
     /**
      * A cache of instantiated configuration method implementations.
      */
-    private static final MultiKeyMap configMethods = new MultiKeyMap();
+    private static final Map<Class<?>, Map<Method, ConfigMethod>> configMethods = new ConcurrentHashMap<>();
 
     /**
      * Get a ConfigMethod implementation appropriate for handling a
@@ -62,12 +62,14 @@ public class ConfigMethods {
      * @param method          The method.
      * @return The method implementation.
      */
-    @SuppressWarnings("unchecked")
-    public static synchronized ConfigMethod getInstance(Class<?> configInterface, Method method) {
-        ConfigMethod configMethod = (ConfigMethod) configMethods.get(configInterface, method);
+    public static ConfigMethod getInstance(Class<?> configInterface, Method method) {
+        Map<Method, ConfigMethod> interfaceMethods = configMethods.get(configInterface);
+        if (interfaceMethods == null) {
+            interfaceMethods = configMethods.computeIfAbsent(configInterface, k -> new ConcurrentHashMap<>());
+        }
+        ConfigMethod configMethod = interfaceMethods.get(method);
         if (configMethod == null) {
-            configMethod = newInstance(configInterface, method);
-            configMethods.put(configInterface, method, configMethod);
+            configMethod = interfaceMethods.computeIfAbsent(method, m -> newInstance(configInterface, m));
         }
         return configMethod;
     }
@@ -47,6 +47,9 @@ public class FileDescriptor extends StandardEntity {
     @Column(name = "CREATE_DATE")
     private Date createDate;
 
+    @Column(name = "CHECKSUM", length = 64)
+    private String checksum;
+
     /**
      * @return file uploading timestamp
      */
@@ -91,6 +94,17 @@ public class FileDescriptor extends StandardEntity {
         this.size = size;
     }
 
+    /**
+     * @return checksum of the file contents computed by the file storage when the file is saved
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
     /**
      * Used by the framework to transfer file between application tiers.
      */
@@ -24,6 +24,7 @@ import com.haulmont.cuba.core.entity.contracts.Id;
 
 import javax.annotation.Nullable;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Central interface to provide CRUD functionality. Can be used on both middle and client tiers.
@@ -59,6 +60,25 @@ public interface DataManager {
      */
     <E extends Entity> List<E> loadList(LoadContext<E> context);
 
+    /**
+     * Loads collection of entity instances lazily.
+     * <p>On the middleware, the stream is backed by a database cursor: instances are fetched, secured and detached
+     * by chunks of {@code cuba.dataManagerStreamFetchSize} size, and the transaction stays open until the stream
+     * is closed. So the stream must be consumed and closed in the calling thread, preferably in try-with-resources:
+     * <pre>
+     * try (Stream&lt;Customer&gt; stream = dataManager.stream(loadContext)) {
+     *     stream.forEach(customer -&gt; process(customer));
+     * }
+     * </pre>
+     * On the client tier, instances are loaded page by page with separate {@link #loadList(LoadContext)} calls.
+     * If the query defines neither a sort nor an order by, the pages are loaded in the order of the primary key.
+     * @param context   {@link LoadContext} object, defining what and how to load
+     * @return          a stream of detached instances
+     */
+    default <E extends Entity> Stream<E> stream(LoadContext<E> context) {
+        return PagedLoadIterator.stream(this, context, PagedLoadIterator.DEFAULT_PAGE_SIZE);
+    }
+
     /**
      * Returns the number of entity instances for the given query passed in the {@link LoadContext}.
      * @param context   defines the query
@@ -23,6 +23,7 @@ import com.haulmont.cuba.core.global.queryconditions.Condition;
 
 import javax.persistence.TemporalType;
 import java.util.*;
+import java.util.stream.Stream;
 
 public class FluentLoader<E extends Entity<K>, K> {
 
@@ -78,6 +79,16 @@ public class FluentLoader<E extends Entity<K>, K> {
         return dataManager.loadList(loadContext);
     }
 
+    /**
+     * Loads entities lazily. The returned stream must be closed after use.
+     *
+     * @see DataManager#stream(LoadContext)
+     */
+    public Stream<E> stream() {
+        LoadContext<E> loadContext = createLoadContext();
+        return dataManager.stream(loadContext);
+    }
+
     /**
      * Loads a single instance and wraps it in Optional.
      */
@@ -266,6 +277,16 @@ public class FluentLoader<E extends Entity<K>, K> {
             return loader.dataManager.loadList(loadContext);
         }
 
+        /**
+         * Loads entities lazily. The returned stream must be closed after use.
+         *
+         * @see DataManager#stream(LoadContext)
+         */
+        public Stream<E> stream() {
+            LoadContext<E> loadContext = createLoadContext();
+            return loader.dataManager.stream(loadContext);
+        }
+
         /**
          * Loads a single instance and wraps it in Optional.
          */
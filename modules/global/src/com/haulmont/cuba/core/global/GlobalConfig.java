@@ -156,6 +156,21 @@ public interface GlobalConfig extends Config {
     @DefaultBoolean(true)
     boolean getUseAstBasedJpqlTransformer();
 
+    /**
+     * @return maximum number of parsed JPQL query trees kept in memory. 0 disables the cache.
+     */
+    @Property("cuba.jpqlParseCacheSize")
+    @DefaultInt(1000)
+    int getJpqlParseCacheSize();
+
+    /**
+     * @return maximum number of memoized JPQL transformation results, like queries with applied constraints
+     * or sort order. 0 disables the cache.
+     */
+    @Property("cuba.jpqlTransformationCacheSize")
+    @DefaultInt(1000)
+    int getJpqlTransformationCacheSize();
+
     /**
      * @return Overridden AppFolderEditWindow class name
      */
@@ -190,10 +205,39 @@ public interface GlobalConfig extends Config {
     @DefaultInt(8)
     int getGroovyEvaluationPoolMaxIdle();
 
+    /**
+     * @return minimum number of entities checked by a Groovy in-memory constraint at once to evaluate the constraint
+     * in parallel threads. 0 disables parallel evaluation. Entities attached to a persistence context are always
+     * checked in the calling thread; for other entities, constraint scripts must not access attributes that are not
+     * loaded, since lazy loading is not thread-safe.
+     */
+    @Property("cuba.inMemoryConstraintsParallelThreshold")
+    @DefaultInt(0)
+    int getInMemoryConstraintsParallelThreshold();
+
+    /**
+     * @return number of ids obtained by one call of an entity id sequence. The value of 1 disables caching of ids,
+     * including reserving several ranges at once and prefetching.
+     */
     @Property("cuba.numberIdCacheSize")
     @DefaultInt(100)
     int getNumberIdCacheSize();
 
+    /**
+     * @return maximum number of id sequence calls made at once when ids of an entity are requested frequently.
+     * Can be overridden for an entity by the {@code cuba.numberIdMaxBlockRanges.<entity name>} property.
+     */
+    @Property("cuba.numberIdMaxBlockRanges")
+    @DefaultInt(16)
+    int getNumberIdMaxBlockRanges();
+
+    /**
+     * @return whether to obtain the next block of entity ids asynchronously before the current block is exhausted
+     */
+    @Property("cuba.numberIdPrefetch")
+    @DefaultBoolean(true)
+    boolean getNumberIdPrefetch();
+
     @Property("cuba.anonymousSessionId")
     @Factory(factory = UuidTypeFactory.class)
     UUID getAnonymousSessionId();
@@ -320,6 +320,9 @@ public class LoadContext<E extends Entity> implements DataLoadContext, Serializa
         private boolean cacheable;
         private Condition condition;
         private Sort sort;
+        private boolean keysetPagination;
+        private Object afterId;
+        private Entity afterEntity;
 
         /**
          * @param queryString JPQL query string. Only named parameters are supported.
@@ -450,6 +453,77 @@ public class LoadContext<E extends Entity> implements DataLoadContext, Serializa
             return this;
         }
 
+        /**
+         * @return whether the keyset pagination is used
+         */
+        public boolean isKeysetPagination() {
+            return keysetPagination || afterId != null;
+        }
+
+        /**
+         * Enables keyset (seek) pagination. The primary key is added to the sort defined by {@link #setSort(Sort)}
+         * as a tie-breaker, so the order of rows is stable between pages. Set this flag when loading the first page
+         * and pass the last loaded row to {@link #setAfter(Entity)} to load the next ones.
+         * <p>Unlike offset paging, the cost of loading a page does not depend on how deep the page is. Null values
+         * of the sort attributes are placed according to the default order of the database.
+         * If no sort is set, a query without order by is sorted by the primary key only. A query having its own
+         * order by keeps it, but then the next pages cannot be loaded by keyset.
+         *
+         * @return this query instance for chaining
+         */
+        public Query setKeysetPagination(boolean keysetPagination) {
+            this.keysetPagination = keysetPagination;
+            return this;
+        }
+
+        /**
+         * @return primary key of the last row of the previous page if the keyset pagination is used
+         */
+        @Nullable
+        public Object getAfterId() {
+            return afterId;
+        }
+
+        /**
+         * @return last row of the previous page if it was passed to {@link #setAfter(Entity)}
+         */
+        @Nullable
+        public Entity getAfterEntity() {
+            return afterEntity;
+        }
+
+        /**
+         * Loads the rows following the row with the given primary key in the sort order, instead of skipping
+         * {@code firstResult} rows. Implies {@link #setKeysetPagination(boolean)}.
+         * <p>The values of the sort attributes of the row are read from the database before loading the page,
+         * regardless of constraints and soft deletion. If the row does not exist anymore, loading fails.
+         * Use {@link #setAfter(Entity)} if the row itself is available.
+         *
+         * @param afterId primary key of the last row of the previous page, or null to load the first page
+         * @return this query instance for chaining
+         */
+        public Query setAfterId(@Nullable Object afterId) {
+            this.afterId = afterId;
+            this.afterEntity = null;
+            return this;
+        }
+
+        /**
+         * Loads the rows following the given row in the sort order, instead of skipping {@code firstResult} rows.
+         * Implies {@link #setKeysetPagination(boolean)}.
+         * <p>The values of the sort attributes are taken from the entity, so the next page is loaded even if
+         * the row has been deleted since. Attributes not loaded in the entity are read from the database
+         * as for {@link #setAfterId(Object)}.
+         *
+         * @param afterEntity last row of the previous page, or null to load the first page
+         * @return this query instance for chaining
+         */
+        public Query setAfter(@Nullable Entity afterEntity) {
+            this.afterId = afterEntity == null ? null : afterEntity.getId();
+            this.afterEntity = afterEntity;
+            return this;
+        }
+
         /**
          * Indicates that the query results should be cached.
          * @return the same query instance
@@ -492,6 +566,9 @@ public class LoadContext<E extends Entity> implements DataLoadContext, Serializa
             query.firstResult = firstResult;
             query.maxResults = maxResults;
             query.cacheable = cacheable;
+            query.keysetPagination = keysetPagination;
+            query.afterId = afterId;
+            query.afterEntity = afterEntity;
             return query;
         }
 
@@ -504,6 +581,8 @@ public class LoadContext<E extends Entity> implements DataLoadContext, Serializa
 
             if (firstResult != query.firstResult) return false;
             if (maxResults != query.maxResults) return false;
+            if (keysetPagination != query.keysetPagination) return false;
+            if (!Objects.equals(afterId, query.afterId)) return false;
             if (!parameters.equals(query.parameters)) return false;
             return queryString.equals(query.queryString);
         }
@@ -523,6 +602,7 @@ public class LoadContext<E extends Entity> implements DataLoadContext, Serializa
                     "queryString='" + queryString + '\'' +
                     ", firstResult=" + firstResult +
                     ", maxResults=" + maxResults +
+                    (afterId == null ? "" : ", afterId=" + afterId) +
                     '}';
         }
     }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.haulmont.cuba.core.global;
+
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.cuba.core.entity.Entity;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the result of a {@link LoadContext} by loading it page by page through {@link DataManager#loadList}.
+ * Pages are requested by offset, or by the last loaded row if the query uses the keyset pagination.
+ * A query defining neither a sort nor its own order by is always loaded with the keyset pagination, because
+ * offset pages are not stable without an order.
+ * Used as the default implementation of {@link DataManager#stream(LoadContext)}.
+ */
+class PagedLoadIterator<E extends Entity> implements Iterator<E> {
+
+    static final int DEFAULT_PAGE_SIZE = 500;
+
+    protected final DataManager dataManager;
+    protected final LoadContext<E> context;
+    protected final int pageSize;
+
+    protected int firstResult;
+    protected int remaining;
+    protected boolean exhausted;
+    protected Iterator<E> page = Collections.emptyIterator();
+
+    @SuppressWarnings("unchecked")
+    PagedLoadIterator(DataManager dataManager, LoadContext<E> context, int pageSize) {
+        this.dataManager = dataManager;
+        this.context = (LoadContext<E>) context.copy();
+        this.pageSize = pageSize;
+
+        LoadContext.Query query = context.getQuery();
+        this.context.getQuery()
+                .setCondition(query.getCondition())
+                .setSort(query.getSort());
+        this.firstResult = query.getFirstResult();
+        this.remaining = query.getMaxResults() == 0 ? Integer.MAX_VALUE : query.getMaxResults();
+
+        boolean sorted = query.getSort() != null && !query.getSort().getOrders().isEmpty();
+        boolean ordered = sorted || QueryParserRegex.ORDER_BY_PATTERN.matcher(query.getQueryString()).find();
+        if (!ordered) {
+            // pages of an unordered query can overlap, so they are loaded in the order of the primary key
+            MetaClass metaClass = AppBeans.get(Metadata.class).getClassNN(context.getMetaClass());
+            if (AppBeans.get(MetadataTools.class).hasCompositePrimaryKey(metaClass)) {
+                throw new IllegalArgumentException(String.format(
+                        "Query of %s having composite primary key must define an order to be loaded page by page",
+                        metaClass.getName()));
+            }
+            this.context.getQuery().setKeysetPagination(true);
+        } else if (!sorted && query.isKeysetPagination()) {
+            // the next pages cannot be loaded after a row of the query own order, but this order is stable
+            this.context.getQuery().setKeysetPagination(false).setAfterId(null);
+        }
+    }
+
+    static <E extends Entity> Stream<E> stream(DataManager dataManager, LoadContext<E> context, int pageSize) {
+        if (context.getQuery() == null || context.getId() != null) {
+            return dataManager.loadList(context).stream();
+        }
+        PagedLoadIterator<E> iterator = new PagedLoadIterator<>(dataManager, context, pageSize);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext()) {
+            if (exhausted) {
+                return false;
+            }
+            loadPage();
+        }
+        return true;
+    }
+
+    @Override
+    public E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    protected void loadPage() {
+        int max = Math.min(pageSize, remaining);
+        context.getQuery().setFirstResult(firstResult);
+        context.getQuery().setMaxResults(max);
+
+        List<E> list = dataManager.loadList(context);
+
+        if (context.getQuery().isKeysetPagination()) {
+            // continue after the last loaded row instead of skipping rows
+            firstResult = 0;
+            if (!list.isEmpty()) {
+                context.getQuery().setAfter(list.get(list.size() - 1));
+            }
+        } else {
+            firstResult += max;
+        }
+        remaining -= max;
+        if (list.size() < max || remaining <= 0) {
+            exhausted = true;
+        }
+        page = list.iterator();
+    }
+}
@@ -16,14 +16,24 @@
  */
 package com.haulmont.cuba.core.global;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.haulmont.cuba.core.sys.jpql.DomainModel;
 import com.haulmont.cuba.core.sys.jpql.DomainModelBuilder;
+import com.haulmont.cuba.core.sys.jpql.QueryTreeCache;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.function.Function;
 
 /**
  * Factory to get {@link QueryParser} and {@link QueryTransformer} instances.
+ * <p>
+ * Parsed query trees are cached by the factory for the current domain model, so creating parsers and transformers
+ * for the same query text repeatedly does not run the JPQL parser again. In addition, results of frequent transformations can be memoized
+ * by {@link #transformCached(String, Object, Function)}.
  */
 @Component(QueryTransformerFactory.NAME)
 public class QueryTransformerFactory {
@@ -34,9 +44,20 @@ public class QueryTransformerFactory {
 
     protected volatile DomainModel domainModel;
 
+    protected volatile QueryTreeCache treeCache = new QueryTreeCache(0);
+
+    protected volatile Cache<Object, Object> transformationCache;
+
+    protected int transformationCacheSize;
+
     @Inject
     public void setConfiguration(Configuration configuration) {
-        useAst = configuration.getConfig(GlobalConfig.class).getUseAstBasedJpqlTransformer();
+        GlobalConfig config = configuration.getConfig(GlobalConfig.class);
+        useAst = config.getUseAstBasedJpqlTransformer();
+
+        treeCache = new QueryTreeCache(config.getJpqlParseCacheSize());
+        transformationCacheSize = config.getJpqlTransformationCacheSize();
+        transformationCache = createTransformationCache();
     }
 
     public static QueryTransformer createTransformer(String query) {
@@ -49,11 +70,7 @@ public class QueryTransformerFactory {
 
     public QueryTransformer transformer(String query) {
         if (useAst) {
-            if (domainModel == null) {
-                DomainModelBuilder builder = AppBeans.get(DomainModelBuilder.NAME);
-                domainModel = builder.produce();
-            }
-            return AppBeans.getPrototype(QueryTransformer.NAME, domainModel, query);
+            return AppBeans.getPrototype(QueryTransformer.NAME, getDomainModel(), query);
         } else {
             return new QueryTransformerRegex(query);
         }
@@ -61,13 +78,82 @@ public class QueryTransformerFactory {
 
     public QueryParser parser(String query) {
         if (useAst) {
-            if (domainModel == null) {
-                DomainModelBuilder builder = AppBeans.get(DomainModelBuilder.NAME);
-                domainModel = builder.produce();
-            }
-            return AppBeans.getPrototype(QueryParser.NAME, domainModel, query);
+            return AppBeans.getPrototype(QueryParser.NAME, getDomainModel(), query);
         } else {
             return new QueryParserRegex(query);
         }
     }
+
+    /**
+     * Returns the result of a transformation of the query, performing the transformation only if it has not been
+     * memoized yet for the same query and key. The transformation must depend only on the query text, the key and
+     * the domain model.
+     *
+     * @param query             source query
+     * @param transformationKey describes the transformation, e.g. the list of applied conditions. Must implement
+     *                          {@code equals()} and {@code hashCode()}.
+     * @param transformation    function performing the transformation of the query
+     * @return                  transformation result. It is shared between callers and must not be modified.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T transformCached(String query, Object transformationKey, Function<String, T> transformation) {
+        Cache<Object, Object> cache = transformationCache;
+        if (cache == null)
+            return transformation.apply(query);
+
+        Object key = Arrays.asList(query, transformationKey);
+        T result = (T) cache.getIfPresent(key);
+        if (result == null) {
+            result = transformation.apply(query);
+            if (cache == transformationCache) {
+                cache.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes the factory to build the domain model again on next request and discards memoized transformations and
+     * trees parsed for the previous model.
+     */
+    public void resetDomainModel() {
+        domainModel = null;
+        treeCache.clear();
+        transformationCache = createTransformationCache();
+    }
+
+    public void clearCaches() {
+        treeCache.clear();
+        transformationCache = createTransformationCache();
+    }
+
+    public QueryTreeCache getTreeCache() {
+        return treeCache;
+    }
+
+    public long getTransformationCacheSize() {
+        Cache<Object, Object> cache = transformationCache;
+        return cache == null ? 0 : cache.size();
+    }
+
+    public CacheStats getTransformationCacheStats() {
+        Cache<Object, Object> cache = transformationCache;
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    protected DomainModel getDomainModel() {
+        if (domainModel == null) {
+            DomainModelBuilder builder = AppBeans.get(DomainModelBuilder.NAME);
+            DomainModel model = builder.produce();
+            model.setTreeCache(treeCache);
+            domainModel = model;
+        }
+        return domainModel;
+    }
+
+    protected Cache<Object, Object> createTransformationCache() {
+        if (transformationCacheSize <= 0)
+            return null;
+        return CacheBuilder.newBuilder().maximumSize(transformationCacheSize).recordStats().build();
+    }
 }
@@ -18,9 +18,11 @@
 package com.haulmont.cuba.core.global;
 
 import groovy.lang.Binding;
+import groovy.lang.Script;
 
 import javax.annotation.Nullable;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * Central interface to provide scripting functionality.
@@ -61,6 +63,28 @@ public interface Scripting {
      */
     <T> T evaluateGroovy(String text, Map<String, Object> context);
 
+    /**
+     * Passes the compiled Groovy expression to the action. The script is taken from the compilation cache and
+     * returned to it when the action completes, so it can be run many times with different bindings without
+     * borrowing it for each evaluation. If the action throws an exception, the script is discarded from the cache.
+     * The script must not be used outside of the action.
+     * <p>The default implementation passes a script evaluating the expression by
+     * {@link #evaluateGroovy(String, Binding)} with the binding set to the script on each run.
+     * @param text      expression text
+     * @param action    action using the script
+     * @param <T>       result type
+     * @return          result of the action
+     */
+    default <T> T withGroovyScript(String text, Function<Script, T> action) {
+        Script script = new Script() {
+            @Override
+            public Object run() {
+                return evaluateGroovy(text, getBinding());
+            }
+        };
+        return action.apply(script);
+    }
+
     /**
      * Runs Groovy script.
      * The script must be located as file under <em>conf</em> directory, or as a classpath resource.
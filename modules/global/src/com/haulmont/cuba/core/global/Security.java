@@ -23,6 +23,10 @@ import com.haulmont.cuba.security.entity.ConstraintOperationType;
 import com.haulmont.cuba.security.entity.EntityAttrAccess;
 import com.haulmont.cuba.security.entity.EntityOp;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Infrastructure interface providing methods to check permissions of the current user.
  */
@@ -132,6 +136,26 @@ public interface Security {
      */
     boolean isPermitted(Entity entity, String customCode);
 
+    /**
+     * Check if the operation type is permitted for each of the entities. Works like {@link #isPermitted(Entity,
+     * ConstraintOperationType)}, but each constraint is checked for all entities of a class at once.
+     *
+     * <p>The constraints can be checked in parallel threads if {@code cuba.inMemoryConstraintsParallelThreshold} is
+     * set. It is done only for entities not attached to a persistence context, and the constraint scripts must use
+     * only attributes loaded with the entities, because lazy loading is not thread-safe.
+     *
+     * @return permitted entities in the iteration order of the collection
+     */
+    default <T extends Entity> List<T> filterPermitted(Collection<T> entities, ConstraintOperationType operationType) {
+        List<T> permitted = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            if (isPermitted(entity, operationType)) {
+                permitted.add(entity);
+            }
+        }
+        return permitted;
+    }
+
     /**
      * Check if there are registered constraints for the metaClass or it's original metaClass
      */
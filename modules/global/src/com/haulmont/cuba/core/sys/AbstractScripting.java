@@ -50,6 +50,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.*;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -233,6 +234,36 @@ public abstract class AbstractScripting implements Scripting {
         return (T) evaluateGroovy(text, binding);
     }
 
+    @Override
+    public <T> T withGroovyScript(String text, Function<Script, T> action) {
+        Script script;
+        try {
+            script = getPool().borrowObject(text);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error compiling Groovy expression", e);
+        }
+        T result;
+        try {
+            result = action.apply(script);
+        } catch (RuntimeException | Error e) {
+            try {
+                getPool().invalidateObject(text, script);
+            } catch (Exception e1) {
+                log.warn("Error invalidating object in the pool", e1);
+            }
+            throw e;
+        }
+        try {
+            script.setBinding(null); // free memory
+            getPool().returnObject(text, script);
+        } catch (Exception e) {
+            log.warn("Error returning object into the pool", e);
+        }
+        return result;
+    }
+
     @Override
     public <T> T runGroovyScript(String name, Binding binding) {
         try {
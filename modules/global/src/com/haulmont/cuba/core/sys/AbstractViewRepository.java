@@ -46,6 +46,7 @@ import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
@@ -74,6 +75,8 @@ public class AbstractViewRepository implements ViewRepository {
 
     protected volatile boolean initialized;
 
+    protected final AtomicLong version = new AtomicLong();
+
     protected ReadWriteLock lock = new ReentrantReadWriteLock();
 
     protected void checkInitialized() {
@@ -180,6 +183,15 @@ public class AbstractViewRepository implements ViewRepository {
 
     public void reset() {
         initialized = false;
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return number that changes each time views are deployed or the repository is reset. Allows callers to
+     * invalidate data computed from views.
+     */
+    public long getVersion() {
+        return version.get();
     }
 
     /**
@@ -702,6 +714,7 @@ public class AbstractViewRepository implements ViewRepository {
 
         views.put(view.getName(), view);
         storage.put(metaClass, views);
+        version.incrementAndGet();
     }
 
     protected List<View> getAllInitialized() {
@@ -30,6 +30,9 @@ import java.util.regex.Pattern;
 /**
  * INTERNAL.
  * Provides access to file-based application properties.
+ * <p>
+ * Resolved values are kept until a property is changed by {@link #setProperty(String, String)} or a system property
+ * used in the resolution gets another value.
  */
 public class AppProperties {
 
@@ -39,6 +42,33 @@ public class AppProperties {
 
     private Map<String, String> properties = new ConcurrentHashMap<>();
 
+    // Resolved values; replaced by an empty map when properties change
+    private volatile Map<String, ResolvedProperty> resolvedProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Result of the property resolution together with the system properties read while resolving it.
+     * The value is valid while the system properties keep their values.
+     */
+    private static class ResolvedProperty {
+        private final String value;
+        private final String[] systemNames;
+        private final String[] systemValues;
+
+        private ResolvedProperty(@Nullable String value, Map<String, String> systemLookups) {
+            this.value = value;
+            this.systemNames = systemLookups.keySet().toArray(new String[0]);
+            this.systemValues = systemLookups.values().toArray(new String[0]);
+        }
+
+        private boolean isValid() {
+            for (int i = 0; i < systemNames.length; i++) {
+                if (!Objects.equals(System.getProperty(systemNames[i]), systemValues[i]))
+                    return false;
+            }
+            return true;
+        }
+    }
+
     // Temporary support for deprecated properties: the second element has priority
     private final List<Pair<String, String>> DEPRECATED_PROPERTIES = Arrays.asList(
             new Pair<>("cuba.connectionUrlList", "cuba.connectionUrl"),
@@ -93,35 +123,54 @@ public class AppProperties {
             throw new IllegalArgumentException("Null key passed as parameter");
         }
 
+        Map<String, ResolvedProperty> resolved = resolvedProperties;
+        ResolvedProperty resolvedProperty = resolved.get(key);
+        if (resolvedProperty == null || !resolvedProperty.isValid()) {
+            Map<String, String> systemLookups = new LinkedHashMap<>();
+            resolvedProperty = new ResolvedProperty(resolveProperty(key, systemLookups), systemLookups);
+            resolved.put(key, resolvedProperty);
+        }
+        return resolvedProperty.value;
+    }
+
+    @Nullable
+    private String resolveProperty(String key, Map<String, String> systemLookups) {
         for (Pair<String, String> pair : DEPRECATED_PROPERTIES) {
             if (pair.getFirst().endsWith("*")) {
                 String substring1 = pair.getFirst().substring(0, pair.getFirst().length() - 1);
                 String substring2 = pair.getSecond().substring(0, pair.getSecond().length() - 1);
                 if (key.startsWith(substring1)) {
-                    return getDeprecatedProperty(new Pair<>(key, substring2 + key.substring(substring1.length())));
+                    return getDeprecatedProperty(new Pair<>(key, substring2 + key.substring(substring1.length())), systemLookups);
                 }
                 if (key.startsWith(substring2)) {
-                    return getDeprecatedProperty(new Pair<>(substring1 + key.substring(substring2.length()), key));
+                    return getDeprecatedProperty(new Pair<>(substring1 + key.substring(substring2.length()), key), systemLookups);
                 }
             }
             if (pair.getFirst().equals(key) || pair.getSecond().equals(key)) {
-                return getDeprecatedProperty(pair);
+                return getDeprecatedProperty(pair, systemLookups);
             }
         }
-        return getSystemOrAppProperty(key);
+        return getSystemOrAppProperty(key, systemLookups);
     }
 
-    private String getDeprecatedProperty(Pair<String, String> pair) {
-        String value = getSystemOrAppProperty(pair.getSecond());
+    private String getDeprecatedProperty(Pair<String, String> pair, Map<String, String> systemLookups) {
+        String value = getSystemOrAppProperty(pair.getSecond(), systemLookups);
         if (value != null)
             return value;
         else
-            return getSystemOrAppProperty(pair.getFirst());
+            return getSystemOrAppProperty(pair.getFirst(), systemLookups);
+    }
+
+    @Nullable
+    private String getSystemProperty(String key, Map<String, String> systemLookups) {
+        String value = System.getProperty(key);
+        systemLookups.put(key, value);
+        return value;
     }
 
     @Nullable
-    private String getSystemOrAppProperty(String key) {
-        String systemValue = System.getProperty(key);
+    private String getSystemOrAppProperty(String key, Map<String, String> systemLookups) {
+        String systemValue = getSystemProperty(key, systemLookups);
 
         String value = systemValue;
         if (StringUtils.isEmpty(systemValue)) {
@@ -131,12 +180,12 @@ public class AppProperties {
         if (value != null) {
             // escaped +
             if (value.startsWith("\\+")) {
-                return handleInterpolation(value.substring(1));
+                return handleInterpolation(systemLookups, value.substring(1));
             }
 
             // not +
             if (!value.startsWith("+")) {
-                return handleInterpolation(value);
+                return handleInterpolation(systemLookups, value);
             }
 
             List<String> values = new LinkedList<>();
@@ -154,7 +203,7 @@ public class AppProperties {
             if (values.isEmpty()) {
                 return null;
             }
-            return handleInterpolation(Joiner.on(" ").join(values));
+            return handleInterpolation(systemLookups, Joiner.on(" ").join(values));
 
         } else {
             List<String> values = new LinkedList<>();
@@ -162,14 +211,14 @@ public class AppProperties {
             if (values.isEmpty()) {
                 return null;
             }
-            return handleInterpolation(Joiner.on(" ").join(values));
+            return handleInterpolation(systemLookups, Joiner.on(" ").join(values));
         }
     }
 
-    private String handleInterpolation(String value) {
+    private String handleInterpolation(Map<String, String> systemLookups, String value) {
         StringSubstitutor substitutor = new StringSubstitutor(key -> {
-            String property = getSystemOrAppProperty(key);
-            return property != null ? property : System.getProperty(key);
+            String property = getSystemOrAppProperty(key, systemLookups);
+            return property != null ? property : getSystemProperty(key, systemLookups);
         });
         return substitutor.replace(value);
     }
@@ -217,5 +266,7 @@ public class AppProperties {
             properties.remove(key);
         else
             properties.put(key, value);
+        // the property can be used in interpolation of others, so drop all resolved values
+        resolvedProperties = new ConcurrentHashMap<>();
     }
 }
\ No newline at end of file
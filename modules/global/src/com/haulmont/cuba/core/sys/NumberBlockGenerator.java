@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.sys;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out numbers from blocks of reserved ranges without locking.
+ * <p>
+ * A block consists of one or more ranges of {@code rangeSize} consecutive numbers reserved by a {@link RangeSource},
+ * usually one database sequence call per range. Threads take numbers by atomically moving the block position,
+ * so only the thread that finds the block exhausted waits for the next one. If a prefetch executor is provided,
+ * the next block is reserved asynchronously when a quarter of the current block remains.
+ * <p>
+ * The number of ranges per block adapts to the allocation rate: it is doubled (up to {@code maxRanges}) when a block
+ * lasts less than {@link #TARGET_BLOCK_LIFETIME_MS}, and halved when a block lasts ten times longer.
+ */
+public class NumberBlockGenerator {
+
+    /**
+     * Reserves ranges of numbers.
+     */
+    public interface RangeSource {
+
+        /**
+         * @param count number of ranges to reserve
+         * @return first numbers of the reserved ranges
+         */
+        long[] reserve(int count);
+    }
+
+    public static final long TARGET_BLOCK_LIFETIME_MS = 1000;
+
+    protected final RangeSource source;
+    protected final int rangeSize;
+    protected final int maxRanges;
+    protected final Executor prefetchExecutor;
+
+    protected final AtomicReference<Block> current = new AtomicReference<>(new Block(new long[0], 1));
+
+    protected volatile int rangesPerBlock = 1;
+    protected volatile long lastReserveTs;
+
+    protected final AtomicLong reserveCount = new AtomicLong();
+    protected final AtomicLong reserveTimeNanos = new AtomicLong();
+    protected final AtomicLong prefetchCount = new AtomicLong();
+    protected final AtomicLong waitCount = new AtomicLong();
+    protected volatile long maxReserveTimeNanos;
+
+    protected static class Block {
+        protected final long[] starts;
+        protected final int rangeSize;
+        protected final long capacity;
+        protected final long prefetchPosition;
+        protected final AtomicLong position = new AtomicLong();
+        protected final AtomicReference<CompletableFuture<Block>> successor = new AtomicReference<>();
+
+        protected Block(long[] starts, int rangeSize) {
+            this.starts = starts;
+            this.rangeSize = rangeSize;
+            this.capacity = (long) starts.length * rangeSize;
+            this.prefetchPosition = capacity - Math.max(1, capacity / 4);
+        }
+
+        protected long get(long pos) {
+            return starts[(int) (pos / rangeSize)] + pos % rangeSize;
+        }
+    }
+
+    /**
+     * @param source            ranges provider
+     * @param rangeSize         number of consecutive numbers in a range returned by the source
+     * @param maxRanges         maximum number of ranges reserved at once
+     * @param prefetchExecutor  executor for reserving the next block in advance, null to reserve blocks
+     *                          only when the current one is exhausted
+     */
+    public NumberBlockGenerator(RangeSource source, int rangeSize, int maxRanges, @Nullable Executor prefetchExecutor) {
+        if (rangeSize < 1)
+            throw new IllegalArgumentException("rangeSize must be positive");
+        this.source = source;
+        this.rangeSize = rangeSize;
+        this.maxRanges = Math.max(1, maxRanges);
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    public long getNext() {
+        while (true) {
+            Block block = current.get();
+            long pos = block.position.getAndIncrement();
+            if (pos < block.capacity) {
+                if (pos == block.prefetchPosition && prefetchExecutor != null) {
+                    prefetch(block);
+                }
+                return block.get(pos);
+            }
+            current.compareAndSet(block, awaitSuccessor(block));
+        }
+    }
+
+    /**
+     * @return the last number handed out from the current block or null if no numbers have been taken from it yet
+     */
+    @Nullable
+    public Long getLast() {
+        Block block = current.get();
+        long pos = Math.min(block.position.get(), block.capacity) - 1;
+        return pos < 0 ? null : block.get(pos);
+    }
+
+    public int getRangeSize() {
+        return rangeSize;
+    }
+
+    public int getRangesPerBlock() {
+        return rangesPerBlock;
+    }
+
+    public long getReserveCount() {
+        return reserveCount.get();
+    }
+
+    public long getPrefetchCount() {
+        return prefetchCount.get();
+    }
+
+    /**
+     * @return how many times a caller had to wait for a block to be reserved
+     */
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    public long getAvgReserveTimeMs() {
+        long count = reserveCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(reserveTimeNanos.get() / count);
+    }
+
+    public long getMaxReserveTimeMs() {
+        return TimeUnit.NANOSECONDS.toMillis(maxReserveTimeNanos);
+    }
+
+    protected void prefetch(Block block) {
+        CompletableFuture<Block> future = new CompletableFuture<>();
+        if (block.successor.compareAndSet(null, future)) {
+            try {
+                prefetchExecutor.execute(new SecurityContextAwareRunnable(() -> reserve(future)));
+                prefetchCount.incrementAndGet();
+            } catch (RejectedExecutionException e) {
+                block.successor.compareAndSet(future, null);
+            }
+        }
+    }
+
+    protected Block awaitSuccessor(Block block) {
+        CompletableFuture<Block> future;
+        while ((future = block.successor.get()) == null) {
+            CompletableFuture<Block> own = new CompletableFuture<>();
+            if (block.successor.compareAndSet(null, own)) {
+                reserve(own);
+            }
+        }
+        if (!future.isDone()) {
+            waitCount.incrementAndGet();
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // let the next caller try again
+            block.successor.compareAndSet(future, null);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    protected void reserve(CompletableFuture<Block> future) {
+        try {
+            int count = nextRangesPerBlock();
+            long start = System.nanoTime();
+            long[] starts = source.reserve(count);
+            long time = System.nanoTime() - start;
+
+            reserveCount.incrementAndGet();
+            reserveTimeNanos.addAndGet(time);
+            if (time > maxReserveTimeNanos)
+                maxReserveTimeNanos = time;
+
+            future.complete(new Block(starts, rangeSize));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    protected int nextRangesPerBlock() {
+        long now = System.currentTimeMillis();
+        int count = rangesPerBlock;
+        if (lastReserveTs > 0) {
+            long lifetime = now - lastReserveTs;
+            if (lifetime < TARGET_BLOCK_LIFETIME_MS && count < maxRanges)
+                count = Math.min(count * 2, maxRanges);
+            else if (lifetime > TARGET_BLOCK_LIFETIME_MS * 10 && count > 1)
+                count = count / 2;
+        }
+        rangesPerBlock = count;
+        lastReserveTs = now;
+        return count;
+    }
+}
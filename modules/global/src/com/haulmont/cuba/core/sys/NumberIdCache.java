@@ -17,50 +17,37 @@
 
 package com.haulmont.cuba.core.sys;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.haulmont.cuba.core.global.GlobalConfig;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Intermediate cache for generated ids of entities with long/integer PK.
  * The cache size is determined by the {@code cuba.numberIdCacheSize} app property.
+ * <p>
+ * Ids are handed out by {@link NumberBlockGenerator} without locking. Each sequence call reserves a range of
+ * {@code cuba.numberIdCacheSize} ids, and a block of up to {@code cuba.numberIdMaxBlockRanges} ranges is reserved
+ * at once depending on how fast the ids of the entity are consumed.
  */
 @Component(NumberIdCache.NAME)
 public class NumberIdCache {
 
     public static final String NAME = "cuba_NumberIdCache";
 
-    protected class Generator {
-        protected long counter;
-        protected long sequenceValue;
-        protected String entityName;
-        protected NumberIdSequence sequence;
+    protected ConcurrentMap<String, NumberBlockGenerator> cache = new ConcurrentHashMap<>();
 
-        public Generator(String entityName, NumberIdSequence sequence) {
-            this.entityName = entityName;
-            this.sequence = sequence;
-            createCounter();
-        }
-
-        protected void createCounter() {
-            sequenceValue = sequence.createLongId(entityName);
-            counter = sequenceValue;
-        }
-
-        public synchronized long getNext() {
-            long next = ++counter;
-            if (next > sequenceValue + config.getNumberIdCacheSize()) {
-                createCounter();
-                next = ++counter;
-            }
-            return next;
-        }
-    }
-
-    protected ConcurrentMap<String, Generator> cache = new ConcurrentHashMap<>();
+    protected volatile ExecutorService prefetchExecutor;
 
     @Inject
     protected GlobalConfig config;
@@ -73,14 +60,65 @@ public class NumberIdCache {
      * @return  next id
      */
     public Long createLongId(String entityName, NumberIdSequence sequence) {
-        Generator gen = cache.computeIfAbsent(entityName, s -> new Generator(entityName, sequence));
+        NumberBlockGenerator gen = cache.computeIfAbsent(entityName, s -> createGenerator(entityName, sequence));
         return gen.getNext();
     }
 
+    /**
+     * @return id generators by entity name, to be used for monitoring
+     */
+    public Map<String, NumberBlockGenerator> getGenerators() {
+        return Collections.unmodifiableMap(new TreeMap<>(cache));
+    }
+
     /**
      * INTERNAL. Used by tests.
      */
     public void reset() {
         cache.clear();
     }
-}
\ No newline at end of file
+
+    @PreDestroy
+    protected void shutdown() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+    }
+
+    protected NumberBlockGenerator createGenerator(String entityName, NumberIdSequence sequence) {
+        int cacheSize = config.getNumberIdCacheSize();
+        if (cacheSize <= 1) {
+            return new NumberBlockGenerator(count -> createRanges(entityName, sequence, count), 1, 1, null);
+        }
+        return new NumberBlockGenerator(count -> createRanges(entityName, sequence, count),
+                cacheSize, getMaxBlockRanges(entityName), config.getNumberIdPrefetch() ? getPrefetchExecutor() : null);
+    }
+
+    protected long[] createRanges(String entityName, NumberIdSequence sequence, int count) {
+        long[] starts = count == 1 ? new long[]{sequence.createLongId(entityName)} : sequence.createLongIds(entityName, count);
+        // a sequence value is followed by the range of ids it reserves
+        for (int i = 0; i < starts.length; i++) {
+            starts[i]++;
+        }
+        return starts;
+    }
+
+    protected int getMaxBlockRanges(String entityName) {
+        String value = AppContext.getProperty("cuba.numberIdMaxBlockRanges." + entityName);
+        return StringUtils.isNotBlank(value) ? Integer.parseInt(value.trim()) : config.getNumberIdMaxBlockRanges();
+    }
+
+    protected ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            synchronized (this) {
+                if (prefetchExecutor == null) {
+                    prefetchExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                            .setNameFormat("NumberIdPrefetch-%d")
+                            .setDaemon(true)
+                            .build());
+                }
+            }
+        }
+        return prefetchExecutor;
+    }
+}
@@ -20,4 +20,19 @@ package com.haulmont.cuba.core.sys;
 public interface NumberIdSequence {
 
     Long createLongId(String entityName);
+
+    /**
+     * Reserves several sequence values at once.
+     *
+     * @param entityName    entity name
+     * @param count         number of values
+     * @return  sequence values in the order they were obtained
+     */
+    default long[] createLongIds(String entityName, int count) {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = createLongId(entityName);
+        }
+        return values;
+    }
 }
\ No newline at end of file
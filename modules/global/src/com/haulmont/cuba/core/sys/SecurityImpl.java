@@ -17,6 +17,9 @@
 
 package com.haulmont.cuba.core.sys;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.haulmont.chile.core.datatypes.Datatype;
 import com.haulmont.chile.core.datatypes.Datatypes;
 import com.haulmont.chile.core.datatypes.impl.EnumClass;
@@ -30,15 +33,22 @@ import com.haulmont.cuba.security.entity.EntityOp;
 import com.haulmont.cuba.security.entity.PermissionType;
 import com.haulmont.cuba.security.global.ConstraintData;
 import com.haulmont.cuba.security.global.UserSession;
+import groovy.lang.Binding;
 import org.apache.commons.lang3.StringUtils;
 import org.codehaus.groovy.runtime.MethodClosure;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -66,6 +76,31 @@ public class SecurityImpl implements Security {
     @Inject
     protected Scripting scripting;
 
+    @Inject
+    protected GlobalConfig globalConfig;
+
+    @Inject
+    protected EntityStates entityStates;
+
+    /**
+     * Threads evaluating Groovy in-memory constraints in parallel, created on first use.
+     */
+    protected volatile ExecutorService constraintsExecutor;
+
+    /**
+     * Compiled in-memory constraints by Groovy script text.
+     */
+    protected Cache<String, CompiledConstraint> compiledConstraints = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build();
+
+    @PreDestroy
+    protected void shutdown() {
+        if (constraintsExecutor != null) {
+            constraintsExecutor.shutdownNow();
+        }
+    }
+
     @Override
     public boolean isScreenPermitted(String windowAlias) {
         return userSessionSource.getUserSession().isScreenPermitted(windowAlias);
@@ -153,16 +188,52 @@ public class SecurityImpl implements Security {
 
     @Override
     public boolean isPermitted(Entity entity, ConstraintOperationType targetOperationType) {
-        return isPermitted(entity,
-                constraint -> {
-                    ConstraintOperationType operationType = constraint.getOperationType();
-                    return constraint.getCheckType().memory()
-                            && (
-                            (targetOperationType == ALL && operationType != CUSTOM)
-                                    || operationType == targetOperationType
-                                    || operationType == ALL
-                    );
-                });
+        return isPermitted(entity, getOperationTypePredicate(targetOperationType));
+    }
+
+    @Override
+    public <T extends Entity> List<T> filterPermitted(Collection<T> entities, ConstraintOperationType operationType) {
+        Map<MetaClass, List<T>> entitiesByClass = new LinkedHashMap<>();
+        for (T entity : entities) {
+            entitiesByClass.computeIfAbsent(entity.getMetaClass(), metaClass -> new ArrayList<>()).add(entity);
+        }
+
+        Predicate<ConstraintData> predicate = getOperationTypePredicate(operationType);
+        Set<Entity> permitted = Collections.newSetFromMap(new IdentityHashMap<>());
+        boolean filtered = false;
+        for (Map.Entry<MetaClass, List<T>> entry : entitiesByClass.entrySet()) {
+            List<T> classPermitted = entry.getValue();
+            for (ConstraintData constraint : getConstraints(entry.getKey(), predicate)) {
+                if (classPermitted.isEmpty())
+                    break;
+                classPermitted = filterPermitted(classPermitted, constraint);
+            }
+            filtered |= classPermitted.size() < entry.getValue().size();
+            permitted.addAll(classPermitted);
+        }
+
+        if (!filtered) {
+            return new ArrayList<>(entities);
+        }
+        List<T> result = new ArrayList<>(permitted.size());
+        for (T entity : entities) {
+            if (permitted.contains(entity)) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    protected Predicate<ConstraintData> getOperationTypePredicate(ConstraintOperationType targetOperationType) {
+        return constraint -> {
+            ConstraintOperationType operationType = constraint.getOperationType();
+            return constraint.getCheckType().memory()
+                    && (
+                    (targetOperationType == ALL && operationType != CUSTOM)
+                            || operationType == targetOperationType
+                            || operationType == ALL
+            );
+        };
     }
 
     @Override
@@ -215,33 +286,42 @@ public class SecurityImpl implements Security {
     }
 
     protected boolean isPermitted(Entity entity, ConstraintData constraint) {
-        String metaClassName = entity.getMetaClass().getName();
+        return !filterPermitted(Collections.singletonList(entity), constraint).isEmpty();
+    }
+
+    /**
+     * @return entities permitted by the constraint
+     */
+    protected <T extends Entity> List<T> filterPermitted(List<T> entities, ConstraintData constraint) {
         String groovyScript = constraint.getGroovyScript();
-        if (constraint.getCheckType().memory() && StringUtils.isNotBlank(groovyScript)) {
-            try {
-                Object o = evaluateConstraintScript(entity, groovyScript);
-                if (Boolean.FALSE.equals(o)) {
-                    log.trace("Entity does not match security constraint. Entity class [{}]. Entity [{}]. Constraint [{}].",
-                            metaClassName, entity.getId(), constraint.getCheckType());
-                    return false;
-                }
-            } catch (Exception e) {
-                log.error("An error occurred while applying constraint's Groovy script. The entity has been filtered out." +
-                        "Entity class [{}]. Entity [{}].", metaClassName, entity.getId(), e);
-                return false;
-            }
+        if (!constraint.getCheckType().memory() || StringUtils.isBlank(groovyScript)) {
+            return entities;
         }
-        return true;
+        return getCompiledConstraint(groovyScript).filter(entities, constraint);
+    }
+
+    protected CompiledConstraint getCompiledConstraint(String groovyScript) {
+        CompiledConstraint compiledConstraint = compiledConstraints.getIfPresent(groovyScript);
+        if (compiledConstraint == null) {
+            compiledConstraint = new CompiledConstraint(groovyScript);
+            compiledConstraints.put(groovyScript, compiledConstraint);
+        }
+        return compiledConstraint;
     }
 
     @Override
     public Object evaluateConstraintScript(Entity entity, String groovyScript) {
-        Map<String, Object> context = new HashMap<>();
+        Map<String, Object> context = createConstraintContext();
         context.put("__entity__", entity);
+        return scripting.evaluateGroovy(groovyScript.replace("{E}", "__entity__"), context);
+    }
+
+    protected Map<String, Object> createConstraintContext() {
+        Map<String, Object> context = new HashMap<>();
         context.put("parse", new MethodClosure(this, "parseValue"));
         context.put("userSession", userSessionSource.getUserSession());
         fillGroovyConstraintsContext(context);
-        return scripting.evaluateGroovy(groovyScript.replace("{E}", "__entity__"), context);
+        return context;
     }
 
     /**
@@ -285,4 +365,149 @@ public class SecurityImpl implements Security {
                     "See the log for details.", clazz, string), null);
         }
     }
-}
\ No newline at end of file
+
+    protected ExecutorService getConstraintsExecutor() {
+        if (constraintsExecutor == null) {
+            synchronized (this) {
+                if (constraintsExecutor == null) {
+                    constraintsExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                            new ThreadFactoryBuilder()
+                                    .setNameFormat("InMemoryConstraints-%d")
+                                    .setDaemon(true)
+                                    .build());
+                }
+            }
+        }
+        return constraintsExecutor;
+    }
+
+    /**
+     * In-memory constraint prepared for checking entities. Simple comparisons of attributes with literals are
+     * checked without Groovy. Other scripts are run by one compiled script instance for all entities being
+     * checked, with a new binding for each entity, in parallel if there are at least {@code cuba.inMemoryConstraintsParallelThreshold} entities
+     * and none of them is managed.
+     */
+    protected class CompiledConstraint {
+        protected final String script;
+        protected final SimpleConstraintCondition condition;
+
+        protected CompiledConstraint(String groovyScript) {
+            this.script = groovyScript.replace("{E}", "__entity__");
+            this.condition = SimpleConstraintCondition.parse(groovyScript);
+        }
+
+        protected <T extends Entity> List<T> filter(List<T> entities, ConstraintData constraint) {
+            List<T> permitted = new ArrayList<>(entities.size());
+            List<T> toEvaluate = entities;
+            if (condition != null) {
+                toEvaluate = new ArrayList<>();
+                for (T entity : entities) {
+                    Boolean result = condition.evaluate(entity);
+                    if (result == null) {
+                        toEvaluate.add(entity);
+                    } else if (result) {
+                        permitted.add(entity);
+                    } else {
+                        logNotPermitted(entity, constraint);
+                    }
+                }
+            }
+            if (!toEvaluate.isEmpty()) {
+                permitted.addAll(evaluate(toEvaluate, constraint));
+            }
+            return permitted;
+        }
+
+        protected <T extends Entity> List<T> evaluate(List<T> entities, ConstraintData constraint) {
+            int threshold = globalConfig.getInMemoryConstraintsParallelThreshold();
+            int processors = Runtime.getRuntime().availableProcessors();
+            if (threshold <= 0 || entities.size() < threshold || processors < 2
+                    // managed entities can lazy load attributes through the persistence context of this thread
+                    || entities.stream().anyMatch(entityStates::isManaged)) {
+                return evaluateSequentially(entities, constraint);
+            }
+
+            SecurityContext securityContext = AppContext.getSecurityContext();
+            int partSize = (entities.size() + processors - 1) / processors;
+            List<Callable<List<T>>> tasks = new ArrayList<>();
+            for (int i = 0; i < entities.size(); i += partSize) {
+                List<T> part = entities.subList(i, Math.min(i + partSize, entities.size()));
+                tasks.add(() -> {
+                    SecurityContext previousContext = AppContext.getSecurityContext();
+                    AppContext.setSecurityContext(securityContext);
+                    try {
+                        return evaluateSequentially(part, constraint);
+                    } finally {
+                        AppContext.setSecurityContext(previousContext);
+                    }
+                });
+            }
+            List<T> permitted = new ArrayList<>(entities.size());
+            try {
+                for (Future<List<T>> future : getConstraintsExecutor().invokeAll(tasks)) {
+                    permitted.addAll(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while applying in-memory constraint", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new RuntimeException("Error applying in-memory constraint", e.getCause());
+            }
+            return permitted;
+        }
+
+        protected <T extends Entity> List<T> evaluateSequentially(List<T> entities, ConstraintData constraint) {
+            Map<String, Object> context = createConstraintContext();
+            List<T> permitted = new ArrayList<>(entities.size());
+            int[] next = {0};
+            while (next[0] < entities.size()) {
+                boolean[] runFailed = {false};
+                try {
+                    scripting.withGroovyScript(script, groovyScript -> {
+                        while (next[0] < entities.size()) {
+                            T entity = entities.get(next[0]++);
+                            // a new binding for each entity, so variables assigned by the script don't leak
+                            Map<String, Object> variables = new HashMap<>(context);
+                            variables.put("__entity__", entity);
+                            groovyScript.setBinding(new Binding(variables));
+                            Object result;
+                            try {
+                                result = groovyScript.run();
+                            } catch (Exception e) {
+                                logEvaluationError(entity, e);
+                                runFailed[0] = true;
+                                // the script instance is discarded and the rest are checked by another one
+                                throw e;
+                            }
+                            if (Boolean.FALSE.equals(result)) {
+                                logNotPermitted(entity, constraint);
+                            } else {
+                                permitted.add(entity);
+                            }
+                        }
+                        return null;
+                    });
+                } catch (Exception e) {
+                    if (!runFailed[0]) {
+                        log.error("An error occurred while applying constraint's Groovy script. {} entities have been filtered out." +
+                                "Entity class [{}].", entities.size() - next[0], entities.get(0).getMetaClass().getName(), e);
+                        break;
+                    }
+                }
+            }
+            return permitted;
+        }
+
+        protected void logNotPermitted(Entity entity, ConstraintData constraint) {
+            log.trace("Entity does not match security constraint. Entity class [{}]. Entity [{}]. Constraint [{}].",
+                    entity.getMetaClass().getName(), entity.getId(), constraint.getCheckType());
+        }
+
+        protected void logEvaluationError(Entity entity, Exception e) {
+            log.error("An error occurred while applying constraint's Groovy script. The entity has been filtered out." +
+                    "Entity class [{}]. Entity [{}].", entity.getMetaClass().getName(), entity.getId(), e);
+        }
+    }
+}
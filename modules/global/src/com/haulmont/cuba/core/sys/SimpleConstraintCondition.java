@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.haulmont.cuba.core.sys;
+
+import com.haulmont.chile.core.model.Instance;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Comparison of an entity attribute with a literal recognized in the Groovy script of an in-memory constraint, e.g.
+ * <code>{E}.status == 'active'</code>, <code>{E}.group.name != null</code> or <code>{E}.active == true</code>.
+ * Allows to check such constraints without running Groovy.
+ * <p>
+ * The result is the same as of the Groovy expression. If it cannot be determined without Groovy, for example when an
+ * intermediate attribute is null or a value has a type other than the literal, {@link #evaluate(Instance)} returns
+ * null and the script should be evaluated.
+ */
+public class SimpleConstraintCondition {
+
+    protected static final Pattern PATTERN = Pattern.compile(
+            "\\s*\\{E}\\.([A-Za-z_]\\w*(?:\\.[A-Za-z_]\\w*)*)\\s*(==|!=)\\s*" +
+                    "(null|true|false|-?\\d+(?:\\.\\d+)?|'[^'\\\\]*'|\"[^\"\\\\$]*\")\\s*");
+
+    protected final String[] path;
+    protected final boolean negated;
+    protected final Object literal;
+
+    protected SimpleConstraintCondition(String[] path, boolean negated, @Nullable Object literal) {
+        this.path = path;
+        this.negated = negated;
+        this.literal = literal;
+    }
+
+    /**
+     * @return condition or null if the script is not a simple comparison
+     */
+    @Nullable
+    public static SimpleConstraintCondition parse(String groovyScript) {
+        Matcher matcher = PATTERN.matcher(groovyScript);
+        if (!matcher.matches())
+            return null;
+
+        String[] path = matcher.group(1).split("\\.");
+        boolean negated = "!=".equals(matcher.group(2));
+        String literalText = matcher.group(3);
+        Object literal;
+        if ("null".equals(literalText)) {
+            literal = null;
+        } else if ("true".equals(literalText) || "false".equals(literalText)) {
+            literal = Boolean.valueOf(literalText);
+        } else if (literalText.startsWith("'") || literalText.startsWith("\"")) {
+            literal = literalText.substring(1, literalText.length() - 1);
+        } else {
+            literal = new BigDecimal(literalText);
+        }
+        return new SimpleConstraintCondition(path, negated, literal);
+    }
+
+    /**
+     * @return result of the comparison or null if the script should be evaluated instead
+     */
+    @Nullable
+    public Boolean evaluate(Instance instance) {
+        Object value = instance;
+        for (int i = 0; i < path.length; i++) {
+            String name = path[i];
+            if (!(value instanceof Instance))
+                return null;
+            Instance current = (Instance) value;
+            if (current.getMetaClass().getProperty(name) == null)
+                return null;
+            try {
+                value = current.getValue(name);
+            } catch (RuntimeException e) {
+                return null;
+            }
+            if (value == null && i < path.length - 1)
+                return null;
+        }
+
+        Boolean equal = isEqual(value);
+        if (equal == null)
+            return null;
+        return negated != equal;
+    }
+
+    @Nullable
+    protected Boolean isEqual(@Nullable Object value) {
+        if (value == null || literal == null) {
+            return value == literal;
+        }
+        if (literal instanceof String) {
+            return value instanceof String ? literal.equals(value) : null;
+        }
+        if (literal instanceof Boolean) {
+            return value instanceof Boolean ? literal.equals(value) : null;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof BigInteger || value instanceof BigDecimal) {
+            return ((BigDecimal) literal).compareTo(new BigDecimal(value.toString())) == 0;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "{E}." + String.join(".", path) + (negated ? " != " : " == ") + literal;
+    }
+}
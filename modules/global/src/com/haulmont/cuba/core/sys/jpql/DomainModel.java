@@ -22,14 +22,20 @@ import com.haulmont.cuba.core.global.ExtendedEntities;
 import com.haulmont.cuba.core.global.Metadata;
 import com.haulmont.cuba.core.sys.jpql.model.JpqlEntityModel;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @NotThreadSafe
 public class DomainModel {
+    private static final AtomicLong versionCounter = new AtomicLong();
+
+    protected final long version = versionCounter.incrementAndGet();
+    protected QueryTreeCache treeCache;
     protected Map<String, JpqlEntityModel> entities = new HashMap<>();
     protected ExtendedEntities extendedEntities;
     protected Metadata metadata;
@@ -76,4 +82,23 @@ public class DomainModel {
             return entity;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @return number identifying this instance of the model, distinct for each created model
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return cache of trees of queries parsed for this model, or null if trees are not cached
+     */
+    @Nullable
+    public QueryTreeCache getTreeCache() {
+        return treeCache;
+    }
+
+    public void setTreeCache(@Nullable QueryTreeCache treeCache) {
+        this.treeCache = treeCache;
+    }
+}
@@ -32,6 +32,20 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 public class Parser {
+
+    /**
+     * Parses the query using the tree cache of the domain model, if the model has one.
+     * <p>
+     * Incomplete queries are parsed without failing only for autocompletion hints, they are not cached.
+     */
+    public static CommonTree parse(String input, boolean failOnErrors, DomainModel model) throws RecognitionException {
+        QueryTreeCache treeCache = model.getTreeCache();
+        if (failOnErrors && treeCache != null) {
+            return treeCache.getTree(model.getVersion(), input, query -> parse(query, true));
+        }
+        return parse(input, failOnErrors);
+    }
+
     public static CommonTree parse(String input, boolean failOnErrors) throws RecognitionException {
         JPA2Parser parser = createParser(input);
         JPA2Parser.ql_statement_return aReturn = parser.ql_statement();
@@ -51,7 +51,7 @@ public class QueryTreeAnalyzer {
         String modifiedQuery = StringUtils.replaceChars(query, "\n\r\t", "   ");
 
         this.model = model;
-        this.tree = Parser.parse(modifiedQuery, failOnErrors);
+        this.tree = Parser.parse(modifiedQuery, failOnErrors, model);
         TreeVisitor visitor = new TreeVisitor();
         this.idVarSelector = new IdVarSelector(model);
         visitor.visit(tree, idVarSelector);
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.sys.jpql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.Tree;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of parsed JPQL query trees.
+ * <p>
+ * Trees are cached by the query text and the version of the {@link DomainModel} the query is parsed for, so a tree
+ * is never served to a parser working with another domain model. A tree is parsed once and then each caller receives
+ * its own copy, because analyzers and transformers modify the tree. Copying a tree is much cheaper than running the
+ * parser again.
+ */
+public class QueryTreeCache {
+
+    public interface TreeParser {
+        CommonTree parse(String query) throws RecognitionException;
+    }
+
+    protected final Cache<List<Object>, CommonTree> cache;
+    protected final int maxSize;
+
+    protected final AtomicLong parseCount = new AtomicLong();
+    protected final AtomicLong parseTimeNanos = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of cached trees, 0 to parse each query without caching
+     */
+    public QueryTreeCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.cache = CacheBuilder.newBuilder().maximumSize(Math.max(maxSize, 0)).recordStats().build();
+    }
+
+    /**
+     * Returns a copy of the cached tree of the query, parsing it if needed.
+     *
+     * @param modelVersion version of the domain model the query is parsed for, see {@link DomainModel#getVersion()}
+     */
+    public CommonTree getTree(long modelVersion, String query, TreeParser parser) throws RecognitionException {
+        if (maxSize <= 0)
+            return parse(query, parser);
+
+        List<Object> key = Arrays.asList(modelVersion, query);
+        CommonTree tree = cache.getIfPresent(key);
+        if (tree == null) {
+            tree = parse(query, parser);
+            cache.put(key, tree);
+        }
+        return copyTree(tree);
+    }
+
+    protected CommonTree parse(String query, TreeParser parser) throws RecognitionException {
+        long start = System.nanoTime();
+        try {
+            return parser.parse(query);
+        } finally {
+            parseCount.incrementAndGet();
+            parseTimeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Creates a deep copy of the tree.
+     */
+    public static CommonTree copyTree(CommonTree tree) {
+        CommonTree copy = (CommonTree) tree.dupNode();
+        // custom nodes copy their children in dupNode() while the standard ones don't, so build children uniformly
+        for (int i = copy.getChildCount() - 1; i >= 0; i--) {
+            copy.deleteChild(i);
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            Tree child = tree.getChild(i);
+            copy.addChild(copyTree((CommonTree) child));
+        }
+        return copy;
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getParseCount() {
+        return parseCount.get();
+    }
+
+    public long getAvgParseTimeMicros() {
+        long count = parseCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(parseTimeNanos.get() / count);
+    }
+}
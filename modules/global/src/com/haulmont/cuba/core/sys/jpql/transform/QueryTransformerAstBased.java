@@ -157,7 +157,7 @@ public class QueryTransformerAstBased implements QueryTransformer {
         EntityReferenceInferer inferer = new EntityReferenceInferer(getMainEntityName());
         EntityReference ref = inferer.infer(getQueryTransformer());
         try {
-            CommonTree statementTree = Parser.parse(statement, true);
+            CommonTree statementTree = Parser.parse(statement, true, model);
             CommonTree whereClause = (CommonTree) statementTree.getFirstChildWithType(JPA2Lexer.T_CONDITION);
             addWhere(whereClause, ref, true);
         } catch (RecognitionException e) {
@@ -20,6 +20,7 @@ package com.haulmont.cuba.core.sys.remoting;
 import com.google.common.io.CountingInputStream;
 import com.haulmont.cuba.core.sys.AppContext;
 import com.haulmont.cuba.core.sys.remoting.discovery.ServerSelector;
+import com.haulmont.cuba.core.sys.serialization.CompactSerialization;
 import com.haulmont.cuba.core.sys.serialization.SerializationSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +33,7 @@ import org.springframework.util.StopWatch;
 import javax.annotation.Nullable;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.HttpURLConnection;
@@ -46,6 +48,8 @@ public class ClusteredHttpInvokerRequestExecutor extends SimpleHttpInvokerReques
 
     private ServerSelector serverSelector;
 
+    private boolean compactSerialization;
+
     private static final Logger log = LoggerFactory.getLogger(ClusteredHttpInvokerRequestExecutor.class);
 
     public ClusteredHttpInvokerRequestExecutor(ServerSelector serverSelector) {
@@ -56,6 +60,8 @@ public class ClusteredHttpInvokerRequestExecutor extends SimpleHttpInvokerReques
 
         String readTimeoutProp = AppContext.getProperty("cuba.connectionReadTimeout");
         setReadTimeout(readTimeoutProp == null ? -1 : Integer.parseInt(readTimeoutProp));
+
+        compactSerialization = Boolean.valueOf(AppContext.getProperty("cuba.remoting.compactSerialization"));
     }
 
     @Override
@@ -83,8 +89,14 @@ public class ClusteredHttpInvokerRequestExecutor extends SimpleHttpInvokerReques
                 serverSelector.success(context);
 
                 sw.start("reading time");
-                try (ObjectInputStream ois = createObjectInputStream(decorateInputStream(responseInputStream), config.getCodebaseUrl())) {
-                    result = doReadRemoteInvocationResult(ois);
+                if (con.getHeaderField(CompactSerialization.SCHEMA_VERSION_HEADER) != null) {
+                    try (InputStream is = decorateInputStream(responseInputStream)) {
+                        result = (RemoteInvocationResult) SerializationSupport.getCompactSerialization().deserialize(is);
+                    }
+                } else {
+                    try (ObjectInputStream ois = createObjectInputStream(decorateInputStream(responseInputStream), config.getCodebaseUrl())) {
+                        result = doReadRemoteInvocationResult(ois);
+                    }
                 }
                 sw.stop();
                 if (log.isDebugEnabled()) {
@@ -108,6 +120,20 @@ public class ClusteredHttpInvokerRequestExecutor extends SimpleHttpInvokerReques
         return result;
     }
 
+    /**
+     * Offers the middleware to send the result using {@link CompactSerialization} if it is enabled by the
+     * {@code cuba.remoting.compactSerialization} property. The middleware uses it only if its schema version is
+     * the same.
+     */
+    @Override
+    protected void prepareConnection(HttpURLConnection connection, int contentLength) throws IOException {
+        super.prepareConnection(connection, contentLength);
+        if (compactSerialization) {
+            connection.setRequestProperty(CompactSerialization.SCHEMA_VERSION_HEADER,
+                    String.valueOf(SerializationSupport.getCompactSerialization().getSchemaVersion()));
+        }
+    }
+
     @Nullable
     protected String currentServiceUrl(String url, HttpInvokerClientConfiguration config) {
         return url == null ? null :  url + "/" + config.getServiceUrl();
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.haulmont.cuba.core.sys.serialization;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.cuba.core.entity.BaseEntityInternalAccess;
+import com.haulmont.cuba.core.entity.BaseGenericIdEntity;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.Metadata;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Kryo based serialization that knows the application metamodel.
+ * <p>
+ * All entity classes and common value classes are registered in Kryo under numeric identifiers derived from
+ * the sorted list of metaclasses, so the class of each object is written as a short id instead of its name,
+ * and entity fields are written positionally without names. Lazy collections and value holders are handled
+ * in the same way as in {@link KryoSerialization}.
+ * <p>
+ * Both sides must have the same set of entity classes. Each payload starts with a header containing the
+ * schema version (see {@link #getSchemaVersion()}), and payloads with a different version are rejected.
+ * Callers are expected to negotiate the version and use this serialization only if it matches.
+ */
+public class CompactSerialization extends KryoSerialization {
+
+    /**
+     * Marker written at the beginning of each payload.
+     */
+    public static final int MAGIC = 0xCBA5C0DE;
+
+    /**
+     * HTTP header used to negotiate the schema version between client and middleware.
+     */
+    public static final String SCHEMA_VERSION_HEADER = "X-Cuba-Schema-Version";
+
+    protected static final int FIRST_REGISTRATION_ID = 100;
+
+    protected static final List<Class<?>> VALUE_CLASSES = Arrays.asList(
+            UUID.class, Date.class, java.sql.Date.class, java.sql.Time.class, java.sql.Timestamp.class,
+            BigDecimal.class, BigInteger.class, Locale.class, Class.class,
+            ArrayList.class, LinkedList.class, HashMap.class, LinkedHashMap.class, TreeMap.class,
+            HashSet.class, LinkedHashSet.class, TreeSet.class,
+            Object[].class, String[].class, byte[].class, int[].class, long[].class);
+
+    protected volatile List<Class<?>> entityClasses;
+
+    protected volatile int schemaVersion;
+
+    public CompactSerialization() {
+    }
+
+    public CompactSerialization(boolean onlySerializable) {
+        super(onlySerializable);
+    }
+
+    /**
+     * @return hash of entity class names and their serializable fields. Serialized data can be read
+     * only by an instance with the same schema version.
+     */
+    public int getSchemaVersion() {
+        getEntityClasses();
+        return schemaVersion;
+    }
+
+    /**
+     * @return true if the given bytes start with the compact serialization header
+     */
+    public static boolean isCompact(byte[] bytes) {
+        return bytes != null && bytes.length >= 4
+                && ((bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF)) == MAGIC;
+    }
+
+    @Override
+    protected Kryo newKryoInstance() {
+        Kryo kryo = super.newKryoInstance();
+
+        int id = FIRST_REGISTRATION_ID;
+        for (Class<?> valueClass : VALUE_CLASSES) {
+            kryo.register(valueClass, id++);
+        }
+        for (Class<?> entityClass : getEntityClasses()) {
+            kryo.register(entityClass, id++);
+        }
+        return kryo;
+    }
+
+    protected List<Class<?>> getEntityClasses() {
+        if (entityClasses == null) {
+            synchronized (this) {
+                if (entityClasses == null) {
+                    Metadata metadata = AppBeans.get(Metadata.NAME);
+
+                    List<MetaClass> metaClasses = new ArrayList<>(metadata.getSession().getClasses());
+                    metaClasses.sort(Comparator.comparing(MetaClass::getName));
+
+                    List<Class<?>> classes = new ArrayList<>(metaClasses.size());
+                    CRC32 crc = new CRC32();
+                    for (MetaClass metaClass : metaClasses) {
+                        Class<?> javaClass = metaClass.getJavaClass();
+                        if (javaClass == null || classes.contains(javaClass))
+                            continue;
+                        classes.add(javaClass);
+                        updateSchemaHash(crc, javaClass);
+                    }
+                    schemaVersion = (int) crc.getValue();
+                    entityClasses = classes;
+                }
+            }
+        }
+        return entityClasses;
+    }
+
+    protected void updateSchemaHash(CRC32 crc, Class<?> javaClass) {
+        crc.update(javaClass.getName().getBytes(StandardCharsets.UTF_8));
+        for (Class<?> c = javaClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    crc.update(field.getName().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void serialize(Object object, OutputStream os) {
+        try {
+            DataOutputStream dos = new DataOutputStream(os);
+            dos.writeInt(MAGIC);
+            dos.writeInt(getSchemaVersion());
+            dos.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize object", e);
+        }
+        try (Output output = new CubaOutput(os)) {
+            if (object instanceof BaseGenericIdEntity
+                    && BaseEntityInternalAccess.isManaged((BaseGenericIdEntity) object)) {
+                BaseEntityInternalAccess.setDetached((BaseGenericIdEntity) object, true);
+            }
+            kryos.get().writeClassAndObject(output, object);
+        }
+    }
+
+    @Override
+    public Object deserialize(InputStream is) {
+        try {
+            DataInputStream dis = new DataInputStream(is);
+            int magic = dis.readInt();
+            if (magic != MAGIC) {
+                throw new IllegalArgumentException("Failed to deserialize object: invalid header");
+            }
+            int version = dis.readInt();
+            if (version != getSchemaVersion()) {
+                throw new IllegalStateException(String.format(
+                        "Failed to deserialize object: schema version %d differs from local version %d",
+                        version, getSchemaVersion()));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to deserialize object", e);
+        }
+        try (Input input = new Input(is)) {
+            return kryos.get().readClassAndObject(input);
+        }
+    }
+}
@@ -33,6 +33,7 @@ import static java.lang.String.format;
 public class SerializationSupport {
     private final static Serialization serialization;
     private final static KryoSerialization kryoSerialization = new KryoSerialization();
+    private final static CompactSerialization compactSerialization = new CompactSerialization();
 
     static {
         String serializationClassStr = AppContext.getProperty("cuba.serialization.impl");
@@ -68,4 +69,8 @@ public class SerializationSupport {
     public static KryoSerialization getKryoSerialization() {
         return kryoSerialization;
     }
+
+    public static CompactSerialization getCompactSerialization() {
+        return compactSerialization;
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.chile.core.model.utils;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+
+import static org.junit.Assert.*;
+
+public class MethodsCacheTest {
+
+    @Test
+    public void testGeneratedAccessors() {
+        MethodsCache cache = new MethodsCache(Bean.class);
+        Bean bean = new Bean();
+
+        cache.invokeSetter(bean, "name", "foo");
+        cache.invokeSetter(bean, "count", 10);
+        cache.invokeSetter(bean, "active", true);
+
+        assertEquals("foo", cache.invokeGetter(bean, "name"));
+        assertEquals(10, cache.invokeGetter(bean, "count"));
+        assertEquals(true, cache.invokeGetter(bean, "active"));
+    }
+
+    @Test
+    public void testReflectiveAccessors() {
+        MethodsCache cache = new MethodsCache(HiddenBean.class);
+        HiddenBean bean = new HiddenBean();
+
+        cache.invokeSetter(bean, "code", "bar");
+        assertEquals("bar", cache.invokeGetter(bean, "code"));
+    }
+
+    @Test
+    public void testUnknownProperty() {
+        MethodsCache cache = new MethodsCache(Bean.class);
+        try {
+            cache.invokeGetter(new Bean(), "unknown");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testAccessorExceptionsAreWrapped() {
+        assertAccessorExceptionsAreWrapped(new MethodsCache(Bean.class), new Bean());
+        assertAccessorExceptionsAreWrapped(new MethodsCache(HiddenBean.class), new HiddenBean());
+    }
+
+    private void assertAccessorExceptionsAreWrapped(MethodsCache cache, Object bean) {
+        try {
+            cache.invokeGetter(bean, "failing");
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof InvocationTargetException);
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+        try {
+            cache.invokeSetter(bean, "failing", "value");
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof InvocationTargetException);
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testInvalidSetterArguments() {
+        MethodsCache cache = new MethodsCache(Bean.class);
+        Bean bean = new Bean();
+        try {
+            cache.invokeSetter(bean, "name", 10);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+        try {
+            cache.invokeSetter(bean, "count", null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+
+        cache.invokeSetter(bean, "total", 10);
+        assertEquals(10L, cache.invokeGetter(bean, "total"));
+    }
+
+    public static class Bean {
+        private String name;
+        private int count;
+        private long total;
+        private boolean active;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public void setTotal(long total) {
+            this.total = total;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public String getFailing() {
+            throw new IllegalStateException("getter");
+        }
+
+        public void setFailing(String value) {
+            throw new IllegalStateException("setter");
+        }
+    }
+
+    static class HiddenBean {
+        private String code;
+
+        public String getCode() {
+            return code;
+        }
+
+        public void setCode(String code) {
+            this.code = code;
+        }
+
+        public String getFailing() {
+            throw new IllegalStateException("getter");
+        }
+
+        public void setFailing(String value) {
+            throw new IllegalStateException("setter");
+        }
+    }
+}
@@ -115,4 +115,25 @@ public class AppPropertiesTest {
             System.setProperty("prop1", "");
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testResolvedValueChanges() {
+        appProperties.setProperty("prop11", "v1-${prop12}");
+        appProperties.setProperty("prop12", "a");
+        assertEquals("v1-a", appProperties.getProperty("prop11"));
+
+        appProperties.setProperty("prop12", "b");
+        assertEquals("v1-b", appProperties.getProperty("prop11"));
+
+        System.setProperty("prop12", "c");
+        try {
+            assertEquals("v1-c", appProperties.getProperty("prop11"));
+        } finally {
+            System.clearProperty("prop12");
+        }
+        assertEquals("v1-b", appProperties.getProperty("prop11"));
+
+        appProperties.setProperty("prop11", null);
+        assertNull(appProperties.getProperty("prop11"));
+    }
+}
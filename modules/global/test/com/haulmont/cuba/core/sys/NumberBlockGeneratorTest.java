@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.core.sys;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class NumberBlockGeneratorTest {
+
+    private AtomicLong sequence = new AtomicLong();
+    private AtomicInteger calls = new AtomicInteger();
+
+    private long[] reserve(int count, int rangeSize) {
+        calls.incrementAndGet();
+        long[] starts = new long[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = sequence.getAndAdd(rangeSize) + 1;
+        }
+        return starts;
+    }
+
+    @Test
+    public void testSequentialNumbers() {
+        NumberBlockGenerator generator = new NumberBlockGenerator(count -> reserve(count, 10), 10, 1, null);
+        assertNull(generator.getLast());
+        for (int i = 1; i <= 25; i++) {
+            assertEquals(i, generator.getNext());
+        }
+        assertEquals(Long.valueOf(25), generator.getLast());
+        assertEquals(3, calls.get());
+        assertEquals(3, generator.getReserveCount());
+    }
+
+    @Test
+    public void testConcurrentNumbersAreUnique() throws Exception {
+        ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+        NumberBlockGenerator generator = new NumberBlockGenerator(count -> reserve(count, 7), 7, 8, prefetchExecutor);
+
+        int threads = 8;
+        int perThread = 5000;
+        Set<Long> numbers = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.submit(() -> {
+                    for (int j = 0; j < perThread; j++) {
+                        numbers.add(generator.getNext());
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        } finally {
+            prefetchExecutor.shutdownNow();
+        }
+
+        assertEquals(threads * perThread, numbers.size());
+        assertTrue(generator.getRangesPerBlock() > 1);
+        assertTrue(generator.getPrefetchCount() > 0);
+    }
+
+    @Test
+    public void testFailedReservationIsRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        NumberBlockGenerator generator = new NumberBlockGenerator(count -> {
+            if (attempts.incrementAndGet() == 2)
+                throw new IllegalStateException("sequence unavailable");
+            return reserve(count, 2);
+        }, 2, 1, null);
+
+        assertEquals(1, generator.getNext());
+        assertEquals(2, generator.getNext());
+        try {
+            generator.getNext();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("sequence unavailable", e.getMessage());
+        }
+        assertEquals(3, generator.getNext());
+    }
+}
@@ -17,10 +17,12 @@
 package com.haulmont.cuba.gui.data;
 
 import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.gui.components.AggregationInfo;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * CollectionDatasource which supports a grouping of items by the list of properties
@@ -104,4 +106,29 @@ public interface GroupDatasource<T extends Entity<K>, K> extends CollectionDatas
      * Indicates that a group is contained in the groups tree
      */
     boolean containsGroup(GroupInfo groupId);
+
+    /**
+     * GroupDatasource that can build groups and calculate their aggregates in the database, loading items of
+     * a group only when they are requested.
+     *
+     * @param <T> type of entity
+     * @param <K> type of entity ID
+     */
+    interface SupportsGroupOnDb<T extends Entity<K>, K> extends GroupDatasource<T, K> {
+
+        boolean isGroupOnDb();
+        void setGroupOnDb(boolean groupOnDb);
+
+        /**
+         * @return true if the current groups are built by the database and items are loaded by groups
+         */
+        boolean isGroupedOnDb();
+
+        /**
+         * Perform aggregation of items of the group.
+         *
+         * @param groupId group, or null to aggregate all items
+         */
+        Map<AggregationInfo, String> aggregateGroup(AggregationInfo[] aggregationInfos, @Nullable GroupInfo groupId);
+    }
 }
\ No newline at end of file
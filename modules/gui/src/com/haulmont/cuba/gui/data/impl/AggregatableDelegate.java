@@ -41,47 +41,52 @@ public abstract class AggregatableDelegate<K> {
         final Map<AggregationInfo, String> aggregationResults = new HashMap<>();
         for (AggregationInfo aggregationInfo : aggregationInfos) {
             final Object value = doPropertyAggregation(aggregationInfo, itemIds);
+            aggregationResults.put(aggregationInfo, formatValue(aggregationInfo, value));
+        }
+        return aggregationResults;
+    }
 
-            String formattedValue;
-            if (aggregationInfo.getFormatter() != null) {
-                //noinspection unchecked
-                formattedValue = aggregationInfo.getFormatter().format(value);
-            } else {
-                MetaPropertyPath propertyPath = aggregationInfo.getPropertyPath();
-                final Range range = propertyPath.getRange();
-                if (range.isDatatype()) {
-                    if (aggregationInfo.getType() != AggregationInfo.Type.COUNT) {
-                        Class resultClass;
-                        if (aggregationInfo.getStrategy() == null) {
-                            Class rangeJavaClass = propertyPath.getRangeJavaClass();
-                            Aggregation aggregation = Aggregations.get(rangeJavaClass);
-                            resultClass = aggregation.getResultClass();
-                        } else {
-                            resultClass = aggregationInfo.getStrategy().getResultClass();
-                        }
-
-                        UserSessionSource userSessionSource = AppBeans.get(UserSessionSource.NAME);
-                        Locale locale = userSessionSource.getLocale();
-                        formattedValue = Datatypes.getNN(resultClass).format(value, locale);
+    /**
+     * Formats an aggregated value the same way as results of {@link #aggregate(AggregationInfo[], Collection)}.
+     */
+    public String formatValue(AggregationInfo aggregationInfo, Object value) {
+        String formattedValue;
+        if (aggregationInfo.getFormatter() != null) {
+            //noinspection unchecked
+            formattedValue = aggregationInfo.getFormatter().format(value);
+        } else {
+            MetaPropertyPath propertyPath = aggregationInfo.getPropertyPath();
+            final Range range = propertyPath.getRange();
+            if (range.isDatatype()) {
+                if (aggregationInfo.getType() != AggregationInfo.Type.COUNT) {
+                    Class resultClass;
+                    if (aggregationInfo.getStrategy() == null) {
+                        Class rangeJavaClass = propertyPath.getRangeJavaClass();
+                        Aggregation aggregation = Aggregations.get(rangeJavaClass);
+                        resultClass = aggregation.getResultClass();
                     } else {
-                        formattedValue = value.toString();
+                        resultClass = aggregationInfo.getStrategy().getResultClass();
                     }
+
+                    UserSessionSource userSessionSource = AppBeans.get(UserSessionSource.NAME);
+                    Locale locale = userSessionSource.getLocale();
+                    formattedValue = Datatypes.getNN(resultClass).format(value, locale);
                 } else {
-                    if (aggregationInfo.getStrategy() != null) {
-                        Class resultClass = aggregationInfo.getStrategy().getResultClass();
+                    formattedValue = value.toString();
+                }
+            } else {
+                if (aggregationInfo.getStrategy() != null) {
+                    Class resultClass = aggregationInfo.getStrategy().getResultClass();
 
-                        UserSessionSource userSessionSource = AppBeans.get(UserSessionSource.NAME);
-                        Locale locale = userSessionSource.getLocale();
-                        formattedValue = Datatypes.getNN(resultClass).format(value, locale);
-                    } else {
-                        formattedValue = value.toString();
-                    }
+                    UserSessionSource userSessionSource = AppBeans.get(UserSessionSource.NAME);
+                    Locale locale = userSessionSource.getLocale();
+                    formattedValue = Datatypes.getNN(resultClass).format(value, locale);
+                } else {
+                    formattedValue = value.toString();
                 }
             }
-
-            aggregationResults.put(aggregationInfo, formattedValue);
         }
-        return aggregationResults;
+        return formattedValue;
     }
 
     @SuppressWarnings("unchecked")
@@ -35,6 +35,7 @@ import org.perf4j.StopWatch;
 import org.perf4j.slf4j.Slf4JStopWatch;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.*;
 
 import static com.haulmont.bali.util.Preconditions.checkNotNullArgument;
@@ -85,6 +86,13 @@ public class CollectionDatasourceImpl<T extends Entity<K>, K>
             .getConfig(ClientConfig.class).getCollectionDatasourceDbSortEnabled();
 
     protected LoadContext.Query lastQuery;
+
+    protected boolean keysetPaging;
+    // position and last row of the loaded page to continue from with the keyset pagination
+    protected LoadContext.Query keysetQuery;
+    protected String keysetSort;
+    protected int keysetFirstResult;
+    protected T keysetAfter;
     protected LinkedList<LoadContext.Query> prevQueries = new LinkedList<>();
     protected Integer queryKey;
 
@@ -639,10 +647,21 @@ public class CollectionDatasourceImpl<T extends Entity<K>, K>
         }
 
         if (sortInfos != null && sortOnDb) {
-            setSortDirection(q);
+            if (keysetPaging) {
+                setSort(q);
+            } else {
+                setSortDirection(q);
+            }
         }
 
-        if (firstResult > 0)
+        if (keysetPaging && isKeysetApplicable(q)) {
+            q.setKeysetPagination(true);
+            if (firstResult > 0 && canContinueKeyset(q)) {
+                q.setAfter(keysetAfter);
+            } else if (firstResult > 0) {
+                q.setFirstResult(firstResult);
+            }
+        } else if (firstResult > 0)
             q.setFirstResult(firstResult);
 
         if (maxResults > 0) {
@@ -677,6 +696,58 @@ public class CollectionDatasourceImpl<T extends Entity<K>, K>
         }
 
         lastQuery = context.getQuery();
+
+        if (keysetPaging && lastQuery.isKeysetPagination()) {
+            rememberKeyset(lastQuery, entities);
+        } else {
+            keysetAfter = null;
+        }
+    }
+
+    protected void setSort(LoadContext.Query q) {
+        MetaPropertyPath propertyPath = sortInfos[0].getPropertyPath();
+        if (propertyPath != null) {
+            boolean asc = Sortable.Order.ASC.equals(sortInfos[0].getOrder());
+            q.setSort(Sort.by(asc ? Sort.Direction.ASC : Sort.Direction.DESC, propertyPath.toString()));
+        }
+    }
+
+    @Nullable
+    protected String getKeysetSort() {
+        if (sortInfos == null || !sortOnDb || sortInfos[0].getPropertyPath() == null) {
+            return null;
+        }
+        return sortInfos[0].getPropertyPath() + " " + sortInfos[0].getOrder();
+    }
+
+    /**
+     * The keyset pagination replaces the order of the query, so it is used only if the order is defined by sorting
+     * the datasource or the query has no order by.
+     */
+    protected boolean isKeysetApplicable(LoadContext.Query q) {
+        return q.getSort() != null || !QueryParserRegex.ORDER_BY_PATTERN.matcher(q.getQueryString()).find();
+    }
+
+    protected boolean canContinueKeyset(LoadContext.Query q) {
+        return keysetAfter != null
+                && firstResult == keysetFirstResult
+                && keysetQuery.getQueryString().equals(q.getQueryString())
+                && keysetQuery.getParameters().equals(q.getParameters())
+                && Objects.equals(keysetSort, getKeysetSort());
+    }
+
+    protected void rememberKeyset(LoadContext.Query q, Collection<T> entities) {
+        keysetAfter = null;
+        T last = null;
+        for (T entity : entities) {
+            last = entity;
+        }
+        if (last != null) {
+            keysetQuery = q;
+            keysetSort = getKeysetSort();
+            keysetFirstResult = firstResult + entities.size();
+            keysetAfter = last;
+        }
     }
 
     @Override
@@ -733,6 +804,25 @@ public class CollectionDatasourceImpl<T extends Entity<K>, K>
         this.firstResult = startPosition;
     }
 
+    /**
+     * @return whether the next page is loaded using the keyset pagination
+     */
+    public boolean isKeysetPaging() {
+        return keysetPaging;
+    }
+
+    /**
+     * Enables the keyset pagination: when the next page is requested, the datasource loads rows following the last
+     * loaded one instead of skipping {@code firstResult} rows, so the cost of loading a page does not grow with its
+     * number. Other pages are loaded by offset. The keyset pagination is used only if the datasource is sorted
+     * or its query has no order by, otherwise the order of the query is kept and pages are loaded by offset. See {@link LoadContext.Query#setKeysetPagination(boolean)}
+     * for restrictions.
+     */
+    public void setKeysetPaging(boolean keysetPaging) {
+        this.keysetPaging = keysetPaging;
+        this.keysetAfter = null;
+    }
+
     protected void incrementQueryKey() {
         queryKey = userSession.getAttribute("_queryKey");
         if (queryKey == null)
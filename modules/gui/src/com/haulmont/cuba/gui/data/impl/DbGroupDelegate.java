@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.gui.data.impl;
+
+import com.haulmont.chile.core.datatypes.impl.EnumClass;
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.chile.core.model.MetaPropertyPath;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.entity.KeyValueEntity;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.LoadContext;
+import com.haulmont.cuba.core.global.MetadataTools;
+import com.haulmont.cuba.core.global.QueryTransformer;
+import com.haulmont.cuba.core.global.QueryTransformerFactory;
+import com.haulmont.cuba.core.global.ValueLoadContext;
+import com.haulmont.cuba.gui.components.AggregationInfo;
+import com.haulmont.cuba.gui.data.CollectionDatasource;
+import com.haulmont.cuba.gui.data.GroupInfo;
+import com.haulmont.cuba.gui.data.aggregation.Aggregation;
+import com.haulmont.cuba.gui.data.aggregation.Aggregations;
+import org.apache.commons.collections4.map.LinkedMap;
+import org.apache.commons.lang3.ArrayUtils;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Group delegate of {@link GroupDatasourceImpl} that builds groups in the database if
+ * {@link GroupDatasourceImpl#isGroupOnDb()} is set.
+ * <p>
+ * The group tree and the number of items in each group are loaded by a single {@code group by} query. Items of
+ * a group are loaded when they are requested, e.g. when the group is expanded in a table. Aggregates are calculated
+ * by {@code group by} queries too, one query for all groups of a level.
+ * <p>
+ * Items are grouped in memory as usual if a grouping property is not a persistent non-LOB attribute of the
+ * datasource entity having a datatype or an enumeration, or if the datasource query cannot be used for grouping.
+ */
+public abstract class DbGroupDelegate<T extends Entity<K>, K> extends GroupDelegate<T, K> {
+
+    protected static final Pattern COUNT_PATTERN = Pattern.compile("\\bcount\\s*\\(", Pattern.CASE_INSENSITIVE);
+
+    protected static final String GROUP_VALUE_PREFIX = "groupValue";
+    protected static final String AGGREGATE_PREFIX = "aggregate";
+    protected static final String COUNT_PROPERTY = "count";
+
+    protected GroupDatasourceImpl<T, K> groupDatasource;
+
+    protected MetadataTools metadataTools = AppBeans.get(MetadataTools.NAME);
+
+    protected boolean groupedOnDb;
+
+    protected Map<GroupInfo, Integer> groupCounts;
+    // aggregates of groups, the null key holds aggregates of all items
+    protected Map<GroupInfo, Map<AggregationInfo, Object>> groupAggregates;
+
+    protected DbGroupDelegate(GroupDatasourceImpl<T, K> datasource) {
+        super(datasource);
+        this.groupDatasource = datasource;
+    }
+
+    /**
+     * @return true if the current groups are built by the database
+     */
+    public boolean isGroupedOnDb() {
+        return groupedOnDb && hasGroups();
+    }
+
+    /**
+     * @return true if the current group properties allow building groups in the database
+     */
+    public boolean canGroupOnDb() {
+        if (ArrayUtils.isEmpty(groupProperties) || !groupDatasource.isQueryGroupable()) {
+            return false;
+        }
+        for (Object property : groupProperties) {
+            if (!(property instanceof MetaPropertyPath) || !isDbGroupProperty((MetaPropertyPath) property)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the aggregation can be calculated by the database
+     */
+    public boolean canAggregateOnDb(AggregationInfo aggregationInfo) {
+        MetaPropertyPath propertyPath = aggregationInfo.getPropertyPath();
+        if (aggregationInfo.getStrategy() != null || propertyPath == null
+                || !isDbAttribute(propertyPath) || !propertyPath.getRange().isDatatype()) {
+            return false;
+        }
+        Class<?> javaClass = propertyPath.getRangeJavaClass();
+        if (Aggregations.get(javaClass) == null) {
+            return false;
+        }
+        switch (aggregationInfo.getType()) {
+            case COUNT:
+                return true;
+            case SUM:
+            case AVG:
+                return Number.class.isAssignableFrom(javaClass);
+            case MIN:
+            case MAX:
+                return Number.class.isAssignableFrom(javaClass) || Date.class.isAssignableFrom(javaClass);
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void groupBy(Object[] properties, CollectionDatasource.Sortable.SortInfo<MetaPropertyPath>[] sortInfos) {
+        boolean wasGroupedOnDb = isGroupedOnDb();
+
+        super.groupBy(properties, sortInfos);
+
+        if (wasGroupedOnDb && !isGroupedOnDb() && properties != null) {
+            // items have been loaded only for expanded groups
+            groupDatasource.refresh();
+            super.groupBy(properties, sortInfos);
+        }
+    }
+
+    @Override
+    protected void doGroup() {
+        groupedOnDb = false;
+        groupCounts = null;
+        groupAggregates = null;
+
+        if (groupDatasource.isGroupOnDb() && canGroupOnDb()) {
+            doGroupOnDb();
+        } else {
+            super.doGroup();
+        }
+    }
+
+    protected void doGroupOnDb() {
+        roots = new LinkedList<>();
+        parents = new LinkedHashMap<>();
+        children = new HashMap<>();
+        groupItems = new HashMap<>();
+        itemGroups = new HashMap<>();
+        groupCounts = new HashMap<>();
+        groupAggregates = new HashMap<>();
+        groupedOnDb = true;
+
+        groupDatasource.clearLoadedItems();
+
+        for (KeyValueEntity row : loadGroupValues(groupProperties.length, Collections.emptyList())) {
+            Number count = row.getValue(COUNT_PROPERTY);
+
+            LinkedMap<MetaPropertyPath, Object> groupValues = new LinkedMap<>();
+            GroupInfo parent = null;
+            List<GroupInfo> levelGroups = roots;
+            for (int i = 0; i < groupProperties.length; i++) {
+                MetaPropertyPath property = (MetaPropertyPath) groupProperties[i];
+                groupValues.put(property, convertGroupValue(property, row.getValue(GROUP_VALUE_PREFIX + i)));
+
+                GroupInfo<MetaPropertyPath> groupInfo = new GroupInfo<>(groupValues);
+                if (!parents.containsKey(groupInfo)) {
+                    parents.put(groupInfo, parent);
+                    levelGroups.add(groupInfo);
+                }
+                groupCounts.merge(groupInfo, count.intValue(), Integer::sum);
+
+                levelGroups = children.computeIfAbsent(groupInfo, k -> new ArrayList<>());
+                parent = groupInfo;
+            }
+        }
+    }
+
+    @Override
+    protected List<K> getOwnItemIds(GroupInfo group) {
+        List<K> itemIds = groupItems.get(group);
+        if (itemIds == null && isGroupedOnDb() && containsGroup(group) && !hasChildren(group)) {
+            //noinspection unchecked
+            itemIds = loadGroupItems(group);
+        }
+        return itemIds;
+    }
+
+    @Override
+    public int getGroupItemsCount(GroupInfo groupId) {
+        if (isGroupedOnDb()) {
+            return containsGroup(groupId) ? groupCounts.getOrDefault(groupId, 0) : 0;
+        }
+        return super.getGroupItemsCount(groupId);
+    }
+
+    /**
+     * Returns ids of the already loaded items of the group without loading other ones.
+     *
+     * @param group group, or null for all items
+     * @return item ids, or null if items of some leaf group have not been loaded yet
+     */
+    @Nullable
+    public List<K> getLoadedGroupItemIds(@Nullable GroupInfo group) {
+        if (!isGroupedOnDb()) {
+            return group == null ? new ArrayList<>(datasource.getItemIds()) : getGroupItemIds(group);
+        }
+        List<K> itemIds = new ArrayList<>();
+        List<GroupInfo> groups = group == null ? roots : Collections.singletonList(group);
+        for (GroupInfo groupInfo : groups) {
+            if (!collectLoadedItemIds(groupInfo, itemIds)) {
+                return null;
+            }
+        }
+        return itemIds;
+    }
+
+    protected boolean collectLoadedItemIds(GroupInfo group, List<K> itemIds) {
+        if (hasChildren(group)) {
+            for (GroupInfo child : children.get(group)) {
+                if (!collectLoadedItemIds(child, itemIds)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        List<K> ownItemIds = groupItems.get(group);
+        if (ownItemIds == null) {
+            return false;
+        }
+        itemIds.addAll(ownItemIds);
+        return true;
+    }
+
+    /**
+     * Calculates aggregates in the database. All aggregations must be supported by
+     * {@link #canAggregateOnDb(AggregationInfo)}.
+     *
+     * @param group group, or null to aggregate all items
+     * @return aggregated values
+     */
+    public Map<AggregationInfo, Object> aggregate(AggregationInfo[] aggregationInfos,
+                                                  @Nullable GroupInfo<MetaPropertyPath> group) {
+        Map<AggregationInfo, Object> values = groupAggregates.get(group);
+        if (values == null || !values.keySet().containsAll(Arrays.asList(aggregationInfos))) {
+            int level = group == null ? 0 : ArrayUtils.indexOf(groupProperties, group.getProperty()) + 1;
+            loadAggregates(aggregationInfos, level);
+
+            values = groupAggregates.computeIfAbsent(group, k -> new HashMap<>());
+            for (AggregationInfo aggregationInfo : aggregationInfos) {
+                // the group has no items anymore
+                values.putIfAbsent(aggregationInfo,
+                        aggregationInfo.getType() == AggregationInfo.Type.COUNT ? 0L : null);
+            }
+        }
+        return values;
+    }
+
+    protected void loadAggregates(AggregationInfo[] aggregationInfos, int level) {
+        for (KeyValueEntity row : loadGroupValues(level, Arrays.asList(aggregationInfos))) {
+            GroupInfo<MetaPropertyPath> group = null;
+            if (level > 0) {
+                LinkedMap<MetaPropertyPath, Object> groupValues = new LinkedMap<>();
+                for (int i = 0; i < level; i++) {
+                    MetaPropertyPath property = (MetaPropertyPath) groupProperties[i];
+                    groupValues.put(property, convertGroupValue(property, row.getValue(GROUP_VALUE_PREFIX + i)));
+                }
+                group = new GroupInfo<>(groupValues);
+            }
+
+            Map<AggregationInfo, Object> values = groupAggregates.computeIfAbsent(group, k -> new HashMap<>());
+            for (int i = 0; i < aggregationInfos.length; i++) {
+                values.put(aggregationInfos[i],
+                        convertAggregateValue(aggregationInfos[i], row.getValue(AGGREGATE_PREFIX + i)));
+            }
+        }
+    }
+
+    /**
+     * Loads values of the first {@code level} group properties, the given aggregates and the number of items,
+     * grouped by the group properties.
+     */
+    protected List<KeyValueEntity> loadGroupValues(int level, List<AggregationInfo> aggregationInfos) {
+        ValueLoadContext context = groupDatasource.createGroupLoadContext();
+        if (context == null) {
+            return Collections.emptyList();
+        }
+
+        ValueLoadContext.Query query = context.getQuery();
+        String alias = QueryTransformerFactory.createParser(query.getQueryString()).getEntityAlias();
+
+        StringBuilder selection = new StringBuilder();
+        List<String> groupBy = new ArrayList<>(level);
+        List<String> properties = new ArrayList<>();
+        for (int i = 0; i < level; i++) {
+            String path = alias + "." + groupProperties[i];
+            selection.append(path).append(", ");
+            groupBy.add(path);
+            properties.add(GROUP_VALUE_PREFIX + i);
+        }
+        for (int i = 0; i < aggregationInfos.size(); i++) {
+            AggregationInfo aggregationInfo = aggregationInfos.get(i);
+            selection.append(aggregationInfo.getType().name().toLowerCase())
+                    .append("(").append(alias).append(".").append(aggregationInfo.getPropertyPath()).append("), ");
+            properties.add(AGGREGATE_PREFIX + i);
+        }
+        properties.add(COUNT_PROPERTY);
+
+        QueryTransformer transformer = QueryTransformerFactory.createTransformer(query.getQueryString());
+        transformer.replaceWithCount();
+        String countQuery = transformer.getResult();
+
+        Matcher matcher = COUNT_PATTERN.matcher(countQuery);
+        if (!matcher.find()) {
+            throw new IllegalStateException("Unable to create a group query from " + query.getQueryString());
+        }
+        StringBuilder queryString = new StringBuilder(countQuery)
+                .insert(matcher.start(), selection);
+        if (!groupBy.isEmpty()) {
+            String groupByString = String.join(", ", groupBy);
+            queryString.append(" group by ").append(groupByString).append(" order by ").append(groupByString);
+        }
+
+        query.setQueryString(queryString.toString());
+        context.setProperties(properties);
+
+        return groupDatasource.loadGroupValues(context);
+    }
+
+    protected List<K> loadGroupItems(GroupInfo<MetaPropertyPath> group) {
+        List<K> itemIds = new ArrayList<>();
+
+        LoadContext<T> context = groupDatasource.createGroupItemsLoadContext();
+        if (context != null) {
+            LoadContext.Query query = context.getQuery();
+            QueryTransformer transformer = QueryTransformerFactory.createTransformer(query.getQueryString());
+            for (int i = 0; i < groupProperties.length; i++) {
+                MetaPropertyPath property = (MetaPropertyPath) groupProperties[i];
+                Object value = group.getPropertyValue(property);
+                if (value == null) {
+                    transformer.addWhere("{E}." + property + " is null");
+                } else {
+                    String paramName = GROUP_VALUE_PREFIX + i;
+                    transformer.addWhere("{E}." + property + " = :" + paramName);
+                    query.setParameter(paramName, value);
+                }
+            }
+            query.setQueryString(transformer.getResult());
+
+            for (T item : groupDatasource.loadGroupItems(context)) {
+                itemIds.add(item.getId());
+                itemGroups.put(item.getId(), group);
+            }
+        }
+
+        groupItems.put(group, itemIds);
+        return itemIds;
+    }
+
+    protected boolean isDbGroupProperty(MetaPropertyPath propertyPath) {
+        return isDbAttribute(propertyPath)
+                && (propertyPath.getRange().isDatatype() || propertyPath.getRange().isEnum());
+    }
+
+    protected boolean isDbAttribute(MetaPropertyPath propertyPath) {
+        MetaProperty[] metaProperties = propertyPath.getMetaProperties();
+        if (metaProperties.length != 1) {
+            return false;
+        }
+        MetaProperty metaProperty = metaProperties[0];
+        return groupDatasource.getMetaClass().getProperty(metaProperty.getName()) == metaProperty
+                && metadataTools.isPersistent(metaProperty)
+                && !metadataTools.isLob(metaProperty);
+    }
+
+    /**
+     * Converts a value selected by JPQL to the value of the entity attribute, e.g. an enumeration id to the
+     * enumeration constant.
+     */
+    protected Object convertGroupValue(MetaPropertyPath property, Object value) {
+        if (value != null && property.getRange().isEnum() && !(value instanceof Enum)) {
+            for (Object constant : property.getRangeJavaClass().getEnumConstants()) {
+                if (constant instanceof EnumClass
+                        && String.valueOf(((EnumClass) constant).getId()).equals(String.valueOf(value))) {
+                    return constant;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Converts an aggregate calculated by the database to the type of the in-memory aggregation result.
+     */
+    protected Object convertAggregateValue(AggregationInfo aggregationInfo, Object value) {
+        if (!(value instanceof Number) || aggregationInfo.getType() == AggregationInfo.Type.COUNT) {
+            return value;
+        }
+        Aggregation aggregation = Aggregations.get(aggregationInfo.getPropertyPath().getRangeJavaClass());
+        Class resultClass = aggregation.getResultClass();
+        Number number = (Number) value;
+        if (Long.class.equals(resultClass)) {
+            return number.longValue();
+        } else if (Double.class.equals(resultClass)) {
+            return number.doubleValue();
+        } else if (BigDecimal.class.equals(resultClass) && !(number instanceof BigDecimal)) {
+            return new BigDecimal(number.toString());
+        }
+        return value;
+    }
+}
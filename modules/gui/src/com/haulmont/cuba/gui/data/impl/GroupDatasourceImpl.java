@@ -18,24 +18,35 @@ package com.haulmont.cuba.gui.data.impl;
 
 import com.haulmont.chile.core.model.MetaPropertyPath;
 import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.entity.KeyValueEntity;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.LoadContext;
+import com.haulmont.cuba.core.global.Security;
+import com.haulmont.cuba.core.global.ValueLoadContext;
+import com.haulmont.cuba.gui.components.AggregationInfo;
 import com.haulmont.cuba.gui.data.GroupDatasource;
 import com.haulmont.cuba.gui.data.GroupInfo;
+import com.haulmont.cuba.security.entity.EntityOp;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.regex.Pattern;
 
 public class GroupDatasourceImpl<T extends Entity<K>, K>
         extends CollectionDatasourceImpl<T, K>
-        implements GroupDatasource<T, K> {
+        implements GroupDatasource<T, K>, GroupDatasource.SupportsGroupOnDb<T, K> {
 
-    protected GroupDelegate<T,K> groupDelegate = new GroupDelegate<T, K>(this) {
+    protected static final Pattern GROUP_BY_PATTERN = Pattern.compile("\\bgroup\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+    protected DbGroupDelegate<T,K> groupDelegate = new DbGroupDelegate<T, K>(this) {
         @Override
         protected void doSort(SortInfo<MetaPropertyPath>[] sortInfo) {
             GroupDatasourceImpl.super.doSort();
         }
     };
 
+    protected boolean groupOnDb;
+
     @Override
     public void groupBy(Object[] properties) {
         groupDelegate.groupBy(properties, sortInfos);
@@ -120,6 +131,169 @@ public class GroupDatasourceImpl<T extends Entity<K>, K>
         return groupDelegate.containsGroup(groupId);
     }
 
+    @Override
+    public boolean isGroupOnDb() {
+        return groupOnDb;
+    }
+
+    /**
+     * Enables building groups in the database. Only group headers with the number of items are loaded then, and
+     * items of a group are loaded when they are requested, e.g. when the group is expanded in a table. See
+     * {@link DbGroupDelegate} for restrictions.
+     * <p>
+     * Takes effect on the next grouping or refresh. {@code maxResults} limits the number of loaded items of
+     * a group. Aggregations that cannot be calculated by the database are calculated only for groups whose items
+     * have been loaded.
+     */
+    @Override
+    public void setGroupOnDb(boolean groupOnDb) {
+        this.groupOnDb = groupOnDb;
+    }
+
+    @Override
+    public boolean isGroupedOnDb() {
+        return groupDelegate.isGroupedOnDb();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<AggregationInfo, String> aggregateGroup(AggregationInfo[] aggregationInfos, @Nullable GroupInfo groupId) {
+        if (!isGroupedOnDb()) {
+            return aggregate(aggregationInfos, groupId == null ? getItemIds() : getGroupItemIds(groupId));
+        }
+
+        List<AggregationInfo> dbAggregationInfos = new ArrayList<>();
+        List<AggregationInfo> memoryAggregationInfos = new ArrayList<>();
+        for (AggregationInfo aggregationInfo : aggregationInfos) {
+            if (groupDelegate.canAggregateOnDb(aggregationInfo)) {
+                dbAggregationInfos.add(aggregationInfo);
+            } else {
+                memoryAggregationInfos.add(aggregationInfo);
+            }
+        }
+
+        Map<AggregationInfo, String> results = new HashMap<>();
+        if (!dbAggregationInfos.isEmpty()) {
+            Map<AggregationInfo, Object> values = groupDelegate.aggregate(
+                    dbAggregationInfos.toArray(new AggregationInfo[0]), groupId);
+            for (AggregationInfo aggregationInfo : dbAggregationInfos) {
+                results.put(aggregationInfo,
+                        aggregatableDelegate.formatValue(aggregationInfo, values.get(aggregationInfo)));
+            }
+        }
+        if (!memoryAggregationInfos.isEmpty()) {
+            // loading the items here would run a query for each group and load all items for the totals
+            Collection<K> itemIds = groupDelegate.getLoadedGroupItemIds(groupId);
+            if (itemIds != null) {
+                results.putAll(aggregate(memoryAggregationInfos.toArray(new AggregationInfo[0]), itemIds));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    protected void loadData(Map<String, Object> params) {
+        if (!groupOnDb || !groupDelegate.canGroupOnDb()) {
+            super.loadData(params);
+
+            if (groupDelegate.isGroupedOnDb()) {
+                groupDelegate.doGroup();
+            }
+            return;
+        }
+
+        Security security = AppBeans.get(Security.NAME);
+        if (!security.isEntityOpPermitted(metaClass, EntityOp.READ)) {
+            return;
+        }
+
+        // items are loaded by groups, see DbGroupDelegate
+        dataLoadError = null;
+        clearLoadedItems();
+        if (groupDelegate.hasGroups()) {
+            try {
+                groupDelegate.doGroup();
+            } catch (Throwable e) {
+                dataLoadError = e;
+            }
+        }
+    }
+
+    /**
+     * @return whether the datasource query can be used to build groups in the database
+     */
+    protected boolean isQueryGroupable() {
+        return prevQueries.isEmpty() && (query == null || !GROUP_BY_PATTERN.matcher(query).find());
+    }
+
+    /**
+     * @return context to load group values by the current datasource query, or null if nothing should be loaded
+     */
+    @Nullable
+    protected ValueLoadContext createGroupLoadContext() {
+        LoadContext<T> loadContext = createGroupItemsLoadContext();
+        if (loadContext == null) {
+            return null;
+        }
+
+        LoadContext.Query loadQuery = loadContext.getQuery();
+        ValueLoadContext.Query query = ValueLoadContext.createQuery(loadQuery.getQueryString())
+                .setParameters(loadQuery.getParameters());
+        return ValueLoadContext.create()
+                .setQuery(query)
+                .setStoreName(metadata.getTools().getStoreName(metaClass))
+                .setSoftDeletion(isSoftDeletion());
+    }
+
+    /**
+     * @return context to load items of a group by the current datasource query, or null if nothing should be loaded
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    protected LoadContext<T> createGroupItemsLoadContext() {
+        if (!needLoading()) {
+            return null;
+        }
+
+        LoadContext<T> context = new LoadContext<>(metaClass);
+        LoadContext.Query q = (LoadContext.Query) createDataQuery(context,
+                savedParameters == null ? Collections.<String, Object>emptyMap() : savedParameters);
+        if (q == null) {
+            return null;
+        }
+        if (sortInfos != null && sortOnDb) {
+            setSortDirection(q);
+        }
+        if (maxResults > 0) {
+            q.setMaxResults(maxResults);
+        }
+
+        context.setView(view);
+        context.setSoftDeletion(isSoftDeletion());
+
+        prepareLoadContext(context);
+
+        return context;
+    }
+
+    protected List<KeyValueEntity> loadGroupValues(ValueLoadContext context) {
+        return dataSupplier.loadValues(context);
+    }
+
+    protected Collection<T> loadGroupItems(LoadContext<T> context) {
+        List<T> entities = dataSupplier.loadList(context);
+        for (T entity : entities) {
+            data.put(entity.getId(), entity);
+            attachListener(entity);
+        }
+        return entities;
+    }
+
+    protected void clearLoadedItems() {
+        detachListener(data.values());
+        data.clear();
+    }
+
     @Override
     public K nextItemId(K itemId) {
         if (!groupDelegate.rootGroups().isEmpty()) {
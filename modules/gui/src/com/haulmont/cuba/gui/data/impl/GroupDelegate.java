@@ -60,10 +60,10 @@ public abstract class GroupDelegate<T extends Entity<K>, K> {
         isGrouping = true;
         try {
             if (properties != null) {
-                CollectionDsHelper.autoRefreshInvalid(datasource, true);
-
                 groupProperties = properties;
 
+                CollectionDsHelper.autoRefreshInvalid(datasource, true);
+
                 if (!ArrayUtils.isEmpty(groupProperties)) {
                     if (datasource.getState() == Datasource.State.VALID) {
                         doGroup();
@@ -224,7 +224,7 @@ public abstract class GroupDelegate<T extends Entity<K>, K> {
     public List<K> getGroupItemIds(GroupInfo group) {
         if (containsGroup(group)) {
             List<K> itemIds;
-            if ((itemIds = groupItems.get(group)) == null) {
+            if ((itemIds = getOwnItemIds(group)) == null) {
                 itemIds = new ArrayList<>();
                 List<GroupInfo> children = getChildrenInternal(group);
                 for (GroupInfo child : children) {
@@ -239,7 +239,7 @@ public abstract class GroupDelegate<T extends Entity<K>, K> {
     public int getGroupItemsCount(GroupInfo groupId) {
         if (containsGroup(groupId)) {
             List<K> itemIds;
-            if ((itemIds = groupItems.get(groupId)) == null) {
+            if ((itemIds = getOwnItemIds(groupId)) == null) {
                 int count = 0;
                 List<GroupInfo> children = getChildrenInternal(groupId);
                 for (GroupInfo child : children) {
@@ -253,6 +253,13 @@ public abstract class GroupDelegate<T extends Entity<K>, K> {
         return 0;
     }
 
+    /**
+     * @return ids of items belonging directly to the group, or null if the group contains only nested groups
+     */
+    protected List<K> getOwnItemIds(GroupInfo group) {
+        return groupItems.get(group);
+    }
+
     public boolean hasGroups() {
         return roots != null;
     }
@@ -284,11 +291,13 @@ public abstract class GroupDelegate<T extends Entity<K>, K> {
             return Collections.emptyList();
         }
 
-        List<K> idsList = groupItems.get(groupId);
-        if (containsGroup(groupId) && CollectionUtils.isNotEmpty(idsList)) {
-            return idsList.stream()
-                    .map(id -> datasource.getItem(id))
-                    .collect(Collectors.toList());
+        if (containsGroup(groupId)) {
+            List<K> idsList = getOwnItemIds(groupId);
+            if (CollectionUtils.isNotEmpty(idsList)) {
+                return idsList.stream()
+                        .map(id -> datasource.getItem(id))
+                        .collect(Collectors.toList());
+            }
         }
         return Collections.emptyList();
     }
@@ -309,9 +318,12 @@ public abstract class GroupDelegate<T extends Entity<K>, K> {
                 }
             }
 
-            for (K id : groupItems.getOrDefault(groupId, Collections.emptyList())) {
-                T item = datasource.getItem(id);
-                entities.add(item);
+            List<K> idsList = getOwnItemIds(groupId);
+            if (idsList != null) {
+                for (K id : idsList) {
+                    T item = datasource.getItem(id);
+                    entities.add(item);
+                }
             }
 
             return entities;
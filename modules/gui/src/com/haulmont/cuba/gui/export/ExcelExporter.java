@@ -27,6 +27,8 @@ import com.haulmont.cuba.core.entity.Entity;
 import com.haulmont.cuba.core.entity.IdProxy;
 import com.haulmont.cuba.core.entity.annotation.IgnoreUserTimeZone;
 import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.FileStorageException;
+import com.haulmont.cuba.core.global.LoadContext;
 import com.haulmont.cuba.core.global.Messages;
 import com.haulmont.cuba.core.global.MetadataTools;
 import com.haulmont.cuba.core.global.UserSessionSource;
@@ -35,22 +37,40 @@ import com.haulmont.cuba.gui.data.CollectionDatasource;
 import com.haulmont.cuba.gui.data.GroupDatasource;
 import com.haulmont.cuba.gui.data.GroupInfo;
 import com.haulmont.cuba.gui.data.HierarchicalDatasource;
+import com.haulmont.cuba.gui.upload.FileUploadingAPI;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.hssf.usermodel.*;
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.util.LocaleUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.dom4j.Element;
 
 import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.*;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Use this class to export {@link com.haulmont.cuba.gui.components.Table} into Excel format
@@ -64,6 +84,17 @@ public class ExcelExporter {
 
     public static final int MAX_ROW_COUNT = 65535;
 
+    public static final int MAX_XLSX_ROW_COUNT = 1048575;
+
+    // number of rows kept in memory by the streaming export, the rest are flushed to a temporary file
+    protected static final int STREAMING_ROW_WINDOW = 100;
+
+    protected static final int STREAMING_MIN_COLUMN_CHARS = 10;
+
+    protected static final char CSV_SEPARATOR = ',';
+
+    protected static final Pattern ORDER_BY_PATTERN = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
     protected HSSFWorkbook wb;
 
     protected HSSFFont boldFont;
@@ -281,6 +312,270 @@ public class ExcelExporter {
         display.show(new ByteArrayDataProvider(out.toByteArray()), fileName + ".xls", ExportFormat.XLS);
     }
 
+    public void exportTableStreaming(Table table, ExportDisplay display, ExportFormat format) {
+        exportTableStreaming(table, table.getColumns(), display, null, format);
+    }
+
+    /**
+     * Exports all rows of the table query into XLSX or CSV format and shows the file using {@link ExportDisplay}.
+     * <p>Unlike {@code exportTable()} methods, the rows are not taken from the table but are loaded from the data layer
+     * page by page, with the query, parameters, sort order and view of the table datasource. Each page is written
+     * to a temporary file right away, so memory consumption does not depend on the number of exported rows.
+     * Grouping, hierarchy and aggregation of the table are not exported in this mode.
+     *
+     * @param format {@link ExportFormat#XLSX} or {@link ExportFormat#CSV}
+     */
+    public void exportTableStreaming(Table table, List<Table.Column> columns, ExportDisplay display,
+                                     @Nullable String fileName, ExportFormat format) {
+        if (display == null) {
+            throw new IllegalArgumentException("ExportDisplay is null");
+        }
+        if (format != ExportFormat.XLSX && format != ExportFormat.CSV) {
+            throw new IllegalArgumentException("Unsupported streaming export format: " + format.getFileExt());
+        }
+
+        isRowNumberExceeded = false;
+
+        CollectionDatasource datasource = table.getDatasource();
+        FileUploadingAPI fileUploading = AppBeans.get(FileUploadingAPI.NAME);
+        FileUploadingAPI.FileInfo fileInfo = createTempFile(fileUploading);
+        try (Stream<Entity> items = streamItems(datasource)) {
+            if (format == ExportFormat.XLSX) {
+                writeXlsx(table, columns, items, fileInfo.getFile());
+            } else {
+                writeCsv(table, columns, items, fileInfo.getFile());
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                fileUploading.deleteFile(fileInfo.getId());
+            } catch (FileStorageException fse) {
+                e.addSuppressed(fse);
+            }
+            throw new RuntimeException("Unable to write document", e);
+        }
+        if (fileName == null) {
+            fileName = messages.getTools().getEntityCaption(datasource.getMetaClass());
+        }
+
+        display.show(new TempFileDataProvider(fileInfo.getId()), fileName + "." + format.getFileExt(), format);
+    }
+
+    /**
+     * @return stream of all instances matching the datasource query, loaded page by page
+     */
+    @SuppressWarnings("unchecked")
+    protected Stream<Entity> streamItems(CollectionDatasource datasource) {
+        LoadContext context = datasource.getCompiledLoadContext();
+        if (context == null || context.getQuery() == null) {
+            return new ArrayList<Entity>(datasource.getItems()).stream();
+        }
+
+        LoadContext.Query query = context.getQuery();
+        query.setFirstResult(0);
+        query.setMaxResults(0);
+        if (query.getSort() == null && !ORDER_BY_PATTERN.matcher(query.getQueryString()).find()) {
+            // the order is not defined, so pages are loaded by primary key without skipping rows
+            query.setKeysetPagination(true);
+        }
+        return datasource.getDataSupplier().stream(context);
+    }
+
+    /**
+     * Creates the file in the temporary storage of {@link FileUploadingAPI}, so it is removed by the periodic
+     * cleanup of the temporary directory even if it is never downloaded.
+     */
+    protected FileUploadingAPI.FileInfo createTempFile(FileUploadingAPI fileUploading) {
+        try {
+            return fileUploading.createFile();
+        } catch (FileStorageException e) {
+            throw new RuntimeException("Unable to create temporary file", e);
+        }
+    }
+
+    protected void writeXlsx(Table table, List<Table.Column> columns, Stream<Entity> items, File file)
+            throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(null, STREAMING_ROW_WINDOW, true);
+        try {
+            SXSSFSheet xlsxSheet = workbook.createSheet("Export");
+            XlsxCellStyles styles = new XlsxCellStyles(workbook);
+
+            Row header = xlsxSheet.createRow(0);
+            for (int c = 0; c < columns.size(); c++) {
+                String caption = StringUtils.defaultString(columns.get(c).getCaption());
+                Cell cell = header.createCell(c);
+                cell.setCellValue(caption);
+                cell.setCellStyle(styles.header);
+                int width = Math.max(caption.length(), STREAMING_MIN_COLUMN_CHARS) + 2;
+                xlsxSheet.setColumnWidth(c, Math.min(width, 255) * 256);
+            }
+
+            int r = 0;
+            Iterator<Entity> iterator = items.iterator();
+            while (iterator.hasNext()) {
+                if (r >= MAX_XLSX_ROW_COUNT) {
+                    isRowNumberExceeded = true;
+                    break;
+                }
+                Entity item = iterator.next();
+                Row row = xlsxSheet.createRow(++r);
+                for (int c = 0; c < columns.size(); c++) {
+                    Table.Column column = columns.get(c);
+                    MetaPropertyPath propertyPath = column.getId() instanceof MetaPropertyPath
+                            ? (MetaPropertyPath) column.getId() : null;
+                    formatXlsxCell(row.createCell(c), getCellValue(table, column, item), propertyPath, styles);
+                }
+            }
+
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                workbook.write(out);
+            }
+        } finally {
+            // removes the temporary files of flushed rows
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    protected void writeCsv(Table table, List<Table.Column> columns, Stream<Entity> items, File file)
+            throws IOException {
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            // byte order mark lets spreadsheet applications detect the encoding
+            writer.write('\uFEFF');
+
+            List<String> values = new ArrayList<>(columns.size());
+            for (Table.Column column : columns) {
+                values.add(StringUtils.defaultString(column.getCaption()));
+            }
+            writeCsvLine(writer, values);
+
+            Iterator<Entity> iterator = items.iterator();
+            while (iterator.hasNext()) {
+                Entity item = iterator.next();
+                values.clear();
+                for (Table.Column column : columns) {
+                    MetaPropertyPath propertyPath = column.getId() instanceof MetaPropertyPath
+                            ? (MetaPropertyPath) column.getId() : null;
+                    values.add(formatStreamingValue(getCellValue(table, column, item), propertyPath));
+                }
+                writeCsvLine(writer, values);
+            }
+        }
+    }
+
+    protected void writeCsvLine(Writer writer, List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(CSV_SEPARATOR);
+            }
+            String value = values.get(i);
+            if (StringUtils.containsAny(value, CSV_SEPARATOR, '"', '\n', '\r')) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    protected void formatXlsxCell(Cell cell, @Nullable Object cellValue, @Nullable MetaPropertyPath metaPropertyPath,
+                                  XlsxCellStyles styles) {
+        if (cellValue instanceof IdProxy) {
+            cellValue = ((IdProxy) cellValue).get();
+        }
+
+        if (cellValue instanceof Number) {
+            Number n = (Number) cellValue;
+            Datatype datatype = Datatypes.get(n.getClass());
+            Number result = n;
+            if (datatype != null) {
+                try {
+                    result = (Number) datatype.parse(datatype.format(n));
+                } catch (ParseException e) {
+                    throw new RuntimeException("Unable to parse numeric value", e);
+                }
+            }
+            if (result != null) {
+                if (n instanceof Integer || n instanceof Long || n instanceof Byte || n instanceof Short) {
+                    cell.setCellValue(result.longValue());
+                    cell.setCellStyle(styles.integerFormat);
+                } else {
+                    cell.setCellValue(result.doubleValue());
+                    cell.setCellStyle(styles.doubleFormat);
+                }
+            }
+        } else if (cellValue instanceof Date) {
+            setDateCellValue(cell, (Date) cellValue, metaPropertyPath);
+
+            Class javaClass = getDatatypeJavaClass(metaPropertyPath);
+            if (Objects.equals(java.sql.Time.class, javaClass)) {
+                cell.setCellStyle(styles.timeFormat);
+            } else if (Objects.equals(java.sql.Date.class, javaClass)) {
+                cell.setCellStyle(styles.dateFormat);
+            } else {
+                cell.setCellStyle(styles.dateTimeFormat);
+            }
+        } else {
+            String str = formatStreamingValue(cellValue, metaPropertyPath);
+            if (!str.isEmpty()) {
+                cell.setCellValue(str);
+            }
+        }
+    }
+
+    protected String formatStreamingValue(@Nullable Object value, @Nullable MetaPropertyPath metaPropertyPath) {
+        if (value instanceof IdProxy) {
+            value = ((IdProxy) value).get();
+        }
+
+        Class javaClass = getDatatypeJavaClass(metaPropertyPath);
+        if (value == null) {
+            return Boolean.class.equals(javaClass) ? falseStr : "";
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value) ? trueStr : falseStr;
+        } else if (value instanceof Collection) {
+            return "";
+        } else if (value instanceof String) {
+            return (String) value;
+        } else if (javaClass != null && javaClass.isInstance(value)) {
+            return metadataTools.format(value, metaPropertyPath.getMetaProperty());
+        } else {
+            return metadataTools.format(value);
+        }
+    }
+
+    protected static class XlsxCellStyles {
+        protected final CellStyle header;
+        protected final CellStyle timeFormat;
+        protected final CellStyle dateFormat;
+        protected final CellStyle dateTimeFormat;
+        protected final CellStyle integerFormat;
+        protected final CellStyle doubleFormat;
+
+        protected XlsxCellStyles(Workbook workbook) {
+            Font boldFont = workbook.createFont();
+            boldFont.setBold(true);
+            header = workbook.createCellStyle();
+            header.setFont(boldFont);
+            header.setVerticalAlignment(VerticalAlignment.CENTER);
+
+            DataFormat format = workbook.createDataFormat();
+            timeFormat = createFormatStyle(workbook, format.getFormat("h:mm"));
+            dateFormat = createFormatStyle(workbook, format.getFormat("m/d/yy"));
+            dateTimeFormat = createFormatStyle(workbook, format.getFormat("m/d/yy h:mm"));
+            integerFormat = createFormatStyle(workbook, format.getFormat("#,##0"));
+            doubleFormat = createFormatStyle(workbook, format.getFormat("#,##0.00"));
+        }
+
+        protected static CellStyle createFormatStyle(Workbook workbook, short dataFormat) {
+            CellStyle style = workbook.createCellStyle();
+            style.setDataFormat(dataFormat);
+            return style;
+        }
+    }
+
     public void exportDataGrid(DataGrid dataGrid, ExportDisplay display) {
         exportDataGrid(dataGrid, dataGrid.getColumns(), display);
     }
@@ -573,35 +868,45 @@ public class ExcelExporter {
             HSSFCell cell = row.createCell(c);
 
             Table.Column column = columns.get(c);
-            Object cellValue = null;
+            Object cellValue = getCellValue(table, column, instance);
 
             MetaPropertyPath propertyPath = null;
             if (column.getId() instanceof MetaPropertyPath) {
                 propertyPath = (MetaPropertyPath) column.getId();
+            }
 
-                Table.Printable printable = table.getPrintable(column);
-                if (printable != null) {
-                    cellValue = printable.getValue((Entity) instance);
-                } else {
-                    Element xmlDescriptor = column.getXmlDescriptor();
-                    if (xmlDescriptor != null && StringUtils.isNotEmpty(xmlDescriptor.attributeValue("captionProperty"))) {
-                        String captionProperty = xmlDescriptor.attributeValue("captionProperty");
-                        cellValue = InstanceUtils.getValueEx(instance, captionProperty);
-                    } else {
-                        cellValue = InstanceUtils.getValueEx(instance, propertyPath.getPath());
-                    }
-                    if (column.getFormatter() != null)
-                        cellValue = column.getFormatter().format(cellValue);
-                }
+            formatValueCell(cell, cellValue, propertyPath, c, rowNumber, level, null);
+        }
+    }
+
+    @Nullable
+    protected Object getCellValue(Table table, Table.Column column, Instance instance) {
+        Object cellValue = null;
+
+        if (column.getId() instanceof MetaPropertyPath) {
+            MetaPropertyPath propertyPath = (MetaPropertyPath) column.getId();
+
+            Table.Printable printable = table.getPrintable(column);
+            if (printable != null) {
+                cellValue = printable.getValue((Entity) instance);
             } else {
-                Table.Printable printable = table.getPrintable(column);
-                if (printable != null) {
-                    cellValue = printable.getValue((Entity) instance);
+                Element xmlDescriptor = column.getXmlDescriptor();
+                if (xmlDescriptor != null && StringUtils.isNotEmpty(xmlDescriptor.attributeValue("captionProperty"))) {
+                    String captionProperty = xmlDescriptor.attributeValue("captionProperty");
+                    cellValue = InstanceUtils.getValueEx(instance, captionProperty);
+                } else {
+                    cellValue = InstanceUtils.getValueEx(instance, propertyPath.getPath());
                 }
+                if (column.getFormatter() != null)
+                    cellValue = column.getFormatter().format(cellValue);
+            }
+        } else {
+            Table.Printable printable = table.getPrintable(column);
+            if (printable != null) {
+                cellValue = printable.getValue((Entity) instance);
             }
-
-            formatValueCell(cell, cellValue, propertyPath, c, rowNumber, level, null);
         }
+        return cellValue;
     }
 
     protected void createDataGridRow(DataGrid dataGrid, List<DataGrid.Column> columns,
@@ -708,35 +1013,9 @@ public class ExcelExporter {
                 sizers[sizersIndex].notifyCellValue(str, stdFont);
             }
         } else if (cellValue instanceof Date) {
-            Class javaClass = null;
-            boolean supportTimezones = false;
-            TimeZone timeZone = userSessionSource.getUserSession().getTimeZone();
-            if (metaPropertyPath != null) {
-                MetaProperty metaProperty = metaPropertyPath.getMetaProperty();
-                if (metaProperty.getRange().isDatatype()) {
-                    javaClass = metaProperty.getRange().asDatatype().getJavaClass();
-                }
-                Boolean ignoreUserTimeZone = metadataTools.getMetaAnnotationValue(metaProperty, IgnoreUserTimeZone.class);
-                supportTimezones = timeZone != null
-                        && Objects.equals(Date.class, javaClass)
-                        && !Boolean.TRUE.equals(ignoreUserTimeZone);
-            }
+            Class javaClass = getDatatypeJavaClass(metaPropertyPath);
             Date date = (Date) cellValue;
-            if (supportTimezones) {
-                TimeZone currentTimeZone = LocaleUtil.getUserTimeZone();
-                try {
-                    LocaleUtil.setUserTimeZone(timeZone);
-                    cell.setCellValue(date);
-                } finally {
-                    if (Objects.equals(currentTimeZone, TimeZone.getDefault())) {
-                        LocaleUtil.resetUserTimeZone();
-                    } else {
-                        LocaleUtil.setUserTimeZone(currentTimeZone);
-                    }
-                }
-            } else {
-                cell.setCellValue(date);
-            }
+            setDateCellValue(cell, date, metaPropertyPath);
 
             if (Objects.equals(java.sql.Time.class, javaClass)) {
                 cell.setCellStyle(timeFormatCellStyle);
@@ -794,6 +1073,41 @@ public class ExcelExporter {
         }
     }
 
+    @Nullable
+    protected Class getDatatypeJavaClass(@Nullable MetaPropertyPath metaPropertyPath) {
+        if (metaPropertyPath != null && metaPropertyPath.getRange().isDatatype()) {
+            return metaPropertyPath.getRange().asDatatype().getJavaClass();
+        }
+        return null;
+    }
+
+    protected void setDateCellValue(Cell cell, Date date, @Nullable MetaPropertyPath metaPropertyPath) {
+        boolean supportTimezones = false;
+        TimeZone timeZone = userSessionSource.getUserSession().getTimeZone();
+        if (metaPropertyPath != null) {
+            MetaProperty metaProperty = metaPropertyPath.getMetaProperty();
+            Boolean ignoreUserTimeZone = metadataTools.getMetaAnnotationValue(metaProperty, IgnoreUserTimeZone.class);
+            supportTimezones = timeZone != null
+                    && Objects.equals(Date.class, getDatatypeJavaClass(metaPropertyPath))
+                    && !Boolean.TRUE.equals(ignoreUserTimeZone);
+        }
+        if (supportTimezones) {
+            TimeZone currentTimeZone = LocaleUtil.getUserTimeZone();
+            try {
+                LocaleUtil.setUserTimeZone(timeZone);
+                cell.setCellValue(date);
+            } finally {
+                if (Objects.equals(currentTimeZone, TimeZone.getDefault())) {
+                    LocaleUtil.resetUserTimeZone();
+                } else {
+                    LocaleUtil.setUserTimeZone(currentTimeZone);
+                }
+            }
+        } else {
+            cell.setCellValue(date);
+        }
+    }
+
     protected boolean checkIsRowNumberExceed(int r) {
         return isRowNumberExceeded = r >= MAX_ROW_COUNT;
     }
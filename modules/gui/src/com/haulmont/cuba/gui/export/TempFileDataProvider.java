@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.gui.export;
+
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.FileStorageException;
+import com.haulmont.cuba.core.global.RuntimeFileStorageException;
+import com.haulmont.cuba.gui.upload.FileUploadingAPI;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.UUID;
+
+import static com.haulmont.bali.util.Preconditions.checkNotNullArgument;
+
+/**
+ * Data provider for a file in the temporary storage of {@link FileUploadingAPI}.
+ * <p>The file can be provided any number of times. It is not deleted after reading: it is removed from the
+ * temporary directory together with other old temporary files by
+ * {@link com.haulmont.cuba.gui.upload.FileUploadingMBean#clearTempDirectory()}, or can be removed explicitly by
+ * {@link FileUploadingAPI#deleteFile(UUID)}.
+ */
+public class TempFileDataProvider implements ExportDataProvider {
+
+    protected UUID fileId;
+    protected FileUploadingAPI fileUploading = AppBeans.get(FileUploadingAPI.NAME);
+
+    public TempFileDataProvider(UUID fileId) {
+        checkNotNullArgument(fileId, "Null file id");
+
+        this.fileId = fileId;
+    }
+
+    @Override
+    public InputStream provide() {
+        File file = fileUploading.getFile(fileId);
+        if (file == null) {
+            throw new RuntimeFileStorageException(
+                    new FileStorageException(FileStorageException.Type.FILE_NOT_FOUND, fileId.toString()));
+        }
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeFileStorageException(
+                    new FileStorageException(FileStorageException.Type.FILE_NOT_FOUND, file.getAbsolutePath(), e));
+        }
+    }
+}
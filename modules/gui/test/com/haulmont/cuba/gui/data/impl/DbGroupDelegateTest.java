@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.haulmont.cuba.gui.data.impl;
+
+import com.haulmont.chile.core.model.MetaPropertyPath;
+import com.haulmont.cuba.client.testsupport.CubaClientTestCase;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.entity.KeyValueEntity;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.LoadContext;
+import com.haulmont.cuba.core.global.QueryTransformerFactory;
+import com.haulmont.cuba.core.global.ValueLoadContext;
+import com.haulmont.cuba.gui.components.AggregationInfo;
+import com.haulmont.cuba.gui.data.CollectionDatasource;
+import com.haulmont.cuba.gui.data.GroupInfo;
+import com.haulmont.cuba.gui.data.aggregation.AggregationStrategy;
+import com.haulmont.cuba.gui.data.impl.testmodel1.TestDetailEntity;
+import com.haulmont.cuba.gui.data.impl.testmodel1.TestMasterEntity;
+import com.haulmont.cuba.gui.executors.BackgroundWorker;
+import mockit.Expectations;
+import mockit.Mocked;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class DbGroupDelegateTest extends CubaClientTestCase {
+
+    private static final String QUERY = "select e from test$DetailEntity e";
+
+    @Mocked
+    protected BackgroundWorker backgroundWorker;
+
+    private GroupDataSupplier dataSupplier;
+
+    private GroupDatasourceImpl<TestDetailEntity, UUID> ds;
+
+    private MetaPropertyPath nameProperty;
+    private MetaPropertyPath amountProperty;
+
+    @Before
+    public void setUp() throws Exception {
+        addEntityPackage("com.haulmont.cuba");
+        setupInfrastructure();
+
+        QueryTransformerFactory queryTransformerFactory = new QueryTransformerFactory() {
+            {
+                useAst = false;
+            }
+        };
+
+        new Expectations() {
+            {
+                backgroundWorker.checkUIAccess(); result = null; minTimes = 0;
+                AppBeans.get(BackgroundWorker.NAME); result = backgroundWorker; minTimes = 0;
+                AppBeans.get(BackgroundWorker.class); result = backgroundWorker; minTimes = 0;
+                AppBeans.get(BackgroundWorker.NAME, BackgroundWorker.class); result = backgroundWorker; minTimes = 0;
+
+                AppBeans.get(QueryTransformerFactory.NAME, QueryTransformerFactory.class);
+                result = queryTransformerFactory; minTimes = 0;
+            }
+        };
+
+        dataSupplier = new GroupDataSupplier();
+
+        ds = new GroupDatasourceImpl<TestDetailEntity, UUID>() {
+            @Override
+            protected ValueLoadContext createGroupLoadContext() {
+                return ValueLoadContext.create().setQuery(ValueLoadContext.createQuery(QUERY));
+            }
+
+            @Override
+            protected LoadContext<TestDetailEntity> createGroupItemsLoadContext() {
+                LoadContext<TestDetailEntity> context = LoadContext.create(TestDetailEntity.class);
+                context.setQueryString(QUERY);
+                return context;
+            }
+        };
+        ds.setMetaClass(metadata.getClassNN(TestDetailEntity.class));
+        ds.setRefreshMode(CollectionDatasource.RefreshMode.NEVER);
+        ds.dataSupplier = dataSupplier;
+        ds.setGroupOnDb(true);
+        ds.valid();
+
+        nameProperty = ds.getMetaClass().getPropertyPath("detailName");
+        amountProperty = ds.getMetaClass().getPropertyPath("amount");
+    }
+
+    @Test
+    public void testGroupTree() {
+        dataSupplier.valueResults.add(Arrays.asList(
+                row(3, "a", 1),
+                row(2, "a", 2),
+                row(1, "b", 1)));
+
+        ds.groupBy(new Object[]{nameProperty, amountProperty});
+
+        assertTrue(ds.isGroupedOnDb());
+        assertEquals(1, dataSupplier.valueContexts.size());
+        ValueLoadContext context = dataSupplier.valueContexts.get(0);
+        assertTrue(context.getQuery().getQueryString().contains("group by e.detailName, e.amount"));
+        assertEquals(Arrays.asList("groupValue0", "groupValue1", "count"), context.getProperties());
+
+        List<GroupInfo> roots = ds.rootGroups();
+        assertEquals(2, roots.size());
+        GroupInfo groupA = roots.get(0);
+        GroupInfo groupB = roots.get(1);
+        assertEquals("a", groupA.getValue());
+        assertEquals("b", groupB.getValue());
+        assertEquals(5, ds.getGroupItemsCount(groupA));
+        assertEquals(1, ds.getGroupItemsCount(groupB));
+
+        List<GroupInfo> childrenOfA = ds.getChildren(groupA);
+        assertEquals(2, childrenOfA.size());
+        assertEquals(1, childrenOfA.get(0).getValue());
+        assertEquals(3, ds.getGroupItemsCount(childrenOfA.get(0)));
+        assertEquals(2, ds.getGroupItemsCount(childrenOfA.get(1)));
+        assertSame(groupA, ds.groupDelegate.parents.get(childrenOfA.get(1)));
+        assertEquals(1, ds.getChildren(groupB).size());
+
+        // nothing is loaded until requested
+        assertTrue(dataSupplier.listContexts.isEmpty());
+        assertEquals(0, ds.size());
+    }
+
+    @Test
+    public void testLazyGroupLoading() {
+        TestDetailEntity a1 = createDetail("a", 1);
+        TestDetailEntity a2 = createDetail("a", 2);
+        TestDetailEntity b1 = createDetail("b", 3);
+        TestDetailEntity noName = createDetail(null, 4);
+        dataSupplier.items.addAll(Arrays.asList(a1, a2, b1, noName));
+        dataSupplier.valueResults.add(Arrays.asList(row(2, "a"), row(1, "b"), row(1, (Object) null)));
+
+        ds.groupBy(new Object[]{nameProperty});
+
+        List<GroupInfo> roots = ds.rootGroups();
+        assertEquals(3, roots.size());
+        GroupInfo groupA = roots.get(0);
+        GroupInfo groupNull = roots.get(2);
+
+        assertEquals(Arrays.asList(a1.getId(), a2.getId()), ds.getGroupItemIds(groupA));
+        assertEquals(1, dataSupplier.listContexts.size());
+        LoadContext.Query query = dataSupplier.listContexts.get(0).getQuery();
+        assertTrue(query.getQueryString().contains("e.detailName = :groupValue0"));
+        assertEquals("a", query.getParameters().get("groupValue0"));
+        assertSame(a1, ds.getItem(a1.getId()));
+
+        // loaded once
+        ds.getGroupItemIds(groupA);
+        ds.getChildItems(groupA);
+        assertEquals(1, dataSupplier.listContexts.size());
+
+        assertNull(ds.groupDelegate.getLoadedGroupItemIds(null));
+
+        assertEquals(Collections.singletonList(noName.getId()), ds.getGroupItemIds(groupNull));
+        query = dataSupplier.listContexts.get(1).getQuery();
+        assertTrue(query.getQueryString().contains("e.detailName is null"));
+        assertFalse(query.getParameters().containsKey("groupValue0"));
+
+        ds.getGroupItemIds(roots.get(1));
+        assertEquals(3, dataSupplier.listContexts.size());
+        assertEquals(4, ds.groupDelegate.getLoadedGroupItemIds(null).size());
+    }
+
+    @Test
+    public void testAggregation() {
+        dataSupplier.items.addAll(Arrays.asList(createDetail("a", 10), createDetail("a", 20), createDetail("b", 5)));
+        dataSupplier.valueResults.add(Arrays.asList(row(2, "a"), row(1, "b")));
+
+        ds.groupBy(new Object[]{nameProperty});
+        GroupInfo groupA = ds.rootGroups().get(0);
+
+        AggregationInfo sum = new AggregationInfo();
+        sum.setPropertyPath(amountProperty);
+        sum.setType(AggregationInfo.Type.SUM);
+        sum.setFormatter(String::valueOf);
+
+        // the database aggregates the whole level at once
+        dataSupplier.valueResults.add(Arrays.asList(aggregateRow(2, 30L, "a"), aggregateRow(1, 5L, "b")));
+        assertEquals("30", ds.aggregateGroup(new AggregationInfo[]{sum}, groupA).get(sum));
+        assertEquals("5", ds.aggregateGroup(new AggregationInfo[]{sum}, ds.rootGroups().get(1)).get(sum));
+        assertEquals(2, dataSupplier.valueContexts.size());
+        assertTrue(dataSupplier.valueContexts.get(1).getQuery().getQueryString().contains("sum(e.amount)"));
+
+        dataSupplier.valueResults.add(Collections.singletonList(aggregateRow(3, 35L)));
+        assertEquals("35", ds.aggregateGroup(new AggregationInfo[]{sum}, null).get(sum));
+        assertEquals(3, dataSupplier.valueContexts.size());
+        assertTrue(dataSupplier.listContexts.isEmpty());
+
+        // a custom strategy is calculated in memory only over loaded items
+        AggregationInfo custom = new AggregationInfo();
+        custom.setPropertyPath(amountProperty);
+        custom.setStrategy(new AggregationStrategy<Integer, Integer>() {
+            @Override
+            public Integer aggregate(Collection<Integer> propertyValues) {
+                return propertyValues.stream().mapToInt(Integer::intValue).max().orElse(0);
+            }
+
+            @Override
+            public Class<Integer> getResultClass() {
+                return Integer.class;
+            }
+        });
+        custom.setFormatter(String::valueOf);
+
+        assertFalse(ds.aggregateGroup(new AggregationInfo[]{custom}, groupA).containsKey(custom));
+        assertFalse(ds.aggregateGroup(new AggregationInfo[]{custom}, null).containsKey(custom));
+        assertTrue(dataSupplier.listContexts.isEmpty());
+
+        ds.getGroupItemIds(groupA);
+        assertEquals("20", ds.aggregateGroup(new AggregationInfo[]{custom}, groupA).get(custom));
+        assertFalse(ds.aggregateGroup(new AggregationInfo[]{custom}, null).containsKey(custom));
+        assertEquals(1, dataSupplier.listContexts.size());
+    }
+
+    @Test
+    public void testFallbackToMemoryGrouping() {
+        TestMasterEntity master = new TestMasterEntity();
+        TestDetailEntity detail1 = createDetail("a", 1);
+        detail1.setMaster(master);
+        TestDetailEntity detail2 = createDetail("b", 2);
+        detail2.setMaster(master);
+        ds.data.put(detail1.getId(), detail1);
+        ds.data.put(detail2.getId(), detail2);
+
+        // a reference cannot be grouped by the database
+        ds.groupBy(new Object[]{ds.getMetaClass().getPropertyPath("master")});
+
+        assertFalse(ds.isGroupedOnDb());
+        assertEquals(1, ds.rootGroups().size());
+        assertEquals(2, ds.getGroupItemsCount(ds.rootGroups().get(0)));
+
+        // a query with group by cannot be used for grouping
+        ds.query = QUERY + " group by e.detailName";
+        ds.groupBy(new Object[]{nameProperty});
+
+        assertFalse(ds.isGroupedOnDb());
+        assertEquals(2, ds.rootGroups().size());
+        assertEquals(Collections.singletonList(detail1.getId()), ds.getGroupItemIds(ds.rootGroups().get(0)));
+
+        assertTrue(dataSupplier.valueContexts.isEmpty());
+        assertTrue(dataSupplier.listContexts.isEmpty());
+    }
+
+    private TestDetailEntity createDetail(String name, Integer amount) {
+        TestDetailEntity detail = new TestDetailEntity();
+        detail.setDetailName(name);
+        detail.setAmount(amount);
+        return detail;
+    }
+
+    private KeyValueEntity row(long count, Object... groupValues) {
+        KeyValueEntity row = new KeyValueEntity();
+        for (int i = 0; i < groupValues.length; i++) {
+            row.setValue("groupValue" + i, groupValues[i]);
+        }
+        row.setValue("count", count);
+        return row;
+    }
+
+    private KeyValueEntity aggregateRow(long count, Object aggregate, Object... groupValues) {
+        KeyValueEntity row = row(count, groupValues);
+        row.setValue("aggregate0", aggregate);
+        return row;
+    }
+
+    private static class GroupDataSupplier extends TestDataSupplier {
+
+        private Deque<List<KeyValueEntity>> valueResults = new ArrayDeque<>();
+        private List<ValueLoadContext> valueContexts = new ArrayList<>();
+        private List<LoadContext> listContexts = new ArrayList<>();
+        private List<TestDetailEntity> items = new ArrayList<>();
+
+        @Override
+        public List<KeyValueEntity> loadValues(ValueLoadContext context) {
+            valueContexts.add(context);
+            return valueResults.isEmpty() ? Collections.emptyList() : valueResults.poll();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        @Nonnull
+        public <E extends Entity> List<E> loadList(LoadContext<E> context) {
+            listContexts.add(context);
+            Object name = context.getQuery().getParameters().get("groupValue0");
+            List<E> result = new ArrayList<>();
+            for (TestDetailEntity item : items) {
+                if (Objects.equals(name, item.getDetailName())) {
+                    result.add((E) item);
+                }
+            }
+            return result;
+        }
+    }
+}
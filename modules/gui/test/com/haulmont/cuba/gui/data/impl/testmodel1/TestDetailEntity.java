@@ -30,6 +30,9 @@ public class TestDetailEntity extends BaseUuidEntity {
     @Column(name = "NAME")
     private String detailName;
 
+    @Column(name = "AMOUNT")
+    private Integer amount;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "MASTER_ID")
     private TestMasterEntity master;
@@ -52,6 +55,17 @@ public class TestDetailEntity extends BaseUuidEntity {
             propertyChanged("detailName", o, detailName);
     }
 
+    public Integer getAmount() {
+        return amount;
+    }
+
+    public void setAmount(Integer amount) {
+        Integer o = this.amount;
+        this.amount = amount;
+        if (!Objects.equals(o, amount))
+            propertyChanged("amount", o, amount);
+    }
+
     public TestMasterEntity getMaster() {
         return master;
     }
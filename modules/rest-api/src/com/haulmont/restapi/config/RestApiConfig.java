@@ -66,4 +66,13 @@ public interface RestApiConfig extends Config {
     @DefaultBoolean(true)
     boolean getTokenMaskingEnabled();
 
+    /**
+     * @return whether a list of entities is written to the response as it is loaded page by page with
+     * {@link com.haulmont.cuba.core.global.DataManager#stream}. If disabled, the whole list is loaded
+     * and serialized before writing.
+     */
+    @Property("cuba.rest.entitiesStreamingEnabled")
+    @DefaultBoolean(true)
+    boolean getEntitiesStreamingEnabled();
+
 }
\ No newline at end of file
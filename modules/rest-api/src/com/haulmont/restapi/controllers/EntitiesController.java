@@ -34,6 +34,8 @@ import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 
 /**
  * Controller that performs CRUD entity operations
@@ -61,17 +63,15 @@ public class EntitiesController {
                                                    @RequestParam(required = false) Integer limit,
                                                    @RequestParam(required = false) Integer offset,
                                                    @RequestParam(required = false) String sort,
+                                                   @RequestParam(required = false) String after,
                                                    @RequestParam(required = false) Boolean returnNulls,
                                                    @RequestParam(required = false) Boolean returnCount,
                                                    @RequestParam(required = false) Boolean dynamicAttributes,
-                                                   @RequestParam(required = false) String modelVersion) {
+                                                   @RequestParam(required = false) String modelVersion,
+                                                   HttpServletResponse response) throws IOException {
         EntitiesSearchResult entitiesSearchResult = entitiesControllerManager.loadEntitiesList(entityName, view, limit,
-                offset, sort, returnNulls, returnCount, dynamicAttributes, modelVersion);
-        ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.status(HttpStatus.OK);
-        if (BooleanUtils.isTrue(returnCount)) {
-            responseBuilder.header("X-Total-Count", entitiesSearchResult.getCount().toString());
-        }
-        return responseBuilder.body(entitiesSearchResult.getJson());
+                offset, sort, after, returnNulls, returnCount, dynamicAttributes, modelVersion);
+        return createSearchResponse(entitiesSearchResult, BooleanUtils.isTrue(returnCount), response);
     }
 
     @GetMapping("/{entityName}/search")
@@ -84,24 +84,42 @@ public class EntitiesController {
                                                         @RequestParam(required = false) Boolean returnNulls,
                                                         @RequestParam(required = false) Boolean returnCount,
                                                         @RequestParam(required = false) Boolean dynamicAttributes,
-                                                        @RequestParam(required = false) String modelVersion) {
+                                                        @RequestParam(required = false) String modelVersion,
+                                                        HttpServletResponse response) throws IOException {
         EntitiesSearchResult entitiesSearchResult = entitiesControllerManager.searchEntities(entityName, filter,
                 view, limit, offset, sort, returnNulls, returnCount, dynamicAttributes, modelVersion);
-        ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.status(HttpStatus.OK);
-        if (BooleanUtils.isTrue(returnCount)) {
-            responseBuilder.header("X-Total-Count", entitiesSearchResult.getCount().toString());
-        }
-        return responseBuilder.body(entitiesSearchResult.getJson());
+        return createSearchResponse(entitiesSearchResult, BooleanUtils.isTrue(returnCount), response);
     }
 
     @PostMapping("/{entityName}/search")
     public ResponseEntity<String> searchEntitiesListPost(@PathVariable String entityName,
-                                                         @RequestBody String requestBodyJson) {
+                                                         @RequestBody String requestBodyJson,
+                                                         HttpServletResponse response) throws IOException {
         EntitiesSearchResult entitiesSearchResult = entitiesControllerManager.searchEntities(entityName, requestBodyJson);
-        ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.status(HttpStatus.OK);
         JsonObject requestJsonObject = new JsonParser().parse(requestBodyJson).getAsJsonObject();
         JsonPrimitive returnCount = requestJsonObject.getAsJsonPrimitive("returnCount");
-        if (returnCount != null && returnCount.getAsBoolean()) {
+        return createSearchResponse(entitiesSearchResult, returnCount != null && returnCount.getAsBoolean(), response);
+    }
+
+    /**
+     * Returns a response entity with the JSON of the result, or writes a streaming result directly to the servlet
+     * response and returns null. If loading of entities fails while streaming, the response is already committed
+     * and the JSON is incomplete.
+     */
+    protected ResponseEntity<String> createSearchResponse(EntitiesSearchResult entitiesSearchResult,
+                                                          boolean returnCount,
+                                                          HttpServletResponse response) throws IOException {
+        if (entitiesSearchResult.isStreaming()) {
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+            if (returnCount) {
+                response.setHeader("X-Total-Count", entitiesSearchResult.getCount().toString());
+            }
+            entitiesSearchResult.writeJson(response.getWriter());
+            return null;
+        }
+        ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.status(HttpStatus.OK);
+        if (returnCount) {
             responseBuilder.header("X-Total-Count", entitiesSearchResult.getCount().toString());
         }
         return responseBuilder.body(entitiesSearchResult.getJson());
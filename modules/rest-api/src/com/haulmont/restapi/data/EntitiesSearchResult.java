@@ -16,19 +16,68 @@
 
 package com.haulmont.restapi.data;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
 public class EntitiesSearchResult {
     protected String json;
+    protected JsonSource jsonSource;
     protected Long count;
 
+    /**
+     * Writes JSON of the result to a writer.
+     */
+    public interface JsonSource {
+        void writeTo(Writer writer) throws IOException;
+    }
+
     public EntitiesSearchResult(String json, Long count) {
         this.json = json;
         this.count = count;
     }
 
+    /**
+     * Creates a result which JSON is produced while writing it to the response.
+     */
+    public EntitiesSearchResult(JsonSource jsonSource, Long count) {
+        this.jsonSource = jsonSource;
+        this.count = count;
+    }
+
+    /**
+     * @return true if the JSON is not kept in memory and should be obtained by {@link #writeJson(Writer)}
+     */
+    public boolean isStreaming() {
+        return jsonSource != null;
+    }
+
+    /**
+     * Returns JSON of the result. For a streaming result, the whole JSON is built in memory.
+     */
     public String getJson() {
+        if (json == null && jsonSource != null) {
+            StringWriter writer = new StringWriter();
+            try {
+                jsonSource.writeTo(writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            json = writer.toString();
+            jsonSource = null;
+        }
         return json;
     }
 
+    public void writeJson(Writer writer) throws IOException {
+        if (jsonSource != null) {
+            jsonSource.writeTo(writer);
+        } else if (json != null) {
+            writer.write(json);
+        }
+    }
+
     public Long getCount() {
         return count;
     }
@@ -29,8 +29,10 @@ import com.haulmont.cuba.core.app.serialization.EntitySerializationAPI;
 import com.haulmont.cuba.core.app.serialization.EntitySerializationOption;
 import com.haulmont.cuba.core.entity.*;
 import com.haulmont.cuba.core.global.*;
+import com.haulmont.cuba.security.entity.ConstraintOperationType;
 import com.haulmont.cuba.security.entity.EntityOp;
 import com.haulmont.restapi.common.RestControllerUtils;
+import com.haulmont.restapi.config.RestApiConfig;
 import com.haulmont.restapi.data.CreatedEntityInfo;
 import com.haulmont.restapi.data.EntitiesSearchResult;
 import com.haulmont.restapi.exception.RestAPIException;
@@ -84,6 +86,9 @@ public class EntitiesControllerManager {
     @Inject
     protected RestFilterParser restFilterParser;
 
+    @Inject
+    protected RestApiConfig restApiConfig;
+
     public String loadEntity(String entityName,
                              String entityId,
                              @Nullable String viewName,
@@ -129,22 +134,42 @@ public class EntitiesControllerManager {
                                                  @Nullable Boolean returnCount,
                                                  @Nullable Boolean dynamicAttributes,
                                                  @Nullable String modelVersion) {
+        return loadEntitiesList(entityName, viewName, limit, offset, sort, null, returnNulls, returnCount,
+                dynamicAttributes, modelVersion);
+    }
+
+    public EntitiesSearchResult loadEntitiesList(String entityName,
+                                                 @Nullable String viewName,
+                                                 @Nullable Integer limit,
+                                                 @Nullable Integer offset,
+                                                 @Nullable String sort,
+                                                 @Nullable String after,
+                                                 @Nullable Boolean returnNulls,
+                                                 @Nullable Boolean returnCount,
+                                                 @Nullable Boolean dynamicAttributes,
+                                                 @Nullable String modelVersion) {
         entityName = restControllerUtils.transformEntityNameIfRequired(entityName, modelVersion, JsonTransformationDirection.FROM_VERSION);
         MetaClass metaClass = restControllerUtils.getMetaClass(entityName);
         checkCanReadEntity(metaClass);
 
         String queryString = "select e from " + entityName + " e";
-        String json = _loadEntitiesList(queryString, viewName, limit, offset, sort, returnNulls, dynamicAttributes, modelVersion,
-                metaClass, new HashMap<>());
-
-        json = restControllerUtils.transformJsonIfRequired(entityName, modelVersion, JsonTransformationDirection.TO_VERSION, json);
-
         Long count = null;
         if (BooleanUtils.isTrue(returnCount)) {
             LoadContext ctx = LoadContext.create(metaClass.getJavaClass())
                     .setQuery(LoadContext.createQuery(queryString));
             count = dataManager.getCount(ctx);
         }
+
+        if (isStreamingSupported(metaClass, after, modelVersion)) {
+            return new EntitiesSearchResult(streamEntitiesList(queryString, viewName, limit, offset, sort, returnNulls,
+                    dynamicAttributes, metaClass, new HashMap<>()), count);
+        }
+
+        String json = _loadEntitiesList(queryString, viewName, limit, offset, sort, after, returnNulls, dynamicAttributes,
+                modelVersion, metaClass, new HashMap<>());
+
+        json = restControllerUtils.transformJsonIfRequired(entityName, modelVersion, JsonTransformationDirection.TO_VERSION, json);
+
         return new EntitiesSearchResult(json, count);
 
     }
@@ -178,8 +203,6 @@ public class EntitiesControllerManager {
         Map<String, Object> queryParameters = filterParseResult.getQueryParameters();
 
         String queryString = "select e from " + entityName + " e where " + jpqlWhere;
-        String json = _loadEntitiesList(queryString, viewName, limit, offset, sort, returnNulls,
-                dynamicAttributes, modelVersion, metaClass, queryParameters);
         Long count = null;
         if (BooleanUtils.isTrue(returnCount)) {
             LoadContext ctx = LoadContext.create(metaClass.getJavaClass())
@@ -187,6 +210,14 @@ public class EntitiesControllerManager {
             count = dataManager.getCount(ctx);
         }
 
+        if (isStreamingSupported(metaClass, null, modelVersion)) {
+            return new EntitiesSearchResult(streamEntitiesList(queryString, viewName, limit, offset, sort, returnNulls,
+                    dynamicAttributes, metaClass, queryParameters), count);
+        }
+
+        String json = _loadEntitiesList(queryString, viewName, limit, offset, sort, returnNulls,
+                dynamicAttributes, modelVersion, metaClass, queryParameters);
+
         return new EntitiesSearchResult(json, count);
     }
 
@@ -227,7 +258,52 @@ public class EntitiesControllerManager {
                                        @Nullable String modelVersion,
                                        MetaClass metaClass,
                                        Map<String, Object> queryParameters) {
+        return _loadEntitiesList(queryString, viewName, limit, offset, sort, null, returnNulls, dynamicAttributes,
+                modelVersion, metaClass, queryParameters);
+    }
+
+    protected String _loadEntitiesList(String queryString,
+                                       @Nullable String viewName,
+                                       @Nullable Integer limit,
+                                       @Nullable Integer offset,
+                                       @Nullable String sort,
+                                       @Nullable String after,
+                                       @Nullable Boolean returnNulls,
+                                       @Nullable Boolean dynamicAttributes,
+                                       @Nullable String modelVersion,
+                                       MetaClass metaClass,
+                                       Map<String, Object> queryParameters) {
+        LoadContext<Entity> ctx = createEntitiesLoadContext(queryString, viewName, limit, offset, sort, after,
+                dynamicAttributes, metaClass, queryParameters, false);
+
+        List<Entity> entities = dataManager.loadList(ctx);
+        entities.forEach(entity -> restControllerUtils.applyAttributesSecurity(entity));
+
+        String json = entitySerializationAPI.toJson(entities, ctx.getView(), getSerializationOptions(returnNulls));
+        json = restControllerUtils.transformJsonIfRequired(metaClass.getName(), modelVersion, JsonTransformationDirection.TO_VERSION, json);
+        return json;
+    }
+
+    protected LoadContext<Entity> createEntitiesLoadContext(String queryString,
+                                                            @Nullable String viewName,
+                                                            @Nullable Integer limit,
+                                                            @Nullable Integer offset,
+                                                            @Nullable String sort,
+                                                            @Nullable String after,
+                                                            @Nullable Boolean dynamicAttributes,
+                                                            MetaClass metaClass,
+                                                            Map<String, Object> queryParameters,
+                                                            boolean streaming) {
         LoadContext<Entity> ctx = new LoadContext<>(metaClass);
+        // a page loaded without an offset is ordered as the pages loaded after it, i.e. with the primary key
+        // as a tie-breaker, so its last entity can be passed as the 'after' parameter
+        // a streamed list is loaded by keyset after the first page
+        boolean keyset = !Strings.isNullOrEmpty(after)
+                || ((offset == null || streaming)
+                && !metadata.getTools().hasCompositePrimaryKey(metaClass)
+                && metadata.getTools().getPrimaryKeyName(metaClass) != null);
+        Sort querySort = null;
+        String orderBy = null;
         if (!Strings.isNullOrEmpty(sort)) {
             boolean descSortOrder = false;
             if (sort.startsWith("-")) {
@@ -236,7 +312,15 @@ public class EntitiesControllerManager {
             } else if (sort.startsWith("+")) {
                 sort = sort.substring(1);
             }
-            queryString += " order by e." + sort + (descSortOrder ? " desc" : "");
+            if (keyset) {
+                // the keyset predicate is built from the sort properties, so pass them as Sort instead of order by
+                querySort = Sort.by(descSortOrder ? Sort.Direction.DESC : Sort.Direction.ASC, sort);
+            } else {
+                orderBy = "e." + sort + (descSortOrder ? " desc" : "");
+            }
+        }
+        if (orderBy != null) {
+            queryString += " order by " + orderBy;
         }
         LoadContext.Query query = new LoadContext.Query(queryString);
         if (limit != null) {
@@ -244,7 +328,15 @@ public class EntitiesControllerManager {
         } else {
             query.setMaxResults(persistenceManagerClient.getMaxFetchUI(metaClass.getName()));
         }
-        if (offset != null) {
+        if (keyset) {
+            query.setSort(querySort);
+            query.setKeysetPagination(true);
+            if (!Strings.isNullOrEmpty(after)) {
+                query.setAfterId(getIdFromString(after, metaClass));
+            } else if (offset != null) {
+                query.setFirstResult(offset);
+            }
+        } else if (offset != null) {
             query.setFirstResult(offset);
         }
         if (queryParameters != null) {
@@ -252,24 +344,80 @@ public class EntitiesControllerManager {
         }
         ctx.setQuery(query);
 
-        View view = null;
         if (!Strings.isNullOrEmpty(viewName)) {
-            view = restControllerUtils.getView(metaClass, viewName);
-            ctx.setView(view);
+            ctx.setView(restControllerUtils.getView(metaClass, viewName));
         }
 
         ctx.setLoadDynamicAttributes(BooleanUtils.isTrue(dynamicAttributes));
+        return ctx;
+    }
 
-        List<Entity> entities = dataManager.loadList(ctx);
-        entities.forEach(entity -> restControllerUtils.applyAttributesSecurity(entity));
-
+    protected EntitySerializationOption[] getSerializationOptions(@Nullable Boolean returnNulls) {
         List<EntitySerializationOption> serializationOptions = new ArrayList<>();
         serializationOptions.add(EntitySerializationOption.SERIALIZE_INSTANCE_NAME);
         if (BooleanUtils.isTrue(returnNulls)) serializationOptions.add(EntitySerializationOption.SERIALIZE_NULLS);
+        return serializationOptions.toArray(new EntitySerializationOption[0]);
+    }
 
-        String json = entitySerializationAPI.toJson(entities, view, serializationOptions.toArray(new EntitySerializationOption[0]));
-        json = restControllerUtils.transformJsonIfRequired(metaClass.getName(), modelVersion, JsonTransformationDirection.TO_VERSION, json);
-        return json;
+    /**
+     * Returns true if the list of entities can be loaded page by page while writing it to the response. Streaming
+     * is not used if the JSON should be transformed to another model version, for keyset pagination, for entities
+     * with composite keys and if in-memory constraints should be applied.
+     */
+    protected boolean isStreamingSupported(MetaClass metaClass, @Nullable String after, @Nullable String modelVersion) {
+        return restApiConfig.getEntitiesStreamingEnabled()
+                && Strings.isNullOrEmpty(modelVersion)
+                && Strings.isNullOrEmpty(after)
+                && !metadata.getTools().hasCompositePrimaryKey(metaClass)
+                && metadata.getTools().getPrimaryKeyName(metaClass) != null
+                && !security.hasInMemoryConstraints(metaClass, ConstraintOperationType.READ, ConstraintOperationType.ALL);
+    }
+
+    /**
+     * Loads the first page of entities and returns the source that writes them and loads the next pages
+     * while writing. The result is the same as of {@link #_loadEntitiesList}, but only one page is kept in memory.
+     * Pages after the first one are loaded by keyset, see {@link DataManager#stream(LoadContext)}.
+     */
+    protected EntitiesSearchResult.JsonSource streamEntitiesList(String queryString,
+                                                                 @Nullable String viewName,
+                                                                 @Nullable Integer limit,
+                                                                 @Nullable Integer offset,
+                                                                 @Nullable String sort,
+                                                                 @Nullable Boolean returnNulls,
+                                                                 @Nullable Boolean dynamicAttributes,
+                                                                 MetaClass metaClass,
+                                                                 Map<String, Object> queryParameters) {
+        LoadContext<Entity> ctx = createEntitiesLoadContext(queryString, viewName, limit, offset, sort, null,
+                dynamicAttributes, metaClass, queryParameters, true);
+        Iterator<Entity> iterator = new SecuredEntitiesIterator(dataManager.stream(ctx).iterator());
+        // load the first page right away, so that errors are reported before the response is started
+        iterator.hasNext();
+        EntitySerializationOption[] options = getSerializationOptions(returnNulls);
+
+        return writer -> entitySerializationAPI.toJson(() -> iterator, ctx.getView(), writer, options);
+    }
+
+    /**
+     * Applies attribute security to each entity.
+     */
+    protected class SecuredEntitiesIterator implements Iterator<Entity> {
+        protected Iterator<Entity> entities;
+
+        protected SecuredEntitiesIterator(Iterator<Entity> entities) {
+            this.entities = entities;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entities.hasNext();
+        }
+
+        @Override
+        public Entity next() {
+            Entity entity = entities.next();
+            restControllerUtils.applyAttributesSecurity(entity);
+            return entity;
+        }
     }
 
     public CreatedEntityInfo createEntity(String entityJson, String entityName, String modelVersion) {
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.restapi.service;
+
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.cuba.client.sys.PersistenceManagerClient;
+import com.haulmont.cuba.client.testsupport.CubaClientTestCase;
+import com.haulmont.cuba.core.app.serialization.EntitySerializationAPI;
+import com.haulmont.cuba.core.app.serialization.EntitySerializationOption;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.entity.KeyValueEntity;
+import com.haulmont.cuba.core.global.*;
+import com.haulmont.restapi.common.RestControllerUtils;
+import com.haulmont.restapi.config.RestApiConfig;
+import com.haulmont.restapi.service.filter.testmodel.TestEntity;
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EntitiesControllerManagerTest extends CubaClientTestCase {
+
+    private static final String QUERY = "select e from test$TestEntity e";
+
+    private EntitiesControllerManager manager;
+
+    private TestDataManager dataManager;
+
+    private List<Entity> written;
+
+    @Mocked
+    private EntitySerializationAPI entitySerializationAPI;
+
+    @Mocked
+    private RestControllerUtils restControllerUtils;
+
+    @Mocked
+    private RestApiConfig restApiConfig;
+
+    @Mocked
+    private PersistenceManagerClient persistenceManagerClient;
+
+    @Before
+    public void setUp() throws Exception {
+        addEntityPackage("com.haulmont.cuba");
+        addEntityPackage("com.haulmont.restapi.service.filter.testmodel");
+        setupInfrastructure();
+
+        dataManager = new TestDataManager();
+        written = new ArrayList<>();
+
+        manager = new EntitiesControllerManager();
+        manager.dataManager = dataManager;
+        manager.metadata = metadata;
+        manager.entitySerializationAPI = entitySerializationAPI;
+        manager.restControllerUtils = restControllerUtils;
+        manager.restApiConfig = restApiConfig;
+        manager.persistenceManagerClient = persistenceManagerClient;
+
+        new Expectations() {{
+            persistenceManagerClient.getMaxFetchUI(anyString); result = 10000; minTimes = 0;
+            entitySerializationAPI.toJson((Iterable<? extends Entity>) any, (View) any, (Writer) any,
+                    (EntitySerializationOption[]) any);
+            result = new Delegate() {
+                @SuppressWarnings("unused")
+                void toJson(Iterable<? extends Entity> entities, View view, Writer writer,
+                            EntitySerializationOption... options) {
+                    entities.forEach(written::add);
+                }
+            };
+            minTimes = 0;
+        }};
+    }
+
+    @Test
+    public void testAllEntitiesAreStreamed() throws Exception {
+        List<TestEntity> rows = dataManager.createRows(1200);
+
+        stream(null, null);
+
+        assertEquals(ids(rows), ids(written));
+        // 500 + 500 + 200 rows, every page is loaded after the last row of the previous one
+        assertEquals(3, dataManager.loadListCalls);
+    }
+
+    @Test
+    public void testLimitAndOffset() throws Exception {
+        List<TestEntity> rows = dataManager.createRows(1200);
+
+        stream(700, 100);
+
+        assertEquals(ids(rows.subList(100, 800)), ids(written));
+    }
+
+    @Test
+    public void testRowsChangedBetweenPages() throws Exception {
+        List<TestEntity> rows = dataManager.createRows(1200);
+        dataManager.afterLoad = () -> {
+            if (dataManager.loadListCalls == 1) {
+                // with offset paging, both changes shift the second page and rows are skipped or loaded twice
+                dataManager.rows.remove(rows.get(0));
+                dataManager.rows.add(dataManager.createRow(new UUID(Long.MIN_VALUE, 0)));
+            }
+        };
+
+        stream(null, null);
+
+        List<UUID> writtenIds = ids(written);
+        assertEquals(new HashSet<>(writtenIds).size(), writtenIds.size());
+        assertEquals(ids(rows), writtenIds);
+    }
+
+    @Test
+    public void testAttributesSecurityIsApplied() throws Exception {
+        dataManager.createRows(10);
+
+        stream(null, null);
+
+        new Verifications() {{
+            restControllerUtils.applyAttributesSecurity((Entity) any); times = 10;
+        }};
+    }
+
+    @Test
+    public void testFirstPageIsLoadedBeforeWriting() throws Exception {
+        dataManager.createRows(10);
+
+        MetaClass metaClass = metadata.getClassNN(TestEntity.class);
+        manager.streamEntitiesList(QUERY, null, null, null, null, null, null, metaClass, new HashMap<>());
+
+        assertEquals(1, dataManager.loadListCalls);
+        assertTrue(written.isEmpty());
+    }
+
+    private void stream(@Nullable Integer limit, @Nullable Integer offset) throws Exception {
+        MetaClass metaClass = metadata.getClassNN(TestEntity.class);
+        manager.streamEntitiesList(QUERY, null, limit, offset, null, null, null, metaClass, new HashMap<>())
+                .writeTo(new StringWriter());
+    }
+
+    private static List<UUID> ids(List<? extends Entity> entities) {
+        return entities.stream()
+                .map(entity -> (UUID) entity.getId())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Keeps rows in memory and loads them in the order of the primary key, honoring the offset, the limit
+     * and the keyset anchor of the query.
+     */
+    private static class TestDataManager implements DataManager {
+
+        private List<TestEntity> rows = new ArrayList<>();
+
+        private int loadListCalls;
+
+        private Runnable afterLoad;
+
+        private List<TestEntity> createRows(int count) {
+            for (int i = 0; i < count; i++) {
+                rows.add(createRow(UUID.randomUUID()));
+            }
+            rows.sort(Comparator.comparing(TestEntity::getId));
+            return new ArrayList<>(rows);
+        }
+
+        private TestEntity createRow(UUID id) {
+            TestEntity entity = new TestEntity();
+            entity.setId(id);
+            return entity;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <E extends Entity> List<E> loadList(LoadContext<E> context) {
+            LoadContext.Query query = context.getQuery();
+            assertTrue(query.isKeysetPagination());
+            UUID afterId = (UUID) query.getAfterId();
+            List<E> result = (List<E>) rows.stream()
+                    .filter(row -> afterId == null || row.getId().compareTo(afterId) > 0)
+                    .sorted(Comparator.comparing(TestEntity::getId))
+                    .skip(query.getFirstResult())
+                    .limit(query.getMaxResults() == 0 ? Long.MAX_VALUE : query.getMaxResults())
+                    .collect(Collectors.toList());
+            loadListCalls++;
+            if (afterLoad != null) {
+                afterLoad.run();
+            }
+            return result;
+        }
+
+        @Nullable
+        @Override
+        public <E extends Entity> E load(LoadContext<E> context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getCount(LoadContext<? extends Entity> context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <E extends Entity> E reload(E entity, String viewName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <E extends Entity> E reload(E entity, View view) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <E extends Entity> E reload(E entity, View view, @Nullable MetaClass metaClass) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <E extends Entity> E reload(E entity, View view, @Nullable MetaClass metaClass,
+                                           boolean loadDynamicAttributes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public EntitySet commit(CommitContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public EntitySet commit(Entity... entities) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <E extends Entity> E commit(E entity, @Nullable View view) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <E extends Entity> E commit(E entity, @Nullable String viewName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <E extends Entity> E commit(E entity) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void remove(Entity entity) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<KeyValueEntity> loadValues(ValueLoadContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DataManager secure() {
+            return this;
+        }
+    }
+}
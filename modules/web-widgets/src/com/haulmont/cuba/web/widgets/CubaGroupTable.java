@@ -595,7 +595,7 @@ public class CubaGroupTable extends CubaTable implements GroupTableContainer {
         private Object groupId;
 
         public GroupAggregationContext(GroupTableContainer datasource, Object groupId) {
-            super(datasource.getGroupItemIds(groupId));
+            super(() -> datasource.getGroupItemIds(groupId));
             this.groupId = groupId;
         }
 
@@ -580,7 +580,7 @@ public class CubaTable extends com.vaadin.v7.ui.Table implements TableSortableCo
 
             if (hasAggregation && isShowTotalAggregation()
                     && AggregationStyle.TOP.equals(getAggregationStyle())) {
-                Context context = new Context(getAggregationItemIds());
+                Context context = new Context(this::getAggregationItemIds);
                 paintAggregationRow(target, ((AggregationContainer) items).aggregate(context));
             }
         }
@@ -711,7 +711,7 @@ public class CubaTable extends com.vaadin.v7.ui.Table implements TableSortableCo
         if (!isFooterVisible()) {
             setFooterVisible(true);
         }
-        Context context = new Context(getAggregationItemIds());
+        Context context = new Context(this::getAggregationItemIds);
         Map<Object, Object> aggregations = ((AggregationContainer) items).aggregate(context);
         for (final Object columnId : _visibleColumns()) {
             if (columnId == null || isColumnCollapsed(columnId) || !aggregations.containsKey(columnId)) {
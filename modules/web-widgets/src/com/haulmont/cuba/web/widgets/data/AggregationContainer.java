@@ -20,6 +20,7 @@ import com.vaadin.v7.data.Container;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public interface AggregationContainer extends Container {
 
@@ -42,12 +43,23 @@ public interface AggregationContainer extends Container {
 
     class Context {
         private Collection itemIds;
+        private Supplier<Collection> itemIdsSupplier;
 
         public Context(Collection itemIds) {
             this.itemIds = itemIds;
         }
 
+        /**
+         * Creates a context that obtains item ids only if they are requested by the aggregation.
+         */
+        public Context(Supplier<Collection> itemIdsSupplier) {
+            this.itemIdsSupplier = itemIdsSupplier;
+        }
+
         public Collection getItemIds() {
+            if (itemIds == null && itemIdsSupplier != null) {
+                itemIds = itemIdsSupplier.get();
+            }
             return itemIds;
         }
     }
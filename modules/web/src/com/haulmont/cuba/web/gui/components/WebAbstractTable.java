@@ -2186,12 +2186,8 @@ public abstract class WebAbstractTable<T extends com.vaadin.v7.ui.Table & CubaEn
             }
         }
 
-        // vaadin8
-        @SuppressWarnings("unchecked")
-        Map<AggregationInfo, Object> results = ((CollectionDatasource.Aggregatable) getDatasource()).aggregate(
-                aggregationInfos.toArray(new AggregationInfo[0]),
-                context.getItemIds()
-        );
+        Map<AggregationInfo, Object> results = __aggregateItems(aggregationInfos.toArray(new AggregationInfo[0]),
+                context);
         Map<Object, Object> resultsByColumns = new LinkedHashMap<>();
         for (Object propertyId : container.getAggregationPropertyIds()) {
             Table.Column column = columns.get(propertyId);
@@ -2205,6 +2201,13 @@ public abstract class WebAbstractTable<T extends com.vaadin.v7.ui.Table & CubaEn
         return resultsByColumns;
     }
 
+    // vaadin8
+    @SuppressWarnings("unchecked")
+    protected Map<AggregationInfo, Object> __aggregateItems(AggregationInfo[] aggregationInfos,
+                                                           AggregationContainer.Context context) {
+        return ((CollectionDatasource.Aggregatable) getDatasource()).aggregate(aggregationInfos, context.getItemIds());
+    }
+
     protected Map<Object, Object> __handleAggregationResults(AggregationContainer.Context context,
                                                              Map<Object, Object> results) {
         for (Map.Entry<Object, Object> entry : results.entrySet()) {
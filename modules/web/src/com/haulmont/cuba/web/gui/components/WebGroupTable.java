@@ -21,6 +21,7 @@ import com.haulmont.chile.core.model.Instance;
 import com.haulmont.chile.core.model.MetaPropertyPath;
 import com.haulmont.cuba.core.app.dynamicattributes.DynamicAttributesUtils;
 import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.gui.components.AggregationInfo;
 import com.haulmont.cuba.gui.components.GroupTable;
 import com.haulmont.cuba.gui.components.Table;
 import com.haulmont.cuba.gui.components.data.GroupTableSource;
@@ -156,6 +157,22 @@ public class WebGroupTable<E extends Entity> extends WebAbstractTable<CubaGroupT
         }
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    protected Map<AggregationInfo, Object> __aggregateItems(AggregationInfo[] aggregationInfos,
+                                                           AggregationContainer.Context context) {
+        CollectionDatasource datasource = getDatasource();
+        if (datasource instanceof GroupDatasource.SupportsGroupOnDb
+                && ((GroupDatasource.SupportsGroupOnDb) datasource).isGroupedOnDb()) {
+            // aggregates are calculated by the database without loading items of groups
+            GroupInfo groupId = context instanceof GroupAggregationContext
+                    ? (GroupInfo) ((GroupAggregationContext) context).getGroupId()
+                    : null;
+            return (Map) ((GroupDatasource.SupportsGroupOnDb) datasource).aggregateGroup(aggregationInfos, groupId);
+        }
+        return super.__aggregateItems(aggregationInfos, context);
+    }
+
     @Override
     protected Map<Object, Object> __handleAggregationResults(AggregationContainer.Context context,
                                                              Map<Object, Object> results) {
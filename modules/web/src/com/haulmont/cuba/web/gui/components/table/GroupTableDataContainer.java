@@ -18,6 +18,7 @@ package com.haulmont.cuba.web.gui.components.table;
 
 import com.haulmont.cuba.gui.components.data.BindingState;
 import com.haulmont.cuba.gui.components.data.GroupTableSource;
+import com.haulmont.cuba.gui.components.data.TableSource;
 import com.haulmont.cuba.gui.data.GroupInfo;
 import com.haulmont.cuba.web.widgets.data.GroupTableContainer;
 
@@ -240,6 +241,13 @@ public class GroupTableDataContainer<I> extends SortableDataContainer<I> impleme
         }
     }
 
+    @Override
+    protected void datasourceItemSetChanged(TableSource.ItemSetChangeEvent<I> e) {
+        resetCachedItems();
+
+        super.datasourceItemSetChanged(e);
+    }
+
     protected void resetCachedItems() {
         cachedItemIds = null;
         first = null;